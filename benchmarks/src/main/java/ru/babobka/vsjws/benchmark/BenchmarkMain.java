@@ -0,0 +1,33 @@
+package ru.babobka.vsjws.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs benchmarks like the JMH launcher does, with allocation profiling
+ * always on. Takes the usual JMH options:
+ * <code>java -jar target/benchmarks.jar Parser -p method=GET</code>
+ */
+public final class BenchmarkMain {
+
+	private BenchmarkMain() {
+
+	}
+
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		if (commandLine.shouldHelp()) {
+			commandLine.showHelp();
+			return;
+		}
+		Runner runner = new Runner(new OptionsBuilder().parent(commandLine).addProfiler(GCProfiler.class).build());
+		if (commandLine.shouldList()) {
+			runner.list();
+			return;
+		}
+		runner.run();
+	}
+
+}
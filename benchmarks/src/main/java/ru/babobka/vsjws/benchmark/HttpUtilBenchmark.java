@@ -0,0 +1,58 @@
+package ru.babobka.vsjws.benchmark;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ru.babobka.vsjws.model.Header;
+import ru.babobka.vsjws.util.HttpUtil;
+
+/**
+ * Small helpers every request goes through
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HttpUtilBenchmark {
+
+	private String headerLine = "User-Agent: Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36";
+
+	private String params = ParserBenchmark.POST_BODY;
+
+	private String cookies = "X-Session-Id=4611686018427387904; theme=dark; lang=en-US; consent=yes";
+
+	private String uri = "/users/42/orders?page=2&sort=date";
+
+	@Benchmark
+	public Header header() {
+		return new Header(headerLine);
+	}
+
+	@Benchmark
+	public Map<String, String> getParams() {
+		return HttpUtil.getParams(params);
+	}
+
+	@Benchmark
+	public Map<String, String> getCookies() {
+		return HttpUtil.getCookies(cookies);
+	}
+
+	@Benchmark
+	public String cleanUri() {
+		return HttpUtil.cleanUri(uri);
+	}
+
+}
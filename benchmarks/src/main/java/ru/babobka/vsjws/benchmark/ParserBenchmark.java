@@ -0,0 +1,104 @@
+package ru.babobka.vsjws.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import ru.babobka.vsjws.model.HttpRequest;
+import ru.babobka.vsjws.model.RawHttpRequest;
+import ru.babobka.vsjws.parser.HttpRequestParser;
+import ru.babobka.vsjws.session.LruSessionStore;
+import ru.babobka.vsjws.session.SessionStore;
+
+/**
+ * Request parsing: the incremental parser used by both transports, the old
+ * stream based {@link RawHttpRequest} constructor and building a whole
+ * {@link HttpRequest}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+	static final String GET_REQUEST = "GET /users/42/orders?page=2&sort=date HTTP/1.1\r\n"
+			+ "Host: localhost:8080\r\n"
+			+ "User-Agent: Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0 Safari/537.36\r\n"
+			+ "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n"
+			+ "Accept-Encoding: gzip, deflate\r\n"
+			+ "Accept-Language: en-US,en;q=0.9\r\n"
+			+ "Cookie: X-Session-Id=4611686018427387904; theme=dark\r\n"
+			+ "Connection: keep-alive\r\n\r\n";
+
+	static final String POST_BODY = "name=John+Smith&email=john%40example.com&age=42&city=Moscow&comment=Hello%2C+world";
+
+	static final String POST_REQUEST = "POST /users HTTP/1.1\r\n"
+			+ "Host: localhost:8080\r\n"
+			+ "User-Agent: curl/7.88.1\r\n"
+			+ "Content-Type: application/x-www-form-urlencoded\r\n"
+			+ "Content-Length: " + POST_BODY.length() + "\r\n\r\n"
+			+ POST_BODY;
+
+	@Param({ "GET", "POST" })
+	private String method;
+
+	private byte[] bytes;
+
+	private final HttpRequestParser parser = new HttpRequestParser();
+
+	private final SessionStore sessionStore = new LruSessionStore(16, 60);
+
+	@Setup
+	public void setUp() {
+		bytes = (method.equals("GET") ? GET_REQUEST : POST_REQUEST).getBytes(StandardCharsets.US_ASCII);
+	}
+
+	private RawHttpRequest parseBytes() {
+		parser.reset();
+		parser.prepareRead().put(bytes);
+		if (!parser.parse()) {
+			throw new IllegalStateException("Request is incomplete");
+		}
+		return new RawHttpRequest(parser);
+	}
+
+	@Benchmark
+	public void parser(Blackhole blackhole) {
+		RawHttpRequest request = parseBytes();
+		blackhole.consume(request.getUri());
+		blackhole.consume(request.getHeader("Host"));
+		blackhole.consume(request.getHeader("Content-Length"));
+	}
+
+	@Benchmark
+	public void stream(Blackhole blackhole) throws IOException {
+		RawHttpRequest request = new RawHttpRequest(new ByteArrayInputStream(bytes));
+		blackhole.consume(request.getUri());
+		blackhole.consume(request.getHeader("Host"));
+		blackhole.consume(request.getHeader("Content-Length"));
+	}
+
+	@Benchmark
+	public void httpRequest(Blackhole blackhole) {
+		HttpRequest request = new HttpRequest(null, parseBytes(), sessionStore);
+		blackhole.consume(request.getParams());
+		blackhole.consume(request.getCookies());
+	}
+
+}
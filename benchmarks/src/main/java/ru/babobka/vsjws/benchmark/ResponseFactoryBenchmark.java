@@ -0,0 +1,100 @@
+package ru.babobka.vsjws.benchmark;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ru.babobka.vsjws.model.HttpResponse;
+
+/**
+ * Building JSON and XSLT responses from objects. XStream reads JDK internals
+ * by reflection, so the fork opens them, which needs Java 9 or newer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-opens", "java.base/java.lang=ALL-UNNAMED", "--add-opens",
+		"java.base/java.lang.reflect=ALL-UNNAMED", "--add-opens", "java.base/java.util=ALL-UNNAMED", "--add-opens",
+		"java.base/java.text=ALL-UNNAMED", "--add-opens", "java.desktop/java.awt.font=ALL-UNNAMED" })
+public class ResponseFactoryBenchmark {
+
+	private static final String XSL_FILE_NAME = "benchmark.xsl";
+
+	private Page page;
+
+	private Map<String, Serializable> model;
+
+	@Setup
+	public void setUp() {
+		List<User> users = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			users.add(new User(i, "User " + i, "user" + i + "@example.com"));
+		}
+		page = new Page(2, 20, users);
+		model = new HashMap<>();
+		model.put("title", "Users");
+		model.put("page", 2);
+		model.put("total", 400);
+		model.put("user", "User 1");
+	}
+
+	@Benchmark
+	public HttpResponse jsonResponse() {
+		return HttpResponse.jsonResponse(page);
+	}
+
+	@Benchmark
+	public HttpResponse xsltResponse() throws IOException {
+		return HttpResponse.xsltResponse(model, XSL_FILE_NAME);
+	}
+
+	static final class Page {
+
+		private final int number;
+
+		private final int size;
+
+		private final List<User> users;
+
+		Page(int number, int size, List<User> users) {
+			this.number = number;
+			this.size = size;
+			this.users = users;
+		}
+
+	}
+
+	static final class User {
+
+		private final long id;
+
+		private final String name;
+
+		private final String email;
+
+		User(long id, String name, String email) {
+			this.id = id;
+			this.name = name;
+			this.email = email;
+		}
+
+	}
+
+}
@@ -0,0 +1,78 @@
+package ru.babobka.vsjws.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ru.babobka.vsjws.constant.ContentType;
+import ru.babobka.vsjws.model.HttpResponse;
+import ru.babobka.vsjws.util.HttpUtil;
+
+/**
+ * Serializing responses of several sizes into a stream that drops
+ * everything, so only the server side cost is measured
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriteResponseBenchmark {
+
+	@Param({ "16", "4096", "65536" })
+	private int size;
+
+	private final OutputStream nullStream = new NullOutputStream();
+
+	private HttpResponse response;
+
+	private HttpResponse cookieResponse;
+
+	@Setup
+	public void setUp() {
+		byte[] content = new byte[size];
+		Arrays.fill(content, (byte) 'a');
+		response = HttpResponse.sharedResponse(content, HttpResponse.ResponseCode.OK, ContentType.PLAIN);
+		cookieResponse = HttpResponse.rawResponse(content, ContentType.PLAIN).addCookie("X-Session-Id",
+				"4611686018427387904").addHeader("Cache-Control", "no-cache");
+	}
+
+	@Benchmark
+	public void write() throws IOException {
+		HttpUtil.writeResponse(nullStream, response, false, true);
+	}
+
+	@Benchmark
+	public void writeWithHeaders() throws IOException {
+		HttpUtil.writeResponse(nullStream, cookieResponse, false, true);
+	}
+
+	private static final class NullOutputStream extends OutputStream {
+
+		@Override
+		public void write(int b) {
+
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+
+		}
+
+	}
+
+}
@@ -0,0 +1,89 @@
+package ru.babobka.vsjws.runnable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ru.babobka.vsjws.constant.ContentType;
+import ru.babobka.vsjws.model.HttpRequest;
+import ru.babobka.vsjws.model.HttpResponse;
+import ru.babobka.vsjws.model.RawHttpRequest;
+import ru.babobka.vsjws.session.LruSessionStore;
+import ru.babobka.vsjws.webcontroller.WebFilter;
+
+/**
+ * Dispatching a request through a chain of filters to the handler. Lives in
+ * the package of {@link WebController} to call
+ * {@link WebController#control(HttpRequest)} without the router.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WebControllerBenchmark {
+
+	private static final HttpResponse RESPONSE = HttpResponse
+			.sharedResponse("hello".getBytes(HttpResponse.MAIN_ENCODING), HttpResponse.ResponseCode.OK,
+					ContentType.PLAIN)
+			.freeze();
+
+	@Param({ "0", "1", "4", "16" })
+	private int filters;
+
+	private WebController controller;
+
+	private HttpRequest request;
+
+	@Setup
+	public void setUp() {
+		controller = new WebController() {
+
+			@Override
+			public HttpResponse onGet(HttpRequest request) {
+				return RESPONSE;
+			}
+
+		};
+		for (int i = 0; i < filters; i++) {
+			controller.addWebFilter(new PassingFilter());
+		}
+		Map<String, String> headers = new HashMap<>();
+		headers.put("Host", "localhost");
+		request = new HttpRequest(null, new RawHttpRequest("GET /hello HTTP/1.1", headers, null),
+				new LruSessionStore(16, 60));
+	}
+
+	@Benchmark
+	public HttpResponse control() throws Exception {
+		return controller.control(request);
+	}
+
+	private static final class PassingFilter implements WebFilter {
+
+		@Override
+		public HttpResponse onFilter(HttpRequest request) {
+			return null;
+		}
+
+		@Override
+		public void afterFilter(HttpRequest request, HttpResponse response) {
+
+		}
+
+	}
+
+}
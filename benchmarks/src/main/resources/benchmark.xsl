@@ -0,0 +1,16 @@
+<?xml version="1.0" encoding="UTF-8"?>
+<xsl:stylesheet version="1.0" xmlns:xsl="http://www.w3.org/1999/XSL/Transform">
+	<xsl:output method="html" />
+	<xsl:template match="/root">
+		<html>
+			<head>
+				<title><xsl:value-of select="title" /></title>
+			</head>
+			<body>
+				<h1><xsl:value-of select="title" /></h1>
+				<p>Signed in as <xsl:value-of select="user" /></p>
+				<p>Page <xsl:value-of select="page" /> of <xsl:value-of select="total" /></p>
+			</body>
+		</html>
+	</xsl:template>
+</xsl:stylesheet>
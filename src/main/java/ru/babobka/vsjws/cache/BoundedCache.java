@@ -0,0 +1,124 @@
+package ru.babobka.vsjws.cache;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Map bounded by the total size of its values. Lookups are lock free, least
+ * recently used values are evicted when a new one does not fit. Eviction scans
+ * the whole map, so the cache is meant for values that are read much more
+ * often than added.
+ */
+public class BoundedCache<V> {
+
+	private final Map<String, Entry<V>> entries = new ConcurrentHashMap<>();
+
+	private final AtomicLong size = new AtomicLong();
+
+	private final AtomicLong clock = new AtomicLong();
+
+	private volatile long maxBytes;
+
+	public BoundedCache(long maxBytes) {
+		setMaxBytes(maxBytes);
+	}
+
+	/**
+	 * @return value or null if there is no such key
+	 */
+	public V get(String key) {
+		Entry<V> entry = entries.get(key);
+		if (entry == null) {
+			return null;
+		}
+		entry.lastAccess = clock.incrementAndGet();
+		return entry.value;
+	}
+
+	/**
+	 * Adds a value unless the key is already there
+	 *
+	 * @param bytes
+	 *            size of the value
+	 * @return value that is in the cache now
+	 */
+	public V putIfAbsent(String key, V value, long bytes) {
+		Entry<V> entry = new Entry<>(key, value, bytes);
+		entry.lastAccess = clock.incrementAndGet();
+		Entry<V> previous = entries.putIfAbsent(key, entry);
+		if (previous != null) {
+			return previous.value;
+		}
+		size.addAndGet(bytes);
+		evict();
+		return value;
+	}
+
+	private void evict() {
+		while (size.get() > maxBytes) {
+			Entry<V> oldest = null;
+			for (Entry<V> entry : entries.values()) {
+				if (oldest == null || entry.lastAccess < oldest.lastAccess) {
+					oldest = entry;
+				}
+			}
+			if (oldest == null) {
+				return;
+			}
+			if (entries.remove(oldest.key, oldest)) {
+				size.addAndGet(-oldest.bytes);
+			}
+		}
+	}
+
+	public void clear() {
+		for (Entry<V> entry : entries.values()) {
+			if (entries.remove(entry.key, entry)) {
+				size.addAndGet(-entry.bytes);
+			}
+		}
+	}
+
+	/**
+	 * @return total size of cached values
+	 */
+	public long getSize() {
+		return size.get();
+	}
+
+	public int getCount() {
+		return entries.size();
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public void setMaxBytes(long maxBytes) {
+		if (maxBytes < 0) {
+			throw new IllegalArgumentException("Cache size must be >= 0");
+		}
+		this.maxBytes = maxBytes;
+		evict();
+	}
+
+	private static final class Entry<V> {
+
+		private final String key;
+
+		private final V value;
+
+		private final long bytes;
+
+		private volatile long lastAccess;
+
+		private Entry(String key, V value, long bytes) {
+			this.key = key;
+			this.value = value;
+			this.bytes = bytes;
+		}
+
+	}
+
+}
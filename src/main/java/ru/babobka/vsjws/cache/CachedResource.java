@@ -0,0 +1,67 @@
+package ru.babobka.vsjws.cache;
+
+import ru.babobka.vsjws.model.HttpResponse;
+import ru.babobka.vsjws.model.HttpResponse.ResponseCode;
+import ru.babobka.vsjws.util.RangeUtil;
+
+/**
+ * Static resource with everything needed to answer it
+ */
+public class CachedResource {
+
+	private final String name;
+
+	private final String contentType;
+
+	private final String eTag;
+
+	private final String lastModified;
+
+	private final HttpResponse response;
+
+	CachedResource(String name, byte[] content, String contentType, String eTag, String lastModified) {
+		this.name = name;
+		this.contentType = contentType;
+		this.eTag = eTag;
+		this.lastModified = lastModified;
+		HttpResponse cachedResponse = HttpResponse.sharedResponse(content, ResponseCode.OK, contentType)
+				.addHeader(HttpResponse.ETAG_HEADER, eTag)
+				.addHeader(HttpResponse.ACCEPT_RANGES_HEADER, RangeUtil.BYTES_UNIT);
+		if (lastModified != null) {
+			cachedResponse.addHeader(HttpResponse.LAST_MODIFIED_HEADER, lastModified);
+		}
+		this.response = cachedResponse.freeze();
+	}
+
+	/**
+	 * @return frozen response built once. Its headers are copied on change,
+	 *         the bytes are never copied.
+	 */
+	public HttpResponse toResponse() {
+		return response;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getContentType() {
+		return contentType;
+	}
+
+	public String getETag() {
+		return eTag;
+	}
+
+	/**
+	 * @return HTTP date of the last modification or null if it is unknown
+	 */
+	public String getLastModified() {
+		return lastModified;
+	}
+
+	public int getLength() {
+		return (int) response.getContentLength();
+	}
+
+}
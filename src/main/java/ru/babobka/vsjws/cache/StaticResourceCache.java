@@ -0,0 +1,110 @@
+package ru.babobka.vsjws.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+
+import org.apache.tika.Tika;
+import org.apache.tika.io.IOUtils;
+
+import ru.babobka.vsjws.util.HttpUtil;
+
+/**
+ * Size bounded cache of classpath resources
+ */
+public class StaticResourceCache {
+
+	public static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+
+	public static final int DEFAULT_MAX_RESOURCE_BYTES = 1024 * 1024;
+
+	private static final Tika tika = new Tika();
+
+	private final BoundedCache<CachedResource> resources;
+
+	private volatile int maxResourceBytes;
+
+	public StaticResourceCache() {
+		this(DEFAULT_MAX_BYTES, DEFAULT_MAX_RESOURCE_BYTES);
+	}
+
+	public StaticResourceCache(long maxBytes, int maxResourceBytes) {
+		this.resources = new BoundedCache<>(maxBytes);
+		setMaxResourceBytes(maxResourceBytes);
+	}
+
+	/**
+	 * Finds a resource in the cache or loads it from the classpath
+	 *
+	 * @return resource or null if there is no such resource
+	 */
+	public CachedResource get(String name) throws IOException {
+		CachedResource resource = resources.get(name);
+		if (resource == null) {
+			resource = load(name);
+			if (resource == null) {
+				return null;
+			}
+			if (resource.getLength() <= maxResourceBytes) {
+				resource = resources.putIfAbsent(name, resource, resource.getLength());
+			}
+		}
+		return resource;
+	}
+
+	private static CachedResource load(String name) throws IOException {
+		URL url = Thread.currentThread().getContextClassLoader().getResource(name);
+		if (url == null) {
+			return null;
+		}
+		URLConnection connection = url.openConnection();
+		byte[] content;
+		try (InputStream is = connection.getInputStream()) {
+			content = IOUtils.toByteArray(is);
+		}
+		long lastModified = connection.getLastModified();
+		return new CachedResource(name, content, tika.detect(content, name), HttpUtil.createETag(ByteBuffer.wrap(content)),
+				lastModified > 0 ? HttpUtil.formatDate(lastModified) : null);
+	}
+
+	public void clear() {
+		resources.clear();
+	}
+
+	/**
+	 * @return total length of cached resources
+	 */
+	public long getSize() {
+		return resources.getSize();
+	}
+
+	public int getCount() {
+		return resources.getCount();
+	}
+
+	public long getMaxBytes() {
+		return resources.getMaxBytes();
+	}
+
+	public void setMaxBytes(long maxBytes) {
+		resources.setMaxBytes(maxBytes);
+	}
+
+	public int getMaxResourceBytes() {
+		return maxResourceBytes;
+	}
+
+	/**
+	 * Sets size of the biggest resource to cache. Bigger ones are loaded on
+	 * every request.
+	 */
+	public void setMaxResourceBytes(int maxResourceBytes) {
+		if (maxResourceBytes < 0) {
+			throw new IllegalArgumentException("Resource size must be >= 0");
+		}
+		this.maxResourceBytes = maxResourceBytes;
+	}
+
+}
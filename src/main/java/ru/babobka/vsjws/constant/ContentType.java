@@ -15,6 +15,8 @@ public class ContentType {
 	public static final String PLAIN = "text/plain;" + CHARSET;
 
 	public static final String XML = "text/xml;" + CHARSET;
+
+	public static final String PROMETHEUS = "text/plain;version=0.0.4;" + CHARSET;
 	
 	private ContentType()
 	{
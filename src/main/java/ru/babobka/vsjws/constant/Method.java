@@ -18,15 +18,37 @@ public class Method {
 
 	public static final String PATCH = "PATCH";
 
-	private static final String[] ARRAY = { GET, POST, DELETE, PUT, HEAD, PATCH };
+	public static final String OPTIONS = "OPTIONS";
+
+	private static final String[] ARRAY = { GET, POST, DELETE, PUT, HEAD, PATCH, OPTIONS };
+
+	public static final int COUNT = ARRAY.length;
 
 	public static boolean isValidMethod(String inputMethod) {
-		for (String method : ARRAY) {
-			if (inputMethod.equals(method)) {
-				return true;
+		return indexOf(inputMethod) != -1;
+	}
+
+	/**
+	 * @return index of a method in [0;{@link #COUNT}) or -1 if the method is
+	 *         not supported
+	 */
+	public static int indexOf(String inputMethod) {
+		// Parsed requests share the constants
+		for (int i = 0; i < ARRAY.length; i++) {
+			if (inputMethod == ARRAY[i]) {
+				return i;
 			}
 		}
-		return false;
+		for (int i = 0; i < ARRAY.length; i++) {
+			if (inputMethod.equals(ARRAY[i])) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public static String get(int index) {
+		return ARRAY[index];
 	}
 
 }
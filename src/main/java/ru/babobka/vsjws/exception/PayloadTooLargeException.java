@@ -0,0 +1,18 @@
+package ru.babobka.vsjws.exception;
+
+public class PayloadTooLargeException extends RuntimeException {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = -2270553923180407414L;
+
+	public PayloadTooLargeException(String message) {
+		super(message);
+	}
+
+	public PayloadTooLargeException() {
+		super();
+	}
+
+}
@@ -0,0 +1,14 @@
+package ru.babobka.vsjws.exception;
+
+public class SessionTooLargeException extends RuntimeException {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 4809165730182475116L;
+
+	public SessionTooLargeException(String message) {
+		super(message);
+	}
+
+}
@@ -0,0 +1,47 @@
+package ru.babobka.vsjws.io;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads remaining bytes of a buffer without copying the buffer
+ */
+public class ByteBufferInputStream extends InputStream {
+
+	private final ByteBuffer buffer;
+
+	public ByteBufferInputStream(ByteBuffer buffer) {
+		this.buffer = buffer;
+	}
+
+	@Override
+	public int read() {
+		return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) {
+		if (len == 0) {
+			return 0;
+		}
+		if (!buffer.hasRemaining()) {
+			return -1;
+		}
+		int toRead = Math.min(len, buffer.remaining());
+		buffer.get(b, off, toRead);
+		return toRead;
+	}
+
+	@Override
+	public long skip(long n) {
+		int toSkip = (int) Math.max(0, Math.min(n, buffer.remaining()));
+		buffer.position(buffer.position() + toSkip);
+		return toSkip;
+	}
+
+	@Override
+	public int available() {
+		return buffer.remaining();
+	}
+
+}
@@ -0,0 +1,123 @@
+package ru.babobka.vsjws.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes data in chunked transfer coding. Data is buffered and sent as a
+ * single write per chunk when the buffer is full or on {@link #flush()}.
+ * Closing the stream writes the last chunk but leaves the underlying stream
+ * open.
+ */
+public class ChunkedOutputStream extends OutputStream {
+
+	public static final int DEFAULT_CHUNK_SIZE = 8192;
+
+	/**
+	 * Room for the chunk size line: up to 8 hex digits and CRLF
+	 */
+	private static final int HEADER_SIZE = 10;
+
+	private static final byte[] LAST_CHUNK = { '0', '\r', '\n', '\r', '\n' };
+
+	private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+	private final OutputStream os;
+
+	private final byte[] buffer;
+
+	private int count;
+
+	private boolean finished;
+
+	public ChunkedOutputStream(OutputStream os) {
+		this(os, DEFAULT_CHUNK_SIZE);
+	}
+
+	public ChunkedOutputStream(OutputStream os, int chunkSize) {
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("Chunk size must be > 0");
+		}
+		this.os = os;
+		this.buffer = new byte[HEADER_SIZE + chunkSize + 2];
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		ensureOpen();
+		if (HEADER_SIZE + count == buffer.length - 2) {
+			writeChunk();
+		}
+		buffer[HEADER_SIZE + count++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		ensureOpen();
+		int capacity = buffer.length - HEADER_SIZE - 2;
+		while (len > 0) {
+			if (count == capacity) {
+				writeChunk();
+			}
+			int toCopy = Math.min(len, capacity - count);
+			System.arraycopy(b, off, buffer, HEADER_SIZE + count, toCopy);
+			count += toCopy;
+			off += toCopy;
+			len -= toCopy;
+		}
+	}
+
+	/**
+	 * Sends buffered data as a chunk
+	 */
+	@Override
+	public void flush() throws IOException {
+		ensureOpen();
+		writeChunk();
+		os.flush();
+	}
+
+	private void writeChunk() throws IOException {
+		if (count == 0) {
+			return;
+		}
+		int start = HEADER_SIZE;
+		buffer[--start] = '\n';
+		buffer[--start] = '\r';
+		int size = count;
+		do {
+			buffer[--start] = HEX[size & 0xF];
+			size >>>= 4;
+		} while (size != 0);
+		int end = HEADER_SIZE + count;
+		buffer[end++] = '\r';
+		buffer[end++] = '\n';
+		os.write(buffer, start, end - start);
+		count = 0;
+	}
+
+	/**
+	 * Sends buffered data and the last chunk
+	 */
+	public void finish() throws IOException {
+		if (finished) {
+			return;
+		}
+		writeChunk();
+		os.write(LAST_CHUNK);
+		os.flush();
+		finished = true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		finish();
+	}
+
+	private void ensureOpen() throws IOException {
+		if (finished) {
+			throw new IOException("Stream is finished");
+		}
+	}
+
+}
@@ -0,0 +1,233 @@
+package ru.babobka.vsjws.io;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+import ru.babobka.vsjws.model.HttpRequest;
+import ru.babobka.vsjws.model.HttpResponse;
+import ru.babobka.vsjws.model.HttpResponse.ResponseCode;
+import ru.babobka.vsjws.model.HttpResponse.RestrictedHeader;
+import ru.babobka.vsjws.model.ResponseBody;
+import ru.babobka.vsjws.util.HttpUtil;
+
+/**
+ * Turns the status line and headers of a response into bytes. Status lines
+ * and fixed headers are encoded once, the Date header once a second. Every
+ * thread reuses its own encoder, so a response head is built without garbage
+ * besides the values of custom headers.
+ */
+public final class ResponseHeaderEncoder {
+
+	private static final int INITIAL_SIZE = 1024;
+
+	private static final byte[][] STATUS_LINES = new byte[ResponseCode.values().length][];
+
+	private static final byte[] SERVER_LINE = ascii(RestrictedHeader.SERVER + ": vsjws\r\n");
+
+	private static final byte[] CONTENT_TYPE = ascii(RestrictedHeader.CONTENT_TYPE + ": ");
+
+	private static final byte[] CONTENT_LENGTH = ascii(RestrictedHeader.CONTENT_LENGTH + ": ");
+
+	private static final byte[] CHUNKED_LINE = ascii(RestrictedHeader.TRANSFER_ENCODING + ": " + HttpUtil.CHUNKED
+			+ "\r\n");
+
+	private static final byte[] KEEP_ALIVE_LINE = ascii(RestrictedHeader.CONNECTION + ": " + HttpUtil.KEEP_ALIVE
+			+ "\r\n");
+
+	private static final byte[] CLOSE_LINE = ascii(RestrictedHeader.CONNECTION + ": " + HttpUtil.CLOSE + "\r\n");
+
+	private static final byte[] SET_COOKIE = ascii("Set-Cookie: ");
+
+	private static final byte[] CRLF = ascii("\r\n");
+
+	private static final ThreadLocal<ResponseHeaderEncoder> ENCODERS = ThreadLocal
+			.withInitial(ResponseHeaderEncoder::new);
+
+	private static volatile DateLine dateLine = new DateLine(0);
+
+	static {
+		for (ResponseCode code : ResponseCode.values()) {
+			STATUS_LINES[code.ordinal()] = ascii(HttpRequest.PROTOCOL + " " + code + "\r\n");
+		}
+	}
+
+	private byte[] buffer = new byte[INITIAL_SIZE];
+
+	private int length;
+
+	private ResponseHeaderEncoder() {
+
+	}
+
+	/**
+	 * @return empty encoder of the current thread. Its bytes are valid until
+	 *         the thread calls the method again.
+	 */
+	public static ResponseHeaderEncoder get() {
+		ResponseHeaderEncoder encoder = ENCODERS.get();
+		encoder.length = 0;
+		return encoder;
+	}
+
+	/**
+	 * Appends the status line, headers and the empty line that ends them
+	 */
+	public ResponseHeaderEncoder encode(HttpResponse response, boolean keepAlive) {
+		append(STATUS_LINES[response.getResponseCode().ordinal()]);
+		append(SERVER_LINE);
+		append(getDateLine());
+		if (response.getContentType() != null) {
+			append(CONTENT_TYPE);
+			appendText(response.getContentType());
+			append(CRLF);
+		}
+		if (response.isStreaming()) {
+			append(CHUNKED_LINE);
+		} else if (response.getResponseCode().hasContent()) {
+			append(CONTENT_LENGTH);
+			appendDecimal(response.getContentLength());
+			append(CRLF);
+		}
+		append(keepAlive ? KEEP_ALIVE_LINE : CLOSE_LINE);
+		for (Map.Entry<String, String> cookie : response.getCookies().entrySet()) {
+			append(SET_COOKIE);
+			appendText(cookie.getKey());
+			appendByte('=');
+			appendText(cookie.getValue());
+			append(CRLF);
+		}
+		for (Map.Entry<String, String> header : response.getOtherHeaders().entrySet()) {
+			// Names end with a colon
+			appendText(header.getKey());
+			appendByte(' ');
+			appendText(header.getValue());
+			append(CRLF);
+		}
+		append(CRLF);
+		return this;
+	}
+
+	public ResponseHeaderEncoder append(byte[] bytes) {
+		return append(bytes, 0, bytes.length);
+	}
+
+	public ResponseHeaderEncoder append(byte[] bytes, int offset, int count) {
+		ensureCapacity(count);
+		System.arraycopy(bytes, offset, buffer, length, count);
+		length += count;
+		return this;
+	}
+
+	/**
+	 * Appends remaining bytes of a buffer without moving its position
+	 */
+	public ResponseHeaderEncoder append(ByteBuffer bytes) {
+		int count = bytes.remaining();
+		ensureCapacity(count);
+		bytes.duplicate().get(buffer, length, count);
+		length += count;
+		return this;
+	}
+
+	/**
+	 * Appends the body after the head, so both go out in one write
+	 */
+	public ResponseHeaderEncoder append(ResponseBody body) {
+		for (ByteBuffer bytes : body.buffers()) {
+			append(bytes);
+		}
+		return this;
+	}
+
+	private void appendByte(char c) {
+		ensureCapacity(1);
+		buffer[length++] = (byte) c;
+	}
+
+	private void appendText(String text) {
+		int textLength = text.length();
+		ensureCapacity(textLength);
+		for (int i = 0; i < textLength; i++) {
+			char c = text.charAt(i);
+			if (c >= 0x80) {
+				// Rare non-ASCII values are sent in UTF-8 like before
+				append(text.substring(i).getBytes(HttpResponse.MAIN_ENCODING));
+				return;
+			}
+			buffer[length++] = (byte) c;
+		}
+	}
+
+	private void appendDecimal(long value) {
+		if (value < 0) {
+			appendByte('-');
+			value = -value;
+		}
+		int digits = 1;
+		for (long rest = value / 10; rest > 0; rest /= 10) {
+			digits++;
+		}
+		ensureCapacity(digits);
+		for (int i = length + digits - 1; i >= length; i--) {
+			buffer[i] = (byte) ('0' + value % 10);
+			value /= 10;
+		}
+		length += digits;
+	}
+
+	private void ensureCapacity(int extra) {
+		if (length + extra > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+		}
+	}
+
+	public byte[] array() {
+		return buffer;
+	}
+
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * @return buffer over the encoded bytes. It is overwritten by the next use
+	 *         of the encoder.
+	 */
+	public ByteBuffer toByteBuffer() {
+		return ByteBuffer.wrap(buffer, 0, length);
+	}
+
+	public byte[] toByteArray() {
+		return Arrays.copyOf(buffer, length);
+	}
+
+	static byte[] getDateLine() {
+		long second = System.currentTimeMillis() / 1000;
+		DateLine currentDateLine = dateLine;
+		if (currentDateLine.second != second) {
+			currentDateLine = new DateLine(second);
+			dateLine = currentDateLine;
+		}
+		return currentDateLine.bytes;
+	}
+
+	private static byte[] ascii(String text) {
+		return text.getBytes(StandardCharsets.US_ASCII);
+	}
+
+	private static final class DateLine {
+
+		private final long second;
+
+		private final byte[] bytes;
+
+		DateLine(long second) {
+			this.second = second;
+			this.bytes = ascii("Date: " + HttpUtil.formatDate(second * 1000) + "\r\n");
+		}
+
+	}
+
+}
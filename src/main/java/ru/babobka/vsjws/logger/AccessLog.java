@@ -0,0 +1,292 @@
+package ru.babobka.vsjws.logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import ru.babobka.vsjws.model.HttpRequest;
+import ru.babobka.vsjws.model.HttpResponse;
+
+/**
+ * Writes a line per answered request. Request threads only capture a few
+ * references, lines are formatted and written in batches by the writer
+ * thread of an {@link AsyncAppender}.
+ * <p>
+ * Latency is the time from the request being read to the response being
+ * ready, so slow clients do not make the server look slow.
+ */
+public class AccessLog implements Closeable {
+
+	/**
+	 * Longer ids are whole sessions kept in cookies, they are not written
+	 */
+	public static final int MAX_SESSION_ID_LENGTH = 64;
+
+	private static final String REFERER_HEADER = "Referer";
+
+	private static final String USER_AGENT_HEADER = "User-Agent";
+
+	private static final DateTimeFormatter CLF_DATE_FORMAT = DateTimeFormatter
+			.ofPattern("dd/MMM/yyyy:HH:mm:ss Z", Locale.US).withZone(ZoneId.systemDefault());
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	public enum Format {
+		/**
+		 * Common Log Format followed by latency in microseconds and session
+		 * id: <code>host - - [date] "GET /uri HTTP/1.1" 200 512 830 id</code>
+		 */
+		COMMON,
+		/**
+		 * Like {@link #COMMON} with quoted referer and user agent after the
+		 * size, as Apache and nginx write it
+		 */
+		COMBINED,
+		/**
+		 * JSON object per line
+		 */
+		JSON
+	}
+
+	private final AsyncAppender<Entry> appender;
+
+	private final Format format;
+
+	/**
+	 * Used by the writer thread only
+	 */
+	private long cachedSecond = -1;
+
+	private String cachedDate;
+
+	/**
+	 * Writes to <code>prefix_millis.log</code> files in a folder, dropping
+	 * lines if the disk can not keep up
+	 */
+	public AccessLog(File folder, String prefix, Format format) {
+		this(new RollingFile(folder, prefix), format, AsyncAppender.DEFAULT_CAPACITY,
+				AsyncAppender.OverflowPolicy.DROP);
+	}
+
+	public AccessLog(RollingFile file, Format format, int capacity, AsyncAppender.OverflowPolicy policy) {
+		if (format == null) {
+			throw new IllegalArgumentException("Access log format is null");
+		}
+		this.format = format;
+		this.appender = new AsyncAppender<>("vsjws-access-log", file, this::format, capacity, policy, null);
+	}
+
+	/**
+	 * @param request
+	 *            parsed request or null if the request was malformed
+	 * @param noContent
+	 *            true if the body is not sent, like for HEAD
+	 * @param startNanos
+	 *            {@link System#nanoTime()} when the request was read
+	 */
+	public void log(InetAddress address, HttpRequest request, HttpResponse response, boolean noContent,
+			long startNanos) {
+		long latencyNanos = System.nanoTime() - startNanos;
+		long bytes;
+		if (noContent || !response.getResponseCode().hasContent()) {
+			bytes = 0;
+		} else if (response.isStreaming()) {
+			bytes = -1;
+		} else {
+			bytes = response.getContentLength();
+		}
+		String method = null;
+		String uri = null;
+		String referer = null;
+		String userAgent = null;
+		String sessionId = null;
+		if (request != null) {
+			method = request.getMethod();
+			uri = request.getUri();
+			if (format != Format.COMMON) {
+				referer = request.getHeader(REFERER_HEADER);
+				userAgent = request.getHeader(USER_AGENT_HEADER);
+			}
+			sessionId = request.getSessionId();
+			if (sessionId != null && sessionId.length() > MAX_SESSION_ID_LENGTH) {
+				sessionId = null;
+			}
+		}
+		appender.append(new Entry(address, method, uri, response.getResponseCode().getCode(), bytes,
+				TimeUnit.NANOSECONDS.toMicros(latencyNanos), sessionId, referer, userAgent));
+	}
+
+	/**
+	 * @return number of lines lost because the queue was full
+	 */
+	public long getDropped() {
+		return appender.getDropped();
+	}
+
+	public Format getFormat() {
+		return format;
+	}
+
+	/**
+	 * Writes queued lines and closes the file
+	 */
+	@Override
+	public void close() throws IOException {
+		appender.close();
+	}
+
+	private void format(Entry entry, StringBuilder out) {
+		if (format == Format.JSON) {
+			formatJson(entry, out);
+		} else {
+			formatClf(entry, out);
+		}
+		out.append('\n');
+	}
+
+	private void formatClf(Entry entry, StringBuilder out) {
+		out.append(entry.address != null ? entry.address.getHostAddress() : "-").append(" - - [");
+		long second = TimeUnit.MILLISECONDS.toSeconds(entry.millis);
+		if (second != cachedSecond) {
+			cachedDate = CLF_DATE_FORMAT.format(Instant.ofEpochMilli(entry.millis));
+			cachedSecond = second;
+		}
+		out.append(cachedDate).append("] \"");
+		if (entry.method != null) {
+			appendClfText(entry.method, out);
+			out.append(' ');
+			appendClfText(entry.uri, out);
+			out.append(' ').append(HttpRequest.PROTOCOL);
+		} else {
+			out.append('-');
+		}
+		out.append("\" ").append(entry.status).append(' ');
+		if (entry.bytes > 0) {
+			out.append(entry.bytes);
+		} else {
+			out.append('-');
+		}
+		if (format == Format.COMBINED) {
+			appendClfQuoted(entry.referer, out);
+			appendClfQuoted(entry.userAgent, out);
+		}
+		out.append(' ').append(entry.latencyMicros).append(' ');
+		out.append(entry.sessionId != null ? entry.sessionId : "-");
+	}
+
+	private static void appendClfQuoted(String text, StringBuilder out) {
+		out.append(" \"");
+		if (text == null || text.isEmpty()) {
+			out.append('-');
+		} else {
+			appendClfText(text, out);
+		}
+		out.append('"');
+	}
+
+	/**
+	 * Escapes quotes and control characters, so a client can not break a
+	 * line into fields of its choice
+	 */
+	private static void appendClfText(String text, StringBuilder out) {
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '"' || c == '\\') {
+				out.append('\\').append(c);
+			} else if (c < 0x20 || c == 0x7f) {
+				out.append("\\x").append(HEX[c >> 4]).append(HEX[c & 0xf]);
+			} else {
+				out.append(c);
+			}
+		}
+	}
+
+	private static void formatJson(Entry entry, StringBuilder out) {
+		out.append("{\"time\":\"").append(Instant.ofEpochMilli(entry.millis)).append('"');
+		appendJsonField("address", entry.address != null ? entry.address.getHostAddress() : null, out);
+		appendJsonField("method", entry.method, out);
+		appendJsonField("uri", entry.uri, out);
+		out.append(",\"status\":").append(entry.status);
+		if (entry.bytes >= 0) {
+			out.append(",\"bytes\":").append(entry.bytes);
+		}
+		out.append(",\"latencyMicros\":").append(entry.latencyMicros);
+		appendJsonField("session", entry.sessionId, out);
+		if (entry.referer != null && !entry.referer.isEmpty()) {
+			appendJsonField("referer", entry.referer, out);
+		}
+		if (entry.userAgent != null && !entry.userAgent.isEmpty()) {
+			appendJsonField("userAgent", entry.userAgent, out);
+		}
+		out.append('}');
+	}
+
+	/**
+	 * Null values are left out
+	 */
+	private static void appendJsonField(String name, String value, StringBuilder out) {
+		if (value == null) {
+			return;
+		}
+		out.append(",\"").append(name).append("\":\"");
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				out.append('\\').append(c);
+			} else if (c < 0x20) {
+				out.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xf]);
+			} else {
+				out.append(c);
+			}
+		}
+		out.append('"');
+	}
+
+	/**
+	 * Values captured on the request thread. The request itself is not kept,
+	 * its body could stay in memory while the line waits in the queue.
+	 */
+	private static final class Entry {
+
+		private final long millis = System.currentTimeMillis();
+
+		private final InetAddress address;
+
+		private final String method;
+
+		private final String uri;
+
+		private final int status;
+
+		private final long bytes;
+
+		private final long latencyMicros;
+
+		private final String sessionId;
+
+		private final String referer;
+
+		private final String userAgent;
+
+		Entry(InetAddress address, String method, String uri, int status, long bytes, long latencyMicros,
+				String sessionId, String referer, String userAgent) {
+			this.address = address;
+			this.method = method;
+			this.uri = uri;
+			this.status = status;
+			this.bytes = bytes;
+			this.latencyMicros = latencyMicros;
+			this.sessionId = sessionId;
+			this.referer = referer;
+			this.userAgent = userAgent;
+		}
+
+	}
+
+}
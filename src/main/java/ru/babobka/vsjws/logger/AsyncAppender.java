@@ -0,0 +1,194 @@
+package ru.babobka.vsjws.logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes events to a {@link RollingFile} on its own thread. Callers only put
+ * an event into a lock-free ring buffer, the writer thread formats the
+ * events and writes them in batches. When the buffer is full events are
+ * dropped or the caller waits, as the policy says.
+ */
+public class AsyncAppender<E> implements Closeable {
+
+	public static final int DEFAULT_CAPACITY = 16 * 1024;
+
+	private static final int BATCH_SIZE = 64 * 1024;
+
+	private static final long MAX_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	private static final long MIN_IDLE_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+	public enum OverflowPolicy {
+		/**
+		 * Event is lost, the caller never waits
+		 */
+		DROP,
+		/**
+		 * Caller waits for a free slot
+		 */
+		BLOCK
+	}
+
+	/**
+	 * Turns an event into text on the writer thread
+	 */
+	@FunctionalInterface
+	public interface EventFormatter<E> {
+
+		void format(E event, StringBuilder out);
+
+	}
+
+	private final RingBuffer<E> buffer;
+
+	private final RollingFile file;
+
+	private final EventFormatter<E> formatter;
+
+	private final OverflowPolicy policy;
+
+	private final OutputStream echo;
+
+	private final Thread writer;
+
+	private final AtomicLong dropped = new AtomicLong();
+
+	private final StringBuilder text = new StringBuilder(BATCH_SIZE);
+
+	private volatile boolean closed;
+
+	public AsyncAppender(String name, RollingFile file, EventFormatter<E> formatter) {
+		this(name, file, formatter, DEFAULT_CAPACITY, OverflowPolicy.DROP, null);
+	}
+
+	/**
+	 * @param echo
+	 *            stream that gets a copy of every batch, like
+	 *            <code>System.out</code>, or null
+	 */
+	public AsyncAppender(String name, RollingFile file, EventFormatter<E> formatter, int capacity,
+			OverflowPolicy policy, OutputStream echo) {
+		this.buffer = new RingBuffer<>(capacity);
+		this.file = file;
+		this.formatter = formatter;
+		this.policy = policy;
+		this.echo = echo;
+		this.writer = new Thread(this::write, name);
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * @return false if the event is dropped
+	 */
+	public boolean append(E event) {
+		if (closed) {
+			dropped.incrementAndGet();
+			return false;
+		}
+		if (buffer.offer(event)) {
+			return true;
+		}
+		if (policy == OverflowPolicy.DROP) {
+			dropped.incrementAndGet();
+			return false;
+		}
+		while (!buffer.offer(event)) {
+			if (closed) {
+				dropped.incrementAndGet();
+				return false;
+			}
+			LockSupport.parkNanos(MIN_IDLE_NANOS);
+		}
+		return true;
+	}
+
+	private void write() {
+		long idleNanos = MIN_IDLE_NANOS;
+		while (true) {
+			boolean stopping = closed;
+			if (drain()) {
+				idleNanos = MIN_IDLE_NANOS;
+			} else if (stopping) {
+				return;
+			} else {
+				// Producers never wake the writer up, it checks more rarely
+				// while there is nothing to write
+				LockSupport.parkNanos(idleNanos);
+				idleNanos = Math.min(idleNanos * 2, MAX_IDLE_NANOS);
+			}
+		}
+	}
+
+	/**
+	 * @return true if anything was written
+	 */
+	private boolean drain() {
+		E event;
+		boolean written = false;
+		while ((event = buffer.poll()) != null) {
+			try {
+				formatter.format(event, text);
+			} catch (RuntimeException e) {
+				text.append("Event can not be formatted: ").append(e).append(System.lineSeparator());
+			}
+			if (text.length() >= BATCH_SIZE) {
+				flushText();
+			}
+			written = true;
+		}
+		if (text.length() > 0) {
+			flushText();
+		}
+		return written;
+	}
+
+	private void flushText() {
+		byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+		text.setLength(0);
+		try {
+			file.write(ByteBuffer.wrap(bytes));
+		} catch (IOException e) {
+			System.err.println("Log can not be written: " + e);
+		}
+		if (echo != null) {
+			try {
+				echo.write(bytes);
+				echo.flush();
+			} catch (IOException e) {
+				// Copy is not important
+			}
+		}
+	}
+
+	/**
+	 * @return number of events lost because the buffer was full or the
+	 *         appender was closed
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Writes the buffered events and closes the file
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		LockSupport.unpark(writer);
+		try {
+			writer.join(TimeUnit.SECONDS.toMillis(10));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		file.close();
+	}
+
+}
@@ -0,0 +1,94 @@
+package ru.babobka.vsjws.logger;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free queue for many producers and a single consumer. Every
+ * slot has a sequence number that tells whose turn it is, so producers only
+ * race for the tail with a CAS and never wait for each other.
+ */
+final class RingBuffer<E> {
+
+	private final AtomicReferenceArray<E> slots;
+
+	private final AtomicLongArray sequences;
+
+	private final int mask;
+
+	private final AtomicLong tail = new AtomicLong();
+
+	/**
+	 * Read by the consumer only
+	 */
+	private long head;
+
+	/**
+	 * @param capacity
+	 *            rounded up to a power of two
+	 */
+	RingBuffer(int capacity) {
+		if (capacity <= 0 || capacity > 1 << 30) {
+			throw new IllegalArgumentException("Capacity must be in range (0;2^30]");
+		}
+		int size = Integer.highestOneBit(capacity - 1) << 1;
+		if (capacity == 1) {
+			size = 1;
+		}
+		this.slots = new AtomicReferenceArray<>(size);
+		this.sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			sequences.set(i, i);
+		}
+		this.mask = size - 1;
+	}
+
+	/**
+	 * @return false if the buffer is full
+	 */
+	boolean offer(E element) {
+		while (true) {
+			long position = tail.get();
+			int index = (int) position & mask;
+			long sequence = sequences.get(index);
+			if (sequence == position) {
+				if (tail.compareAndSet(position, position + 1)) {
+					slots.lazySet(index, element);
+					sequences.set(index, position + 1);
+					return true;
+				}
+			} else if (sequence < position) {
+				return false;
+			}
+			// Another producer took the slot, try the next one
+		}
+	}
+
+	/**
+	 * Must be called by the consumer thread only
+	 *
+	 * @return next element or null if the buffer is empty
+	 */
+	E poll() {
+		int index = (int) head & mask;
+		if (sequences.get(index) != head + 1) {
+			return null;
+		}
+		E element = slots.get(index);
+		slots.lazySet(index, null);
+		// The slot is free for the producer one lap later
+		sequences.set(index, head + mask + 1);
+		head++;
+		return element;
+	}
+
+	boolean isEmpty() {
+		return sequences.get((int) head & mask) != head + 1;
+	}
+
+	int capacity() {
+		return mask + 1;
+	}
+
+}
@@ -0,0 +1,102 @@
+package ru.babobka.vsjws.logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Log file that is replaced by a new one when it gets too big or too old.
+ * Files are named <code>prefix_millis.log</code>. Not thread safe.
+ */
+public class RollingFile implements Closeable {
+
+	public static final long DEFAULT_MAX_FILE_SIZE = 64L * 1024 * 1024;
+
+	public static final long DEFAULT_ROTATION_INTERVAL_MILLIS = 24L * 60 * 60 * 1000;
+
+	private final File folder;
+
+	private final String prefix;
+
+	private final long maxFileSize;
+
+	private final long rotationIntervalMillis;
+
+	private FileChannel channel;
+
+	private File file;
+
+	private long size;
+
+	private long openedAt;
+
+	public RollingFile(File folder, String prefix) {
+		this(folder, prefix, DEFAULT_MAX_FILE_SIZE, DEFAULT_ROTATION_INTERVAL_MILLIS);
+	}
+
+	/**
+	 * @param rotationIntervalMillis
+	 *            max age of a file or 0 to rotate by size only
+	 */
+	public RollingFile(File folder, String prefix, long maxFileSize, long rotationIntervalMillis) {
+		if (maxFileSize <= 0) {
+			throw new IllegalArgumentException("Max file size must be > 0");
+		}
+		if (rotationIntervalMillis < 0) {
+			throw new IllegalArgumentException("Rotation interval must be >= 0");
+		}
+		this.folder = folder;
+		this.prefix = prefix;
+		this.maxFileSize = maxFileSize;
+		this.rotationIntervalMillis = rotationIntervalMillis;
+	}
+
+	/**
+	 * Writes the whole buffer, a new file is started first if it is time to
+	 * rotate
+	 */
+	public void write(ByteBuffer bytes) throws IOException {
+		long now = System.currentTimeMillis();
+		if (channel == null || (size > 0 && size + bytes.remaining() > maxFileSize)
+				|| (rotationIntervalMillis > 0 && now - openedAt >= rotationIntervalMillis)) {
+			rotate(now);
+		}
+		while (bytes.hasRemaining()) {
+			size += channel.write(bytes);
+		}
+	}
+
+	private void rotate(long now) throws IOException {
+		close();
+		if (!folder.exists() && !folder.mkdirs()) {
+			throw new IOException("Can not create log folder " + folder);
+		}
+		File newFile = new File(folder, prefix + "_" + now + ".log");
+		for (int i = 1; newFile.exists(); i++) {
+			newFile = new File(folder, prefix + "_" + now + "_" + i + ".log");
+		}
+		channel = FileChannel.open(newFile.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		file = newFile;
+		size = 0;
+		openedAt = now;
+	}
+
+	/**
+	 * @return current file or null if nothing is written yet
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (channel != null) {
+			channel.close();
+			channel = null;
+		}
+	}
+
+}
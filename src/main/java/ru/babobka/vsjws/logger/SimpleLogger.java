@@ -1,50 +1,108 @@
 package ru.babobka.vsjws.logger;
 
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.Date;
 import java.util.logging.Level;
-import java.util.logging.Logger;
 
-import ru.babobka.vsjws.logger.LogBuilder;
+/**
+ * Logs to a rotated file and to the console. Messages are queued and written
+ * by a background thread, stack traces are rendered there too, so logging
+ * does not hold up requests.
+ */
+public class SimpleLogger implements Closeable {
 
-public class SimpleLogger {
-
-	private final Logger logger;
+	private final AsyncAppender<LogEvent> appender;
 
 	public SimpleLogger(String loggerName, String runningFolder, String prefix) throws IOException {
-		logger = LogBuilder.build(loggerName + System.currentTimeMillis(), runningFolder, prefix);
+		this(loggerName, new RollingFile(new File(runningFolder), prefix), AsyncAppender.OverflowPolicy.DROP);
+	}
+
+	/**
+	 * @param policy
+	 *            what to do with messages when the queue is full
+	 */
+	public SimpleLogger(String loggerName, RollingFile file, AsyncAppender.OverflowPolicy policy) {
+		appender = new AsyncAppender<>("vsjws-logger-" + loggerName, file, SimpleLogger::format,
+				AsyncAppender.DEFAULT_CAPACITY, policy, System.err);
 	}
 
 	public void log(Level level, String message) {
-		logger.log(level, message);
+		appender.append(new LogEvent(level, message, null));
 
 	}
 
 	public void log(Level level, Exception e) {
-		logger.log(level, getStringFromException(e));
+		appender.append(new LogEvent(level, null, e));
 	}
 
 	public void log(Object o) {
-		logger.log(Level.INFO, o.toString());
+		appender.append(new LogEvent(Level.INFO, o.toString(), null));
 	}
 
 	public void log(String message) {
-		logger.log(Level.INFO, message);
+		appender.append(new LogEvent(Level.INFO, message, null));
 	}
 
 	public void log(String message, Exception e) {
-		logger.log(Level.SEVERE, message + "\t" + getStringFromException(e));
+		appender.append(new LogEvent(Level.SEVERE, message, e));
 	}
 
 	public void log(Exception e) {
-		logger.log(Level.SEVERE, getStringFromException(e));
+		appender.append(new LogEvent(Level.SEVERE, null, e));
+	}
+
+	/**
+	 * @return number of messages lost because the queue was full
+	 */
+	public long getDropped() {
+		return appender.getDropped();
+	}
+
+	/**
+	 * Writes queued messages and closes the file
+	 */
+	@Override
+	public void close() throws IOException {
+		appender.close();
 	}
 
-	private static String getStringFromException(Exception ex) {
-		StringWriter errors = new StringWriter();
-		ex.printStackTrace(new PrintWriter(errors));
-		return errors.toString();
+	private static void format(LogEvent event, StringBuilder out) {
+		out.append(new Date(event.millis)).append(' ').append(event.level.getLocalizedName()).append(": ");
+		if (event.message != null) {
+			out.append(event.message);
+			if (event.thrown != null) {
+				out.append('\t');
+			}
+		}
+		if (event.thrown != null) {
+			StringWriter errors = new StringWriter();
+			event.thrown.printStackTrace(new PrintWriter(errors));
+			out.append(errors);
+		} else {
+			out.append(System.lineSeparator());
+		}
+	}
+
+	private static final class LogEvent {
+
+		private final long millis = System.currentTimeMillis();
+
+		private final Level level;
+
+		private final String message;
+
+		private final Throwable thrown;
+
+		LogEvent(Level level, String message, Throwable thrown) {
+			this.level = level;
+			this.message = message;
+			this.thrown = thrown;
+		}
+
 	}
 
 }
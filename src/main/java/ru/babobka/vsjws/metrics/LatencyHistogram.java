@@ -0,0 +1,139 @@
+package ru.babobka.vsjws.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations in microseconds, laid out like HdrHistogram: every
+ * power of two is split into {@value #SUB_BUCKETS} equal buckets, so any
+ * value is counted with an error below 1/{@value #SUB_BUCKETS} and the whole
+ * histogram is a fixed array. Recording is a single atomic increment, it
+ * never locks or allocates.
+ */
+public class LatencyHistogram {
+
+	static final int SUB_BUCKET_BITS = 4;
+
+	static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/**
+	 * Longer values, about 38 hours, are counted in the last bucket
+	 */
+	static final long MAX_MICROS = (1L << 37) - 1;
+
+	private static final int BUCKET_COUNT = bucketIndex(MAX_MICROS) + 1;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+	private final LongAdder sumMicros = new LongAdder();
+
+	public void record(long nanos) {
+		long micros = Math.min(Math.max(TimeUnit.NANOSECONDS.toMicros(nanos), 0), MAX_MICROS);
+		counts.incrementAndGet(bucketIndex(micros));
+		sumMicros.add(micros);
+	}
+
+	static int bucketIndex(long micros) {
+		if (micros < SUB_BUCKETS) {
+			return (int) micros;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(micros);
+		int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+		return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * @return the smallest value counted in a bucket
+	 */
+	static long lowestMicros(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+		int subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+		return (long) (SUB_BUCKETS + subBucket) << shift;
+	}
+
+	/**
+	 * @return the largest value counted in a bucket
+	 */
+	static long highestMicros(int index) {
+		return index == BUCKET_COUNT - 1 ? MAX_MICROS : lowestMicros(index + 1) - 1;
+	}
+
+	public long getCount() {
+		long count = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			count += counts.get(i);
+		}
+		return count;
+	}
+
+	public long getSumMicros() {
+		return sumMicros.sum();
+	}
+
+	/**
+	 * @param percentile
+	 *            in range [0;100]
+	 * @return the largest value of the bucket the percentile falls into or 0
+	 *         if nothing is recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException("Percentile must be in range [0;100]");
+		}
+		long[] snapshot = snapshot();
+		long total = 0;
+		for (long count : snapshot) {
+			total += count;
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+		long seen = 0;
+		for (int i = 0; i < snapshot.length; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return highestMicros(i);
+			}
+		}
+		return MAX_MICROS;
+	}
+
+	/**
+	 * @param boundsMicros
+	 *            ascending upper bounds
+	 * @return number of values up to each bound and the total number in the
+	 *         last element. A bucket is counted under a bound if it starts
+	 *         at or below the bound.
+	 */
+	public long[] getCumulativeCounts(long[] boundsMicros) {
+		long[] snapshot = snapshot();
+		long[] cumulative = new long[boundsMicros.length + 1];
+		int bound = 0;
+		long seen = 0;
+		for (int i = 0; i < snapshot.length; i++) {
+			while (bound < boundsMicros.length && lowestMicros(i) > boundsMicros[bound]) {
+				cumulative[bound++] = seen;
+			}
+			seen += snapshot[i];
+		}
+		while (bound < boundsMicros.length) {
+			cumulative[bound++] = seen;
+		}
+		cumulative[boundsMicros.length] = seen;
+		return cumulative;
+	}
+
+	private long[] snapshot() {
+		long[] snapshot = new long[BUCKET_COUNT];
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			snapshot[i] = counts.get(i);
+		}
+		return snapshot;
+	}
+
+}
@@ -0,0 +1,107 @@
+package ru.babobka.vsjws.metrics;
+
+import ru.babobka.vsjws.model.HttpResponse.ResponseCode;
+
+/**
+ * Times of a single request, filled in by the transport and the controller
+ * and recorded by {@link ServerMetrics#record(RequestTimer)}. Used by one
+ * thread at a time.
+ */
+public final class RequestTimer {
+
+	public enum Phase {
+		/**
+		 * Parsing the request head and building the request
+		 */
+		PARSE,
+		/**
+		 * Web filters before and after the handler
+		 */
+		FILTER,
+		/**
+		 * Controller method
+		 */
+		HANDLER,
+		/**
+		 * Compressing, encoding and sending the response
+		 */
+		WRITE
+	}
+
+	private static final Phase[] PHASES = Phase.values();
+
+	private final long startNanos;
+
+	private final long[] phaseNanos = new long[PHASES.length];
+
+	/**
+	 * Bit per phase that has been timed
+	 */
+	private int timedPhases;
+
+	private long writeStartNanos;
+
+	private String route = ServerMetrics.NO_ROUTE;
+
+	private ResponseCode responseCode;
+
+	public RequestTimer() {
+		this(System.nanoTime());
+	}
+
+	/**
+	 * @param startNanos
+	 *            {@link System#nanoTime()} when the request was read
+	 */
+	public RequestTimer(long startNanos) {
+		this.startNanos = startNanos;
+	}
+
+	public void add(Phase phase, long nanos) {
+		phaseNanos[phase.ordinal()] += nanos;
+		timedPhases |= 1 << phase.ordinal();
+	}
+
+	/**
+	 * @return time spent in a phase or -1 if it was not timed
+	 */
+	public long getNanos(Phase phase) {
+		return (timedPhases & 1 << phase.ordinal()) != 0 ? phaseNanos[phase.ordinal()] : -1;
+	}
+
+	public void startWrite() {
+		writeStartNanos = System.nanoTime();
+	}
+
+	public void endWrite() {
+		add(Phase.WRITE, System.nanoTime() - writeStartNanos);
+	}
+
+	public long getStartNanos() {
+		return startNanos;
+	}
+
+	/**
+	 * @return route pattern of the controller or {@link ServerMetrics#NO_ROUTE}
+	 */
+	public String getRoute() {
+		return route;
+	}
+
+	public void setRoute(String route) {
+		this.route = route;
+	}
+
+	public ResponseCode getResponseCode() {
+		return responseCode;
+	}
+
+	public void setResponseCode(ResponseCode responseCode) {
+		this.responseCode = responseCode;
+	}
+
+	static Phase[] phases() {
+		return PHASES;
+	}
+
+}
@@ -0,0 +1,234 @@
+package ru.babobka.vsjws.metrics;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import ru.babobka.vsjws.metrics.RequestTimer.Phase;
+import ru.babobka.vsjws.model.HttpResponse.ResponseCode;
+
+/**
+ * Request counts by route and status, latency histograms by route and by
+ * phase and any number of gauges, written in the Prometheus text format.
+ * Routes are controller patterns like <code>/users/{id}</code>, not request
+ * paths, so there are as many series as there are routes.
+ */
+public class ServerMetrics {
+
+	/**
+	 * Route of requests no controller was found for
+	 */
+	public static final String NO_ROUTE = "none";
+
+	private static final String PREFIX = "vsjws_";
+
+	/**
+	 * Upper bounds of the exposed histogram buckets
+	 */
+	private static final long[] BUCKET_BOUNDS_MICROS = { 100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000,
+			100000, 250000, 500000, 1000000, 2500000, 5000000, 10000000 };
+
+	private static final ResponseCode[] RESPONSE_CODES = ResponseCode.values();
+
+	private final Map<String, RouteMetrics> routes = new ConcurrentHashMap<>();
+
+	private final LatencyHistogram[] phases = new LatencyHistogram[RequestTimer.phases().length];
+
+	private final LongAdder connections = new LongAdder();
+
+	private final List<Sample> samples = new CopyOnWriteArrayList<>();
+
+	public ServerMetrics() {
+		for (int i = 0; i < phases.length; i++) {
+			phases[i] = new LatencyHistogram();
+		}
+	}
+
+	/**
+	 * Counts an answered request. Its latency lasts from the timer start
+	 * till now.
+	 */
+	public void record(RequestTimer timer) {
+		long latencyNanos = System.nanoTime() - timer.getStartNanos();
+		RouteMetrics route = routes.get(timer.getRoute());
+		if (route == null) {
+			route = routes.computeIfAbsent(timer.getRoute(), key -> new RouteMetrics());
+		}
+		route.latency.record(latencyNanos);
+		if (timer.getResponseCode() != null) {
+			route.statusCounts.incrementAndGet(timer.getResponseCode().ordinal());
+		}
+		for (Phase phase : RequestTimer.phases()) {
+			long nanos = timer.getNanos(phase);
+			if (nanos >= 0) {
+				phases[phase.ordinal()].record(nanos);
+			}
+		}
+	}
+
+	public void connectionOpened() {
+		connections.increment();
+	}
+
+	public void connectionClosed() {
+		connections.decrement();
+	}
+
+	public long getActiveConnections() {
+		return connections.sum();
+	}
+
+	/**
+	 * Adds a value that goes up and down, read when metrics are written
+	 *
+	 * @param name
+	 *            name without the <code>vsjws_</code> prefix
+	 */
+	public void addGauge(String name, String help, LongSupplier value) {
+		samples.add(new Sample(name, help, "gauge", value));
+	}
+
+	/**
+	 * Adds a value that only goes up, read when metrics are written
+	 *
+	 * @param name
+	 *            name without the <code>vsjws_</code> prefix, ending with
+	 *            <code>_total</code>
+	 */
+	public void addCounter(String name, String help, LongSupplier value) {
+		samples.add(new Sample(name, help, "counter", value));
+	}
+
+	/**
+	 * @return latency histogram of a route or null if it has no requests
+	 */
+	public LatencyHistogram getRouteHistogram(String route) {
+		RouteMetrics routeMetrics = routes.get(route);
+		return routeMetrics != null ? routeMetrics.latency : null;
+	}
+
+	public LatencyHistogram getPhaseHistogram(Phase phase) {
+		return phases[phase.ordinal()];
+	}
+
+	public long getRequestCount(String route, ResponseCode responseCode) {
+		RouteMetrics routeMetrics = routes.get(route);
+		return routeMetrics != null ? routeMetrics.statusCounts.get(responseCode.ordinal()) : 0;
+	}
+
+	/**
+	 * @return all metrics in the Prometheus text exposition format
+	 */
+	public String toPrometheusText() {
+		StringBuilder out = new StringBuilder(4096);
+		Map<String, RouteMetrics> sortedRoutes = new TreeMap<>(routes);
+		appendHeader(out, "requests_total", "Answered requests by route and status", "counter");
+		for (Map.Entry<String, RouteMetrics> route : sortedRoutes.entrySet()) {
+			for (ResponseCode code : RESPONSE_CODES) {
+				long count = route.getValue().statusCounts.get(code.ordinal());
+				if (count > 0) {
+					out.append(PREFIX).append("requests_total{route=\"");
+					appendLabelValue(out, route.getKey());
+					out.append("\",status=\"").append(code.getCode()).append("\"} ").append(count).append('\n');
+				}
+			}
+		}
+		appendHeader(out, "request_duration_seconds", "Time from reading a request to sending its response",
+				"histogram");
+		for (Map.Entry<String, RouteMetrics> route : sortedRoutes.entrySet()) {
+			StringBuilder label = new StringBuilder("route=\"");
+			appendLabelValue(label, route.getKey());
+			appendHistogram(out, "request_duration_seconds", label.append('"').toString(), route.getValue().latency);
+		}
+		appendHeader(out, "request_phase_duration_seconds", "Time spent in each phase of request handling",
+				"histogram");
+		for (Phase phase : RequestTimer.phases()) {
+			appendHistogram(out, "request_phase_duration_seconds",
+					"phase=\"" + phase.name().toLowerCase(Locale.ROOT) + "\"", phases[phase.ordinal()]);
+		}
+		appendHeader(out, "connections", "Open client connections", "gauge");
+		out.append(PREFIX).append("connections ").append(getActiveConnections()).append('\n');
+		for (Sample sample : samples) {
+			appendHeader(out, sample.name, sample.help, sample.type);
+			out.append(PREFIX).append(sample.name).append(' ').append(sample.value.getAsLong()).append('\n');
+		}
+		return out.toString();
+	}
+
+	private static void appendHeader(StringBuilder out, String name, String help, String type) {
+		out.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+		out.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+	}
+
+	private static void appendHistogram(StringBuilder out, String name, String label, LatencyHistogram histogram) {
+		long[] cumulative = histogram.getCumulativeCounts(BUCKET_BOUNDS_MICROS);
+		for (int i = 0; i < BUCKET_BOUNDS_MICROS.length; i++) {
+			out.append(PREFIX).append(name).append("_bucket{").append(label).append(",le=\"");
+			appendSeconds(out, BUCKET_BOUNDS_MICROS[i]);
+			out.append("\"} ").append(cumulative[i]).append('\n');
+		}
+		long count = cumulative[BUCKET_BOUNDS_MICROS.length];
+		out.append(PREFIX).append(name).append("_bucket{").append(label).append(",le=\"+Inf\"} ").append(count)
+				.append('\n');
+		out.append(PREFIX).append(name).append("_sum{").append(label).append("} ");
+		appendSeconds(out, histogram.getSumMicros());
+		out.append('\n');
+		out.append(PREFIX).append(name).append("_count{").append(label).append("} ").append(count).append('\n');
+	}
+
+	private static void appendSeconds(StringBuilder out, long micros) {
+		out.append(micros / 1000000).append('.');
+		String fraction = Long.toString(micros % 1000000);
+		for (int i = fraction.length(); i < 6; i++) {
+			out.append('0');
+		}
+		out.append(fraction);
+	}
+
+	private static void appendLabelValue(StringBuilder out, String value) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '\\' || c == '"') {
+				out.append('\\').append(c);
+			} else if (c == '\n') {
+				out.append("\\n");
+			} else {
+				out.append(c);
+			}
+		}
+	}
+
+	private static final class RouteMetrics {
+
+		private final LatencyHistogram latency = new LatencyHistogram();
+
+		private final AtomicLongArray statusCounts = new AtomicLongArray(RESPONSE_CODES.length);
+
+	}
+
+	private static final class Sample {
+
+		private final String name;
+
+		private final String help;
+
+		private final String type;
+
+		private final LongSupplier value;
+
+		Sample(String name, String help, String type, LongSupplier value) {
+			this.name = name;
+			this.help = help;
+			this.type = type;
+			this.value = value;
+		}
+
+	}
+
+}
@@ -0,0 +1,57 @@
+package ru.babobka.vsjws.model;
+
+/**
+ * Satisfiable range of a body. Both ends are inclusive like in the Range
+ * header.
+ */
+public class ByteRange {
+
+	private final long start;
+
+	private final long end;
+
+	public ByteRange(long start, long end) {
+		if (start < 0 || end < start) {
+			throw new IllegalArgumentException("Bad range " + start + "-" + end);
+		}
+		this.start = start;
+		this.end = end;
+	}
+
+	public long getStart() {
+		return start;
+	}
+
+	public long getEnd() {
+		return end;
+	}
+
+	public long getLength() {
+		return end - start + 1;
+	}
+
+	public String toContentRange(long totalLength) {
+		return "bytes " + start + "-" + end + "/" + totalLength;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof ByteRange))
+			return false;
+		ByteRange other = (ByteRange) obj;
+		return start == other.start && end == other.end;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * Long.hashCode(start) + Long.hashCode(end);
+	}
+
+	@Override
+	public String toString() {
+		return start + "-" + end;
+	}
+
+}
@@ -7,10 +7,11 @@ public class Header {
 	private final String value;
 
 	public Header(String headerLine) {
-		String[] headerArray = headerLine.split(":");
-		if (headerArray.length >= 2) {
-			key = headerArray[0];
-			value = headerArray[1].substring(1);
+		// Values like 'Host: localhost:8080' may contain colons too
+		int colon = headerLine.indexOf(':');
+		if (colon > 0) {
+			key = headerLine.substring(0, colon);
+			value = headerLine.substring(colon + 1).trim();
 		} else {
 			throw new IllegalArgumentException("Invalid header line: " + headerLine);
 		}
@@ -3,12 +3,22 @@ package ru.babobka.vsjws.model;
 import ru.babobka.vsjws.constant.Method;
 import ru.babobka.vsjws.exception.BadProtocolSpecifiedException;
 import ru.babobka.vsjws.exception.InvalidContentLengthException;
+import ru.babobka.vsjws.parser.MultipartParser;
+import ru.babobka.vsjws.router.PathParams;
+import ru.babobka.vsjws.session.LazySession;
+import ru.babobka.vsjws.session.SessionStore;
 import ru.babobka.vsjws.util.HttpUtil;
 import ru.babobka.vsjws.util.TextUtil;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
 import java.net.InetAddress;
-import java.util.HashMap;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -22,64 +32,139 @@ public class HttpRequest {
 
 	public static final String SESSION_ID_HEADER = "X-Session-Id";
 
+	public static final String COOKIE_HEADER = "Cookie";
+
+	public static final String CONTENT_TYPE_HEADER = "Content-Type";
+
+	public static final String IF_NONE_MATCH_HEADER = "If-None-Match";
+
+	public static final String IF_MODIFIED_SINCE_HEADER = "If-Modified-Since";
+
 	public static final String PROTOCOL = "HTTP/1.1";
 
-	private String method;
+	private final String method;
 
-	private String uri;
+	private final String uri;
 
-	private String body;
+	private final long contentLength;
 
-	private int contentLength = -1;
+	private Map<String, String> params;
 
-	private final Map<String, String> params = new HashMap<>();
+	private List<MultipartPart> parts;
 
-	private final Map<String, String> urlParams = new HashMap<>();
+	private final PathParams pathParams = new PathParams();
 
-	private final Map<String, String> cookies = new HashMap<>();
+	private Map<String, String> urlParams;
 
-	private final Map<String, String> headers = new HashMap<>();
+	private Map<String, String> cookies;
 
-	private final HttpSession httpSession;
+	private final RawHttpRequest rawHttpRequest;
+
+	private final SessionStore sessionStore;
+
+	private LazySession session;
 
 	private final InetAddress address;
 
-	public HttpRequest(InetAddress address, RawHttpRequest rawHttpRequest, HttpSession httpSession) {
-		this.headers.putAll(rawHttpRequest.getHeaders());
-		if (!headers.containsKey(HOST_HEADER)) {
+	private final MultipartConfig multipartConfig;
+
+	public HttpRequest(InetAddress address, RawHttpRequest rawHttpRequest, SessionStore sessionStore) {
+		this(address, rawHttpRequest, sessionStore, MultipartConfig.DEFAULT);
+	}
+
+	public HttpRequest(InetAddress address, RawHttpRequest rawHttpRequest, SessionStore sessionStore,
+			MultipartConfig multipartConfig) {
+		this.rawHttpRequest = rawHttpRequest;
+		this.multipartConfig = multipartConfig;
+		if (rawHttpRequest.getHeader(HOST_HEADER) == null) {
 			throw new IllegalArgumentException("Header 'Host' was not set");
 		}
-		if (rawHttpRequest.getFirstLine() == null) {
+		if (!rawHttpRequest.hasFirstLine()) {
 			throw new IllegalArgumentException("First line is empty");
 		}
-		String[] firstLineArray = rawHttpRequest.getFirstLine().split(" ");
-		if (firstLineArray.length < 3) {
+		if (rawHttpRequest.getProtocol() == null) {
 			throw new IllegalArgumentException("Bad first line");
 		}
-		this.method = firstLineArray[0];
-		this.contentLength = TextUtil.tryParseInt(headers.get(HttpRequest.CONTENT_LENGTH_HEADER), -1);
+		this.method = rawHttpRequest.getMethod();
+		this.contentLength = TextUtil.tryParseLong(rawHttpRequest.getHeader(HttpRequest.CONTENT_LENGTH_HEADER), -1);
 		if (method == null) {
 			throw new IllegalArgumentException("HTTP method was not specified");
 		} else if (!Method.isValidMethod(method)) {
 			throw new IllegalArgumentException("HTTP method is invalid");
-		} else if (isMethodWithContent(method) && contentLength == -1) {
+		} else if (isMethodWithContent(method) && contentLength == -1 && !rawHttpRequest.isChunked()) {
 			throw new InvalidContentLengthException("'Content-Length' header wasn't set properly");
 		}
-		this.uri = firstLineArray[1];
-		if (!firstLineArray[2].equals(PROTOCOL)) {
+		this.uri = rawHttpRequest.getUri();
+		if (!rawHttpRequest.getProtocol().equals(PROTOCOL)) {
 			throw new BadProtocolSpecifiedException();
 		}
-		this.cookies.putAll(HttpUtil.getCookies(rawHttpRequest.getHeaders().getOrDefault("Cookie", "")));
-		this.body = rawHttpRequest.getBody();
-		this.params.putAll(HttpUtil.getParams(body));
-		this.urlParams.putAll(HttpUtil.getUriParams(uri));
 		this.address = address;
-		this.httpSession = httpSession;
+		this.sessionStore = sessionStore;
 
 	}
 
 	public String getParam(String key) {
-		return params.getOrDefault(key, "");
+		return getParams().getOrDefault(key, "");
+	}
+
+	/**
+	 * @return form params. Fields of a multipart/form-data body are params
+	 *         too.
+	 */
+	public Map<String, String> getParams() {
+		if (params == null) {
+			String boundary = MultipartParser.getBoundary(rawHttpRequest.getHeader(CONTENT_TYPE_HEADER));
+			if (boundary != null) {
+				parseMultipart(boundary);
+			} else {
+				params = HttpUtil.getParams(getBody());
+			}
+		}
+		return params;
+	}
+
+	/**
+	 * @return uploaded files of a multipart/form-data body
+	 */
+	public List<MultipartPart> getParts() {
+		if (parts == null) {
+			getParams();
+		}
+		return parts != null ? parts : Collections.<MultipartPart>emptyList();
+	}
+
+	/**
+	 * @return first uploaded file with a given field name or null
+	 */
+	public MultipartPart getPart(String name) {
+		for (MultipartPart part : getParts()) {
+			if (part.getName().equals(name)) {
+				return part;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Deletes temp files of uploaded parts that were not moved
+	 */
+	public void deleteParts() {
+		if (parts != null) {
+			for (MultipartPart part : parts) {
+				part.delete();
+			}
+		}
+	}
+
+	private void parseMultipart(String boundary) {
+		MultipartParser parser = new MultipartParser(getBodyStream(), boundary, multipartConfig);
+		try {
+			parser.parse();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		parts = parser.getParts();
+		params = parser.getFields();
 	}
 
 	private boolean isMethodWithContent(String method) {
@@ -87,25 +172,102 @@ public class HttpRequest {
 
 	}
 
-	public Map<String, Serializable> getSession() {
-		return httpSession.get(cookies.get(SESSION_ID_HEADER));
+	/**
+	 * @return session of the client. It is created on the first write, so
+	 *         reading a missing session costs nothing.
+	 */
+	public LazySession getSession() {
+		if (session == null) {
+			session = new LazySession(sessionStore, getCookies().get(SESSION_ID_HEADER));
+		}
+		return session;
+	}
 
+	/**
+	 * @return value of the session cookie to send with the response or null
+	 */
+	public String getSessionCookieValue() {
+		return session != null ? session.getCookieValue() : null;
+	}
+
+	/**
+	 * @return id of the session this request has used or null. The store is
+	 *         not looked up if the request has not touched the session.
+	 */
+	public String getSessionId() {
+		return session != null ? session.getId() : null;
 	}
 
 	public Map<String, String> getCookies() {
+		if (cookies == null) {
+			String cookiesLine = rawHttpRequest.getHeader(COOKIE_HEADER);
+			cookies = HttpUtil.getCookies(cookiesLine != null ? cookiesLine : "");
+		}
 		return cookies;
 	}
 
+	/**
+	 * @return params of the matched route like <code>{id}</code>
+	 */
+	public PathParams getPathParams() {
+		return pathParams;
+	}
+
+	/**
+	 * @return decoded path param or empty string
+	 */
+	public String getPathParam(String name) {
+		String value = pathParams.get(name);
+		return value != null ? value : "";
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if the param is absent or is not a number, that ends up in
+	 *             400
+	 */
+	public int getPathParamAsInt(String name) {
+		return (int) getPathParamAsLong(name, Integer.MIN_VALUE, Integer.MAX_VALUE);
+	}
+
+	public long getPathParamAsLong(String name) {
+		return getPathParamAsLong(name, Long.MIN_VALUE, Long.MAX_VALUE);
+	}
+
+	private long getPathParamAsLong(String name, long min, long max) {
+		String value = pathParams.get(name);
+		try {
+			long number = Long.parseLong(value);
+			if (number >= min && number <= max) {
+				return number;
+			}
+		} catch (NumberFormatException e) {
+			// Reported below
+		}
+		throw new IllegalArgumentException("Path param '" + name + "' is not a valid number: " + value);
+	}
+
 	public String getUrlParam(String key) {
-		return urlParams.getOrDefault(key, "");
+		return getUrlParams().getOrDefault(key, "");
 	}
 
+	/**
+	 * @return header value or empty string. Case of the name does not matter.
+	 */
 	public String getHeader(String key) {
-		return headers.getOrDefault(key, "");
+		String value = rawHttpRequest.getHeader(key);
+		return value != null ? value : "";
+
+	}
 
+	public Map<String, String> getHeaders() {
+		return rawHttpRequest.getHeaders();
 	}
 
 	public Map<String, String> getUrlParams() {
+		if (urlParams == null) {
+			urlParams = HttpUtil.getUriParams(uri);
+		}
 		return urlParams;
 	}
 
@@ -118,18 +280,31 @@ public class HttpRequest {
 	}
 
 	public String getBody() {
-		return body;
+		return rawHttpRequest.getBody();
+	}
+
+	/**
+	 * Reads the body without turning it into a string. Big bodies come right
+	 * from the connection, such a stream can be read only once.
+	 */
+	public InputStream getBodyStream() {
+		return rawHttpRequest.getBodyStream();
+	}
+
+	public ReadableByteChannel getBodyChannel() {
+		return Channels.newChannel(getBodyStream());
 	}
 
 	@Override
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
+		String body = getBody();
 		result = prime * result + ((body == null) ? 0 : body.hashCode());
 		result = prime * result + ((method == null) ? 0 : method.hashCode());
-		result = prime * result + ((params == null) ? 0 : params.hashCode());
+		result = prime * result + getParams().hashCode();
 		result = prime * result + ((uri == null) ? 0 : uri.hashCode());
-		result = prime * result + ((urlParams == null) ? 0 : urlParams.hashCode());
+		result = prime * result + getUrlParams().hashCode();
 		return result;
 	}
 
@@ -137,7 +312,10 @@ public class HttpRequest {
 		return address;
 	}
 
-	public int getContentLength() {
+	/**
+	 * @return declared body length or -1 if the body is chunked
+	 */
+	public long getContentLength() {
 		return contentLength;
 	}
 
@@ -150,39 +328,35 @@ public class HttpRequest {
 		if (getClass() != obj.getClass())
 			return false;
 		HttpRequest other = (HttpRequest) obj;
+		String body = getBody();
 		if (body == null) {
-			if (other.body != null)
+			if (other.getBody() != null)
 				return false;
-		} else if (!body.equals(other.body))
+		} else if (!body.equals(other.getBody()))
 			return false;
 		if (method == null) {
 			if (other.method != null)
 				return false;
 		} else if (!method.equals(other.method))
 			return false;
-		if (params == null) {
-			if (other.params != null)
-				return false;
-		} else if (!params.equals(other.params))
+		if (!getParams().equals(other.getParams()))
 			return false;
 		if (uri == null) {
 			if (other.uri != null)
 				return false;
 		} else if (!uri.equals(other.uri))
 			return false;
-		if (urlParams == null) {
-			if (other.urlParams != null)
-				return false;
-		} else if (!urlParams.equals(other.urlParams))
+		if (!getUrlParams().equals(other.getUrlParams()))
 			return false;
 		return true;
 	}
 
 	@Override
 	public String toString() {
-		return "HttpRequest [method=" + method + ", uri=" + uri + ", body=" + body + ", contentLength=" + contentLength
-				+ ", params=" + params + ", urlParams=" + urlParams + ", cookies=" + cookies + ", headers=" + headers
-				+ ", httpSession=" + httpSession + ", address=" + address + "]";
+		return "HttpRequest [method=" + method + ", uri=" + uri + ", body=" + getBody() + ", contentLength="
+				+ contentLength + ", params=" + getParams() + ", urlParams=" + getUrlParams() + ", cookies="
+				+ getCookies() + ", headers=" + getHeaders() + ", session=" + session + ", address=" + address
+				+ "]";
 	}
 
 	
@@ -4,14 +4,22 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
 
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
@@ -33,6 +41,8 @@ import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
 
 import ru.babobka.vsjws.constant.ContentType;
 import ru.babobka.vsjws.constant.RegularExpressions;
+import ru.babobka.vsjws.util.HttpUtil;
+import ru.babobka.vsjws.util.RangeUtil;
 import ru.babobka.vsjws.util.TextUtil;
 
 public class HttpResponse {
@@ -41,7 +51,9 @@ public class HttpResponse {
 
 	public enum RestrictedHeader {
 
-		SERVER("Server"), CONTENT_TYPE("Content-Type"), CONTENT_LENGTH("Content-Length"), CONNECTION("Connection");
+		SERVER("Server"), CONTENT_TYPE("Content-Type"), CONTENT_LENGTH("Content-Length"), CONNECTION("Connection"),
+
+		TRANSFER_ENCODING("Transfer-Encoding"), DATE("Date");
 
 		private final String text;
 
@@ -63,8 +75,12 @@ public class HttpResponse {
 
 		MOVED_TEMPORARILY(302, "Moved temporarily"),
 
+		PARTIAL_CONTENT(206, "Partial content"),
+
 		SEE_OTHER(303, "See other"),
 
+		NOT_MODIFIED(304, "Not modified"),
+
 		NOT_FOUND(404, "Not found"),
 
 		UNAUTHORIZED(401, "Unauthorized"),
@@ -83,9 +99,13 @@ public class HttpResponse {
 
 		LENGTH_REQUIRED(411, "Length required"),
 
+		PAYLOAD_TOO_LARGE(413, "Payload too large"),
+
 		HTTP_VERSION_NOT_SUPPORTED(505, "HTTP version not supported"),
 
-		REQUEST_TIMEOUT(408, "Request Timeout");
+		REQUEST_TIMEOUT(408, "Request Timeout"),
+
+		RANGE_NOT_SATISFIABLE(416, "Range not satisfiable");
 
 		private final String text;
 		private final int code;
@@ -103,6 +123,13 @@ public class HttpResponse {
 			return text;
 		}
 
+		/**
+		 * @return false for codes that are never followed by a body
+		 */
+		public boolean hasContent() {
+			return code >= 200 && code != 204 && code != 304;
+		}
+
 		@Override
 		public String toString() {
 			return code + " " + text;
@@ -112,66 +139,179 @@ public class HttpResponse {
 
 	public static final Charset MAIN_ENCODING = Charset.forName("UTF-8");
 
+	public static final String ETAG_HEADER = "ETag";
+
+	public static final String LAST_MODIFIED_HEADER = "Last-Modified";
+
+	public static final String ACCEPT_RANGES_HEADER = "Accept-Ranges";
+
+	public static final String CONTENT_RANGE_HEADER = "Content-Range";
+
+	/**
+	 * Headers that a 304 response repeats after the full one
+	 */
+	private static final String[] NOT_MODIFIED_HEADERS = { ETAG_HEADER, LAST_MODIFIED_HEADER, "Cache-Control",
+			"Expires", "Vary", "Content-Location" };
+
 	public static final HttpResponse NOT_FOUND_RESPONSE = textResponse(ResponseCode.NOT_FOUND.toString(),
-			ResponseCode.NOT_FOUND, ContentType.PLAIN);
+			ResponseCode.NOT_FOUND, ContentType.PLAIN).freeze();
 
 	public static final HttpResponse LENGTH_REQUIRED_RESPONSE = textResponse(ResponseCode.LENGTH_REQUIRED.toString(),
-			ResponseCode.LENGTH_REQUIRED, ContentType.PLAIN);
+			ResponseCode.LENGTH_REQUIRED, ContentType.PLAIN).freeze();
 
 	public static final HttpResponse NOT_IMPLEMENTED_RESPONSE = textResponse(ResponseCode.NOT_IMPLEMENTED.toString(),
-			ResponseCode.NOT_IMPLEMENTED, ContentType.PLAIN);
+			ResponseCode.NOT_IMPLEMENTED, ContentType.PLAIN).freeze();
 
 	private static final Tika tika = new Tika();
 
+	private static final RestrictedHeader[] RESTRICTED_HEADERS = RestrictedHeader.values();
+
 	private final Map<String, String> otherHeaders = new LinkedHashMap<>();
 
-	private final Map<String, String> cookies = new HashMap<>();
+	private final Map<String, String> otherHeadersView = Collections.unmodifiableMap(otherHeaders);
+
+	private final Map<String, String> cookies = new LinkedHashMap<>();
+
+	private final Map<String, String> cookiesView = Collections.unmodifiableMap(cookies);
+
+	/**
+	 * Frozen response is never changed. Its add methods work on a copy.
+	 */
+	private boolean frozen;
 
 	private final ResponseCode responseCode;
 
 	private final String contentType;
 
-	private final byte[] content;
+	private final ResponseBody body;
 
 	private final File file;
 
+	/**
+	 * Position of the body in the file
+	 */
+	private final long offset;
+
 	private final long contentLength;
 
+	private final List<HttpResponse> parts;
+
+	private final StreamingBody streamingBody;
+
+	/**
+	 * Adds a header. A frozen response is not changed, the header is added to
+	 * its copy.
+	 *
+	 * @return this response or its copy, the result must be used
+	 */
 	public HttpResponse addHeader(String key, String value) {
 
-		for (RestrictedHeader header : RestrictedHeader.values()) {
+		for (RestrictedHeader header : RESTRICTED_HEADERS) {
 			if (header.toString().equals(key)) {
 				throw new IllegalArgumentException(
 						"You can not manually specify '" + key + "' header. It is restricted.");
 			}
 		}
+		HttpResponse response = frozen ? copy() : this;
 		if (key.endsWith(":")) {
-			otherHeaders.put(key, value);
+			response.otherHeaders.put(key, value);
 		} else {
-			otherHeaders.put(key + ":", value);
+			response.otherHeaders.put(key + ":", value);
 		}
 
-		return this;
+		return response;
 	}
 
 	public HttpResponse addHeader(String key, long value) {
 		return addHeader(key, String.valueOf(value));
 	}
 
+	/**
+	 * Creates response with a copy of the content. Factory methods do not copy.
+	 */
 	public HttpResponse(ResponseCode code, String contentType, byte[] content, File file, long contentLength) {
+		this(code, contentType, content != null ? ResponseBody.of(copyContent(content, contentLength)) : null, file, 0,
+				contentLength, null, null);
+	}
+
+	private static byte[] copyContent(byte[] content, long contentLength) {
+		return Arrays.copyOf(content, (int) Math.min(content.length, contentLength));
+	}
+
+	private HttpResponse(ResponseCode code, String contentType, ResponseBody body, File file, long offset,
+			long contentLength, List<HttpResponse> parts, StreamingBody streamingBody) {
 		super();
 		this.responseCode = code;
 		this.contentType = contentType;
-		if (content != null)
-			this.content = content.clone();
-		else
-			this.content = null;
+		this.body = body;
 		this.file = file;
+		this.offset = offset;
 		this.contentLength = contentLength;
+		this.parts = parts;
+		this.streamingBody = streamingBody;
+	}
+
+	private HttpResponse(ResponseCode code, String contentType, ResponseBody body) {
+		this(code, contentType, body, null, 0, body.length(), null, null);
+	}
+
+	/**
+	 * Creates response over the given bytes without copying them. The bytes
+	 * must not be changed afterwards, so they can be shared by many responses.
+	 */
+	public static HttpResponse sharedResponse(byte[] content, ResponseCode code, String contentType) {
+		return new HttpResponse(code, contentType, ResponseBody.of(content));
+	}
+
+	/**
+	 * Creates response over a body of heap, direct or mapped buffers. Nothing
+	 * is copied.
+	 */
+	public static HttpResponse bodyResponse(ResponseBody body, ResponseCode code, String contentType) {
+		if (body == null) {
+			throw new IllegalArgumentException("Body can not be null");
+		}
+		return new HttpResponse(code, contentType, body);
+	}
+
+	public static HttpResponse bodyResponse(ResponseBody body, String contentType) {
+		return bodyResponse(body, ResponseCode.OK, contentType);
+	}
+
+	/**
+	 * Creates response which body is written by the given sink while it is
+	 * being sent. The length is not known in advance, so the body goes out
+	 * with chunked transfer coding.
+	 */
+	public static HttpResponse streamResponse(StreamingBody body, ResponseCode code, String contentType) {
+		if (body == null) {
+			throw new IllegalArgumentException("Body can not be null");
+		}
+		return new HttpResponse(code, contentType, null, null, 0, -1, null, body);
+	}
+
+	public static HttpResponse streamResponse(StreamingBody body, String contentType) {
+		return streamResponse(body, ResponseCode.OK, contentType);
+	}
+
+	/**
+	 * Creates streaming response that sends every supplied piece as a chunk
+	 */
+	public static HttpResponse streamResponse(Iterator<byte[]> chunks, ResponseCode code, String contentType) {
+		return streamResponse(os -> {
+			while (chunks.hasNext()) {
+				os.write(chunks.next());
+				os.flush();
+			}
+		}, code, contentType);
 	}
 
+	/**
+	 * Creates response over the given bytes without copying them. The bytes
+	 * must not be changed afterwards.
+	 */
 	public static HttpResponse rawResponse(byte[] content, ResponseCode code, String contentType) {
-		return new HttpResponse(code, contentType, content, null, content.length);
+		return sharedResponse(content, code, contentType);
 	}
 
 	public static HttpResponse rawResponse(byte[] content, String contentType) {
@@ -180,7 +320,13 @@ public class HttpResponse {
 
 	public static HttpResponse fileResponse(File file, ResponseCode code) throws IOException {
 		if (file.exists() && file.isFile()) {
-			return new HttpResponse(code, tika.detect(file), null, file, file.length());
+			long lastModified = file.lastModified();
+			long length = file.length();
+			return new HttpResponse(code, tika.detect(file), null, file, 0, length, null, null)
+					.addHeader(ETAG_HEADER,
+							"\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(length) + "\"")
+					.addHeader(LAST_MODIFIED_HEADER, HttpUtil.formatDate(lastModified))
+					.addHeader(ACCEPT_RANGES_HEADER, RangeUtil.BYTES_UNIT);
 		} else {
 			throw new FileNotFoundException();
 		}
@@ -191,7 +337,7 @@ public class HttpResponse {
 		InputStream is = Thread.currentThread().getContextClassLoader().getResourceAsStream(fileName);
 		if (is != null) {
 			byte[] bytes = IOUtils.toByteArray(is);
-			return new HttpResponse(code, tika.detect(bytes), bytes, null, bytes.length);
+			return sharedResponse(bytes, code, tika.detect(bytes));
 		} else {
 			throw new FileNotFoundException();
 		}
@@ -205,7 +351,7 @@ public class HttpResponse {
 
 	public static HttpResponse resourceResponse(InputStream is, ResponseCode code) throws IOException {
 		byte[] bytes = IOUtils.toByteArray(is);
-		return new HttpResponse(code, tika.detect(bytes), bytes, null, bytes.length);
+		return sharedResponse(bytes, code, tika.detect(bytes));
 
 	}
 
@@ -332,8 +478,7 @@ public class HttpResponse {
 		if (content == null) {
 			throw new IllegalArgumentException();
 		}
-		byte[] bytes = content.getBytes(MAIN_ENCODING);
-		return new HttpResponse(code, contentType, bytes, null, bytes.length);
+		return sharedResponse(content.getBytes(MAIN_ENCODING), code, contentType);
 	}
 
 	public static HttpResponse textResponse(Object content, ResponseCode code, String contentType) {
@@ -375,11 +520,146 @@ public class HttpResponse {
 		return textResponse(content, ResponseCode.OK, contentType);
 	}
 
+	/**
+	 * Adds a cookie. A frozen response is not changed, the cookie is added to
+	 * its copy.
+	 *
+	 * @return this response or its copy, the result must be used
+	 */
 	public HttpResponse addCookie(String key, String value) {
-		cookies.put(key, value);
+		HttpResponse response = frozen ? copy() : this;
+		response.cookies.put(key, value);
+		return response;
+	}
+
+	/**
+	 * Makes the response immutable, so it can be prebuilt and shared. Must be
+	 * called before the response is published to other threads.
+	 */
+	public HttpResponse freeze() {
+		frozen = true;
 		return this;
 	}
 
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	/**
+	 * @return mutable copy that shares the body
+	 */
+	public HttpResponse copy() {
+		HttpResponse response = new HttpResponse(responseCode, contentType, body, file, offset, contentLength, parts,
+				streamingBody);
+		response.otherHeaders.putAll(otherHeaders);
+		response.cookies.putAll(cookies);
+		return response;
+	}
+
+	/**
+	 * Creates a bodiless 304 answer that replaces this response when the
+	 * client already has it
+	 */
+	public HttpResponse notModified() {
+		HttpResponse response = new HttpResponse(ResponseCode.NOT_MODIFIED, contentType, null, null, 0, 0, null, null);
+		for (String header : NOT_MODIFIED_HEADERS) {
+			String value = getHeader(header);
+			if (value != null) {
+				response.otherHeaders.put(header + ":", value);
+			}
+		}
+		response.cookies.putAll(cookies);
+		return response;
+	}
+
+	/**
+	 * Creates a 206 answer with the given ranges of this response body. A
+	 * single range is sent as is, several ones as multipart/byteranges. The
+	 * body is shared, nothing is copied.
+	 */
+	public HttpResponse partialResponse(List<ByteRange> ranges) {
+		if (ranges.isEmpty()) {
+			throw new IllegalArgumentException("No ranges");
+		}
+		HttpResponse response;
+		if (ranges.size() == 1) {
+			ByteRange range = ranges.get(0);
+			response = slice(range);
+			response.otherHeaders.put(CONTENT_RANGE_HEADER + ":", range.toContentRange(contentLength));
+		} else {
+			String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong());
+			List<HttpResponse> rangeParts = new ArrayList<>(ranges.size() * 2 + 1);
+			long length = 0;
+			for (ByteRange range : ranges) {
+				byte[] partHeader = ("\r\n--" + boundary + "\r\n" + RestrictedHeader.CONTENT_TYPE + ": " + contentType
+						+ "\r\n" + CONTENT_RANGE_HEADER + ": " + range.toContentRange(contentLength) + "\r\n\r\n")
+								.getBytes(MAIN_ENCODING);
+				rangeParts.add(sharedResponse(partHeader, ResponseCode.OK, contentType));
+				rangeParts.add(slice(range));
+				length += partHeader.length + range.getLength();
+			}
+			byte[] end = ("\r\n--" + boundary + "--\r\n").getBytes(MAIN_ENCODING);
+			rangeParts.add(sharedResponse(end, ResponseCode.OK, contentType));
+			length += end.length;
+			response = new HttpResponse(ResponseCode.PARTIAL_CONTENT, "multipart/byteranges; boundary=" + boundary,
+					null, null, 0, length, Collections.unmodifiableList(rangeParts), null);
+		}
+		for (Map.Entry<String, String> header : otherHeaders.entrySet()) {
+			response.otherHeaders.putIfAbsent(header.getKey(), header.getValue());
+		}
+		response.cookies.putAll(cookies);
+		return response;
+	}
+
+	/**
+	 * Creates a response that has the code, type, headers and cookies of this
+	 * one and another body. The bytes are not copied.
+	 */
+	public HttpResponse withContent(byte[] newContent) {
+		HttpResponse response = new HttpResponse(responseCode, contentType, ResponseBody.of(newContent));
+		response.otherHeaders.putAll(otherHeaders);
+		response.cookies.putAll(cookies);
+		return response;
+	}
+
+	private HttpResponse slice(ByteRange range) {
+		if (parts != null || streamingBody != null) {
+			throw new IllegalStateException("Multipart or streaming response can not be sliced");
+		}
+		if (body != null) {
+			return new HttpResponse(ResponseCode.PARTIAL_CONTENT, contentType,
+					body.slice(range.getStart(), range.getLength()));
+		}
+		return new HttpResponse(ResponseCode.PARTIAL_CONTENT, contentType, null, file, offset + range.getStart(),
+				range.getLength(), null, null);
+	}
+
+	/**
+	 * @return value of a header added by {@link #addHeader(String, String)} or
+	 *         null. The name is case insensitive.
+	 */
+	public String getHeader(String key) {
+		for (Map.Entry<String, String> header : otherHeaders.entrySet()) {
+			String name = header.getKey();
+			if (name.length() == key.length() + 1 && name.regionMatches(true, 0, key, 0, key.length())) {
+				return header.getValue();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return cookies to be set, name to value
+	 */
+	public Map<String, String> getCookies() {
+		return cookiesView;
+	}
+
+	/**
+	 * @deprecated a map holds a single Set-Cookie header, use
+	 *             {@link #getCookies()}
+	 */
+	@Deprecated
 	public Map<String, String> getHttpCookieHeaders() {
 		HashMap<String, String> headers = new HashMap<>();
 		for (Map.Entry<String, String> cookie : cookies.entrySet()) {
@@ -396,12 +676,66 @@ public class HttpResponse {
 		return contentType;
 	}
 
+	/**
+	 * @return copy of the content
+	 */
 	public byte[] getContent() {
-		if (content != null)
-			return content.clone();
+		if (body != null)
+			return body.toByteArray();
 		return new byte[0];
 	}
 
+	/**
+	 * @return body kept in memory or null if the body is a file, parts or a
+	 *         stream
+	 */
+	public ResponseBody getBody() {
+		return body;
+	}
+
+	/**
+	 * @return read only view of the content. Nothing is copied unless the body
+	 *         is made of several buffers.
+	 */
+	public ByteBuffer getContentBuffer() {
+		if (body != null)
+			return body.asByteBuffer();
+		return ByteBuffer.allocate(0);
+	}
+
+	/**
+	 * Writes the content without copying it
+	 */
+	public void writeContent(OutputStream os) throws IOException {
+		if (body != null)
+			body.writeTo(os);
+	}
+
+	/**
+	 * @return position of the body in the file
+	 */
+	public long getOffset() {
+		return offset;
+	}
+
+	public boolean isStreaming() {
+		return streamingBody != null;
+	}
+
+	/**
+	 * @return body sink of a streaming response or null
+	 */
+	public StreamingBody getStreamingBody() {
+		return streamingBody;
+	}
+
+	/**
+	 * @return parts the body is made of or null if it is a single piece
+	 */
+	public List<HttpResponse> getParts() {
+		return parts;
+	}
+
 	public long getContentLength() {
 		return contentLength;
 	}
@@ -410,8 +744,11 @@ public class HttpResponse {
 		return file;
 	}
 
+	/**
+	 * @return read only headers. Names end with a colon.
+	 */
 	public Map<String, String> getOtherHeaders() {
-		return otherHeaders;
+		return otherHeadersView;
 	}
 
 	public static class MapEntryConverter implements Converter {
@@ -0,0 +1,81 @@
+package ru.babobka.vsjws.model;
+
+import java.io.File;
+
+/**
+ * Limits of multipart/form-data requests. Sizes below zero mean no limit.
+ */
+public class MultipartConfig {
+
+	public static final int DEFAULT_FILE_SIZE_THRESHOLD = 64 * 1024;
+
+	public static final int DEFAULT_MAX_FIELD_SIZE = 64 * 1024;
+
+	public static final MultipartConfig DEFAULT = new MultipartConfig(DEFAULT_FILE_SIZE_THRESHOLD,
+			DEFAULT_MAX_FIELD_SIZE, -1, -1, null);
+
+	private final int fileSizeThreshold;
+
+	private final int maxFieldSize;
+
+	private final long maxPartSize;
+
+	private final long maxTotalSize;
+
+	private final File tempDir;
+
+	/**
+	 * @param fileSizeThreshold
+	 *            file parts bigger than that are written to temp files
+	 * @param maxFieldSize
+	 *            biggest part without a file name. Such parts become request
+	 *            params and are always kept in memory.
+	 * @param maxPartSize
+	 *            biggest part
+	 * @param maxTotalSize
+	 *            biggest sum of all part sizes
+	 * @param tempDir
+	 *            directory of temp files or null for the default one
+	 */
+	public MultipartConfig(int fileSizeThreshold, int maxFieldSize, long maxPartSize, long maxTotalSize,
+			File tempDir) {
+		if (fileSizeThreshold < 0) {
+			throw new IllegalArgumentException("File size threshold must be >= 0");
+		}
+		if (maxFieldSize < 0) {
+			throw new IllegalArgumentException("Max field size must be >= 0");
+		}
+		this.fileSizeThreshold = fileSizeThreshold;
+		this.maxFieldSize = maxFieldSize;
+		this.maxPartSize = maxPartSize;
+		this.maxTotalSize = maxTotalSize;
+		this.tempDir = tempDir;
+	}
+
+	public int getFileSizeThreshold() {
+		return fileSizeThreshold;
+	}
+
+	public int getMaxFieldSize() {
+		return maxFieldSize;
+	}
+
+	public long getMaxPartSize() {
+		return maxPartSize;
+	}
+
+	public long getMaxTotalSize() {
+		return maxTotalSize;
+	}
+
+	public File getTempDir() {
+		return tempDir;
+	}
+
+	@Override
+	public String toString() {
+		return "MultipartConfig [fileSizeThreshold=" + fileSizeThreshold + ", maxFieldSize=" + maxFieldSize
+				+ ", maxPartSize=" + maxPartSize + ", maxTotalSize=" + maxTotalSize + ", tempDir=" + tempDir + "]";
+	}
+
+}
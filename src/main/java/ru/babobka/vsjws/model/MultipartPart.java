@@ -0,0 +1,138 @@
+package ru.babobka.vsjws.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Uploaded part of a multipart/form-data request. Its content is either in
+ * memory or in a temp file. Temp files are deleted after the controller
+ * returns, so use {@link #moveTo(File)} to keep one.
+ */
+public class MultipartPart {
+
+	private final String name;
+
+	private final String fileName;
+
+	private final String contentType;
+
+	private final long size;
+
+	private final byte[] content;
+
+	private volatile File file;
+
+	public MultipartPart(String name, String fileName, String contentType, byte[] content) {
+		this(name, fileName, contentType, content, null, content.length);
+	}
+
+	public MultipartPart(String name, String fileName, String contentType, File file, long size) {
+		this(name, fileName, contentType, null, file, size);
+	}
+
+	private MultipartPart(String name, String fileName, String contentType, byte[] content, File file, long size) {
+		this.name = name;
+		this.fileName = fileName;
+		this.contentType = contentType;
+		this.content = content;
+		this.file = file;
+		this.size = size;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return file name without a path or null if the part is not a file
+	 */
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * @return content type or null if it was not sent
+	 */
+	public String getContentType() {
+		return contentType;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public boolean isInMemory() {
+		return content != null;
+	}
+
+	/**
+	 * @return temp file or null if the part is in memory
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	public InputStream getInputStream() throws IOException {
+		if (content != null) {
+			return new ByteArrayInputStream(content);
+		}
+		return Files.newInputStream(existingFile().toPath());
+	}
+
+	/**
+	 * Reads the whole part. Meant for small parts.
+	 */
+	public byte[] getBytes() throws IOException {
+		if (content != null) {
+			return content.clone();
+		}
+		return Files.readAllBytes(existingFile().toPath());
+	}
+
+	public String getString() throws IOException {
+		return new String(getBytes(), HttpResponse.MAIN_ENCODING);
+	}
+
+	/**
+	 * Saves the part to a given file. Temp file is moved, so it is not deleted
+	 * after the request.
+	 */
+	public void moveTo(File destination) throws IOException {
+		if (content != null) {
+			Files.write(destination.toPath(), content);
+			return;
+		}
+		Files.move(existingFile().toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		file = null;
+	}
+
+	/**
+	 * Deletes the temp file if it is still there
+	 */
+	public void delete() {
+		File currentFile = file;
+		if (currentFile != null) {
+			currentFile.delete();
+			file = null;
+		}
+	}
+
+	private File existingFile() throws IOException {
+		File currentFile = file;
+		if (currentFile == null) {
+			throw new IOException("Part '" + name + "' was moved or deleted");
+		}
+		return currentFile;
+	}
+
+	@Override
+	public String toString() {
+		return "MultipartPart [name=" + name + ", fileName=" + fileName + ", contentType=" + contentType + ", size="
+				+ size + ", inMemory=" + isInMemory() + "]";
+	}
+
+}
@@ -1,69 +1,210 @@
 package ru.babobka.vsjws.model;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.HashMap;
+import java.io.UncheckedIOException;
 import java.util.Map;
+import java.util.TreeMap;
 
+import ru.babobka.vsjws.io.ByteBufferInputStream;
+import ru.babobka.vsjws.parser.HttpRequestParser;
 import ru.babobka.vsjws.util.HttpUtil;
-import ru.babobka.vsjws.util.TextUtil;
 
+/**
+ * Request as it came from a client. Header names are case insensitive.
+ * <p>
+ * Request made by {@link HttpRequestParser} decodes its parts on demand and is
+ * backed by the connection buffer. It can not be read after the parser moves
+ * on to the next request of the connection, that is after its response is
+ * written.
+ */
 public class RawHttpRequest {
 
-	private final Map<String, String> headers = new HashMap<>();
+	private final HttpRequestParser parser;
+
+	private final int generation;
+
+	private InputStream bodyStream;
+
+	private byte[] bodyBytes;
+
+	private Map<String, String> headers;
 
 	private String body;
 
 	private String firstLine;
 
+	private String method;
+
+	private String uri;
+
+	private String protocol;
+
 	public RawHttpRequest(String firstLine, Map<String, String> headers, String body) {
 		super();
+		this.parser = null;
+		this.generation = 0;
 		this.body = body;
 		this.firstLine = firstLine;
+		this.headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
 		if (headers != null)
-			this.headers.putAll(headers); 
+			this.headers.putAll(headers);
+		if (firstLine != null) {
+			String[] firstLineArray = firstLine.split(" ");
+			if (firstLineArray.length >= 3) {
+				method = firstLineArray[0];
+				uri = firstLineArray[1];
+				protocol = firstLineArray[2];
+			}
+		}
 	}
 
 	public RawHttpRequest(InputStream is) throws IOException {
-		int row = 0;
-		BufferedReader br = new BufferedReader(new InputStreamReader(is));
-		String line;
-		while ((line = br.readLine()) != null) {
-			if (line.isEmpty()) {
-				int contentLength = TextUtil.tryParseInt(headers.get(HttpRequest.CONTENT_LENGTH_HEADER));
-				this.body = HttpUtil.readBody(contentLength, br);
-				break;
-			}
-			if (row == 0) {
-				firstLine = line;
-			} else {
-				Header header = new Header(line);
-				headers.put(header.getKey(), header.getValue());
+		this(read(is));
+	}
+
+	/**
+	 * Creates request over the parsed bytes. The parser may be still empty if
+	 * nothing was received.
+	 */
+	public RawHttpRequest(HttpRequestParser parser) {
+		this(parser, null);
+	}
+
+	/**
+	 * @param source
+	 *            stream the rest of a streamed body comes from
+	 */
+	public RawHttpRequest(HttpRequestParser parser, InputStream source) {
+		this.parser = parser.isComplete() ? parser : null;
+		this.generation = parser.getGeneration();
+		if (this.parser == null) {
+			headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+		} else if (parser.isBodyStreamed()) {
+			if (source == null) {
+				throw new IllegalArgumentException("Streamed body needs a source");
 			}
-			row++;
+			bodyStream = parser.getBodyStream(source);
+		}
+	}
+
+	private static HttpRequestParser read(InputStream is) throws IOException {
+		HttpRequestParser parser = new HttpRequestParser();
+		parser.readRequest(is);
+		return parser;
+	}
+
+	private HttpRequestParser parser() {
+		if (parser.getGeneration() != generation) {
+			throw new IllegalStateException("Request is not available after its response was written");
 		}
+		return parser;
+	}
 
+	public String getHeader(String key) {
+		if (headers != null) {
+			return headers.get(key);
+		}
+		return parser().getHeader(key);
 	}
 
 	public Map<String, String> getHeaders() {
+		if (headers == null) {
+			HttpRequestParser currentParser = parser();
+			Map<String, String> parsedHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+			for (int i = 0; i < currentParser.getHeaderCount(); i++) {
+				parsedHeaders.putIfAbsent(currentParser.getHeaderName(i), currentParser.getHeaderValue(i));
+			}
+			headers = parsedHeaders;
+		}
 		return headers;
 	}
 
 	public String getBody() {
+		if (body == null && parser != null) {
+			if (bodyStream != null) {
+				try {
+					bodyBytes = HttpUtil.readBody(bodyStream, parser().getBodyLength());
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				bodyStream = null;
+			}
+			if (bodyBytes != null) {
+				body = new String(bodyBytes, HttpResponse.MAIN_ENCODING);
+			} else {
+				body = parser().getBody();
+			}
+		}
 		return body;
 	}
 
+	/**
+	 * @return body bytes. Streamed body is returned as is, so it can be read
+	 *         only once.
+	 */
+	public InputStream getBodyStream() {
+		if (bodyStream != null) {
+			return bodyStream;
+		} else if (bodyBytes != null) {
+			return new ByteArrayInputStream(bodyBytes);
+		} else if (parser != null) {
+			return new ByteBufferInputStream(parser().getBodyBuffer());
+		} else if (body != null) {
+			return new ByteArrayInputStream(body.getBytes(HttpResponse.MAIN_ENCODING));
+		}
+		return new ByteArrayInputStream(new byte[0]);
+	}
+
+	public boolean isChunked() {
+		String transferEncoding = getHeader("Transfer-Encoding");
+		return transferEncoding != null && transferEncoding.equalsIgnoreCase(HttpUtil.CHUNKED);
+	}
+
 	public String getFirstLine() {
+		if (firstLine == null && parser != null) {
+			firstLine = parser().getFirstLine();
+		}
 		return firstLine;
 	}
 
+	/**
+	 * @return method or null if the first line is malformed
+	 */
+	public String getMethod() {
+		if (method == null && parser != null) {
+			method = parser().getMethod();
+		}
+		return method;
+	}
+
+	public String getUri() {
+		if (uri == null && parser != null) {
+			uri = parser().getUri();
+		}
+		return uri;
+	}
+
+	public String getProtocol() {
+		if (protocol == null && parser != null) {
+			protocol = parser().getProtocol();
+		}
+		return protocol;
+	}
+
+	public boolean hasFirstLine() {
+		return parser != null || firstLine != null;
+	}
+
+	public boolean isEmpty() {
+		return !hasFirstLine() && getHeaders().isEmpty();
+	}
+
 	@Override
 	public String toString() {
-		return "RawHttpRequest [headers=" + headers + ", body=" + body + ", firstLine=" + firstLine + "]";
+		return "RawHttpRequest [headers=" + getHeaders() + ", body=" + getBody() + ", firstLine=" + getFirstLine()
+				+ "]";
 	}
-	
-	
 
 }
@@ -0,0 +1,221 @@
+package ru.babobka.vsjws.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Read only body made of one or more byte buffers. Heap, direct and mapped
+ * buffers are kept as they are, nothing is copied, so a body may be shared by
+ * any number of responses and threads. Buffers given to a body must not be
+ * changed afterwards.
+ */
+public final class ResponseBody {
+
+	private static final int COPY_BUFFER_SIZE = 8192;
+
+	public static final ResponseBody EMPTY = new ResponseBody(new ByteBuffer[0], 0);
+
+	private final ByteBuffer[] buffers;
+
+	private final long length;
+
+	private ResponseBody(ByteBuffer[] buffers, long length) {
+		this.buffers = buffers;
+		this.length = length;
+	}
+
+	/**
+	 * Wraps bytes without copying them
+	 */
+	public static ResponseBody of(byte[] bytes) {
+		return of(bytes, 0, bytes.length);
+	}
+
+	public static ResponseBody of(byte[] bytes, int offset, int length) {
+		return new ResponseBody(new ByteBuffer[] { ByteBuffer.wrap(bytes, offset, length).slice() }, length);
+	}
+
+	/**
+	 * Creates body of the remaining bytes of the buffers. Positions of the
+	 * given buffers are not changed.
+	 */
+	public static ResponseBody of(ByteBuffer... buffers) {
+		ByteBuffer[] slices = new ByteBuffer[buffers.length];
+		long length = 0;
+		for (int i = 0; i < buffers.length; i++) {
+			slices[i] = buffers[i].slice();
+			length += slices[i].remaining();
+		}
+		return new ResponseBody(slices, length);
+	}
+
+	/**
+	 * Maps a file into memory. Mapping pays off for files that are sent many
+	 * times.
+	 */
+	public static ResponseBody map(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			int count = (int) ((size + Integer.MAX_VALUE - 1) / Integer.MAX_VALUE);
+			ByteBuffer[] buffers = new ByteBuffer[count];
+			for (int i = 0; i < count; i++) {
+				long position = (long) i * Integer.MAX_VALUE;
+				buffers[i] = channel.map(FileChannel.MapMode.READ_ONLY, position,
+						Math.min(Integer.MAX_VALUE, size - position));
+			}
+			return new ResponseBody(buffers, size);
+		}
+	}
+
+	/**
+	 * Joins bodies without copying them
+	 */
+	public static ResponseBody concat(ResponseBody... bodies) {
+		int count = 0;
+		long length = 0;
+		for (ResponseBody body : bodies) {
+			count += body.buffers.length;
+			length += body.length;
+		}
+		ByteBuffer[] joined = new ByteBuffer[count];
+		int index = 0;
+		for (ResponseBody body : bodies) {
+			System.arraycopy(body.buffers, 0, joined, index, body.buffers.length);
+			index += body.buffers.length;
+		}
+		return new ResponseBody(joined, length);
+	}
+
+	public long length() {
+		return length;
+	}
+
+	/**
+	 * @return true if the body is a single buffer
+	 */
+	public boolean isContiguous() {
+		return buffers.length <= 1;
+	}
+
+	/**
+	 * @return read only views of the buffers. Their positions may be moved by
+	 *         the caller.
+	 */
+	public ByteBuffer[] buffers() {
+		ByteBuffer[] views = new ByteBuffer[buffers.length];
+		for (int i = 0; i < buffers.length; i++) {
+			views[i] = buffers[i].asReadOnlyBuffer();
+		}
+		return views;
+	}
+
+	/**
+	 * @return the head followed by read only views of the buffers, ready for
+	 *         a gathering write
+	 */
+	public ByteBuffer[] buffers(ByteBuffer head) {
+		ByteBuffer[] views = new ByteBuffer[buffers.length + 1];
+		views[0] = head;
+		for (int i = 0; i < buffers.length; i++) {
+			views[i + 1] = buffers[i].asReadOnlyBuffer();
+		}
+		return views;
+	}
+
+	/**
+	 * @return read only view of the body. Only a body of several buffers is
+	 *         copied.
+	 */
+	public ByteBuffer asByteBuffer() {
+		if (buffers.length == 0) {
+			return ByteBuffer.allocate(0);
+		} else if (buffers.length == 1) {
+			return buffers[0].asReadOnlyBuffer();
+		}
+		return ByteBuffer.wrap(toByteArray()).asReadOnlyBuffer();
+	}
+
+	public ResponseBody slice(long offset, long sliceLength) {
+		if (offset < 0 || sliceLength < 0 || offset + sliceLength > length) {
+			throw new IndexOutOfBoundsException("Slice [" + offset + ";" + (offset + sliceLength)
+					+ ") is out of the body of " + length + " bytes");
+		}
+		ByteBuffer[] sliced = new ByteBuffer[buffers.length];
+		int count = 0;
+		long start = 0;
+		long end = offset + sliceLength;
+		for (ByteBuffer buffer : buffers) {
+			long bufferEnd = start + buffer.remaining();
+			if (bufferEnd > offset && start < end) {
+				ByteBuffer slice = buffer.duplicate();
+				slice.position((int) (Math.max(offset, start) - start));
+				slice.limit((int) (Math.min(end, bufferEnd) - start));
+				sliced[count++] = slice.slice();
+			}
+			start = bufferEnd;
+		}
+		return new ResponseBody(Arrays.copyOf(sliced, count), sliceLength);
+	}
+
+	public void writeTo(OutputStream os) throws IOException {
+		byte[] copyBuffer = null;
+		for (ByteBuffer buffer : buffers) {
+			if (buffer.hasArray()) {
+				os.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+				continue;
+			}
+			if (copyBuffer == null) {
+				copyBuffer = new byte[(int) Math.min(COPY_BUFFER_SIZE, length)];
+			}
+			ByteBuffer view = buffer.duplicate();
+			while (view.hasRemaining()) {
+				int count = Math.min(copyBuffer.length, view.remaining());
+				view.get(copyBuffer, 0, count);
+				os.write(copyBuffer, 0, count);
+			}
+		}
+	}
+
+	/**
+	 * Writes the whole body with gathering writes
+	 */
+	public void writeTo(GatheringByteChannel channel) throws IOException {
+		ByteBuffer[] views = buffers();
+		if (views.length == 0) {
+			return;
+		}
+		ByteBuffer last = views[views.length - 1];
+		while (last.hasRemaining()) {
+			channel.write(views);
+		}
+	}
+
+	/**
+	 * Copies the body into an array
+	 */
+	public byte[] toByteArray() {
+		if (length > Integer.MAX_VALUE - 8) {
+			throw new IllegalStateException("Body is too large for an array");
+		}
+		byte[] bytes = new byte[(int) length];
+		int position = 0;
+		for (ByteBuffer buffer : buffers) {
+			int count = buffer.remaining();
+			buffer.duplicate().get(bytes, position, count);
+			position += count;
+		}
+		return bytes;
+	}
+
+	@Override
+	public String toString() {
+		return "ResponseBody [buffers=" + buffers.length + ", length=" + length + "]";
+	}
+
+}
@@ -0,0 +1,15 @@
+package ru.babobka.vsjws.model;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Body that is written while being sent. Every flush of the stream sends
+ * what has been written so far.
+ */
+@FunctionalInterface
+public interface StreamingBody {
+
+	void writeTo(OutputStream os) throws IOException;
+
+}
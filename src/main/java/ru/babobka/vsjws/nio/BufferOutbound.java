@@ -0,0 +1,60 @@
+package ru.babobka.vsjws.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+final class BufferOutbound implements Outbound {
+
+	private final ByteBuffer[] buffers;
+
+	private final Runnable onClose;
+
+	BufferOutbound(ByteBuffer buffer) {
+		this(buffer, (Runnable) null);
+	}
+
+	/**
+	 * Buffers are written by gathering writes
+	 */
+	BufferOutbound(ByteBuffer... buffers) {
+		this.buffers = buffers;
+		this.onClose = null;
+	}
+
+	/**
+	 * @param onClose
+	 *            called once the buffer is written or dropped
+	 */
+	BufferOutbound(ByteBuffer buffer, Runnable onClose) {
+		this.buffers = new ByteBuffer[] { buffer };
+		this.onClose = onClose;
+	}
+
+	@Override
+	public boolean writeTo(WritableByteChannel channel) throws IOException {
+		ByteBuffer last = buffers[buffers.length - 1];
+		if (buffers.length == 1) {
+			channel.write(last);
+		} else if (channel instanceof GatheringByteChannel) {
+			((GatheringByteChannel) channel).write(buffers);
+		} else {
+			for (ByteBuffer buffer : buffers) {
+				channel.write(buffer);
+				if (buffer.hasRemaining()) {
+					return false;
+				}
+			}
+		}
+		return !last.hasRemaining();
+	}
+
+	@Override
+	public void close() {
+		if (onClose != null) {
+			onClose.run();
+		}
+	}
+
+}
@@ -0,0 +1,143 @@
+package ru.babobka.vsjws.nio;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+
+/**
+ * Single threaded selector loop. Reads requests of its connections and writes
+ * responses back without blocking.
+ */
+final class EventLoop implements Runnable {
+
+	private static final long SELECT_TIMEOUT_MILLIS = 1000;
+
+	private final NioTransport transport;
+
+	private final Selector selector;
+
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+	private volatile boolean running = true;
+
+	private long lastTimeoutCheck = System.currentTimeMillis();
+
+	EventLoop(NioTransport transport) throws IOException {
+		this.transport = transport;
+		this.selector = Selector.open();
+	}
+
+	void register(SocketChannel channel) {
+		execute(() -> {
+			try {
+				channel.configureBlocking(false);
+				SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+				key.attach(new NioConnection(this, key, channel));
+			} catch (IOException e) {
+				transport.getLogger().log(Level.SEVERE, e);
+				try {
+					channel.close();
+				} catch (IOException e1) {
+					transport.getLogger().log(Level.SEVERE, e1);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Runs a task on the loop thread
+	 */
+	void execute(Runnable task) {
+		tasks.add(task);
+		selector.wakeup();
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (running) {
+				selector.select(SELECT_TIMEOUT_MILLIS);
+				runTasks();
+				processSelectedKeys();
+				long now = System.currentTimeMillis();
+				if (now - lastTimeoutCheck >= SELECT_TIMEOUT_MILLIS) {
+					lastTimeoutCheck = now;
+					checkTimeouts(now);
+				}
+			}
+		} catch (IOException e) {
+			transport.getLogger().log(Level.SEVERE, e);
+		} finally {
+			closeAll();
+		}
+	}
+
+	private void runTasks() {
+		Runnable task;
+		while ((task = tasks.poll()) != null) {
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				transport.getLogger().log(Level.SEVERE, e);
+			}
+		}
+	}
+
+	private void processSelectedKeys() {
+		Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+		while (iterator.hasNext()) {
+			SelectionKey key = iterator.next();
+			iterator.remove();
+			NioConnection connection = (NioConnection) key.attachment();
+			try {
+				if (key.isValid() && key.isReadable()) {
+					connection.onReadable();
+				}
+				if (key.isValid() && key.isWritable()) {
+					connection.onWritable();
+				}
+			} catch (IOException | CancelledKeyException e) {
+				connection.close();
+			}
+		}
+	}
+
+	private void checkTimeouts(long now) {
+		for (SelectionKey key : selector.keys()) {
+			NioConnection connection = (NioConnection) key.attachment();
+			if (connection != null) {
+				connection.checkTimeout(now, transport.getReadTimeoutMillis(), transport.getKeepAliveTimeoutMillis());
+			}
+		}
+	}
+
+	private void closeAll() {
+		for (SelectionKey key : selector.keys()) {
+			NioConnection connection = (NioConnection) key.attachment();
+			if (connection != null) {
+				connection.close();
+			}
+		}
+		try {
+			selector.close();
+		} catch (IOException e) {
+			transport.getLogger().log(Level.SEVERE, e);
+		}
+	}
+
+	void shutdown() {
+		running = false;
+		selector.wakeup();
+	}
+
+	NioTransport getTransport() {
+		return transport;
+	}
+
+}
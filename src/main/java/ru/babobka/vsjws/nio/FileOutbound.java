@@ -0,0 +1,41 @@
+package ru.babobka.vsjws.nio;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+final class FileOutbound implements Outbound {
+
+	private final FileChannel fileChannel;
+
+	private long position;
+
+	private final long end;
+
+	FileOutbound(FileChannel fileChannel, long position, long count) {
+		this.fileChannel = fileChannel;
+		this.position = position;
+		this.end = position + count;
+	}
+
+	@Override
+	public boolean writeTo(WritableByteChannel channel) throws IOException {
+		while (position < end) {
+			long written = fileChannel.transferTo(position, end - position, channel);
+			if (written <= 0) {
+				if (position >= fileChannel.size()) {
+					throw new IOException("File was truncated while being sent");
+				}
+				return false;
+			}
+			position += written;
+		}
+		return true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		fileChannel.close();
+	}
+
+}
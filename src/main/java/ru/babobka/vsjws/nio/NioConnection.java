@@ -0,0 +1,362 @@
+package ru.babobka.vsjws.nio;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.logging.Level;
+
+import ru.babobka.vsjws.io.ChunkedOutputStream;
+import ru.babobka.vsjws.metrics.RequestTimer;
+import ru.babobka.vsjws.metrics.RequestTimer.Phase;
+import ru.babobka.vsjws.model.HttpResponse;
+import ru.babobka.vsjws.model.RawHttpRequest;
+import ru.babobka.vsjws.model.ResponseBody;
+import ru.babobka.vsjws.exception.PayloadTooLargeException;
+import ru.babobka.vsjws.io.ResponseHeaderEncoder;
+import ru.babobka.vsjws.parser.HttpRequestParser;
+import ru.babobka.vsjws.runnable.RequestProcessor;
+import ru.babobka.vsjws.util.HttpUtil;
+
+/**
+ * State of a single non-blocking connection. Every method except
+ * {@link #sendLater(HttpResponse, boolean, boolean)} is called by the event
+ * loop thread only.
+ */
+final class NioConnection {
+
+	private final EventLoop eventLoop;
+
+	private final SelectionKey key;
+
+	private final SocketChannel channel;
+
+	private final InetAddress address;
+
+	private final Deque<Outbound> outbounds = new ArrayDeque<>();
+
+	private final HttpRequestParser parser;
+
+	private boolean processing;
+
+	private boolean closeAfterWrite;
+
+	private volatile boolean closed;
+
+	/**
+	 * A worker is still writing the body of the current response
+	 */
+	private boolean streaming;
+
+	private int requestCount;
+
+	/**
+	 * Timer of the response being written or null
+	 */
+	private RequestTimer writingTimer;
+
+	private long lastActivity = System.currentTimeMillis();
+
+	NioConnection(EventLoop eventLoop, SelectionKey key, SocketChannel channel) {
+		this.eventLoop = eventLoop;
+		this.key = key;
+		this.channel = channel;
+		this.address = channel.socket().getInetAddress();
+		// Bodies are buffered since reading is done by the event loop
+		this.parser = eventLoop.getTransport().getRequestProcessor().createParser(false);
+		eventLoop.getTransport().getRequestProcessor().getMetrics().connectionOpened();
+	}
+
+	void onReadable() throws IOException {
+		int read = channel.read(parser.prepareRead());
+		if (read < 0) {
+			close();
+			return;
+		}
+		lastActivity = System.currentTimeMillis();
+		tryDispatch();
+	}
+
+	void onWritable() throws IOException {
+		while (!outbounds.isEmpty()) {
+			Outbound outbound = outbounds.peek();
+			boolean done = outbound.writeTo(channel);
+			lastActivity = System.currentTimeMillis();
+			if (!done) {
+				key.interestOps(SelectionKey.OP_WRITE);
+				return;
+			}
+			outbounds.poll().close();
+		}
+		if (streaming) {
+			key.interestOps(0);
+			return;
+		}
+		finishWrite();
+		if (closeAfterWrite) {
+			close();
+			return;
+		}
+		processing = false;
+		parser.reset();
+		parser.releaseBufferIfEmpty();
+		key.interestOps(SelectionKey.OP_READ);
+		tryDispatch();
+	}
+
+	/**
+	 * Hands over a complete request to a worker. Reading is paused until the
+	 * response is written, so the worker may read the request right from the
+	 * parser buffer.
+	 */
+	private void tryDispatch() {
+		if (processing || closed) {
+			return;
+		}
+		try {
+			if (!parser.parse()) {
+				return;
+			}
+		} catch (IllegalArgumentException | PayloadTooLargeException e) {
+			reject(e);
+			return;
+		}
+		processing = true;
+		requestCount++;
+		key.interestOps(0);
+		RequestTimer timer = new RequestTimer();
+		timer.add(Phase.PARSE, parser.getParseNanos());
+		eventLoop.getTransport().dispatch(this, new RawHttpRequest(parser), requestCount, timer);
+	}
+
+	void sendLater(HttpResponse response, boolean noContent, boolean keepAlive) {
+		sendLater(response, noContent, keepAlive, null);
+	}
+
+	/**
+	 * Called by a worker thread when the response is ready
+	 *
+	 * @param timer
+	 *            timer recorded when the response is written or null
+	 */
+	void sendLater(HttpResponse response, boolean noContent, boolean keepAlive, RequestTimer timer) {
+		if (timer != null) {
+			timer.startWrite();
+		}
+		if (response.isStreaming() && !noContent) {
+			stream(response, keepAlive, timer);
+			return;
+		}
+		List<Outbound> responseOutbounds;
+		try {
+			responseOutbounds = toOutbounds(response, noContent, keepAlive);
+		} catch (IOException e) {
+			eventLoop.getTransport().getLogger().log(Level.SEVERE, e);
+			eventLoop.execute(this::close);
+			return;
+		}
+		eventLoop.execute(() -> send(responseOutbounds, keepAlive, timer));
+	}
+
+	private void send(List<Outbound> responseOutbounds, boolean keepAlive, RequestTimer timer) {
+		writingTimer = timer;
+		if (closed) {
+			closeAll(responseOutbounds);
+			finishWrite();
+			return;
+		}
+		processing = true;
+		closeAfterWrite = !keepAlive;
+		outbounds.addAll(responseOutbounds);
+		write();
+	}
+
+	/**
+	 * Runs the streaming body on the worker thread. Its chunks are sent by the
+	 * event loop as they come.
+	 */
+	private void stream(HttpResponse response, boolean keepAlive, RequestTimer timer) {
+		List<Outbound> headers;
+		try {
+			headers = toOutbounds(response, true, keepAlive);
+		} catch (IOException e) {
+			eventLoop.getTransport().getLogger().log(Level.SEVERE, e);
+			eventLoop.execute(this::close);
+			return;
+		}
+		eventLoop.execute(() -> {
+			streaming = true;
+			send(headers, keepAlive, timer);
+		});
+		try {
+			ChunkedOutputStream chunked = new ChunkedOutputStream(new StreamingOutputStream(this));
+			response.getStreamingBody().writeTo(chunked);
+			chunked.finish();
+			eventLoop.execute(() -> {
+				streaming = false;
+				if (!closed) {
+					write();
+				}
+			});
+		} catch (IOException | RuntimeException e) {
+			if (!closed) {
+				// Headers are gone already, the connection has to be dropped
+				eventLoop.getTransport().getLogger().log(Level.SEVERE, e);
+			}
+			eventLoop.execute(this::close);
+		}
+	}
+
+	/**
+	 * Called by a worker thread with the next piece of a streaming response
+	 */
+	void sendPartLater(Outbound outbound) {
+		eventLoop.execute(() -> {
+			if (closed) {
+				closeAll(Collections.singletonList(outbound));
+				return;
+			}
+			outbounds.add(outbound);
+			write();
+		});
+	}
+
+	private void write() {
+		try {
+			onWritable();
+		} catch (IOException e) {
+			close();
+		}
+	}
+
+	private void reject(Exception e) {
+		RequestProcessor requestProcessor = eventLoop.getTransport().getRequestProcessor();
+		HttpResponse response = requestProcessor.exceptionResponse(e);
+		RequestTimer timer = new RequestTimer();
+		timer.add(Phase.PARSE, parser.getParseNanos());
+		timer.setResponseCode(response.getResponseCode());
+		requestProcessor.logAccess(address, null, response, false, timer.getStartNanos());
+		timer.startWrite();
+		try {
+			send(toOutbounds(response, false, false), false, timer);
+		} catch (IOException e1) {
+			close();
+		}
+	}
+
+	private static List<Outbound> toOutbounds(HttpResponse response, boolean noContent, boolean keepAlive)
+			throws IOException {
+		List<Outbound> responseOutbounds = new ArrayList<>(2);
+		noContent = noContent || !response.getResponseCode().hasContent();
+		ResponseHeaderEncoder head = ResponseHeaderEncoder.get().encode(response, keepAlive);
+		if (noContent) {
+			responseOutbounds.add(new BufferOutbound(ByteBuffer.wrap(head.toByteArray())));
+		} else if (response.getFile() == null && response.getParts() == null) {
+			ResponseBody body = response.getBody();
+			if (body == null || body.length() <= HttpUtil.COPY_CONTENT_LIMIT) {
+				// Small content goes out in the same write as the headers
+				if (body != null) {
+					head.append(body);
+				}
+				responseOutbounds.add(new BufferOutbound(ByteBuffer.wrap(head.toByteArray())));
+			} else {
+				// Bigger one is written from its own buffers by the same gathering write
+				responseOutbounds.add(new BufferOutbound(body.buffers(ByteBuffer.wrap(head.toByteArray()))));
+			}
+		} else {
+			responseOutbounds.add(new BufferOutbound(ByteBuffer.wrap(head.toByteArray())));
+			try {
+				addBody(responseOutbounds, response);
+			} catch (IOException e) {
+				for (Outbound outbound : responseOutbounds) {
+					outbound.close();
+				}
+				throw e;
+			}
+		}
+		return responseOutbounds;
+	}
+
+	private static void addBody(List<Outbound> responseOutbounds, HttpResponse response) throws IOException {
+		if (response.getParts() != null) {
+			for (HttpResponse part : response.getParts()) {
+				addBody(responseOutbounds, part);
+			}
+		} else if (response.getFile() != null) {
+			FileChannel fileChannel = FileChannel.open(response.getFile().toPath(), StandardOpenOption.READ);
+			responseOutbounds.add(new FileOutbound(fileChannel, response.getOffset(), response.getContentLength()));
+		} else if (response.getBody() != null && response.getBody().length() > 0) {
+			responseOutbounds.add(new BufferOutbound(response.getBody().buffers()));
+		}
+	}
+
+	/**
+	 * Closes the connection if it has been silent for too long
+	 */
+	void checkTimeout(long now, int readTimeoutMillis, int keepAliveTimeoutMillis) {
+		if (processing && outbounds.isEmpty()) {
+			// Worker is busy with the request
+			return;
+		}
+		boolean idle = !processing && parser.isEmpty() && requestCount > 0;
+		long timeout = idle ? keepAliveTimeoutMillis : readTimeoutMillis;
+		if (now - lastActivity > timeout) {
+			close();
+		}
+	}
+
+	void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		key.cancel();
+		finishWrite();
+		eventLoop.getTransport().getRequestProcessor().getMetrics().connectionClosed();
+		try {
+			channel.close();
+		} catch (IOException e) {
+			eventLoop.getTransport().getLogger().log(Level.SEVERE, e);
+		}
+		closeAll(outbounds);
+		outbounds.clear();
+	}
+
+	/**
+	 * Records the timer of the response that has been written or has failed
+	 */
+	private void finishWrite() {
+		if (writingTimer != null) {
+			writingTimer.endWrite();
+			eventLoop.getTransport().getRequestProcessor().getMetrics().record(writingTimer);
+			writingTimer = null;
+		}
+	}
+
+	private void closeAll(Iterable<Outbound> toClose) {
+		for (Outbound outbound : toClose) {
+			try {
+				outbound.close();
+			} catch (IOException e) {
+				eventLoop.getTransport().getLogger().log(Level.SEVERE, e);
+			}
+		}
+	}
+
+	boolean isClosed() {
+		return closed;
+	}
+
+	InetAddress getAddress() {
+		return address;
+	}
+
+}
@@ -0,0 +1,137 @@
+package ru.babobka.vsjws.nio;
+
+import java.io.IOException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executor;
+
+import ru.babobka.vsjws.constant.Method;
+import ru.babobka.vsjws.logger.SimpleLogger;
+import ru.babobka.vsjws.metrics.RequestTimer;
+import ru.babobka.vsjws.metrics.RequestTimer.Phase;
+import ru.babobka.vsjws.model.HttpRequest;
+import ru.babobka.vsjws.model.HttpResponse;
+import ru.babobka.vsjws.model.RawHttpRequest;
+import ru.babobka.vsjws.runnable.AdmissionQueue;
+import ru.babobka.vsjws.runnable.RequestProcessor;
+import ru.babobka.vsjws.util.HttpUtil;
+
+/**
+ * Non-blocking transport. Connections are read and written by a few selector
+ * threads, worker threads get fully read requests only. So idle and slow
+ * clients cost buffers, not threads.
+ */
+public class NioTransport {
+
+	private final ServerSocketChannel serverSocketChannel;
+
+	private final Executor executor;
+
+	private final RequestProcessor requestProcessor;
+
+	private final AdmissionQueue admissionQueue;
+
+	private final EventLoop[] eventLoops;
+
+	private final int readTimeoutMillis;
+
+	private final int keepAliveTimeoutMillis;
+
+	private final int maxRequestsPerConnection;
+
+	public NioTransport(ServerSocketChannel serverSocketChannel, Executor executor, RequestProcessor requestProcessor,
+			AdmissionQueue admissionQueue, int eventLoopCount, int readTimeoutMillis, int keepAliveTimeoutMillis,
+			int maxRequestsPerConnection) throws IOException {
+		if (eventLoopCount <= 0) {
+			throw new IllegalArgumentException("Event loop count must be > 0");
+		}
+		this.serverSocketChannel = serverSocketChannel;
+		this.executor = executor;
+		this.requestProcessor = requestProcessor;
+		this.admissionQueue = admissionQueue;
+		this.readTimeoutMillis = readTimeoutMillis;
+		this.keepAliveTimeoutMillis = keepAliveTimeoutMillis;
+		this.maxRequestsPerConnection = maxRequestsPerConnection;
+		this.eventLoops = new EventLoop[eventLoopCount];
+		for (int i = 0; i < eventLoopCount; i++) {
+			eventLoops[i] = new EventLoop(this);
+		}
+	}
+
+	/**
+	 * Accepts connections until the server channel is closed
+	 */
+	public void run() {
+		for (int i = 0; i < eventLoops.length; i++) {
+			Thread thread = new Thread(eventLoops[i], "vsjws-event-loop-" + i);
+			thread.setDaemon(true);
+			thread.start();
+		}
+		try {
+			int next = 0;
+			while (!Thread.currentThread().isInterrupted()) {
+				SocketChannel channel;
+				try {
+					channel = serverSocketChannel.accept();
+				} catch (IOException e) {
+					if (!serverSocketChannel.isOpen()) {
+						break;
+					}
+					getLogger().log(e);
+					continue;
+				}
+				eventLoops[next].register(channel);
+				next = (next + 1) % eventLoops.length;
+			}
+		} finally {
+			close();
+		}
+	}
+
+	public void close() {
+		for (EventLoop eventLoop : eventLoops) {
+			eventLoop.shutdown();
+		}
+	}
+
+	void dispatch(NioConnection connection, RawHttpRequest request, int requestNumber, RequestTimer timer) {
+		admissionQueue.submit(executor, () -> {
+			HttpRequest httpRequest = null;
+			HttpResponse response;
+			boolean noContent = false;
+			boolean keepAlive = false;
+			try {
+				long buildStart = System.nanoTime();
+				httpRequest = new HttpRequest(connection.getAddress(), request,
+						requestProcessor.getSessionStore(), requestProcessor.getMultipartConfig());
+				timer.add(Phase.PARSE, System.nanoTime() - buildStart);
+				keepAlive = requestNumber < maxRequestsPerConnection && HttpUtil.isKeepAlive(httpRequest);
+				noContent = httpRequest.getMethod().equals(Method.HEAD);
+				response = requestProcessor.process(httpRequest, timer);
+			} catch (Exception e) {
+				response = requestProcessor.exceptionResponse(e);
+			}
+			timer.setResponseCode(response.getResponseCode());
+			requestProcessor.logAccess(connection.getAddress(), httpRequest, response, noContent,
+					timer.getStartNanos());
+			connection.sendLater(response, noContent, keepAlive, timer);
+		}, () -> connection.sendLater(admissionQueue.createRejectionResponse(), false, false));
+	}
+
+	RequestProcessor getRequestProcessor() {
+		return requestProcessor;
+	}
+
+	SimpleLogger getLogger() {
+		return requestProcessor.getLogger();
+	}
+
+	int getReadTimeoutMillis() {
+		return readTimeoutMillis;
+	}
+
+	int getKeepAliveTimeoutMillis() {
+		return keepAliveTimeoutMillis;
+	}
+
+}
@@ -0,0 +1,17 @@
+package ru.babobka.vsjws.nio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Piece of a response waiting to be written to a non-blocking channel
+ */
+interface Outbound extends Closeable {
+
+	/**
+	 * @return true if everything was written
+	 */
+	boolean writeTo(WritableByteChannel channel) throws IOException;
+
+}
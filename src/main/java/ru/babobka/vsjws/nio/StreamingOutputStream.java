@@ -0,0 +1,63 @@
+package ru.babobka.vsjws.nio;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Passes bytes written by a worker thread to the event loop of the
+ * connection. The worker is blocked while too much data waits to be sent, so
+ * a slow client does not make a streaming response pile up in memory.
+ */
+final class StreamingOutputStream extends OutputStream {
+
+	static final int MAX_PENDING_BYTES = 256 * 1024;
+
+	private final NioConnection connection;
+
+	private long pendingBytes;
+
+	StreamingOutputStream(NioConnection connection) {
+		this.connection = connection;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return;
+		}
+		awaitCapacity();
+		ByteBuffer copy = ByteBuffer.allocate(len);
+		copy.put(b, off, len).flip();
+		synchronized (this) {
+			pendingBytes += len;
+		}
+		connection.sendPartLater(new BufferOutbound(copy, () -> released(len)));
+	}
+
+	private synchronized void released(int len) {
+		pendingBytes -= len;
+		notifyAll();
+	}
+
+	private synchronized void awaitCapacity() throws IOException {
+		try {
+			while (pendingBytes >= MAX_PENDING_BYTES && !connection.isClosed()) {
+				wait(1000);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+		if (connection.isClosed()) {
+			throw new IOException("Connection is closed");
+		}
+	}
+
+}
@@ -0,0 +1,788 @@
+package ru.babobka.vsjws.parser;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import ru.babobka.vsjws.constant.Method;
+import ru.babobka.vsjws.exception.PayloadTooLargeException;
+import ru.babobka.vsjws.model.HttpRequest;
+import ru.babobka.vsjws.model.HttpResponse;
+
+/**
+ * Incremental byte level HTTP request parser. Bytes of a connection are
+ * collected in a reusable buffer, request line, headers and body are kept as
+ * offsets into it and decoded on demand only. Chunked bodies are decoded in
+ * place.
+ * <p>
+ * Bodies longer than the streaming threshold are not buffered. The request is
+ * complete once its headers are parsed and the body is read with
+ * {@link #getBodyStream(InputStream)}.
+ * <p>
+ * One parser serves all the requests of a connection one by one. Offsets of a
+ * request are valid until {@link #reset()} is called.
+ */
+public class HttpRequestParser {
+
+	public static final int DEFAULT_MAX_HEADER_SIZE = 64 * 1024;
+
+	public static final long DEFAULT_MAX_BODY_SIZE = 16 * 1024 * 1024;
+
+	private static final int INITIAL_BUFFER_SIZE = 8192;
+
+	/**
+	 * Largest array most JVMs allocate. Buffered requests must fit it whatever
+	 * the max body size is.
+	 */
+	private static final int MAX_BUFFER_SIZE = Integer.MAX_VALUE - 8;
+
+	private static final int INITIAL_HEADER_COUNT = 16;
+
+	private static final String[] METHOD_NAMES = { Method.GET, Method.POST, Method.PUT, Method.DELETE, Method.HEAD,
+			Method.PATCH, Method.OPTIONS };
+
+	private static final byte[][] METHODS = toBytes(METHOD_NAMES);
+
+	private static final byte[] PROTOCOL = HttpRequest.PROTOCOL.getBytes(StandardCharsets.US_ASCII);
+
+	private static final String TRANSFER_ENCODING_HEADER = "Transfer-Encoding";
+
+	private static final String CHUNKED = "chunked";
+
+	private enum State {
+		REQUEST_LINE, HEADERS, BODY, CHUNK_SIZE, CHUNK_DATA, CHUNK_END, TRAILERS, COMPLETE
+	}
+
+	private final int maxHeaderSize;
+
+	private final long maxBodySize;
+
+	private long streamingThreshold = -1;
+
+	private ByteBuffer buffer;
+
+	private State state = State.REQUEST_LINE;
+
+	private int position;
+
+	private int requestStart;
+
+	private int methodEnd;
+
+	private int uriStart;
+
+	private int uriEnd;
+
+	private int protocolStart;
+
+	private int protocolEnd;
+
+	/**
+	 * Name start, name end, value start, value end for every header
+	 */
+	private int[] headerOffsets = new int[INITIAL_HEADER_COUNT * 4];
+
+	private int headerCount;
+
+	private int bodyStart;
+
+	/**
+	 * End of the decoded body in the buffer
+	 */
+	private int bodyEnd;
+
+	private long bodyLength;
+
+	private long chunkRemaining;
+
+	private int trailersStart;
+
+	private boolean bodyStreamed;
+
+	private long bodyRead;
+
+	private int requestEnd;
+
+	private int generation;
+
+	private long parseNanos;
+
+	public HttpRequestParser() {
+		this(DEFAULT_MAX_HEADER_SIZE, DEFAULT_MAX_BODY_SIZE);
+	}
+
+	public HttpRequestParser(int maxHeaderSize, long maxBodySize) {
+		if (maxHeaderSize <= 0 || maxBodySize < 0) {
+			throw new IllegalArgumentException("Max header size must be > 0 and max body size >= 0");
+		}
+		this.maxHeaderSize = maxHeaderSize;
+		this.maxBodySize = maxBodySize;
+	}
+
+	/**
+	 * Makes bodies with Content-Length above the threshold stream instead of
+	 * being buffered. Negative threshold turns streaming off.
+	 */
+	public void setStreamingThreshold(long streamingThreshold) {
+		this.streamingThreshold = streamingThreshold;
+	}
+
+	public long getStreamingThreshold() {
+		return streamingThreshold;
+	}
+
+	/**
+	 * Parses buffered bytes
+	 *
+	 * @return true if a whole request is buffered or its body is to be
+	 *         streamed
+	 * @throws IllegalArgumentException
+	 *             if the request is malformed or its header is too large
+	 * @throws PayloadTooLargeException
+	 *             if the body is too large
+	 */
+	public boolean parse() {
+		long start = System.nanoTime();
+		try {
+			return parseBuffered();
+		} finally {
+			parseNanos += System.nanoTime() - start;
+		}
+	}
+
+	private boolean parseBuffered() {
+		if (state == State.COMPLETE) {
+			return true;
+		} else if (buffer == null) {
+			return false;
+		}
+		byte[] bytes = buffer.array();
+		int limit = buffer.position();
+		while (state == State.REQUEST_LINE || state == State.HEADERS) {
+			int lineEnd = indexOf(bytes, position, limit, (byte) '\n');
+			if (lineEnd < 0) {
+				checkHeaderSize(limit);
+				return false;
+			}
+			int contentEnd = lineEnd > position && bytes[lineEnd - 1] == '\r' ? lineEnd - 1 : lineEnd;
+			if (state == State.REQUEST_LINE) {
+				if (contentEnd == position) {
+					// Empty lines before a request are allowed
+					requestStart = lineEnd + 1;
+				} else {
+					parseRequestLine(bytes, position, contentEnd);
+					state = State.HEADERS;
+				}
+			} else if (contentEnd == position) {
+				position = lineEnd + 1;
+				startBody();
+				if (state == State.COMPLETE) {
+					return true;
+				}
+				break;
+			} else {
+				parseHeaderLine(bytes, position, contentEnd);
+			}
+			position = lineEnd + 1;
+			checkHeaderSize(position);
+		}
+		if (state == State.BODY) {
+			if (limit - bodyStart < bodyLength) {
+				return false;
+			}
+			bodyEnd = requestEnd = bodyStart + (int) bodyLength;
+			state = State.COMPLETE;
+			return true;
+		}
+		return parseChunks(bytes, limit);
+	}
+
+	private void startBody() {
+		bodyStart = bodyEnd = position;
+		int transferEncoding = indexOfHeader(TRANSFER_ENCODING_HEADER);
+		if (transferEncoding >= 0) {
+			if (indexOfHeader(HttpRequest.CONTENT_LENGTH_HEADER) >= 0) {
+				throw new IllegalArgumentException("Both Content-Length and Transfer-Encoding are set");
+			}
+			if (!equalsIgnoreCase(buffer.array(), headerOffsets[transferEncoding * 4 + 2],
+					headerOffsets[transferEncoding * 4 + 3], CHUNKED)) {
+				throw new IllegalArgumentException("Only chunked transfer coding is supported");
+			}
+			state = State.CHUNK_SIZE;
+			return;
+		}
+		bodyLength = parseContentLength();
+		if (streamingThreshold >= 0 && bodyLength > streamingThreshold) {
+			bodyStreamed = true;
+			state = State.COMPLETE;
+		} else if (bodyStart + bodyLength > MAX_BUFFER_SIZE) {
+			throw new PayloadTooLargeException("Request body is too large to be buffered");
+		} else {
+			state = State.BODY;
+		}
+	}
+
+	/**
+	 * Decodes chunks moving their data right after the headers
+	 */
+	private boolean parseChunks(byte[] bytes, int limit) {
+		while (state != State.COMPLETE) {
+			if (state == State.CHUNK_DATA) {
+				int available = (int) Math.min(chunkRemaining, limit - position);
+				if (available == 0) {
+					return false;
+				}
+				if (position != bodyEnd) {
+					System.arraycopy(bytes, position, bytes, bodyEnd, available);
+				}
+				position += available;
+				bodyEnd += available;
+				bodyLength += available;
+				chunkRemaining -= available;
+				if (chunkRemaining == 0) {
+					state = State.CHUNK_END;
+				}
+				continue;
+			}
+			int lineEnd = indexOf(bytes, position, limit, (byte) '\n');
+			if (lineEnd < 0) {
+				if (limit - position > maxHeaderSize) {
+					throw new IllegalArgumentException("Chunk line is too large");
+				}
+				return false;
+			}
+			int contentEnd = lineEnd > position && bytes[lineEnd - 1] == '\r' ? lineEnd - 1 : lineEnd;
+			if (state == State.CHUNK_SIZE) {
+				chunkRemaining = parseChunkSize(bytes, position, contentEnd);
+				if (bodyLength + chunkRemaining > maxBodySize) {
+					throw new PayloadTooLargeException("Request body is too large");
+				} else if (bodyStart + bodyLength + chunkRemaining > MAX_BUFFER_SIZE) {
+					throw new PayloadTooLargeException("Request body is too large to be buffered");
+				}
+				state = chunkRemaining == 0 ? State.TRAILERS : State.CHUNK_DATA;
+				trailersStart = lineEnd + 1;
+			} else if (state == State.CHUNK_END) {
+				if (contentEnd != position) {
+					throw new IllegalArgumentException("Chunk is longer than declared");
+				}
+				state = State.CHUNK_SIZE;
+			} else if (contentEnd == position) {
+				requestEnd = lineEnd + 1;
+				state = State.COMPLETE;
+			} else if (lineEnd + 1 - trailersStart > maxHeaderSize) {
+				throw new IllegalArgumentException("Request trailer is too large");
+			}
+			position = lineEnd + 1;
+		}
+		return true;
+	}
+
+	private static long parseChunkSize(byte[] bytes, int start, int end) {
+		long size = 0;
+		int i = start;
+		for (; i < end && bytes[i] != ';' && !isWhitespace(bytes[i]); i++) {
+			int digit = Character.digit(bytes[i], 16);
+			if (digit < 0 || size > (Long.MAX_VALUE >> 4)) {
+				throw new IllegalArgumentException("Bad chunk size");
+			}
+			size = (size << 4) + digit;
+		}
+		if (i == start) {
+			throw new IllegalArgumentException("Bad chunk size");
+		}
+		return size;
+	}
+
+	/**
+	 * Reads a whole request from a stream
+	 *
+	 * @return false if the stream had ended before the first byte of a request
+	 */
+	public boolean readRequest(InputStream is) throws IOException {
+		while (!parse()) {
+			if (readFrom(is) < 0) {
+				if (isEmpty()) {
+					return false;
+				}
+				throw new EOFException("Stream has ended in the middle of a request");
+			}
+		}
+		return true;
+	}
+
+	public int readFrom(InputStream is) throws IOException {
+		ByteBuffer readBuffer = prepareRead();
+		int read = is.read(readBuffer.array(), readBuffer.position(), readBuffer.remaining());
+		if (read > 0) {
+			readBuffer.position(readBuffer.position() + read);
+		}
+		return read;
+	}
+
+	/**
+	 * @return buffer to put the next incoming bytes into. It has free space
+	 *         for at least one byte.
+	 */
+	public ByteBuffer prepareRead() {
+		if (buffer == null) {
+			buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+		} else if (!buffer.hasRemaining()) {
+			if (isChunkState() && position > bodyEnd) {
+				// Drop chunk framing that is already decoded
+				int undecoded = buffer.position() - position;
+				System.arraycopy(buffer.array(), position, buffer.array(), bodyEnd, undecoded);
+				buffer.position(bodyEnd + undecoded);
+				trailersStart -= position - bodyEnd;
+				position = bodyEnd;
+				return buffer;
+			}
+			if (buffer.capacity() == MAX_BUFFER_SIZE) {
+				throw new PayloadTooLargeException("Request is too large to be buffered");
+			}
+			long required = buffer.capacity() * 2L;
+			if (state == State.BODY) {
+				required = Math.max(required, bodyStart + bodyLength);
+			}
+			ByteBuffer bigger = ByteBuffer.allocate((int) Math.min(required, MAX_BUFFER_SIZE));
+			buffer.flip();
+			buffer = bigger.put(buffer);
+		}
+		return buffer;
+	}
+
+	private boolean isChunkState() {
+		return state == State.CHUNK_SIZE || state == State.CHUNK_DATA || state == State.CHUNK_END
+				|| state == State.TRAILERS;
+	}
+
+	/**
+	 * Forgets the current request. Bytes of the next pipelined request are
+	 * kept. A streamed body must be read or skipped before.
+	 */
+	public void reset() {
+		generation++;
+		if (buffer != null) {
+			int end;
+			if (state != State.COMPLETE) {
+				end = buffer.position();
+			} else if (bodyStreamed) {
+				end = isBodyConsumed() ? position : buffer.position();
+			} else {
+				end = requestEnd;
+			}
+			int remaining = buffer.position() - end;
+			if (remaining == 0 && buffer.capacity() > INITIAL_BUFFER_SIZE) {
+				// Do not hold big buffers of big requests
+				buffer = null;
+			} else {
+				System.arraycopy(buffer.array(), end, buffer.array(), 0, remaining);
+				buffer.position(remaining);
+			}
+		}
+		state = State.REQUEST_LINE;
+		position = 0;
+		requestStart = 0;
+		headerCount = 0;
+		bodyStart = 0;
+		bodyEnd = 0;
+		bodyLength = 0;
+		chunkRemaining = 0;
+		trailersStart = 0;
+		bodyStreamed = false;
+		bodyRead = 0;
+		requestEnd = 0;
+		parseNanos = 0;
+	}
+
+	/**
+	 * @return time spent parsing the current request, waiting for its bytes
+	 *         is not counted
+	 */
+	public long getParseNanos() {
+		return parseNanos;
+	}
+
+	/**
+	 * Drops the buffer if there is nothing in it. Idle connections do not need
+	 * one.
+	 */
+	public void releaseBufferIfEmpty() {
+		if (buffer != null && buffer.position() == 0) {
+			buffer = null;
+		}
+	}
+
+	/**
+	 * @return true if nothing but empty lines was received since the last
+	 *         reset
+	 */
+	public boolean isEmpty() {
+		return buffer == null || buffer.position() == requestStart;
+	}
+
+	public boolean isComplete() {
+		return state == State.COMPLETE;
+	}
+
+	public int getGeneration() {
+		return generation;
+	}
+
+	public String getMethod() {
+		checkComplete();
+		byte[] bytes = buffer.array();
+		for (int i = 0; i < METHODS.length; i++) {
+			if (equals(bytes, requestStart, methodEnd, METHODS[i])) {
+				return METHOD_NAMES[i];
+			}
+		}
+		return decode(requestStart, methodEnd);
+	}
+
+	public String getUri() {
+		checkComplete();
+		return decode(uriStart, uriEnd);
+	}
+
+	public String getProtocol() {
+		checkComplete();
+		if (equals(buffer.array(), protocolStart, protocolEnd, PROTOCOL)) {
+			return HttpRequest.PROTOCOL;
+		}
+		return decode(protocolStart, protocolEnd);
+	}
+
+	public String getFirstLine() {
+		checkComplete();
+		return decode(requestStart, protocolEnd);
+	}
+
+	public int getHeaderCount() {
+		checkComplete();
+		return headerCount;
+	}
+
+	public String getHeaderName(int index) {
+		checkHeaderIndex(index);
+		return decode(headerOffsets[index * 4], headerOffsets[index * 4 + 1]);
+	}
+
+	public String getHeaderValue(int index) {
+		checkHeaderIndex(index);
+		return decode(headerOffsets[index * 4 + 2], headerOffsets[index * 4 + 3]);
+	}
+
+	/**
+	 * Finds a header ignoring case of its name. Only the value is decoded.
+	 *
+	 * @return value of the first header with the given name or null
+	 */
+	public String getHeader(String name) {
+		checkComplete();
+		int index = indexOfHeader(name);
+		return index < 0 ? null : getHeaderValue(index);
+	}
+
+	/**
+	 * @return length of the decoded body
+	 */
+	public long getBodyLength() {
+		checkComplete();
+		return bodyLength;
+	}
+
+	public boolean isChunked() {
+		checkComplete();
+		return indexOfHeader(TRANSFER_ENCODING_HEADER) >= 0;
+	}
+
+	/**
+	 * @return true if the body is not buffered and must be read with
+	 *         {@link #getBodyStream(InputStream)}
+	 */
+	public boolean isBodyStreamed() {
+		checkComplete();
+		return bodyStreamed;
+	}
+
+	public String getBody() {
+		checkBuffered();
+		return decode(bodyStart, bodyEnd);
+	}
+
+	/**
+	 * @return read only view of the body bytes
+	 */
+	public ByteBuffer getBodyBuffer() {
+		checkBuffered();
+		ByteBuffer body = buffer.asReadOnlyBuffer();
+		body.limit(bodyEnd).position(bodyStart);
+		return body.slice();
+	}
+
+	/**
+	 * Creates stream of a streamed body. Bytes that are already buffered are
+	 * read first, the rest comes from the source. Nothing beyond the body is
+	 * read from the source, so pipelined requests are not lost.
+	 */
+	public InputStream getBodyStream(InputStream source) {
+		checkComplete();
+		if (!bodyStreamed) {
+			throw new IllegalStateException("Body is buffered");
+		}
+		int streamGeneration = generation;
+		return new InputStream() {
+
+			@Override
+			public int read() throws IOException {
+				byte[] b = new byte[1];
+				return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				if (generation != streamGeneration) {
+					throw new IllegalStateException("Request is not available after its response was written");
+				}
+				long remaining = bodyLength - bodyRead;
+				if (remaining == 0) {
+					return -1;
+				}
+				if (len == 0) {
+					return 0;
+				}
+				int toRead = (int) Math.min(len, remaining);
+				int buffered = buffer.position() - position;
+				int read;
+				if (buffered > 0) {
+					read = Math.min(toRead, buffered);
+					System.arraycopy(buffer.array(), position, b, off, read);
+					position += read;
+				} else {
+					read = source.read(b, off, toRead);
+					if (read < 0) {
+						throw new EOFException("Stream has ended in the middle of a request body");
+					}
+				}
+				bodyRead += read;
+				return read;
+			}
+
+		};
+	}
+
+	/**
+	 * @return true if the whole streamed body has been read
+	 */
+	public boolean isBodyConsumed() {
+		return !bodyStreamed || bodyRead == bodyLength;
+	}
+
+	/**
+	 * Reads and drops the rest of a streamed body, so the connection can serve
+	 * the next request
+	 *
+	 * @return false if more than maxBytes were left, nothing is skipped then
+	 */
+	public boolean skipBody(InputStream source, long maxBytes) throws IOException {
+		if (isBodyConsumed()) {
+			return true;
+		}
+		if (bodyLength - bodyRead > maxBytes) {
+			return false;
+		}
+		InputStream body = getBodyStream(source);
+		byte[] skipped = new byte[(int) Math.min(8192, bodyLength - bodyRead)];
+		while (body.read(skipped, 0, skipped.length) >= 0) {
+			// Dropping
+		}
+		return true;
+	}
+
+	private void parseRequestLine(byte[] bytes, int start, int end) {
+		methodEnd = indexOf(bytes, start, end, (byte) ' ');
+		int lastSpace = lastIndexOf(bytes, start, end, (byte) ' ');
+		if (methodEnd <= start || lastSpace <= methodEnd + 1 || lastSpace == end - 1) {
+			throw new IllegalArgumentException("Bad first line");
+		}
+		uriStart = methodEnd + 1;
+		uriEnd = lastSpace;
+		protocolStart = lastSpace + 1;
+		protocolEnd = end;
+	}
+
+	private void parseHeaderLine(byte[] bytes, int start, int end) {
+		int colon = indexOf(bytes, start, end, (byte) ':');
+		if (colon <= start || isWhitespace(bytes[start])) {
+			throw new IllegalArgumentException(
+					"Invalid header line: " + new String(bytes, start, end - start, StandardCharsets.ISO_8859_1));
+		}
+		int valueStart = colon + 1;
+		while (valueStart < end && isWhitespace(bytes[valueStart])) {
+			valueStart++;
+		}
+		int valueEnd = end;
+		while (valueEnd > valueStart && isWhitespace(bytes[valueEnd - 1])) {
+			valueEnd--;
+		}
+		if (headerCount * 4 == headerOffsets.length) {
+			headerOffsets = Arrays.copyOf(headerOffsets, headerOffsets.length * 2);
+		}
+		int offset = headerCount * 4;
+		headerOffsets[offset] = start;
+		headerOffsets[offset + 1] = colon;
+		headerOffsets[offset + 2] = valueStart;
+		headerOffsets[offset + 3] = valueEnd;
+		headerCount++;
+	}
+
+	/**
+	 * @return declared body length or 0 if there is none
+	 * @throws IllegalArgumentException
+	 *             if the length is not a number or several lengths differ.
+	 *             Guessing would make the body bytes be read as the next
+	 *             request of the connection.
+	 */
+	private long parseContentLength() {
+		byte[] bytes = buffer.array();
+		long length = -1;
+		for (int index = 0; index < headerCount; index++) {
+			if (!equalsIgnoreCase(bytes, headerOffsets[index * 4], headerOffsets[index * 4 + 1],
+					HttpRequest.CONTENT_LENGTH_HEADER)) {
+				continue;
+			}
+			long value = parseLength(bytes, headerOffsets[index * 4 + 2], headerOffsets[index * 4 + 3]);
+			if (length >= 0 && value != length) {
+				throw new IllegalArgumentException("Content-Length headers differ");
+			}
+			length = value;
+		}
+		return Math.max(0, length);
+	}
+
+	private long parseLength(byte[] bytes, int start, int end) {
+		if (start == end) {
+			throw new IllegalArgumentException("Content-Length is empty");
+		}
+		long length = 0;
+		for (int i = start; i < end; i++) {
+			if (bytes[i] < '0' || bytes[i] > '9') {
+				throw new IllegalArgumentException("Content-Length is not a number");
+			}
+			length = length * 10 + (bytes[i] - '0');
+			if (length > maxBodySize) {
+				throw new PayloadTooLargeException("Request body is too large");
+			}
+		}
+		return length;
+	}
+
+	private int indexOfHeader(String name) {
+		byte[] bytes = buffer.array();
+		for (int i = 0; i < headerCount; i++) {
+			if (equalsIgnoreCase(bytes, headerOffsets[i * 4], headerOffsets[i * 4 + 1], name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Empty lines before the request count too, the buffer would grow without
+	 * a limit otherwise
+	 */
+	private void checkHeaderSize(int end) {
+		if (end > maxHeaderSize) {
+			throw new IllegalArgumentException("Request header is too large");
+		}
+	}
+
+	private void checkComplete() {
+		if (state != State.COMPLETE) {
+			throw new IllegalStateException("Request is not parsed yet");
+		}
+	}
+
+	private void checkBuffered() {
+		checkComplete();
+		if (bodyStreamed) {
+			throw new IllegalStateException("Body is streamed");
+		}
+	}
+
+	private void checkHeaderIndex(int index) {
+		checkComplete();
+		if (index < 0 || index >= headerCount) {
+			throw new IndexOutOfBoundsException("Header index " + index + " is out of [0;" + headerCount + ")");
+		}
+	}
+
+	private String decode(int start, int end) {
+		return new String(buffer.array(), start, end - start, HttpResponse.MAIN_ENCODING);
+	}
+
+	private static boolean equals(byte[] bytes, int start, int end, byte[] expected) {
+		if (end - start != expected.length) {
+			return false;
+		}
+		for (int i = 0; i < expected.length; i++) {
+			if (bytes[start + i] != expected[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Compares ASCII bytes with a string ignoring case
+	 */
+	private static boolean equalsIgnoreCase(byte[] bytes, int start, int end, String expected) {
+		if (end - start != expected.length()) {
+			return false;
+		}
+		for (int i = 0; i < expected.length(); i++) {
+			if (toLowerCase((char) bytes[start + i]) != toLowerCase(expected.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static char toLowerCase(char c) {
+		return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+	}
+
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\t';
+	}
+
+	private static int indexOf(byte[] bytes, int start, int end, byte b) {
+		for (int i = start; i < end; i++) {
+			if (bytes[i] == b) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static int lastIndexOf(byte[] bytes, int start, int end, byte b) {
+		for (int i = end - 1; i >= start; i--) {
+			if (bytes[i] == b) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static byte[][] toBytes(String... values) {
+		byte[][] bytes = new byte[values.length][];
+		for (int i = 0; i < values.length; i++) {
+			bytes[i] = values[i].getBytes(StandardCharsets.US_ASCII);
+		}
+		return bytes;
+	}
+
+}
@@ -0,0 +1,397 @@
+package ru.babobka.vsjws.parser;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import ru.babobka.vsjws.exception.PayloadTooLargeException;
+import ru.babobka.vsjws.model.MultipartConfig;
+import ru.babobka.vsjws.model.MultipartPart;
+
+/**
+ * Reads a multipart/form-data body in one pass. Parts without a file name
+ * become fields, file parts stay in memory up to the threshold and are
+ * written to temp files after that. Only a buffer and the threshold worth of
+ * bytes are kept on the heap.
+ */
+public class MultipartParser {
+
+	public static final String MULTIPART_FORM_DATA = "multipart/form-data";
+
+	private static final String CONTENT_DISPOSITION_HEADER = "Content-Disposition";
+
+	private static final String CONTENT_TYPE_HEADER = "Content-Type";
+
+	private static final int BUFFER_SIZE = 16 * 1024;
+
+	private static final int MAX_PART_HEADER_SIZE = 8 * 1024;
+
+	private static final int MAX_BOUNDARY_LENGTH = 70;
+
+	private final InputStream source;
+
+	private final MultipartConfig config;
+
+	/**
+	 * CRLF, two dashes and the boundary
+	 */
+	private final byte[] delimiter;
+
+	private final byte[] buffer;
+
+	private int position;
+
+	private int limit;
+
+	private long totalSize;
+
+	private final Map<String, String> fields = new HashMap<>();
+
+	private final List<MultipartPart> parts = new ArrayList<>();
+
+	private final List<File> tempFiles = new ArrayList<>();
+
+	public MultipartParser(InputStream source, String boundary, MultipartConfig config) {
+		if (boundary == null || boundary.isEmpty() || boundary.length() > MAX_BOUNDARY_LENGTH) {
+			throw new IllegalArgumentException("Invalid multipart boundary");
+		}
+		this.source = source;
+		this.config = config;
+		this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.US_ASCII);
+		this.buffer = new byte[Math.max(BUFFER_SIZE, delimiter.length * 2)];
+		// The first boundary is not preceded by a line break
+		buffer[0] = '\r';
+		buffer[1] = '\n';
+		limit = 2;
+	}
+
+	/**
+	 * @return boundary or null if the content type is not multipart/form-data
+	 */
+	public static String getBoundary(String contentType) {
+		if (contentType == null) {
+			return null;
+		}
+		int semicolon = contentType.indexOf(';');
+		String type = (semicolon == -1 ? contentType : contentType.substring(0, semicolon)).trim();
+		if (!type.equalsIgnoreCase(MULTIPART_FORM_DATA)) {
+			return null;
+		}
+		return parseHeaderParams(contentType).get("boundary");
+	}
+
+	/**
+	 * Reads all the parts. Temp files are deleted if parsing fails.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the body is malformed
+	 * @throws PayloadTooLargeException
+	 *             if a limit is exceeded
+	 */
+	public void parse() throws IOException {
+		boolean done = false;
+		try {
+			// Preamble
+			readPart(null);
+			while (readDelimiterEnd()) {
+				readPart();
+			}
+			done = true;
+		} finally {
+			if (!done) {
+				for (File tempFile : tempFiles) {
+					tempFile.delete();
+				}
+			}
+		}
+	}
+
+	public Map<String, String> getFields() {
+		return fields;
+	}
+
+	/**
+	 * @return parts that have a file name
+	 */
+	public List<MultipartPart> getParts() {
+		return parts;
+	}
+
+	private void readPart() throws IOException {
+		Map<String, String> headers = readHeaders();
+		String disposition = headers.get(CONTENT_DISPOSITION_HEADER);
+		if (disposition == null) {
+			throw new IllegalArgumentException("Part has no Content-Disposition");
+		}
+		Map<String, String> dispositionParams = parseHeaderParams(disposition);
+		String name = dispositionParams.get("name");
+		if (name == null) {
+			throw new IllegalArgumentException("Part has no name");
+		}
+		String fileName = dispositionParams.get("filename");
+		if (fileName == null) {
+			PartSink sink = new PartSink(config.getMaxFieldSize(), false);
+			readPart(sink);
+			fields.put(name, new String(sink.memory.toByteArray(), StandardCharsets.UTF_8));
+			return;
+		}
+		PartSink sink = new PartSink(config.getFileSizeThreshold(), true);
+		try {
+			readPart(sink);
+		} finally {
+			sink.close();
+		}
+		String contentType = headers.get(CONTENT_TYPE_HEADER);
+		fileName = stripPath(fileName);
+		if (sink.file != null) {
+			parts.add(new MultipartPart(name, fileName, contentType, sink.file, sink.size));
+		} else {
+			parts.add(new MultipartPart(name, fileName, contentType, sink.memory.toByteArray()));
+		}
+	}
+
+	/**
+	 * Moves part content to the sink up to the next delimiter. Content is
+	 * skipped if the sink is null.
+	 */
+	private void readPart(OutputStream sink) throws IOException {
+		while (true) {
+			int found = indexOfDelimiter();
+			if (found != -1) {
+				write(sink, found);
+				position = found + delimiter.length;
+				return;
+			}
+			// Tail may be the beginning of the delimiter
+			write(sink, Math.max(position, limit - delimiter.length + 1));
+			if (!fill()) {
+				throw new IllegalArgumentException("Multipart body is not terminated");
+			}
+		}
+	}
+
+	private void write(OutputStream sink, int end) throws IOException {
+		if (sink != null && end > position) {
+			sink.write(buffer, position, end - position);
+		}
+		position = end;
+	}
+
+	private int indexOfDelimiter() {
+		byte first = delimiter[0];
+		int last = limit - delimiter.length;
+		outer: for (int i = position; i <= last; i++) {
+			if (buffer[i] != first) {
+				continue;
+			}
+			for (int j = 1; j < delimiter.length; j++) {
+				if (buffer[i + j] != delimiter[j]) {
+					continue outer;
+				}
+			}
+			return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return true if another part follows the delimiter, false if it was the
+	 *         closing one
+	 */
+	private boolean readDelimiterEnd() throws IOException {
+		if (!need(2)) {
+			throw new IllegalArgumentException("Multipart body is not terminated");
+		}
+		if (buffer[position] == '-' && buffer[position + 1] == '-') {
+			position += 2;
+			return false;
+		}
+		while (need(1) && (buffer[position] == ' ' || buffer[position] == '\t')) {
+			position++;
+		}
+		if (!need(2) || buffer[position] != '\r' || buffer[position + 1] != '\n') {
+			throw new IllegalArgumentException("Bad multipart delimiter");
+		}
+		position += 2;
+		return true;
+	}
+
+	private Map<String, String> readHeaders() throws IOException {
+		Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int headerSize = 0;
+		while (true) {
+			if (!need(2)) {
+				throw new IllegalArgumentException("Multipart body is not terminated");
+			}
+			if (buffer[position] == '\r' && buffer[position + 1] == '\n') {
+				position += 2;
+				if (line.size() == 0) {
+					return headers;
+				}
+				String header = new String(line.toByteArray(), StandardCharsets.UTF_8);
+				int colon = header.indexOf(':');
+				if (colon <= 0) {
+					throw new IllegalArgumentException("Bad part header '" + header + "'");
+				}
+				headers.put(header.substring(0, colon).trim(), header.substring(colon + 1).trim());
+				line.reset();
+			} else {
+				line.write(buffer[position++]);
+			}
+			if (++headerSize > MAX_PART_HEADER_SIZE) {
+				throw new IllegalArgumentException("Part header is too large");
+			}
+		}
+	}
+
+	/**
+	 * @return false if the source ended before n bytes were buffered
+	 */
+	private boolean need(int n) throws IOException {
+		while (limit - position < n) {
+			if (!fill()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean fill() throws IOException {
+		if (position > 0) {
+			System.arraycopy(buffer, position, buffer, 0, limit - position);
+			limit -= position;
+			position = 0;
+		}
+		int read = source.read(buffer, limit, buffer.length - limit);
+		if (read == -1) {
+			return false;
+		}
+		limit += read;
+		return true;
+	}
+
+	private static String stripPath(String fileName) {
+		// Some browsers send the full client path
+		int slash = Math.max(fileName.lastIndexOf('/'), fileName.lastIndexOf('\\'));
+		return fileName.substring(slash + 1);
+	}
+
+	/**
+	 * Parses parameters of a header like
+	 * <code>form-data; name="file"; filename="a.txt"</code>. Names are in
+	 * lower case.
+	 */
+	static Map<String, String> parseHeaderParams(String header) {
+		Map<String, String> params = new HashMap<>();
+		int i = header.indexOf(';');
+		while (i != -1 && i < header.length()) {
+			int equals = header.indexOf('=', i + 1);
+			if (equals == -1) {
+				break;
+			}
+			String name = header.substring(i + 1, equals).trim().toLowerCase();
+			StringBuilder value = new StringBuilder();
+			int j = equals + 1;
+			while (j < header.length() && header.charAt(j) == ' ') {
+				j++;
+			}
+			if (j < header.length() && header.charAt(j) == '"') {
+				for (j++; j < header.length() && header.charAt(j) != '"'; j++) {
+					if (header.charAt(j) == '\\' && j + 1 < header.length()) {
+						j++;
+					}
+					value.append(header.charAt(j));
+				}
+				i = header.indexOf(';', j);
+			} else {
+				i = header.indexOf(';', j);
+				value.append(header, j, i == -1 ? header.length() : i);
+			}
+			params.putIfAbsent(name, value.toString().trim());
+		}
+		return params;
+	}
+
+	/**
+	 * Counts part bytes and keeps them in memory until the threshold is
+	 * crossed
+	 */
+	private class PartSink extends OutputStream {
+
+		private final int memoryLimit;
+
+		private final boolean spool;
+
+		private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+
+		private File file;
+
+		private OutputStream fileStream;
+
+		private long size;
+
+		PartSink(int memoryLimit, boolean spool) {
+			this.memoryLimit = memoryLimit;
+			this.spool = spool;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			size += len;
+			totalSize += len;
+			if (config.getMaxPartSize() >= 0 && size > config.getMaxPartSize()) {
+				throw new PayloadTooLargeException("Multipart part is too large");
+			} else if (config.getMaxTotalSize() >= 0 && totalSize > config.getMaxTotalSize()) {
+				throw new PayloadTooLargeException("Multipart body is too large");
+			}
+			if (fileStream == null && size > memoryLimit) {
+				if (!spool) {
+					throw new PayloadTooLargeException("Multipart field is too large");
+				}
+				file = createTempFile();
+				tempFiles.add(file);
+				fileStream = new BufferedOutputStream(Files.newOutputStream(file.toPath()), BUFFER_SIZE);
+				memory.writeTo(fileStream);
+				memory = null;
+			}
+			if (fileStream != null) {
+				fileStream.write(b, off, len);
+			} else {
+				memory.write(b, off, len);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (fileStream != null) {
+				fileStream.close();
+			}
+		}
+
+		private File createTempFile() throws IOException {
+			File tempDir = config.getTempDir();
+			Path path = tempDir != null ? Files.createTempFile(tempDir.toPath(), "vsjws-upload-", ".tmp")
+					: Files.createTempFile("vsjws-upload-", ".tmp");
+			return path.toFile();
+		}
+
+	}
+
+}
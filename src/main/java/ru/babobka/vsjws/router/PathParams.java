@@ -0,0 +1,152 @@
+package ru.babobka.vsjws.router;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Params captured by {@link Router}. Only bounds of the values are stored
+ * while matching, values are cut out of the path and percent-decoded on
+ * access.
+ */
+public class PathParams {
+
+	private static final String[] NO_NAMES = new String[0];
+
+	private String path;
+
+	private String route;
+
+	private String[] names = NO_NAMES;
+
+	/**
+	 * Start and end of each captured value
+	 */
+	private int[] bounds = new int[8];
+
+	private int count;
+
+	private int wildcardStart = -1;
+
+	private int wildcardEnd;
+
+	void reset(String path) {
+		this.path = path;
+		this.route = null;
+		this.names = NO_NAMES;
+		this.count = 0;
+		this.wildcardStart = -1;
+	}
+
+	void push(int start, int end) {
+		if (count * 2 == bounds.length) {
+			bounds = Arrays.copyOf(bounds, bounds.length * 2);
+		}
+		bounds[count * 2] = start;
+		bounds[count * 2 + 1] = end;
+		count++;
+	}
+
+	void pop() {
+		count--;
+	}
+
+	void setWildcard(int start, int end) {
+		wildcardStart = start;
+		wildcardEnd = end;
+	}
+
+	void setNames(String[] names) {
+		this.names = names;
+	}
+
+	void setRoute(String route) {
+		this.route = route;
+	}
+
+	/**
+	 * @return pattern of the matched route like <code>/users/{id}</code> or
+	 *         null
+	 */
+	public String getRoute() {
+		return route;
+	}
+
+	/**
+	 * @return decoded value or null if there is no such param
+	 */
+	public String get(String name) {
+		for (int i = 0; i < count; i++) {
+			if (names[i].equals(name)) {
+				return getValue(i);
+			}
+		}
+		return null;
+	}
+
+	public int size() {
+		return count;
+	}
+
+	public String getName(int index) {
+		return names[index];
+	}
+
+	public String getValue(int index) {
+		return decode(path, bounds[index * 2], bounds[index * 2 + 1]);
+	}
+
+	/**
+	 * @return decoded path matched by a trailing '*' or null if the route has
+	 *         no wildcard
+	 */
+	public String getWildcard() {
+		return wildcardStart == -1 ? null : decode(path, wildcardStart, wildcardEnd);
+	}
+
+	public Map<String, String> toMap() {
+		Map<String, String> map = new LinkedHashMap<>();
+		for (int i = 0; i < count; i++) {
+			map.put(names[i], getValue(i));
+		}
+		return map;
+	}
+
+	/**
+	 * Decodes %XX sequences of a path segment. Unlike form params '+' is not a
+	 * space.
+	 */
+	static String decode(String path, int start, int end) {
+		int percent = path.indexOf('%', start);
+		if (percent == -1 || percent >= end) {
+			return path.substring(start, end);
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(end - start);
+		for (int i = start; i < end; i++) {
+			char c = path.charAt(i);
+			if (c == '%') {
+				int high = i + 2 < end ? Character.digit(path.charAt(i + 1), 16) : -1;
+				int low = i + 2 < end ? Character.digit(path.charAt(i + 2), 16) : -1;
+				if (high == -1 || low == -1) {
+					throw new IllegalArgumentException("Bad percent encoding in '" + path + "'");
+				}
+				bytes.write(high << 4 | low);
+				i += 2;
+			} else if (c < 0x80) {
+				bytes.write(c);
+			} else {
+				byte[] encoded = String.valueOf(c).getBytes(StandardCharsets.UTF_8);
+				bytes.write(encoded, 0, encoded.length);
+			}
+		}
+		return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public String toString() {
+		return "PathParams " + toMap() + (wildcardStart == -1 ? "" : ", wildcard=" + getWildcard());
+	}
+
+}
@@ -0,0 +1,309 @@
+package ru.babobka.vsjws.router;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds values by request paths. Routes are compiled into a radix tree, so a
+ * lookup takes time proportional to the path length and does not allocate.
+ * <p>
+ * Route patterns:
+ * <ul>
+ * <li><code>/users</code> matches the path exactly</li>
+ * <li><code>/users/{id}/orders</code> matches any non-empty segment in place
+ * of <code>{id}</code></li>
+ * <li><code>/static/*</code> matches the rest of the path after
+ * <code>/static/</code>, including an empty one</li>
+ * </ul>
+ * Static segments win over params and params win over wildcards. Routes may
+ * be added while lookups are running, the tree is rebuilt and replaced as a
+ * whole.
+ */
+public class Router<T> {
+
+	private static final String WILDCARD = "*";
+
+	private final Map<String, Route<T>> routes = new LinkedHashMap<>();
+
+	private volatile Node<T> root = new Node<>("");
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if the pattern is malformed or the same route was already
+	 *             added
+	 */
+	public synchronized void add(String pattern, T value) {
+		if (value == null) {
+			throw new IllegalArgumentException("Route value is null");
+		}
+		Route<T> route = compile(pattern, value);
+		if (routes.containsKey(route.key)) {
+			throw new IllegalArgumentException("Route '" + pattern + "' conflicts with '"
+					+ routes.get(route.key).pattern + "'");
+		}
+		Map<String, Route<T>> newRoutes = new LinkedHashMap<>(routes);
+		newRoutes.put(route.key, route);
+		root = build(newRoutes.values());
+		routes.put(route.key, route);
+	}
+
+	/**
+	 * @return true if the route was there
+	 */
+	public synchronized boolean remove(String pattern) {
+		Route<T> removed = routes.remove(compile(pattern, null).key);
+		if (removed != null) {
+			root = build(routes.values());
+		}
+		return removed != null;
+	}
+
+	public synchronized void clear() {
+		routes.clear();
+		root = new Node<>("");
+	}
+
+	public synchronized int size() {
+		return routes.size();
+	}
+
+	/**
+	 * Finds a value by the path part of a URI. Query string is ignored.
+	 *
+	 * @param params
+	 *            receives path params of the found route
+	 * @return value or null if no route matches
+	 */
+	public T find(String uri, PathParams params) {
+		if (uri == null || uri.isEmpty() || uri.charAt(0) != '/') {
+			return null;
+		}
+		int end = uri.indexOf('?');
+		if (end == -1) {
+			end = uri.length();
+		}
+		params.reset(uri);
+		Route<T> route = find(root, uri, 0, end, params);
+		if (route == null) {
+			return null;
+		}
+		params.setNames(route.paramNames);
+		params.setRoute(route.pattern);
+		return route.value;
+	}
+
+	private static <T> Route<T> find(Node<T> node, String path, int position, int end, PathParams params) {
+		if (position == end) {
+			if (node.route != null) {
+				return node.route;
+			} else if (node.wildcardRoute != null) {
+				params.setWildcard(position, end);
+				return node.wildcardRoute;
+			}
+			return null;
+		}
+		Node<T> child = node.getChild(path.charAt(position));
+		if (child != null && path.regionMatches(position, child.prefix, 0, child.prefix.length())
+				&& position + child.prefix.length() <= end) {
+			Route<T> route = find(child, path, position + child.prefix.length(), end, params);
+			if (route != null) {
+				return route;
+			}
+		}
+		if (node.paramChild != null) {
+			int segmentEnd = position;
+			while (segmentEnd < end && path.charAt(segmentEnd) != '/') {
+				segmentEnd++;
+			}
+			if (segmentEnd > position) {
+				params.push(position, segmentEnd);
+				Route<T> route = find(node.paramChild, path, segmentEnd, end, params);
+				if (route != null) {
+					return route;
+				}
+				params.pop();
+			}
+		}
+		if (node.wildcardRoute != null) {
+			params.setWildcard(position, end);
+			return node.wildcardRoute;
+		}
+		return null;
+	}
+
+	private static <T> Route<T> compile(String pattern, T value) {
+		if (pattern == null || !pattern.startsWith("/")) {
+			throw new IllegalArgumentException("Route must start with '/'");
+		}
+		List<String> parts = new ArrayList<>();
+		List<String> paramNames = new ArrayList<>();
+		StringBuilder key = new StringBuilder();
+		StringBuilder text = new StringBuilder();
+		String[] segments = pattern.substring(1).split("/", -1);
+		for (int i = 0; i < segments.length; i++) {
+			String segment = segments[i];
+			text.append('/');
+			key.append('/');
+			if (segment.equals(WILDCARD)) {
+				if (i != segments.length - 1) {
+					throw new IllegalArgumentException("Wildcard must be the last segment of '" + pattern + "'");
+				}
+				parts.add(text.toString());
+				parts.add(WILDCARD);
+				key.append(WILDCARD);
+				return new Route<>(pattern, key.toString(), parts, paramNames, value);
+			} else if (segment.startsWith("{") && segment.endsWith("}")) {
+				String name = segment.substring(1, segment.length() - 1);
+				if (name.isEmpty() || paramNames.contains(name)) {
+					throw new IllegalArgumentException("Bad or repeated param name in '" + pattern + "'");
+				}
+				parts.add(text.toString());
+				// Null part stands for a param
+				parts.add(null);
+				paramNames.add(name);
+				text.setLength(0);
+				key.append("{}");
+			} else if (segment.indexOf('{') != -1 || segment.indexOf('}') != -1 || segment.indexOf('*') != -1) {
+				throw new IllegalArgumentException("Param or wildcard must take the whole segment in '" + pattern + "'");
+			} else {
+				text.append(segment);
+				key.append(segment);
+			}
+		}
+		parts.add(text.toString());
+		return new Route<>(pattern, key.toString(), parts, paramNames, value);
+	}
+
+	private static <T> Node<T> build(Iterable<Route<T>> routes) {
+		Node<T> root = new Node<>("");
+		for (Route<T> route : routes) {
+			Node<T> node = root;
+			boolean wildcard = false;
+			for (String part : route.parts) {
+				if (part == null) {
+					if (node.paramChild == null) {
+						node.paramChild = new Node<>("");
+					}
+					node = node.paramChild;
+				} else if (part.equals(WILDCARD)) {
+					wildcard = true;
+				} else {
+					node = insert(node, part);
+				}
+			}
+			if (wildcard) {
+				node.wildcardRoute = route;
+			} else {
+				node.route = route;
+			}
+		}
+		return root;
+	}
+
+	/**
+	 * Adds static text below a node splitting edges where needed
+	 *
+	 * @return node that ends the text
+	 */
+	private static <T> Node<T> insert(Node<T> node, String text) {
+		while (!text.isEmpty()) {
+			int index = node.indexOf(text.charAt(0));
+			if (index == -1) {
+				Node<T> child = new Node<>(text);
+				node.addChild(child);
+				return child;
+			}
+			Node<T> child = node.children[index];
+			int common = 0;
+			int max = Math.min(child.prefix.length(), text.length());
+			while (common < max && child.prefix.charAt(common) == text.charAt(common)) {
+				common++;
+			}
+			if (common < child.prefix.length()) {
+				Node<T> middle = new Node<>(child.prefix.substring(0, common));
+				child.prefix = child.prefix.substring(common);
+				middle.addChild(child);
+				node.children[index] = middle;
+				child = middle;
+			}
+			node = child;
+			text = text.substring(common);
+		}
+		return node;
+	}
+
+	private static class Node<T> {
+
+		private String prefix;
+
+		private char[] indices = new char[0];
+
+		private Node<T>[] children = newArray(0);
+
+		private Node<T> paramChild;
+
+		private Route<T> route;
+
+		private Route<T> wildcardRoute;
+
+		Node(String prefix) {
+			this.prefix = prefix;
+		}
+
+		int indexOf(char c) {
+			for (int i = 0; i < indices.length; i++) {
+				if (indices[i] == c) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		Node<T> getChild(char c) {
+			int index = indexOf(c);
+			return index == -1 ? null : children[index];
+		}
+
+		void addChild(Node<T> child) {
+			indices = Arrays.copyOf(indices, indices.length + 1);
+			indices[indices.length - 1] = child.prefix.charAt(0);
+			children = Arrays.copyOf(children, children.length + 1);
+			children[children.length - 1] = child;
+		}
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		private static <T> Node<T>[] newArray(int size) {
+			return new Node[size];
+		}
+
+	}
+
+	private static class Route<T> {
+
+		private final String pattern;
+
+		/**
+		 * Pattern without param names. Routes with equal keys conflict.
+		 */
+		private final String key;
+
+		private final List<String> parts;
+
+		private final String[] paramNames;
+
+		private final T value;
+
+		Route(String pattern, String key, List<String> parts, List<String> paramNames, T value) {
+			this.pattern = pattern;
+			this.key = key;
+			this.parts = parts;
+			this.paramNames = paramNames.toArray(new String[0]);
+			this.value = value;
+		}
+
+	}
+
+}
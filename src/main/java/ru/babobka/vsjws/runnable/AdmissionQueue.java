@@ -0,0 +1,140 @@
+package ru.babobka.vsjws.runnable;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import ru.babobka.vsjws.constant.ContentType;
+import ru.babobka.vsjws.model.HttpResponse;
+import ru.babobka.vsjws.model.HttpResponse.ResponseCode;
+
+/**
+ * Bounds the number of tasks waiting for a worker and the time they wait.
+ * Tasks that do not fit are shed, so overload ends up in fast 503 answers
+ * instead of a growing queue.
+ */
+public class AdmissionQueue {
+
+	public static final String RETRY_AFTER_HEADER = "Retry-After";
+
+	private final AtomicInteger depth = new AtomicInteger();
+
+	private final AtomicInteger running = new AtomicInteger();
+
+	private final LongAdder shedCount = new LongAdder();
+
+	private volatile int maxDepth;
+
+	private volatile long deadlineNanos;
+
+	private volatile int retryAfterSeconds;
+
+	public AdmissionQueue(int maxDepth, long deadlineMillis, int retryAfterSeconds) {
+		setMaxDepth(maxDepth);
+		setDeadlineMillis(deadlineMillis);
+		setRetryAfterSeconds(retryAfterSeconds);
+	}
+
+	/**
+	 * Executes a task unless the queue is full. Task that waited in the queue
+	 * longer than the deadline is not run either. Shed tasks are replaced by
+	 * onShed that runs on the calling thread if the queue is full and on the
+	 * worker thread if the deadline is over.
+	 *
+	 * @return true if the task was queued
+	 */
+	public boolean submit(Executor executor, Runnable task, Runnable onShed) {
+		if (depth.incrementAndGet() > maxDepth) {
+			depth.decrementAndGet();
+			shed(onShed);
+			return false;
+		}
+		long queuedAt = System.nanoTime();
+		try {
+			executor.execute(() -> {
+				depth.decrementAndGet();
+				if (System.nanoTime() - queuedAt > deadlineNanos) {
+					shed(onShed);
+				} else {
+					running.incrementAndGet();
+					try {
+						task.run();
+					} finally {
+						running.decrementAndGet();
+					}
+				}
+			});
+			return true;
+		} catch (RejectedExecutionException e) {
+			depth.decrementAndGet();
+			shed(onShed);
+			return false;
+		}
+	}
+
+	private void shed(Runnable onShed) {
+		shedCount.increment();
+		onShed.run();
+	}
+
+	public HttpResponse createRejectionResponse() {
+		return HttpResponse
+				.textResponse(ResponseCode.SERVICE_UNAVAILABLE.toString(), ResponseCode.SERVICE_UNAVAILABLE,
+						ContentType.PLAIN)
+				.addHeader(RETRY_AFTER_HEADER, retryAfterSeconds);
+	}
+
+	/**
+	 * @return number of tasks waiting for a worker
+	 */
+	public int getDepth() {
+		return depth.get();
+	}
+
+	/**
+	 * @return number of tasks being run by workers
+	 */
+	public int getRunning() {
+		return running.get();
+	}
+
+	public long getShedCount() {
+		return shedCount.sum();
+	}
+
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	public void setMaxDepth(int maxDepth) {
+		if (maxDepth <= 0) {
+			throw new IllegalArgumentException("Max queue depth must be > 0");
+		}
+		this.maxDepth = maxDepth;
+	}
+
+	public long getDeadlineMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(deadlineNanos);
+	}
+
+	public void setDeadlineMillis(long deadlineMillis) {
+		if (deadlineMillis <= 0) {
+			throw new IllegalArgumentException("Queue deadline must be > 0");
+		}
+		this.deadlineNanos = TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+	}
+
+	public int getRetryAfterSeconds() {
+		return retryAfterSeconds;
+	}
+
+	public void setRetryAfterSeconds(int retryAfterSeconds) {
+		if (retryAfterSeconds < 0) {
+			throw new IllegalArgumentException("Retry-After must be >= 0");
+		}
+		this.retryAfterSeconds = retryAfterSeconds;
+	}
+
+}
@@ -0,0 +1,314 @@
+package ru.babobka.vsjws.runnable;
+
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.logging.Level;
+
+import ru.babobka.vsjws.exception.BadProtocolSpecifiedException;
+import ru.babobka.vsjws.exception.InvalidContentLengthException;
+import ru.babobka.vsjws.exception.PayloadTooLargeException;
+import ru.babobka.vsjws.listener.OnExceptionListener;
+import ru.babobka.vsjws.logger.AccessLog;
+import ru.babobka.vsjws.logger.SimpleLogger;
+import ru.babobka.vsjws.metrics.RequestTimer;
+import ru.babobka.vsjws.metrics.RequestTimer.Phase;
+import ru.babobka.vsjws.metrics.ServerMetrics;
+import ru.babobka.vsjws.model.HttpRequest;
+import ru.babobka.vsjws.model.HttpResponse;
+import ru.babobka.vsjws.model.HttpResponse.ResponseCode;
+import ru.babobka.vsjws.model.MultipartConfig;
+import ru.babobka.vsjws.parser.HttpRequestParser;
+import ru.babobka.vsjws.router.Router;
+import ru.babobka.vsjws.session.SessionStore;
+import ru.babobka.vsjws.util.HttpUtil;
+import ru.babobka.vsjws.util.RangeUtil;
+import ru.babobka.vsjws.webcontroller.StaticResourcesController;
+
+/**
+ * Transport independent part of request handling. Finds a controller for a
+ * parsed request and turns exceptions into responses.
+ */
+public class RequestProcessor {
+
+	/**
+	 * Bigger bodies are read from the connection while the controller reads
+	 * them, if the transport can do that
+	 */
+	public static final long DEFAULT_STREAMING_THRESHOLD = 1024 * 1024;
+
+	/**
+	 * Unread rest of a streamed body up to this size is skipped to keep the
+	 * connection. The connection is closed otherwise.
+	 */
+	public static final long MAX_SKIPPED_BODY_SIZE = 1024 * 1024;
+
+	public static final String STATIC_RESOURCES_ROUTE = "/web-content/*";
+
+	private final Router<WebController> router;
+	private final Map<String, OnExceptionListener> exceptionListenerMap;
+	private final SimpleLogger logger;
+	private final StaticResourcesController staticResourcesController;
+	private final ServerMetrics metrics = new ServerMetrics();
+	private volatile boolean debugMode;
+	private volatile boolean autoETag;
+	private volatile ResponseCompressor compressor;
+	private volatile long maxBodySize = HttpRequestParser.DEFAULT_MAX_BODY_SIZE;
+	private volatile long streamingThreshold = DEFAULT_STREAMING_THRESHOLD;
+	private volatile MultipartConfig multipartConfig = MultipartConfig.DEFAULT;
+	private volatile SessionStore sessionStore;
+	private volatile AccessLog accessLog;
+
+	public RequestProcessor(Map<String, WebController> controllerMap, SessionStore sessionStore, SimpleLogger logger,
+			Map<String, OnExceptionListener> exceptionListenerMap, boolean debugMode) {
+		this(new Router<WebController>(), sessionStore, logger, exceptionListenerMap, debugMode);
+		for (Map.Entry<String, WebController> entry : controllerMap.entrySet()) {
+			addController(entry.getKey(), entry.getValue());
+		}
+	}
+
+	public RequestProcessor(Router<WebController> router, SessionStore sessionStore, SimpleLogger logger,
+			Map<String, OnExceptionListener> exceptionListenerMap, boolean debugMode) {
+		this.sessionStore = sessionStore;
+		this.router = router;
+		this.exceptionListenerMap = exceptionListenerMap;
+		this.logger = logger;
+		this.staticResourcesController = new StaticResourcesController();
+		this.debugMode = debugMode;
+		router.add(STATIC_RESOURCES_ROUTE, staticResourcesController);
+	}
+
+	/**
+	 * Adds a controller for a route like <code>/users/{id}/orders/*</code>.
+	 * See {@link Router} for the syntax.
+	 */
+	public void addController(String route, WebController webController) {
+		router.add(route.startsWith("/") ? route : "/" + route, webController);
+	}
+
+	public HttpResponse process(HttpRequest request) {
+		return process(request, null);
+	}
+
+	/**
+	 * @param timer
+	 *            gets the route and phase times or null
+	 */
+	public HttpResponse process(HttpRequest request, RequestTimer timer) {
+		HttpResponse response = HttpResponse.NOT_FOUND_RESPONSE;
+		try {
+			if (request.getUri() != null) {
+				WebController webController = router.find(request.getUri(), request.getPathParams());
+				if (webController != null) {
+					if (timer != null) {
+						timer.setRoute(request.getPathParams().getRoute());
+					}
+					response = webController.control(request, timer);
+				}
+				long writeStart = timer != null ? System.nanoTime() : 0;
+				if (webController != null && autoETag) {
+					response = addETag(response);
+				}
+				ResponseCompressor currentCompressor = compressor;
+				if (currentCompressor != null) {
+					// Conditions and ranges refer to the variant that is sent
+					response = currentCompressor.compress(request, response);
+				}
+				String sessionCookie = request.getSessionCookieValue();
+				if (sessionCookie != null) {
+					response = response.addCookie(HttpRequest.SESSION_ID_HEADER, sessionCookie);
+				}
+				if (HttpUtil.isNotModified(request, response)) {
+					response = response.notModified();
+				} else {
+					response = RangeUtil.applyRange(request, response);
+				}
+				if (timer != null) {
+					// Encoding the response is a part of writing it
+					timer.add(Phase.WRITE, System.nanoTime() - writeStart);
+				}
+			}
+		} catch (Exception e) {
+			response = exceptionResponse(e);
+		} finally {
+			request.deleteParts();
+		}
+		return response;
+	}
+
+	private static HttpResponse addETag(HttpResponse response) {
+		if (response.getResponseCode() == ResponseCode.OK && response.getBody() != null
+				&& response.getHeader(HttpResponse.ETAG_HEADER) == null) {
+			return response.addHeader(HttpResponse.ETAG_HEADER, HttpUtil.createETag(response.getBody()));
+		}
+		return response;
+	}
+
+	public Router<WebController> getRouter() {
+		return router;
+	}
+
+	public StaticResourcesController getStaticResourcesController() {
+		return staticResourcesController;
+	}
+
+	public HttpResponse exceptionResponse(Exception e) {
+		if (e instanceof BadProtocolSpecifiedException) {
+			return HttpResponse.exceptionResponse(e, ResponseCode.HTTP_VERSION_NOT_SUPPORTED, debugMode);
+		} else if (e instanceof InvalidContentLengthException) {
+			return HttpResponse.exceptionResponse(e, ResponseCode.LENGTH_REQUIRED, debugMode);
+		} else if (e instanceof PayloadTooLargeException) {
+			return HttpResponse.exceptionResponse(e, ResponseCode.PAYLOAD_TOO_LARGE, debugMode);
+		} else if (e instanceof IllegalArgumentException) {
+			return HttpResponse.exceptionResponse(e, ResponseCode.BAD_REQUEST, debugMode);
+		} else if (e instanceof SocketTimeoutException) {
+			return HttpResponse.exceptionResponse(e, ResponseCode.REQUEST_TIMEOUT, debugMode);
+		}
+		logger.log(Level.SEVERE, e);
+		OnExceptionListener onExceptionListener = exceptionListenerMap.get(e.getClass().getName());
+		if (onExceptionListener != null) {
+			try {
+				HttpResponse response = onExceptionListener.onException(e);
+				if (response != null) {
+					return response;
+				}
+			} catch (Exception e1) {
+				logger.log(Level.SEVERE, e1);
+				return HttpResponse.exceptionResponse(e1, debugMode);
+			}
+		}
+		return HttpResponse.exceptionResponse(e, debugMode);
+	}
+
+	public SessionStore getSessionStore() {
+		return sessionStore;
+	}
+
+	/**
+	 * Takes effect for new requests. Sessions of the old store are lost.
+	 */
+	public void setSessionStore(SessionStore sessionStore) {
+		if (sessionStore == null) {
+			throw new IllegalArgumentException("Session store is null");
+		}
+		this.sessionStore = sessionStore;
+	}
+
+	/**
+	 * Writes an access log line if there is an access log. Called by
+	 * transports right before the response is written.
+	 *
+	 * @param request
+	 *            parsed request or null if the request was malformed
+	 */
+	public void logAccess(InetAddress address, HttpRequest request, HttpResponse response, boolean noContent,
+			long startNanos) {
+		AccessLog currentAccessLog = accessLog;
+		if (currentAccessLog != null) {
+			currentAccessLog.log(address, request, response, noContent, startNanos);
+		}
+	}
+
+	/**
+	 * @return access log or null if requests are not logged
+	 */
+	public AccessLog getAccessLog() {
+		return accessLog;
+	}
+
+	public void setAccessLog(AccessLog accessLog) {
+		this.accessLog = accessLog;
+	}
+
+	/**
+	 * @return metrics of all requests, they are always collected
+	 */
+	public ServerMetrics getMetrics() {
+		return metrics;
+	}
+
+	public SimpleLogger getLogger() {
+		return logger;
+	}
+
+	public boolean isDebugMode() {
+		return debugMode;
+	}
+
+	public void setDebugMode(boolean debugMode) {
+		this.debugMode = debugMode;
+	}
+
+	/**
+	 * Creates parser for a new connection
+	 *
+	 * @param streaming
+	 *            true if the transport can read big bodies on demand
+	 */
+	public HttpRequestParser createParser(boolean streaming) {
+		HttpRequestParser parser = new HttpRequestParser(HttpRequestParser.DEFAULT_MAX_HEADER_SIZE, maxBodySize);
+		if (streaming) {
+			parser.setStreamingThreshold(streamingThreshold);
+		}
+		return parser;
+	}
+
+	public long getMaxBodySize() {
+		return maxBodySize;
+	}
+
+	/**
+	 * Sets the largest request body. Bigger ones are answered with 413. Bodies
+	 * that are buffered instead of streamed must also fit a byte array, so
+	 * they are limited to about 2 GB whatever the limit is.
+	 */
+	public void setMaxBodySize(long maxBodySize) {
+		if (maxBodySize < 0) {
+			throw new IllegalArgumentException("Max body size must be >= 0");
+		}
+		this.maxBodySize = maxBodySize;
+	}
+
+	public long getStreamingThreshold() {
+		return streamingThreshold;
+	}
+
+	public void setStreamingThreshold(long streamingThreshold) {
+		this.streamingThreshold = streamingThreshold;
+	}
+
+	public MultipartConfig getMultipartConfig() {
+		return multipartConfig;
+	}
+
+	public void setMultipartConfig(MultipartConfig multipartConfig) {
+		if (multipartConfig == null) {
+			throw new IllegalArgumentException("Multipart config is null");
+		}
+		this.multipartConfig = multipartConfig;
+	}
+
+	/**
+	 * @return compressor or null if responses are not compressed
+	 */
+	public ResponseCompressor getCompressor() {
+		return compressor;
+	}
+
+	public void setCompressor(ResponseCompressor compressor) {
+		this.compressor = compressor;
+	}
+
+	public boolean isAutoETag() {
+		return autoETag;
+	}
+
+	/**
+	 * Makes controller responses carry an ETag computed from their content,
+	 * so they can be revalidated with If-None-Match
+	 */
+	public void setAutoETag(boolean autoETag) {
+		this.autoETag = autoETag;
+	}
+
+}
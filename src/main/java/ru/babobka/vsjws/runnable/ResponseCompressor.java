@@ -0,0 +1,205 @@
+package ru.babobka.vsjws.runnable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import ru.babobka.vsjws.cache.BoundedCache;
+import ru.babobka.vsjws.model.HttpRequest;
+import ru.babobka.vsjws.model.HttpResponse;
+import ru.babobka.vsjws.model.HttpResponse.ResponseCode;
+
+/**
+ * Gzips text responses for clients that accept it. Compressed bodies of frozen
+ * responses with a strong ETag, like cached static resources, are cached by
+ * path and ETag, so the same bytes are compressed once. ETags like
+ * <code>"1"</code> are only unique within a resource, the path keeps resources
+ * apart. Dynamic responses are compressed every time, they would only push
+ * static variants out of the cache.
+ */
+public class ResponseCompressor {
+
+	public static final String ACCEPT_ENCODING_HEADER = "Accept-Encoding";
+
+	public static final String CONTENT_ENCODING_HEADER = "Content-Encoding";
+
+	public static final String VARY_HEADER = "Vary";
+
+	public static final String GZIP = "gzip";
+
+	public static final int DEFAULT_THRESHOLD = 1024;
+
+	public static final long DEFAULT_CACHE_BYTES = 16L * 1024 * 1024;
+
+	private static final String ETAG_SUFFIX = "-" + GZIP;
+
+	private final BoundedCache<byte[]> variants;
+
+	private volatile int threshold;
+
+	private volatile int level = Deflater.DEFAULT_COMPRESSION;
+
+	public ResponseCompressor() {
+		this(DEFAULT_THRESHOLD, DEFAULT_CACHE_BYTES);
+	}
+
+	public ResponseCompressor(int threshold, long cacheBytes) {
+		setThreshold(threshold);
+		this.variants = new BoundedCache<>(cacheBytes);
+	}
+
+	/**
+	 * @return gzipped response with its own ETag or the given response if it
+	 *         is not worth compressing or the client does not accept gzip
+	 */
+	public HttpResponse compress(HttpRequest request, HttpResponse response) throws IOException {
+		if (response.getResponseCode() != ResponseCode.OK || response.getFile() != null
+				|| response.getParts() != null || response.isStreaming() || response.getContentLength() < threshold
+				|| response.getHeader(CONTENT_ENCODING_HEADER) != null || !isCompressible(response.getContentType())) {
+			return response;
+		}
+		boolean frozen = response.isFrozen();
+		response = addVary(response);
+		if (!acceptsGzip(request.getHeader(ACCEPT_ENCODING_HEADER))) {
+			return response;
+		}
+		String eTag = response.getHeader(HttpResponse.ETAG_HEADER);
+		boolean cacheable = frozen && eTag != null && !eTag.startsWith("W/") && eTag.endsWith("\"");
+		String key = cacheable ? path(request.getUri()) + ' ' + eTag : null;
+		byte[] compressed = cacheable ? variants.get(key) : null;
+		if (compressed == null) {
+			compressed = gzip(response);
+			if (cacheable) {
+				compressed = variants.putIfAbsent(key, compressed, compressed.length);
+			}
+		}
+		HttpResponse compressedResponse = response.withContent(compressed).addHeader(CONTENT_ENCODING_HEADER, GZIP);
+		if (eTag != null) {
+			compressedResponse = compressedResponse.addHeader(HttpResponse.ETAG_HEADER, variantETag(eTag));
+		}
+		return compressedResponse;
+	}
+
+	private static String path(String uri) {
+		int question = uri.indexOf('?');
+		return question < 0 ? uri : uri.substring(0, question);
+	}
+
+	private byte[] gzip(HttpResponse response) throws IOException {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream((int) response.getContentLength() / 4 + 64);
+		try (OutputStream gzip = new LeveledGZIPOutputStream(compressed, level)) {
+			response.writeContent(gzip);
+		}
+		return compressed.toByteArray();
+	}
+
+	/**
+	 * Marks the ETag of the compressed variant, so it differs from the ETag of
+	 * the plain one
+	 */
+	static String variantETag(String eTag) {
+		if (!eTag.endsWith("\"")) {
+			return eTag;
+		}
+		return eTag.substring(0, eTag.length() - 1) + ETAG_SUFFIX + "\"";
+	}
+
+	private static HttpResponse addVary(HttpResponse response) {
+		String vary = response.getHeader(VARY_HEADER);
+		if (vary == null) {
+			return response.addHeader(VARY_HEADER, ACCEPT_ENCODING_HEADER);
+		} else if (!vary.toLowerCase().contains(ACCEPT_ENCODING_HEADER.toLowerCase())) {
+			return response.addHeader(VARY_HEADER, vary + ", " + ACCEPT_ENCODING_HEADER);
+		}
+		return response;
+	}
+
+	/**
+	 * @return true if gzip or '*' is listed with a non-zero quality
+	 */
+	public static boolean acceptsGzip(String acceptEncoding) {
+		boolean accepted = false;
+		for (String coding : acceptEncoding.split(",")) {
+			int semicolon = coding.indexOf(';');
+			String name = (semicolon < 0 ? coding : coding.substring(0, semicolon)).trim();
+			boolean gzip = name.equalsIgnoreCase(GZIP) || name.equalsIgnoreCase("x-gzip");
+			if (gzip || name.equals("*")) {
+				boolean allowed = semicolon < 0 || quality(coding.substring(semicolon + 1)) > 0;
+				if (gzip) {
+					// Explicit coding wins over '*'
+					return allowed;
+				}
+				accepted = allowed;
+			}
+		}
+		return accepted;
+	}
+
+	private static double quality(String parameters) {
+		for (String parameter : parameters.split(";")) {
+			parameter = parameter.trim();
+			if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+				try {
+					return Double.parseDouble(parameter.substring(2).trim());
+				} catch (NumberFormatException e) {
+					return 0;
+				}
+			}
+		}
+		return 1;
+	}
+
+	public static boolean isCompressible(String contentType) {
+		if (contentType == null) {
+			return false;
+		}
+		String type = contentType.toLowerCase();
+		int semicolon = type.indexOf(';');
+		if (semicolon >= 0) {
+			type = type.substring(0, semicolon).trim();
+		}
+		return type.startsWith("text/") || type.equals("application/json") || type.equals("application/xml")
+				|| type.equals("application/javascript") || type.endsWith("+json") || type.endsWith("+xml");
+	}
+
+	public int getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * Sets the smallest content length worth compressing
+	 */
+	public void setThreshold(int threshold) {
+		if (threshold < 0) {
+			throw new IllegalArgumentException("Compression threshold must be >= 0");
+		}
+		this.threshold = threshold;
+	}
+
+	public int getLevel() {
+		return level;
+	}
+
+	public void setLevel(int level) {
+		if ((level < 0 || level > 9) && level != Deflater.DEFAULT_COMPRESSION) {
+			throw new IllegalArgumentException("Compression level must be in [0;9]");
+		}
+		this.level = level;
+	}
+
+	public BoundedCache<byte[]> getVariantCache() {
+		return variants;
+	}
+
+	private static final class LeveledGZIPOutputStream extends GZIPOutputStream {
+
+		private LeveledGZIPOutputStream(OutputStream os, int level) throws IOException {
+			super(os, 8192);
+			def.setLevel(level);
+		}
+
+	}
+
+}
@@ -1,23 +1,27 @@
 package ru.babobka.vsjws.runnable;
 
 import ru.babobka.vsjws.constant.Method;
-import ru.babobka.vsjws.exception.BadProtocolSpecifiedException;
-import ru.babobka.vsjws.exception.InvalidContentLengthException;
 import ru.babobka.vsjws.listener.OnExceptionListener;
 import ru.babobka.vsjws.logger.SimpleLogger;
+import ru.babobka.vsjws.metrics.RequestTimer;
+import ru.babobka.vsjws.metrics.RequestTimer.Phase;
+import ru.babobka.vsjws.metrics.ServerMetrics;
 import ru.babobka.vsjws.model.HttpRequest;
 import ru.babobka.vsjws.model.HttpResponse;
-import ru.babobka.vsjws.model.HttpResponse.ResponseCode;
-import ru.babobka.vsjws.model.HttpSession;
 
 import ru.babobka.vsjws.model.RawHttpRequest;
+import ru.babobka.vsjws.parser.HttpRequestParser;
+import ru.babobka.vsjws.session.SessionStore;
 import ru.babobka.vsjws.util.HttpUtil;
-import ru.babobka.vsjws.webcontroller.StaticResourcesController;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
 /**
@@ -25,95 +29,191 @@ import java.util.logging.Level;
  */
 public class SocketProcessorRunnable implements Runnable {
 
+	/**
+	 * Idle connection checks this often whether other connections wait for
+	 * its worker
+	 */
+	static final int IDLE_CHECK_MILLIS = 100;
+
 	private final Socket s;
-	private final HttpSession httpSession;
-	private final Map<String, WebController> controllerMap;
-	private final Map<String, OnExceptionListener> exceptionListenerMap;
+	private final RequestProcessor requestProcessor;
 	private final SimpleLogger logger;
-	private final StaticResourcesController staticResourcesController;
-	private final boolean debugMode;
+	private final int keepAliveTimeoutMillis;
+	private final int maxRequestsPerConnection;
+	private final AdmissionQueue admissionQueue;
 
-	public SocketProcessorRunnable(Socket s, Map<String, WebController> controllerMap, HttpSession httpSession,
+	public SocketProcessorRunnable(Socket s, Map<String, WebController> controllerMap, SessionStore sessionStore,
 			SimpleLogger logger, Map<String, OnExceptionListener> exceptionListenerMap, boolean debugMode)
 			throws IOException {
-		this.s = s;
-		this.httpSession = httpSession;
-		this.controllerMap = controllerMap;
+		this(s, new RequestProcessor(controllerMap, sessionStore, logger, exceptionListenerMap, debugMode), 0, 1);
+	}
 
-		this.exceptionListenerMap = exceptionListenerMap;
-		this.logger = logger;
-		this.staticResourcesController = new StaticResourcesController();
-		this.debugMode = debugMode;
+	public SocketProcessorRunnable(Socket s, RequestProcessor requestProcessor, int keepAliveTimeoutMillis,
+			int maxRequestsPerConnection) {
+		this(s, requestProcessor, keepAliveTimeoutMillis, maxRequestsPerConnection, null);
+	}
 
+	/**
+	 * A connection holds its worker while it waits for the next request, so
+	 * it is closed as soon as other connections wait in the admission queue
+	 *
+	 * @param admissionQueue
+	 *            queue of connections waiting for a worker or null
+	 */
+	public SocketProcessorRunnable(Socket s, RequestProcessor requestProcessor, int keepAliveTimeoutMillis,
+			int maxRequestsPerConnection, AdmissionQueue admissionQueue) {
+		this.s = s;
+		this.requestProcessor = requestProcessor;
+		this.logger = requestProcessor.getLogger();
+		this.keepAliveTimeoutMillis = keepAliveTimeoutMillis;
+		this.maxRequestsPerConnection = maxRequestsPerConnection;
+		this.admissionQueue = admissionQueue;
 	}
 
 	@Override
 	public void run() {
-		HttpResponse response = HttpResponse.NOT_FOUND_RESPONSE;
-		boolean noContent = false;
+		ServerMetrics metrics = requestProcessor.getMetrics();
+		metrics.connectionOpened();
 		try {
-			HttpRequest request = new HttpRequest(s.getInetAddress(), new RawHttpRequest(s.getInputStream()),
-					httpSession);
-			if (request.getMethod().equals(Method.HEAD)) {
-				noContent = true;
-			}
-			String cleanedUri = HttpUtil.cleanUri(request.getUri());
-			if (cleanedUri != null) {
-				String sessionId = request.getCookies().get(HttpRequest.SESSION_ID_HEADER);
-				if (sessionId == null) {
-					sessionId = HttpUtil.generateSessionId();
-					response.addCookie(HttpRequest.SESSION_ID_HEADER, sessionId);
-				}
-				if (!httpSession.exists(sessionId)) {
-					httpSession.create(sessionId);
-				}
-				WebController webController;
-				if (cleanedUri.startsWith("/web-content")) {
-					response = staticResourcesController.onGet(request);
-				} else if ((webController = controllerMap.get(cleanedUri)) != null) {
-					response = webController.control(request);
+			InputStream is = s.getInputStream();
+			OutputStream os = s.getOutputStream();
+			HttpRequestParser parser = requestProcessor.createParser(true);
+			int readTimeoutMillis = s.getSoTimeout();
+			int requestNumber = 1;
+			while (processRequest(parser, is, os, requestNumber)) {
+				parser.reset();
+				if (!awaitNextRequest(parser, is, readTimeoutMillis)) {
+					break;
 				}
-
+				requestNumber++;
 			}
-		} catch (BadProtocolSpecifiedException e) {
-			response = HttpResponse.exceptionResponse(e, ResponseCode.HTTP_VERSION_NOT_SUPPORTED, debugMode);
-		} catch (InvalidContentLengthException e) {
-			response = HttpResponse.exceptionResponse(e, ResponseCode.LENGTH_REQUIRED, debugMode);
-		} catch (IllegalArgumentException e) {
-			response = HttpResponse.exceptionResponse(e, ResponseCode.BAD_REQUEST, debugMode);
-		} catch (SocketTimeoutException e) {
-			response = HttpResponse.exceptionResponse(e, ResponseCode.REQUEST_TIMEOUT, debugMode);
-		} catch (Exception e) {
+		} catch (IOException e) {
 			logger.log(Level.SEVERE, e);
-			OnExceptionListener onExceptionListener = exceptionListenerMap.get(e.getClass().getName());
-			if (onExceptionListener != null) {
-				
-				try {
-				
-					response = onExceptionListener.onException(e);
-					if (response == null) {
-						response = HttpResponse.exceptionResponse(e, debugMode);
-					}
-				} catch (Exception e1) {
-					logger.log(Level.SEVERE, e1);
-					response = HttpResponse.exceptionResponse(e1, debugMode);
-				}
-			} else {
-				response = HttpResponse.exceptionResponse(e, debugMode);
-			}
 		} finally {
+			metrics.connectionClosed();
 			try {
-				HttpUtil.writeResponse(s.getOutputStream(), response, noContent);
-			} catch (IOException e1) {
-				logger.log(Level.SEVERE, e1);
+				s.close();
+			} catch (IOException e) {
+				logger.log(Level.SEVERE, e);
 			}
+		}
+	}
+
+	/**
+	 * Answers 503 without handling the request. Used when the server is
+	 * overloaded.
+	 */
+	public void reject(HttpResponse rejectionResponse) {
+		try {
+			InputStream is = s.getInputStream();
+			// Unread request bytes would make close() reset the connection
+			is.skip(is.available());
+			HttpUtil.writeResponse(s.getOutputStream(), rejectionResponse, false, false);
+		} catch (IOException e) {
+			logger.log(Level.SEVERE, e);
+		} finally {
 			try {
 				s.close();
 			} catch (IOException e) {
 				logger.log(Level.SEVERE, e);
 			}
+		}
+	}
+
+	/**
+	 * Waits for the first byte of the next request with the keep-alive time
+	 * out. The rest of the request is read with the usual read time out, so
+	 * slow clients can not hold a worker for the whole idle time.
+	 *
+	 * @return false if the client has closed the connection, sent nothing in
+	 *         time or other connections wait for the worker
+	 */
+	private boolean awaitNextRequest(HttpRequestParser parser, InputStream is, int readTimeoutMillis)
+			throws IOException {
+		if (!parser.isEmpty()) {
+			// Next request is pipelined
+			return true;
+		}
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(keepAliveTimeoutMillis);
+		try {
+			while (true) {
+				long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+				if (remainingMillis <= 0 || isBusy()) {
+					return false;
+				}
+				s.setSoTimeout((int) Math.min(remainingMillis, IDLE_CHECK_MILLIS));
+				try {
+					return parser.readFrom(is) >= 0;
+				} catch (SocketTimeoutException e) {
+					// Nothing yet
+				}
+			}
+		} finally {
+			s.setSoTimeout(readTimeoutMillis);
+		}
+	}
 
+	private boolean isBusy() {
+		return admissionQueue != null && admissionQueue.getDepth() > 0;
+	}
+
+	/**
+	 * Reads, handles and answers a single request of a connection
+	 *
+	 * @return true if the connection must be kept open for the next request
+	 */
+	private boolean processRequest(HttpRequestParser parser, InputStream is, OutputStream os, int requestNumber)
+			throws IOException {
+		HttpRequest request = null;
+		RequestTimer timer = null;
+		HttpResponse response;
+		boolean noContent = false;
+		boolean keepAlive = false;
+		long startNanos = System.nanoTime();
+		try {
+			if (!parser.readRequest(is)) {
+				// Client has closed the connection
+				return false;
+			}
+			startNanos = System.nanoTime();
+			if (parser.isBodyStreamed() && HttpUtil.isExpectContinue(parser.getHeader(HttpUtil.EXPECT_HEADER))) {
+				os.write(HttpUtil.CONTINUE_RESPONSE);
+			}
+			long buildStart = System.nanoTime();
+			request = new HttpRequest(s.getInetAddress(), new RawHttpRequest(parser, is),
+					requestProcessor.getSessionStore(), requestProcessor.getMultipartConfig());
+			timer = new RequestTimer(startNanos);
+			timer.add(Phase.PARSE, parser.getParseNanos() + System.nanoTime() - buildStart);
+			keepAlive = requestNumber < maxRequestsPerConnection && HttpUtil.isKeepAlive(request) && !isBusy();
+			if (request.getMethod().equals(Method.HEAD)) {
+				noContent = true;
+			}
+			response = requestProcessor.process(request, timer);
+		} catch (EOFException e) {
+			// Client has gone in the middle of a request
+			return false;
+		} catch (Exception e) {
+			response = requestProcessor.exceptionResponse(e);
+		}
+		if (timer == null) {
+			// Request is malformed
+			timer = new RequestTimer(startNanos);
+			timer.add(Phase.PARSE, parser.getParseNanos());
+		}
+		timer.setResponseCode(response.getResponseCode());
+		requestProcessor.logAccess(s.getInetAddress(), request, response, noContent, startNanos);
+		timer.startWrite();
+		try {
+			HttpUtil.writeResponse(os, s.getChannel(), response, noContent, keepAlive);
+		} finally {
+			timer.endWrite();
+			requestProcessor.getMetrics().record(timer);
+		}
+		if (keepAlive && parser.isComplete()) {
+			// Controller may have left a part of a streamed body unread
+			return parser.skipBody(is, RequestProcessor.MAX_SKIPPED_BODY_SIZE);
 		}
+		return keepAlive;
 	}
 
 }
@@ -1,93 +1,169 @@
 package ru.babobka.vsjws.runnable;
 
-import java.util.LinkedList;
-import java.util.List;
-import java.util.ListIterator;
+import java.util.Arrays;
 
+import ru.babobka.vsjws.constant.ContentType;
 import ru.babobka.vsjws.constant.Method;
+import ru.babobka.vsjws.metrics.RequestTimer;
+import ru.babobka.vsjws.metrics.RequestTimer.Phase;
 import ru.babobka.vsjws.model.HttpRequest;
 import ru.babobka.vsjws.model.HttpResponse;
+import ru.babobka.vsjws.model.HttpResponse.ResponseCode;
 import ru.babobka.vsjws.webcontroller.WebFilter;
 
 /**
  * Created by dolgopolov.a on 30.12.15.
+ * <p>
+ * Handlers of the methods a subclass overrides are found once on creation.
+ * Other methods are answered with 405 and an Allow header. HEAD falls back to
+ * {@link #onGet(HttpRequest)} and OPTIONS is answered automatically unless
+ * the handlers are overridden.
  */
 public class WebController {
 
-	private final List<WebFilter> webFilters = new LinkedList<>();
+	public static final String ALLOW_HEADER = "Allow";
 
-	public WebController addWebFilter(WebFilter webFilter) {
-		webFilters.add(webFilter);
+	private static final WebFilter[] NO_FILTERS = new WebFilter[0];
+
+	/**
+	 * Filters in call order, the last added one goes first
+	 */
+	private volatile WebFilter[] webFilters = NO_FILTERS;
+
+	private final MethodHandler[] handlers = new MethodHandler[Method.COUNT];
+
+	private final String allow;
+
+	public WebController() {
+		handlers[Method.indexOf(Method.GET)] = overrides("onGet") ? this::onGet : null;
+		handlers[Method.indexOf(Method.POST)] = overrides("onPost") ? this::onPost : null;
+		handlers[Method.indexOf(Method.PUT)] = overrides("onPut") ? this::onPut : null;
+		handlers[Method.indexOf(Method.PATCH)] = overrides("onPatch") ? this::onPatch : null;
+		handlers[Method.indexOf(Method.DELETE)] = overrides("onDelete") ? this::onDelete : null;
+		if (overrides("onHead")) {
+			handlers[Method.indexOf(Method.HEAD)] = this::onHead;
+		} else if (overrides("onGet")) {
+			// Transports drop the body of HEAD responses
+			handlers[Method.indexOf(Method.HEAD)] = this::onGet;
+		}
+		handlers[Method.indexOf(Method.OPTIONS)] = this::onOptions;
+		StringBuilder allowBuilder = new StringBuilder();
+		for (int i = 0; i < handlers.length; i++) {
+			if (handlers[i] != null) {
+				if (allowBuilder.length() > 0) {
+					allowBuilder.append(", ");
+				}
+				allowBuilder.append(Method.get(i));
+			}
+		}
+		this.allow = allowBuilder.toString();
+	}
+
+	private boolean overrides(String handlerName) {
+		try {
+			return getClass().getMethod(handlerName, HttpRequest.class).getDeclaringClass() != WebController.class;
+		} catch (NoSuchMethodException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public synchronized WebController addWebFilter(WebFilter webFilter) {
+		WebFilter[] newFilters = new WebFilter[webFilters.length + 1];
+		newFilters[0] = webFilter;
+		System.arraycopy(webFilters, 0, newFilters, 1, webFilters.length);
+		webFilters = newFilters;
 		return this;
 	}
 
-	final  HttpResponse control(HttpRequest request) throws Exception {
+	final HttpResponse control(HttpRequest request) throws Exception {
+		return control(request, null);
+	}
 
-		ListIterator<WebFilter> li = webFilters.listIterator(webFilters.size());
+	/**
+	 * @param timer
+	 *            gets filter and handler times or null
+	 */
+	final HttpResponse control(HttpRequest request, RequestTimer timer) throws Exception {
+		WebFilter[] filters = webFilters;
 		HttpResponse response = null;
-		while (li.hasPrevious()) {
-			response = li.previous().onFilter(request);
-			if (response != null) {
-				break;
-			}
+		long filterStart = timer != null ? System.nanoTime() : 0;
+		for (int i = 0; i < filters.length && response == null; i++) {
+			response = filters[i].onFilter(request);
 		}
-		
 		if (response == null) {
-			switch (request.getMethod()) {
-			case Method.GET:
-				response = onGet(request);
-				break;
-			case Method.POST:
-				response = onPost(request);
-				break;
-			case Method.DELETE:
-				response = onDelete(request);
-				break;
-			case Method.PUT:
-				response = onPut(request);
-				break;
-			case Method.PATCH:
-				response = onPatch(request);
-				break;
-			case Method.HEAD:
-				response = onHead(request);
-				break;
-			default:
-				response = HttpResponse.NOT_IMPLEMENTED_RESPONSE;
-				break;
+			long handlerStart = timer != null ? System.nanoTime() : 0;
+			int methodIndex = Method.indexOf(request.getMethod());
+			MethodHandler handler = methodIndex != -1 ? handlers[methodIndex] : null;
+			if (handler != null) {
+				response = handler.handle(request);
+			} else {
+				response = HttpResponse
+						.textResponse(ResponseCode.METHOD_NOT_ALLOWED.toString(), ResponseCode.METHOD_NOT_ALLOWED,
+								ContentType.PLAIN)
+						.addHeader(ALLOW_HEADER, allow);
+			}
+			if (timer != null) {
+				long handlerNanos = System.nanoTime() - handlerStart;
+				timer.add(Phase.HANDLER, handlerNanos);
+				filterStart += handlerNanos;
 			}
 		}
-		li = webFilters.listIterator(webFilters.size());
-		while (li.hasPrevious()) {
-			li.previous().afterFilter(request, response);
-
+		for (WebFilter filter : filters) {
+			filter.afterFilter(request, response);
+		}
+		if (timer != null) {
+			timer.add(Phase.FILTER, System.nanoTime() - filterStart);
 		}
-
 		return response;
 	}
 
-	public  HttpResponse onHead(HttpRequest request) throws Exception {
+	/**
+	 * @return methods the controller answers, as in the Allow header
+	 */
+	public String getAllow() {
+		return allow;
+	}
+
+	public WebFilter[] getWebFilters() {
+		return Arrays.copyOf(webFilters, webFilters.length);
+	}
+
+	public HttpResponse onHead(HttpRequest request) throws Exception {
 		return HttpResponse.NOT_IMPLEMENTED_RESPONSE;
 	}
 
-	public  HttpResponse onGet(HttpRequest request) throws Exception {
+	public HttpResponse onGet(HttpRequest request) throws Exception {
 		return HttpResponse.NOT_IMPLEMENTED_RESPONSE;
 	}
 
-	public  HttpResponse onPost(HttpRequest request) throws Exception {
+	public HttpResponse onPost(HttpRequest request) throws Exception {
 		return HttpResponse.NOT_IMPLEMENTED_RESPONSE;
 	}
 
-	public  HttpResponse onPut(HttpRequest request) throws Exception {
+	public HttpResponse onPut(HttpRequest request) throws Exception {
 		return HttpResponse.NOT_IMPLEMENTED_RESPONSE;
 	}
 
-	public  HttpResponse onPatch(HttpRequest request) throws Exception {
+	public HttpResponse onPatch(HttpRequest request) throws Exception {
 		return HttpResponse.NOT_IMPLEMENTED_RESPONSE;
 	}
 
-	public  HttpResponse onDelete(HttpRequest request) throws Exception {
+	public HttpResponse onDelete(HttpRequest request) throws Exception {
 		return HttpResponse.NOT_IMPLEMENTED_RESPONSE;
 	}
 
+	/**
+	 * Answers with 204 and the Allow header
+	 */
+	public HttpResponse onOptions(HttpRequest request) throws Exception {
+		return HttpResponse.noContent().addHeader(ALLOW_HEADER, allow);
+	}
+
+	@FunctionalInterface
+	private interface MethodHandler {
+
+		HttpResponse handle(HttpRequest request) throws Exception;
+
+	}
+
 }
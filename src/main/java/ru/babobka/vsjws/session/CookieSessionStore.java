@@ -0,0 +1,302 @@
+package ru.babobka.vsjws.session;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import ru.babobka.vsjws.exception.SessionTooLargeException;
+
+/**
+ * Keeps sessions in the session cookie itself, so nodes keep no session
+ * memory and any node serves any request without a lookup. The cookie holds
+ * {@link SessionCodec} attributes and the time it was issued, signed with
+ * HMAC-SHA256 and optionally encrypted with AES-CTR. The cookie is issued
+ * again when the session changes or half of the timeout has passed.
+ * <p>
+ * The first secret signs new cookies, the others are still accepted, so keys
+ * are rotated by putting a new secret first. Cookies signed with an old key
+ * are issued again with the new one.
+ */
+public class CookieSessionStore implements SessionStore {
+
+	/**
+	 * Browsers keep at least 4096 bytes per cookie, the name included
+	 */
+	public static final int DEFAULT_MAX_COOKIE_LENGTH = 4000;
+
+	private static final byte FORMAT = 1;
+
+	private static final byte ENCRYPTED = 1;
+
+	/**
+	 * Format, flags, key id and the time it was issued
+	 */
+	private static final int HEADER_SIZE = 7;
+
+	private static final int TAG_SIZE = 16;
+
+	private static final int IV_SIZE = 16;
+
+	private static final String MAC_ALGORITHM = "HmacSHA256";
+
+	private static final String CIPHER_ALGORITHM = "AES/CTR/NoPadding";
+
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+	private final Key[] keys;
+
+	private final long timeoutSeconds;
+
+	private final boolean encrypted;
+
+	private volatile int maxCookieLength = DEFAULT_MAX_COOKIE_LENGTH;
+
+	public CookieSessionStore(int timeoutSeconds, byte[]... secrets) {
+		this(timeoutSeconds, false, secrets);
+	}
+
+	/**
+	 * @param encrypted
+	 *            true if clients must not read their sessions
+	 * @param secrets
+	 *            secrets of at least 32 bytes, the first one signs new
+	 *            cookies
+	 */
+	public CookieSessionStore(int timeoutSeconds, boolean encrypted, byte[]... secrets) {
+		if (timeoutSeconds <= 0) {
+			throw new IllegalArgumentException("Session time out must be > 0");
+		}
+		if (secrets.length == 0) {
+			throw new IllegalArgumentException("At least one secret is needed");
+		}
+		this.keys = new Key[secrets.length];
+		for (int i = 0; i < secrets.length; i++) {
+			if (secrets[i] == null || secrets[i].length < 32) {
+				throw new IllegalArgumentException("Secret must have at least 32 bytes");
+			}
+			keys[i] = new Key(secrets[i]);
+		}
+		this.timeoutSeconds = timeoutSeconds;
+		this.encrypted = encrypted;
+	}
+
+	/**
+	 * @return attributes of a cookie with a valid signature that has not
+	 *         expired, null otherwise
+	 */
+	@Override
+	public Map<String, Serializable> get(String cookieValue) {
+		byte[] cookie;
+		try {
+			cookie = Base64.getUrlDecoder().decode(cookieValue);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+		if (cookie.length < HEADER_SIZE + TAG_SIZE || cookie[0] != FORMAT) {
+			return null;
+		}
+		ByteBuffer header = ByteBuffer.wrap(cookie, 0, HEADER_SIZE);
+		header.get();
+		boolean cookieEncrypted = (header.get() & ENCRYPTED) != 0;
+		byte keyId = header.get();
+		long issuedAt = header.getInt() & 0xFFFFFFFFL;
+		long age = now() - issuedAt;
+		if (age > timeoutSeconds || age < -timeoutSeconds) {
+			return null;
+		}
+		int signedLength = cookie.length - TAG_SIZE;
+		byte[] tag = Arrays.copyOfRange(cookie, signedLength, cookie.length);
+		for (int i = 0; i < keys.length; i++) {
+			Key key = keys[i];
+			if (key.id == keyId && MessageDigest.isEqual(tag, key.sign(cookie, signedLength))) {
+				byte[] body = Arrays.copyOfRange(cookie, HEADER_SIZE, signedLength);
+				if (cookieEncrypted) {
+					if (body.length < IV_SIZE) {
+						return null;
+					}
+					body = key.crypt(Arrays.copyOf(body, IV_SIZE),
+							Arrays.copyOfRange(body, IV_SIZE, body.length));
+				}
+				try {
+					return new CookieAttributes(SessionCodec.decode(body), issuedAt, i);
+				} catch (IllegalArgumentException e) {
+					return null;
+				}
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public Map<String, Serializable> create(String sessionId) {
+		return new CookieAttributes(new HashMap<String, Serializable>(), now(), 0);
+	}
+
+	/**
+	 * Sessions are dropped by clients, nothing to remove
+	 */
+	@Override
+	public void remove(String sessionId) {
+
+	}
+
+	/**
+	 * @return 0, sessions are kept by clients
+	 */
+	@Override
+	public int size() {
+		return 0;
+	}
+
+	@Override
+	public void clear() {
+
+	}
+
+	@Override
+	public String getCookieValue(String sessionId, Map<String, Serializable> attributes, boolean changed) {
+		if (!(attributes instanceof CookieAttributes)) {
+			return null;
+		}
+		CookieAttributes cookieAttributes = (CookieAttributes) attributes;
+		if (changed || cookieAttributes.keyIndex != 0 || now() - cookieAttributes.issuedAt > timeoutSeconds / 2) {
+			return encode(attributes);
+		}
+		return null;
+	}
+
+	/**
+	 * @throws SessionTooLargeException
+	 *             if the cookie is longer than the limit
+	 */
+	String encode(Map<String, Serializable> attributes) {
+		Key key = keys[0];
+		byte[] body = SessionCodec.encode(attributes);
+		ByteArrayOutputStream cookie = new ByteArrayOutputStream(HEADER_SIZE + IV_SIZE + body.length + TAG_SIZE);
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.put(FORMAT).put(encrypted ? ENCRYPTED : 0).put(key.id).putInt((int) now());
+		cookie.write(header.array(), 0, HEADER_SIZE);
+		if (encrypted) {
+			byte[] iv = new byte[IV_SIZE];
+			RANDOM.nextBytes(iv);
+			cookie.write(iv, 0, IV_SIZE);
+			body = key.crypt(iv, body);
+		}
+		cookie.write(body, 0, body.length);
+		byte[] signed = cookie.toByteArray();
+		cookie.write(key.sign(signed, signed.length), 0, TAG_SIZE);
+		String value = Base64.getUrlEncoder().withoutPadding().encodeToString(cookie.toByteArray());
+		if (value.length() > maxCookieLength) {
+			throw new SessionTooLargeException(
+					"Session cookie of " + value.length() + " chars is longer than " + maxCookieLength);
+		}
+		return value;
+	}
+
+	private static long now() {
+		return TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+	}
+
+	public int getMaxCookieLength() {
+		return maxCookieLength;
+	}
+
+	public void setMaxCookieLength(int maxCookieLength) {
+		if (maxCookieLength <= 0) {
+			throw new IllegalArgumentException("Max cookie length must be > 0");
+		}
+		this.maxCookieLength = maxCookieLength;
+	}
+
+	public boolean isEncrypted() {
+		return encrypted;
+	}
+
+	/**
+	 * Signing and encryption keys derived from a secret
+	 */
+	private static final class Key {
+
+		private final SecretKeySpec macKey;
+
+		private final SecretKeySpec cipherKey;
+
+		private final byte id;
+
+		Key(byte[] secret) {
+			SecretKeySpec secretKey = new SecretKeySpec(secret, MAC_ALGORITHM);
+			this.macKey = new SecretKeySpec(derive(secretKey, "vsjws-session-mac"), MAC_ALGORITHM);
+			this.cipherKey = new SecretKeySpec(Arrays.copyOf(derive(secretKey, "vsjws-session-cipher"), 16), "AES");
+			this.id = derive(secretKey, "vsjws-session-id")[0];
+		}
+
+		private static byte[] derive(SecretKeySpec secretKey, String purpose) {
+			try {
+				Mac mac = Mac.getInstance(MAC_ALGORITHM);
+				mac.init(secretKey);
+				return mac.doFinal(purpose.getBytes(StandardCharsets.US_ASCII));
+			} catch (GeneralSecurityException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		byte[] sign(byte[] bytes, int length) {
+			try {
+				Mac mac = Mac.getInstance(MAC_ALGORITHM);
+				mac.init(macKey);
+				mac.update(bytes, 0, length);
+				return Arrays.copyOf(mac.doFinal(), TAG_SIZE);
+			} catch (GeneralSecurityException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		/**
+		 * Encrypts or decrypts, it is the same in CTR mode
+		 */
+		byte[] crypt(byte[] iv, byte[] bytes) {
+			try {
+				Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM);
+				cipher.init(Cipher.ENCRYPT_MODE, cipherKey, new IvParameterSpec(iv));
+				return cipher.doFinal(bytes);
+			} catch (GeneralSecurityException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+	}
+
+	/**
+	 * Attributes of a single request with the time their cookie was issued
+	 */
+	private static final class CookieAttributes extends HashMap<String, Serializable> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final long issuedAt;
+
+		private final int keyIndex;
+
+		CookieAttributes(Map<String, Serializable> attributes, long issuedAt, int keyIndex) {
+			super(attributes);
+			this.issuedAt = issuedAt;
+			this.keyIndex = keyIndex;
+		}
+
+	}
+
+}
@@ -0,0 +1,170 @@
+package ru.babobka.vsjws.session;
+
+import java.io.Serializable;
+import java.security.SecureRandom;
+import java.util.AbstractMap;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Session of a single request. Reads do not create anything, the session is
+ * created in the store on the first write. Not thread safe, like the request.
+ */
+public final class LazySession extends AbstractMap<String, Serializable> {
+
+	private static final int ID_BYTES = 16;
+
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+	private final SessionStore store;
+
+	private final String requestedId;
+
+	private Map<String, Serializable> attributes;
+
+	private boolean looked;
+
+	private String createdId;
+
+	private boolean changed;
+
+	private boolean invalidated;
+
+	/**
+	 * @param requestedId
+	 *            id from the session cookie or null
+	 */
+	public LazySession(SessionStore store, String requestedId) {
+		this.store = store;
+		this.requestedId = requestedId;
+	}
+
+	/**
+	 * @return unguessable base64url id of 128 random bits
+	 */
+	public static String generateId() {
+		byte[] id = new byte[ID_BYTES];
+		RANDOM.nextBytes(id);
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(id);
+	}
+
+	private Map<String, Serializable> find() {
+		if (!looked) {
+			looked = true;
+			if (requestedId != null && !requestedId.isEmpty()) {
+				attributes = store.get(requestedId);
+			}
+		}
+		return attributes;
+	}
+
+	private Map<String, Serializable> findOrCreate() {
+		Map<String, Serializable> found = find();
+		if (found == null) {
+			// Unknown ids from clients are never taken over
+			createdId = generateId();
+			attributes = found = store.create(createdId);
+		}
+		changed = true;
+		return found;
+	}
+
+	/**
+	 * @return id of the live session or null if there is none
+	 */
+	public String getId() {
+		if (createdId != null) {
+			return createdId;
+		}
+		return find() != null ? requestedId : null;
+	}
+
+	/**
+	 * @return id of the session created by this request or null
+	 */
+	public String getCreatedId() {
+		return createdId;
+	}
+
+	/**
+	 * @return value of the session cookie the client has to get or null if
+	 *         its cookie is up to date. Empty value drops an invalidated
+	 *         session.
+	 */
+	public String getCookieValue() {
+		if (attributes == null) {
+			return invalidated ? "" : null;
+		}
+		String value = store.getCookieValue(getId(), attributes, changed);
+		return value != null ? value : createdId;
+	}
+
+	public boolean exists() {
+		return find() != null;
+	}
+
+	/**
+	 * Removes the session from the store
+	 */
+	public void invalidate() {
+		String id = getId();
+		if (id != null) {
+			store.remove(id);
+		}
+		attributes = null;
+		createdId = null;
+		changed = false;
+		invalidated = true;
+	}
+
+	@Override
+	public Serializable get(Object key) {
+		Map<String, Serializable> found = find();
+		return found != null ? found.get(key) : null;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		Map<String, Serializable> found = find();
+		return found != null && found.containsKey(key);
+	}
+
+	@Override
+	public Serializable put(String key, Serializable value) {
+		return findOrCreate().put(key, value);
+	}
+
+	@Override
+	public Serializable remove(Object key) {
+		Map<String, Serializable> found = find();
+		if (found == null) {
+			return null;
+		}
+		changed = true;
+		return found.remove(key);
+	}
+
+	@Override
+	public void clear() {
+		Map<String, Serializable> found = find();
+		if (found != null) {
+			changed = true;
+			found.clear();
+		}
+	}
+
+	@Override
+	public int size() {
+		Map<String, Serializable> found = find();
+		return found != null ? found.size() : 0;
+	}
+
+	@Override
+	public Set<Map.Entry<String, Serializable>> entrySet() {
+		Map<String, Serializable> found = find();
+		return found != null ? found.entrySet() : Collections.<Map.Entry<String, Serializable>>emptySet();
+	}
+
+}
@@ -0,0 +1,180 @@
+package ru.babobka.vsjws.session;
+
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded session store. Sessions are spread over shards with their own
+ * locks. A shard keeps sessions in access order, so the least recently used
+ * session is evicted when the shard is full and expired sessions are found at
+ * its head. A session expires after the timeout passes since its last access.
+ */
+public class LruSessionStore implements SessionStore {
+
+	public static final int DEFAULT_MAX_SESSIONS = 100_000;
+
+	private final Shard[] shards;
+
+	private final long timeoutNanos;
+
+	private final int maxSessions;
+
+	public LruSessionStore(int maxSessions, int timeoutSeconds) {
+		this(maxSessions, timeoutSeconds, defaultShardCount());
+	}
+
+	/**
+	 * @param shardCount
+	 *            number of independently locked parts, rounded up to a power
+	 *            of two
+	 */
+	public LruSessionStore(int maxSessions, int timeoutSeconds, int shardCount) {
+		if (maxSessions <= 0) {
+			throw new IllegalArgumentException("Max sessions must be > 0");
+		}
+		if (timeoutSeconds <= 0) {
+			throw new IllegalArgumentException("Session time out must be > 0");
+		}
+		if (shardCount <= 0) {
+			throw new IllegalArgumentException("Shard count must be > 0");
+		}
+		int count = 1;
+		while (count < shardCount && count * 2 <= maxSessions) {
+			count <<= 1;
+		}
+		this.shards = new Shard[count];
+		int shardCapacity = (maxSessions + count - 1) / count;
+		for (int i = 0; i < count; i++) {
+			shards[i] = new Shard(shardCapacity);
+		}
+		this.maxSessions = maxSessions;
+		this.timeoutNanos = TimeUnit.SECONDS.toNanos(timeoutSeconds);
+	}
+
+	private static int defaultShardCount() {
+		return Runtime.getRuntime().availableProcessors() * 4;
+	}
+
+	private Shard shard(String sessionId) {
+		int hash = sessionId.hashCode();
+		return shards[(hash ^ (hash >>> 16)) & (shards.length - 1)];
+	}
+
+	@Override
+	public Map<String, Serializable> get(String sessionId) {
+		Shard shard = shard(sessionId);
+		long now = System.nanoTime();
+		synchronized (shard) {
+			Session session = shard.get(sessionId);
+			if (session == null) {
+				return null;
+			} else if (now - session.lastAccess > timeoutNanos) {
+				shard.remove(sessionId);
+				return null;
+			}
+			session.lastAccess = now;
+			return session.attributes;
+		}
+	}
+
+	@Override
+	public Map<String, Serializable> create(String sessionId) {
+		return create(sessionId, new ConcurrentHashMap<String, Serializable>());
+	}
+
+	/**
+	 * Creates a session with the given thread safe attributes
+	 */
+	Map<String, Serializable> create(String sessionId, Map<String, Serializable> attributes) {
+		Shard shard = shard(sessionId);
+		long now = System.nanoTime();
+		Session session = new Session(attributes, now);
+		synchronized (shard) {
+			shard.removeExpired(now, timeoutNanos);
+			shard.put(sessionId, session);
+		}
+		return session.attributes;
+	}
+
+	@Override
+	public void remove(String sessionId) {
+		Shard shard = shard(sessionId);
+		synchronized (shard) {
+			shard.remove(sessionId);
+		}
+	}
+
+	@Override
+	public int size() {
+		int size = 0;
+		for (Shard shard : shards) {
+			synchronized (shard) {
+				size += shard.size();
+			}
+		}
+		return size;
+	}
+
+	@Override
+	public void clear() {
+		for (Shard shard : shards) {
+			synchronized (shard) {
+				shard.clear();
+			}
+		}
+	}
+
+	public int getMaxSessions() {
+		return maxSessions;
+	}
+
+	public int getTimeoutSeconds() {
+		return (int) TimeUnit.NANOSECONDS.toSeconds(timeoutNanos);
+	}
+
+	private static final class Session {
+
+		private final Map<String, Serializable> attributes;
+
+		private long lastAccess;
+
+		Session(Map<String, Serializable> attributes, long lastAccess) {
+			this.attributes = attributes;
+			this.lastAccess = lastAccess;
+		}
+
+	}
+
+	private static final class Shard extends LinkedHashMap<String, Session> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int capacity;
+
+		Shard(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		/**
+		 * Sessions are in access order, so expired ones are at the head
+		 */
+		void removeExpired(long now, long timeoutNanos) {
+			Iterator<Session> iterator = values().iterator();
+			while (iterator.hasNext() && now - iterator.next().lastAccess > timeoutNanos) {
+				iterator.remove();
+			}
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Session> eldest) {
+			return size() > capacity;
+		}
+
+	}
+
+}
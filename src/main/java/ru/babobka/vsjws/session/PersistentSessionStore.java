@@ -0,0 +1,377 @@
+package ru.babobka.vsjws.session;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Session store that survives restarts. Live sessions are kept by an
+ * {@link LruSessionStore}, changed ones are written in batches to an append
+ * log on a memory mapped file. The log is compacted when it grows twice as
+ * big as its live part.
+ * <p>
+ * Opening a store does not read the log. It is checked and indexed by a
+ * background thread and a session is decoded on its first request, so
+ * restarts do not wait for sessions to load. Sessions that are not in memory
+ * are not found until the log is indexed, and {@link #size()} counts only the
+ * indexed part until then. Only changes made with <code>put</code> and
+ * <code>remove</code> are saved, changed values have to be put again.
+ */
+public class PersistentSessionStore implements SessionStore, Closeable {
+
+	public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 1000;
+
+	private static final int MIN_COMPACTION_SIZE = 1 << 20;
+
+	private static final Logger LOGGER = Logger.getLogger(PersistentSessionStore.class.getName());
+
+	private static final byte[] NO_PAYLOAD = new byte[0];
+
+	/**
+	 * Marks removed sessions in the dirty map until their removal is written
+	 */
+	private static final Map<String, Serializable> REMOVED = new HashMap<>();
+
+	private final LruSessionStore memory;
+
+	/**
+	 * Latest snapshot of every saved session
+	 */
+	private final Map<String, Snapshot> index = new ConcurrentHashMap<>();
+
+	private final Map<String, Map<String, Serializable>> dirty = new ConcurrentHashMap<>();
+
+	private final CountDownLatch indexed = new CountDownLatch(1);
+
+	private final ScheduledExecutorService flusher;
+
+	private final long timeoutMillis;
+
+	private final Object logLock = new Object();
+
+	private SessionLog log;
+
+	private int compactedSize;
+
+	private volatile IOException indexingError;
+
+	public PersistentSessionStore(File file, int maxSessions, int timeoutSeconds) throws IOException {
+		this(file, maxSessions, timeoutSeconds, DEFAULT_FLUSH_INTERVAL_MILLIS);
+	}
+
+	/**
+	 * @param maxSessions
+	 *            max number of sessions kept in memory. Evicted sessions are
+	 *            read from the file again when needed.
+	 */
+	public PersistentSessionStore(File file, int maxSessions, int timeoutSeconds, long flushIntervalMillis)
+			throws IOException {
+		if (flushIntervalMillis <= 0) {
+			throw new IllegalArgumentException("Flush interval must be > 0");
+		}
+		this.memory = new LruSessionStore(maxSessions, timeoutSeconds);
+		this.timeoutMillis = TimeUnit.SECONDS.toMillis(timeoutSeconds);
+		recoverCompaction(file);
+		this.log = new SessionLog(file);
+		this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "vsjws-session-flusher");
+			thread.setDaemon(true);
+			return thread;
+		});
+		flusher.execute(this::buildIndex);
+		flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis,
+				TimeUnit.MILLISECONDS);
+	}
+
+	private static File compactedFile(File file) {
+		return new File(file.getPath() + ".compacting");
+	}
+
+	/**
+	 * Compacted file replaces the log in one atomic move, so a file left by a
+	 * crash is only a part of a compaction unless the log itself is missing
+	 */
+	private static void recoverCompaction(File file) throws IOException {
+		File compactedFile = compactedFile(file);
+		if (!compactedFile.exists()) {
+			return;
+		}
+		if (file.exists()) {
+			Files.delete(compactedFile.toPath());
+		} else {
+			Files.move(compactedFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		}
+	}
+
+	private void buildIndex() {
+		try {
+			synchronized (logLock) {
+				log.recover();
+				for (int position = log.first(); position != -1; position = log.next(position)) {
+					String sessionId = log.getSessionId(position);
+					if (log.getType(position) == SessionLog.SNAPSHOT) {
+						index.put(sessionId, new Snapshot(position, log.getTime(position)));
+					} else {
+						index.remove(sessionId);
+					}
+				}
+				compactedSize = log.size();
+			}
+		} catch (RuntimeException e) {
+			indexingError = new IOException("Session log can not be indexed", e);
+			LOGGER.log(Level.SEVERE, "Session log can not be indexed", e);
+		} finally {
+			indexed.countDown();
+		}
+	}
+
+	private void awaitIndex() {
+		try {
+			indexed.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while sessions are indexed", e);
+		}
+		if (indexingError != null) {
+			throw new UncheckedIOException(indexingError);
+		}
+	}
+
+	/**
+	 * Waits until saved sessions can be found
+	 *
+	 * @return false if the time has run out
+	 */
+	public boolean awaitIndex(long timeout, TimeUnit unit) throws InterruptedException {
+		return indexed.await(timeout, unit);
+	}
+
+	@Override
+	public Map<String, Serializable> get(String sessionId) {
+		Map<String, Serializable> attributes = memory.get(sessionId);
+		if (attributes == null) {
+			attributes = load(sessionId);
+		} else if (indexed.getCount() == 0) {
+			// Saved time is the last access after a restart, so it is renewed
+			Snapshot snapshot = index.get(sessionId);
+			if (snapshot != null && System.currentTimeMillis() - snapshot.time > timeoutMillis / 2) {
+				markDirty(sessionId, attributes);
+			}
+		}
+		return attributes != null ? track(sessionId, attributes) : null;
+	}
+
+	private Map<String, Serializable> load(String sessionId) {
+		if (indexed.getCount() != 0) {
+			// Request threads never wait for the whole log to be read
+			return null;
+		}
+		awaitIndex();
+		synchronized (logLock) {
+			// Another thread may have loaded it already
+			Map<String, Serializable> attributes = memory.get(sessionId);
+			if (attributes != null) {
+				return attributes;
+			}
+			Snapshot snapshot = index.get(sessionId);
+			if (snapshot == null || dirty.get(sessionId) == REMOVED) {
+				return null;
+			}
+			if (System.currentTimeMillis() - snapshot.time > timeoutMillis) {
+				index.remove(sessionId);
+				return null;
+			}
+			attributes = memory.create(sessionId);
+			attributes.putAll(SessionCodec.decode(log.getPayload(snapshot.position)));
+			return attributes;
+		}
+	}
+
+	@Override
+	public Map<String, Serializable> create(String sessionId) {
+		Map<String, Serializable> attributes = memory.create(sessionId);
+		dirty.put(sessionId, attributes);
+		return track(sessionId, attributes);
+	}
+
+	/**
+	 * Removal is written with the next flush
+	 */
+	@Override
+	public void remove(String sessionId) {
+		synchronized (logLock) {
+			memory.remove(sessionId);
+			dirty.put(sessionId, REMOVED);
+		}
+	}
+
+	/**
+	 * @return number of saved sessions and new ones that are not saved yet.
+	 *         Saved sessions are counted as they are indexed.
+	 */
+	@Override
+	public int size() {
+		int size = index.size();
+		for (Map.Entry<String, Map<String, Serializable>> session : dirty.entrySet()) {
+			boolean saved = index.containsKey(session.getKey());
+			if (session.getValue() == REMOVED) {
+				size -= saved ? 1 : 0;
+			} else if (!saved) {
+				size++;
+			}
+		}
+		return size;
+	}
+
+	@Override
+	public void clear() {
+		awaitIndex();
+		synchronized (logLock) {
+			memory.clear();
+			dirty.clear();
+			index.clear();
+			log.reset();
+			compactedSize = log.size();
+		}
+	}
+
+	/**
+	 * Writes changed sessions to the file
+	 */
+	public void flush() throws IOException {
+		awaitIndex();
+		synchronized (logLock) {
+			if (dirty.isEmpty()) {
+				return;
+			}
+			long now = System.currentTimeMillis();
+			Iterator<Map.Entry<String, Map<String, Serializable>>> iterator = dirty.entrySet().iterator();
+			while (iterator.hasNext()) {
+				Map.Entry<String, Map<String, Serializable>> session = iterator.next();
+				// Changes made after this point mark the session again
+				iterator.remove();
+				Map<String, Serializable> attributes = session.getValue();
+				if (attributes == REMOVED) {
+					if (index.remove(session.getKey()) != null) {
+						log.append(SessionLog.REMOVE, session.getKey(), now, NO_PAYLOAD);
+					}
+					continue;
+				}
+				byte[] payload;
+				// Request threads change attributes under the same lock
+				synchronized (attributes) {
+					payload = SessionCodec.encode(attributes);
+				}
+				int position = log.append(SessionLog.SNAPSHOT, session.getKey(), now, payload);
+				index.put(session.getKey(), new Snapshot(position, now));
+			}
+			log.force();
+			if (log.size() > MIN_COMPACTION_SIZE && log.size() > 2 * compactedSize) {
+				compact();
+			}
+		}
+	}
+
+	private void flushQuietly() {
+		try {
+			flush();
+		} catch (IOException | RuntimeException e) {
+			LOGGER.log(Level.SEVERE, "Sessions can not be saved", e);
+		}
+	}
+
+	/**
+	 * Rewrites live snapshots to a new file that replaces the log
+	 */
+	private void compact() throws IOException {
+		File file = log.getFile();
+		File compactedFile = compactedFile(file);
+		Files.deleteIfExists(compactedFile.toPath());
+		long now = System.currentTimeMillis();
+		// Index keeps pointing to the old log until the compacted one replaces it
+		Map<String, Snapshot> moved = new HashMap<>();
+		SessionLog compacted = new SessionLog(compactedFile);
+		try {
+			Iterator<Map.Entry<String, Snapshot>> iterator = index.entrySet().iterator();
+			while (iterator.hasNext()) {
+				Map.Entry<String, Snapshot> session = iterator.next();
+				Snapshot snapshot = session.getValue();
+				if (now - snapshot.time > timeoutMillis) {
+					iterator.remove();
+				} else {
+					moved.put(session.getKey(), new Snapshot(compacted.copy(log, snapshot.position), snapshot.time));
+				}
+			}
+			compacted.close();
+		} catch (IOException | RuntimeException e) {
+			compacted.close();
+			Files.deleteIfExists(compactedFile.toPath());
+			throw e;
+		}
+		log.close();
+		try {
+			// Either the old or the compacted log is there after a crash
+			Files.move(compactedFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			index.putAll(moved);
+		} finally {
+			log = new SessionLog(file);
+			log.recover();
+		}
+		compactedSize = log.size();
+	}
+
+	/**
+	 * Saves changed sessions and closes the file
+	 */
+	@Override
+	public void close() throws IOException {
+		// Indexing that has not started yet must still run, flush waits for it
+		flusher.shutdown();
+		try {
+			flusher.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		flush();
+		synchronized (logLock) {
+			log.close();
+		}
+	}
+
+	private void markDirty(String sessionId, Map<String, Serializable> attributes) {
+		dirty.put(sessionId, attributes);
+	}
+
+	private Map<String, Serializable> track(String sessionId, Map<String, Serializable> attributes) {
+		return new TrackedAttributes(attributes, () -> markDirty(sessionId, attributes));
+	}
+
+	private static final class Snapshot {
+
+		private final int position;
+
+		private final long time;
+
+		Snapshot(int position, long time) {
+			this.position = position;
+			this.time = time;
+		}
+
+	}
+
+}
@@ -0,0 +1,664 @@
+package ru.babobka.vsjws.session;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Session store shared by several nodes. Every node keeps all sessions in its
+ * own {@link LruSessionStore} and sends the sessions changed since the last
+ * batch to its peers over TCP, so any node can serve any request.
+ * <p>
+ * A session has a version that grows with every change. A node applies a
+ * replicated session only if its version is higher, equal versions are
+ * settled by node ids, so all nodes end up with the same winner of
+ * concurrent changes. Replication is asynchronous, a request that follows a
+ * change on another node within the batch interval may see the old session.
+ * Every peer has its own writer, so a slow peer does not hold back the
+ * others. A peer that is down or can not keep up misses changes made
+ * meanwhile.
+ * <p>
+ * Values are decoded with {@link SessionCodec}, which may use Java
+ * serialization. Every batch is signed with a secret shared by all nodes and
+ * a connection that sends a batch with a wrong signature is dropped before
+ * anything is decoded. A batch buffer grows only as its bytes arrive, a node
+ * takes one connection per peer and one spare, and connections that send
+ * nothing are closed after the read time out. Idle peers send empty batches
+ * to keep their connections.
+ */
+public class ReplicatedSessionStore implements SessionStore, Closeable {
+
+	public static final long DEFAULT_BATCH_INTERVAL_MILLIS = 50;
+
+	private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+
+	private static final int WRITE_TIMEOUT_MILLIS = 5000;
+
+	private static final int READ_TIMEOUT_MILLIS = 10_000;
+
+	private static final long HEARTBEAT_INTERVAL_MILLIS = READ_TIMEOUT_MILLIS / 4;
+
+	/**
+	 * Initial size of a batch buffer, it doubles as the batch arrives
+	 */
+	private static final int READ_CHUNK_SIZE = 64 * 1024;
+
+	private static final int MAX_BATCH_SIZE = 64 * 1024 * 1024;
+
+	/**
+	 * Batches waiting to be sent to a peer
+	 */
+	private static final long MAX_QUEUED_BYTES = MAX_BATCH_SIZE;
+
+	private static final int MAX_TOMBSTONES = 10_000;
+
+	private static final String MAC_ALGORITHM = "HmacSHA256";
+
+	private static final int MIN_SECRET_SIZE = 32;
+
+	private static final int MAC_SIZE = 32;
+
+	private static final byte SNAPSHOT = 1;
+
+	private static final byte REMOVE = 2;
+
+	private static final byte[] EMPTY_BATCH = new byte[0];
+
+	private static final Logger LOGGER = Logger.getLogger(ReplicatedSessionStore.class.getName());
+
+	private final LruSessionStore memory;
+
+	private final int nodeId = ThreadLocalRandom.current().nextInt();
+
+	private final long timeoutMillis;
+
+	private final byte[] secret;
+
+	private final ServerSocket serverSocket;
+
+	private final List<Peer> peers = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Sessions changed since the last batch
+	 */
+	private final Map<String, VersionedAttributes> changed = new ConcurrentHashMap<>();
+
+	/**
+	 * Versions of removed sessions, so late copies do not bring them back
+	 */
+	private final Map<String, Long> tombstones = new LinkedHashMap<String, Long>() {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+			return size() > MAX_TOMBSTONES;
+		}
+
+	};
+
+	private final Map<String, Long> removed = new ConcurrentHashMap<>();
+
+	private final ScheduledExecutorService replicator;
+
+	private final ExecutorService receivers;
+
+	private final ExecutorService writers;
+
+	private final AtomicInteger connections = new AtomicInteger();
+
+	private volatile boolean closed;
+
+	public ReplicatedSessionStore(InetSocketAddress bindAddress, int maxSessions, int timeoutSeconds, byte[] secret)
+			throws IOException {
+		this(bindAddress, maxSessions, timeoutSeconds, secret, DEFAULT_BATCH_INTERVAL_MILLIS);
+	}
+
+	/**
+	 * @param bindAddress
+	 *            address peers connect to. Port 0 takes any free port.
+	 * @param secret
+	 *            key of at least 32 bytes shared by all nodes to sign
+	 *            batches
+	 */
+	public ReplicatedSessionStore(InetSocketAddress bindAddress, int maxSessions, int timeoutSeconds, byte[] secret,
+			long batchIntervalMillis) throws IOException {
+		if (batchIntervalMillis <= 0) {
+			throw new IllegalArgumentException("Batch interval must be > 0");
+		}
+		if (secret == null || secret.length < MIN_SECRET_SIZE) {
+			throw new IllegalArgumentException("Secret must have at least " + MIN_SECRET_SIZE + " bytes");
+		}
+		this.memory = new LruSessionStore(maxSessions, timeoutSeconds);
+		this.timeoutMillis = TimeUnit.SECONDS.toMillis(timeoutSeconds);
+		this.secret = secret.clone();
+		this.serverSocket = new ServerSocket();
+		serverSocket.bind(bindAddress);
+		this.receivers = Executors.newCachedThreadPool(daemonThreads("vsjws-session-receiver"));
+		this.writers = Executors.newCachedThreadPool(daemonThreads("vsjws-session-writer"));
+		this.replicator = Executors.newSingleThreadScheduledExecutor(daemonThreads("vsjws-session-replicator"));
+		receivers.execute(this::accept);
+		replicator.scheduleWithFixedDelay(this::replicate, batchIntervalMillis, batchIntervalMillis,
+				TimeUnit.MILLISECONDS);
+	}
+
+	private static ThreadFactory daemonThreads(String name) {
+		return runnable -> {
+			Thread thread = new Thread(runnable, name);
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	/**
+	 * Adds a node to send changes to. Peers are not told about each other,
+	 * every node needs the list of the others.
+	 */
+	public void addPeer(InetSocketAddress address) {
+		peers.add(new Peer(address));
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	@Override
+	public Map<String, Serializable> get(String sessionId) {
+		VersionedAttributes attributes = (VersionedAttributes) memory.get(sessionId);
+		if (attributes == null) {
+			return null;
+		}
+		// Peers do not see reads, so the session is sent again before they
+		// expire it
+		if (System.currentTimeMillis() - attributes.sentAt > timeoutMillis / 2) {
+			changed.put(sessionId, attributes);
+		}
+		return track(sessionId, attributes);
+	}
+
+	@Override
+	public Map<String, Serializable> create(String sessionId) {
+		VersionedAttributes attributes = new VersionedAttributes();
+		synchronized (tombstones) {
+			Long removedVersion = tombstones.remove(sessionId);
+			attributes.version = removedVersion != null ? removedVersion + 1 : 1;
+		}
+		attributes.origin = nodeId;
+		memory.create(sessionId, attributes);
+		changed.put(sessionId, attributes);
+		return track(sessionId, attributes);
+	}
+
+	private Map<String, Serializable> track(String sessionId, VersionedAttributes attributes) {
+		return new TrackedAttributes(attributes, () -> {
+			// Runs under the lock of the attributes
+			attributes.version++;
+			attributes.origin = nodeId;
+			changed.put(sessionId, attributes);
+		});
+	}
+
+	@Override
+	public void remove(String sessionId) {
+		VersionedAttributes attributes = (VersionedAttributes) memory.get(sessionId);
+		memory.remove(sessionId);
+		changed.remove(sessionId);
+		long version = 0;
+		if (attributes != null) {
+			synchronized (attributes) {
+				version = attributes.version + 1;
+			}
+		}
+		synchronized (tombstones) {
+			tombstones.put(sessionId, version);
+		}
+		removed.put(sessionId, version);
+	}
+
+	/**
+	 * @return number of sessions on this node
+	 */
+	@Override
+	public int size() {
+		return memory.size();
+	}
+
+	/**
+	 * Removes sessions of this node only
+	 */
+	@Override
+	public void clear() {
+		memory.clear();
+		changed.clear();
+		removed.clear();
+	}
+
+	private void replicate() {
+		try {
+			if (changed.isEmpty() && removed.isEmpty()) {
+				long now = System.currentTimeMillis();
+				for (Peer peer : peers) {
+					if (now - peer.enqueuedAt >= HEARTBEAT_INTERVAL_MILLIS) {
+						// Keeps the connection from timing out on the peer
+						peer.enqueue(EMPTY_BATCH);
+					}
+				}
+				return;
+			}
+			byte[] batch = encodeBatch();
+			for (Peer peer : peers) {
+				peer.enqueue(batch);
+			}
+		} catch (RuntimeException e) {
+			LOGGER.log(Level.SEVERE, "Sessions can not be replicated", e);
+		}
+	}
+
+	private byte[] encodeBatch() {
+		ByteArrayOutputStream batch = new ByteArrayOutputStream();
+		long now = System.currentTimeMillis();
+		Iterator<Map.Entry<String, VersionedAttributes>> changedIterator = changed.entrySet().iterator();
+		while (changedIterator.hasNext()) {
+			Map.Entry<String, VersionedAttributes> session = changedIterator.next();
+			changedIterator.remove();
+			VersionedAttributes attributes = session.getValue();
+			byte[] payload;
+			long version;
+			int origin;
+			synchronized (attributes) {
+				payload = SessionCodec.encode(attributes);
+				version = attributes.version;
+				origin = attributes.origin;
+				attributes.sentAt = now;
+			}
+			batch.write(SNAPSHOT);
+			writeHeader(batch, session.getKey(), version, origin);
+			SessionCodec.writeBytes(batch, payload);
+		}
+		Iterator<Map.Entry<String, Long>> removedIterator = removed.entrySet().iterator();
+		while (removedIterator.hasNext()) {
+			Map.Entry<String, Long> session = removedIterator.next();
+			removedIterator.remove();
+			batch.write(REMOVE);
+			writeHeader(batch, session.getKey(), session.getValue(), nodeId);
+		}
+		return batch.toByteArray();
+	}
+
+	private static void writeHeader(ByteArrayOutputStream batch, String sessionId, long version, int origin) {
+		SessionCodec.writeBytes(batch, sessionId.getBytes(StandardCharsets.UTF_8));
+		SessionCodec.writeVarLong(batch, version);
+		SessionCodec.writeVarLong(batch, origin & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Applies a batch of another node
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the batch is malformed
+	 */
+	void apply(ByteBuffer batch) {
+		while (batch.hasRemaining()) {
+			byte type = batch.get();
+			String sessionId = new String(SessionCodec.readBytes(batch), StandardCharsets.UTF_8);
+			long version = SessionCodec.readVarLong(batch);
+			int origin = (int) SessionCodec.readVarLong(batch);
+			if (type == SNAPSHOT) {
+				byte[] payload = SessionCodec.readBytes(batch);
+				applySnapshot(sessionId, version, origin, payload);
+			} else if (type == REMOVE) {
+				applyRemove(sessionId, version);
+			} else {
+				throw new IllegalArgumentException("Unknown record type " + type);
+			}
+		}
+	}
+
+	private void applySnapshot(String sessionId, long version, int origin, byte[] payload) {
+		synchronized (tombstones) {
+			Long removedVersion = tombstones.get(sessionId);
+			if (removedVersion != null && removedVersion >= version) {
+				return;
+			}
+		}
+		VersionedAttributes attributes = (VersionedAttributes) memory.get(sessionId);
+		if (attributes == null) {
+			attributes = new VersionedAttributes();
+			attributes.putAll(SessionCodec.decode(payload));
+			attributes.version = version;
+			attributes.origin = origin;
+			attributes.sentAt = System.currentTimeMillis();
+			memory.create(sessionId, attributes);
+			return;
+		}
+		synchronized (attributes) {
+			if (attributes.isOlderThan(version, origin)) {
+				attributes.clear();
+				attributes.putAll(SessionCodec.decode(payload));
+				attributes.version = version;
+				attributes.origin = origin;
+				attributes.sentAt = System.currentTimeMillis();
+			}
+		}
+	}
+
+	private void applyRemove(String sessionId, long version) {
+		VersionedAttributes attributes = (VersionedAttributes) memory.get(sessionId);
+		if (attributes != null) {
+			synchronized (attributes) {
+				if (attributes.version > version) {
+					// Changed after the removal
+					return;
+				}
+			}
+			memory.remove(sessionId);
+		}
+		synchronized (tombstones) {
+			tombstones.put(sessionId, version);
+		}
+	}
+
+	private void accept() {
+		while (!closed) {
+			try {
+				Socket socket = serverSocket.accept();
+				// One spare connection lets a peer reconnect before its old
+				// connection times out
+				if (connections.incrementAndGet() > peers.size() + 1) {
+					connections.decrementAndGet();
+					LOGGER.log(Level.WARNING, "Replication connection from " + socket.getRemoteSocketAddress()
+							+ " is refused, there are too many");
+					closeQuietly(socket);
+					continue;
+				}
+				receivers.execute(() -> receive(socket));
+			} catch (IOException e) {
+				if (!closed) {
+					LOGGER.log(Level.WARNING, "Replication connection is not accepted", e);
+				}
+			}
+		}
+	}
+
+	private void receive(Socket socket) {
+		try (DataInputStream in = new DataInputStream(socket.getInputStream())) {
+			socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+			Mac mac = createMac();
+			while (!closed) {
+				int length = in.readInt();
+				if (length < 0 || length > MAX_BATCH_SIZE) {
+					throw new IOException("Bad batch length " + length);
+				}
+				byte[] batch = readBatch(in, length);
+				mac.update(batch);
+				byte[] signature = new byte[MAC_SIZE];
+				in.readFully(signature);
+				if (!MessageDigest.isEqual(signature, mac.doFinal())) {
+					throw new IOException("Batch signature does not match");
+				}
+				apply(ByteBuffer.wrap(batch));
+			}
+		} catch (IOException | RuntimeException e) {
+			if (!closed && !(e instanceof EOFException)) {
+				LOGGER.log(Level.WARNING, "Replication connection from " + socket.getRemoteSocketAddress()
+						+ " is dropped", e);
+			}
+		} finally {
+			closeQuietly(socket);
+			connections.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Reads a batch that is not verified yet. The buffer grows with the bytes
+	 * that have arrived, so a length alone does not make it allocate much.
+	 *
+	 * @return batch
+	 */
+	private static byte[] readBatch(DataInputStream in, int length) throws IOException {
+		byte[] batch = new byte[Math.min(length, READ_CHUNK_SIZE)];
+		int read = 0;
+		while (read < length) {
+			if (read == batch.length) {
+				batch = Arrays.copyOf(batch, (int) Math.min(length, 2L * batch.length));
+			}
+			in.readFully(batch, read, batch.length - read);
+			read = batch.length;
+		}
+		return batch;
+	}
+
+	private Mac createMac() {
+		try {
+			Mac mac = Mac.getInstance(MAC_ALGORITHM);
+			mac.init(new SecretKeySpec(secret, MAC_ALGORITHM));
+			return mac;
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private byte[] sign(byte[] batch) {
+		return createMac().doFinal(batch);
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			// Nothing to do
+		}
+	}
+
+	/**
+	 * Sends the last changes and stops. Waits up to the write time out for
+	 * peers to take them.
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		replicator.shutdown();
+		try {
+			if (replicator.awaitTermination(WRITE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+				// Last changes go out before the node leaves
+				replicate();
+			}
+			writers.shutdown();
+			if (!writers.awaitTermination(CONNECT_TIMEOUT_MILLIS + WRITE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+				// Interrupted writers close their connections themselves
+				writers.shutdownNow();
+			} else {
+				for (Peer peer : peers) {
+					peer.close();
+				}
+			}
+		} catch (InterruptedException e) {
+			writers.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		serverSocket.close();
+		receivers.shutdownNow();
+	}
+
+	/**
+	 * Attributes with the version of their last change
+	 */
+	private static final class VersionedAttributes extends ConcurrentHashMap<String, Serializable> {
+
+		private static final long serialVersionUID = 1L;
+
+		private long version;
+
+		private int origin;
+
+		private volatile long sentAt;
+
+		boolean isOlderThan(long otherVersion, int otherOrigin) {
+			return version < otherVersion || (version == otherVersion && origin < otherOrigin);
+		}
+
+	}
+
+	/**
+	 * Outgoing connection to another node. Batches are queued by the
+	 * replicator and written by a writer thread of the peer, the connection
+	 * is used by that writer only.
+	 */
+	private final class Peer {
+
+		private final InetSocketAddress address;
+
+		private final ArrayDeque<byte[]> queue = new ArrayDeque<>();
+
+		private long queuedBytes;
+
+		private boolean writing;
+
+		private volatile long enqueuedAt;
+
+		private SocketChannel channel;
+
+		private Selector selector;
+
+		Peer(InetSocketAddress address) {
+			this.address = address;
+		}
+
+		void enqueue(byte[] batch) {
+			synchronized (this) {
+				if (queuedBytes + batch.length > MAX_QUEUED_BYTES) {
+					LOGGER.log(Level.WARNING, "Sessions are not sent to " + address + ", it does not keep up");
+					return;
+				}
+				queue.add(batch);
+				queuedBytes += batch.length;
+				enqueuedAt = System.currentTimeMillis();
+				if (writing) {
+					return;
+				}
+				writing = true;
+			}
+			try {
+				writers.execute(this::write);
+			} catch (RejectedExecutionException e) {
+				// Store is closed
+				synchronized (this) {
+					queue.clear();
+					queuedBytes = 0;
+					writing = false;
+				}
+			}
+		}
+
+		private void write() {
+			while (true) {
+				byte[] batch;
+				synchronized (this) {
+					batch = queue.poll();
+					if (batch == null) {
+						writing = false;
+						return;
+					}
+					queuedBytes -= batch.length;
+				}
+				send(batch);
+			}
+		}
+
+		private void send(byte[] batch) {
+			try {
+				if (channel == null) {
+					connect();
+				}
+				ByteBuffer length = ByteBuffer.allocate(4).putInt(0, batch.length);
+				writeFully(new ByteBuffer[] { length, ByteBuffer.wrap(batch), ByteBuffer.wrap(sign(batch)) });
+			} catch (IOException e) {
+				LOGGER.log(Level.FINE, "Sessions are not sent to " + address, e);
+				close();
+			}
+		}
+
+		private void connect() throws IOException {
+			channel = SocketChannel.open();
+			try {
+				channel.socket().connect(address, CONNECT_TIMEOUT_MILLIS);
+				channel.socket().setTcpNoDelay(true);
+				channel.configureBlocking(false);
+				selector = Selector.open();
+				channel.register(selector, SelectionKey.OP_WRITE);
+			} catch (IOException e) {
+				close();
+				throw e;
+			}
+		}
+
+		/**
+		 * Blocking writes can not time out, so the channel is non-blocking and
+		 * waits for room in the socket buffer up to the write time out
+		 */
+		private void writeFully(ByteBuffer[] buffers) throws IOException {
+			ByteBuffer last = buffers[buffers.length - 1];
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(WRITE_TIMEOUT_MILLIS);
+			while (true) {
+				channel.write(buffers);
+				if (!last.hasRemaining()) {
+					return;
+				}
+				long waitMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+				if (waitMillis <= 0) {
+					throw new SocketTimeoutException("Peer does not read");
+				}
+				selector.select(waitMillis);
+				selector.selectedKeys().clear();
+			}
+		}
+
+		void close() {
+			if (channel != null) {
+				closeQuietly(channel);
+				channel = null;
+			}
+			if (selector != null) {
+				closeQuietly(selector);
+				selector = null;
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,206 @@
+package ru.babobka.vsjws.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact binary form of session attributes. Strings, numbers, booleans and
+ * byte arrays take a tag byte and their value, other values fall back to Java
+ * serialization. Decoded bytes must come from a trusted source.
+ */
+public interface SessionCodec {
+
+	byte NULL = 0;
+
+	byte STRING = 1;
+
+	byte INTEGER = 2;
+
+	byte LONG = 3;
+
+	byte TRUE = 4;
+
+	byte FALSE = 5;
+
+	byte DOUBLE = 6;
+
+	byte BYTES = 7;
+
+	byte SERIALIZED = 8;
+
+	static byte[] encode(Map<String, ? extends Serializable> attributes) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+		writeVarInt(out, attributes.size());
+		for (Map.Entry<String, ? extends Serializable> attribute : attributes.entrySet()) {
+			writeBytes(out, attribute.getKey().getBytes(StandardCharsets.UTF_8));
+			writeValue(out, attribute.getValue());
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Reads attributes from the remaining bytes of the buffer
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the bytes are malformed
+	 */
+	static Map<String, Serializable> decode(ByteBuffer in) {
+		try {
+			int size = readVarInt(in);
+			Map<String, Serializable> attributes = new HashMap<>(Math.max(16, size * 2));
+			for (int i = 0; i < size; i++) {
+				String key = new String(readBytes(in), StandardCharsets.UTF_8);
+				attributes.put(key, readValue(in));
+			}
+			return attributes;
+		} catch (BufferUnderflowException e) {
+			throw new IllegalArgumentException("Session attributes are truncated", e);
+		}
+	}
+
+	static Map<String, Serializable> decode(byte[] bytes) {
+		return decode(ByteBuffer.wrap(bytes));
+	}
+
+	static void writeValue(ByteArrayOutputStream out, Serializable value) {
+		if (value == null) {
+			out.write(NULL);
+		} else if (value instanceof String) {
+			out.write(STRING);
+			writeBytes(out, ((String) value).getBytes(StandardCharsets.UTF_8));
+		} else if (value instanceof Integer) {
+			out.write(INTEGER);
+			writeVarLong(out, zigZag((Integer) value));
+		} else if (value instanceof Long) {
+			out.write(LONG);
+			writeVarLong(out, zigZag((Long) value));
+		} else if (value instanceof Boolean) {
+			out.write((Boolean) value ? TRUE : FALSE);
+		} else if (value instanceof Double) {
+			out.write(DOUBLE);
+			writeFixedLong(out, Double.doubleToLongBits((Double) value));
+		} else if (value instanceof byte[]) {
+			out.write(BYTES);
+			writeBytes(out, (byte[]) value);
+		} else {
+			out.write(SERIALIZED);
+			writeBytes(out, serialize(value));
+		}
+	}
+
+	static Serializable readValue(ByteBuffer in) {
+		byte tag = in.get();
+		switch (tag) {
+		case NULL:
+			return null;
+		case STRING:
+			return new String(readBytes(in), StandardCharsets.UTF_8);
+		case INTEGER:
+			return (int) unZigZag(readVarLong(in));
+		case LONG:
+			return unZigZag(readVarLong(in));
+		case TRUE:
+			return Boolean.TRUE;
+		case FALSE:
+			return Boolean.FALSE;
+		case DOUBLE:
+			return Double.longBitsToDouble(in.getLong());
+		case BYTES:
+			return readBytes(in);
+		case SERIALIZED:
+			return deserialize(readBytes(in));
+		default:
+			throw new IllegalArgumentException("Unknown value tag " + tag);
+		}
+	}
+
+	static void writeBytes(ByteArrayOutputStream out, byte[] bytes) {
+		writeVarInt(out, bytes.length);
+		out.write(bytes, 0, bytes.length);
+	}
+
+	static byte[] readBytes(ByteBuffer in) {
+		int length = readVarInt(in);
+		if (length > in.remaining()) {
+			throw new IllegalArgumentException("Length " + length + " is out of the input");
+		}
+		byte[] bytes = new byte[length];
+		in.get(bytes);
+		return bytes;
+	}
+
+	static void writeVarInt(ByteArrayOutputStream out, int value) {
+		writeVarLong(out, value & 0xFFFFFFFFL);
+	}
+
+	static int readVarInt(ByteBuffer in) {
+		long value = readVarLong(in);
+		if (value > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Length is too big");
+		}
+		return (int) value;
+	}
+
+	static void writeVarLong(ByteArrayOutputStream out, long value) {
+		while ((value & ~0x7FL) != 0) {
+			out.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+
+	static long readVarLong(ByteBuffer in) {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = in.get();
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Malformed variable length number");
+	}
+
+	static void writeFixedLong(ByteArrayOutputStream out, long value) {
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			out.write((int) (value >>> shift));
+		}
+	}
+
+	static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	static byte[] serialize(Serializable value) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(value);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	static Serializable deserialize(byte[] bytes) {
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+			return (Serializable) in.readObject();
+		} catch (IOException | ClassNotFoundException e) {
+			throw new IllegalArgumentException("Session value can not be read", e);
+		}
+	}
+
+}
@@ -0,0 +1,252 @@
+package ru.babobka.vsjws.session;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Append only log of session records on a memory mapped file. A record is
+ * <code>[length][crc][type][time][id length][id][payload]</code>, the length
+ * goes last, so a torn record at the end is dropped by {@link #recover()}.
+ * Opening a log does not read it, records are neither read nor appended until
+ * it is recovered. The file is kept under 2 GB by compaction. Not thread safe.
+ */
+final class SessionLog implements Closeable {
+
+	static final byte SNAPSHOT = 1;
+
+	static final byte REMOVE = 2;
+
+	private static final int MAGIC = 0x56534C31;
+
+	private static final int FILE_HEADER_SIZE = 4;
+
+	/**
+	 * Length and crc
+	 */
+	private static final int RECORD_PREFIX_SIZE = 8;
+
+	/**
+	 * Type, time and id length
+	 */
+	private static final int RECORD_HEADER_SIZE = 13;
+
+	private static final int MIN_MAPPED_SIZE = 1 << 20;
+
+	private static final long MAX_SIZE = Integer.MAX_VALUE;
+
+	private final File file;
+
+	private final FileChannel channel;
+
+	private MappedByteBuffer mapped;
+
+	/**
+	 * Position after the last whole record or -1 if it is not known yet
+	 */
+	private int end = -1;
+
+	SessionLog(File file) throws IOException {
+		this.file = file;
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		boolean created = channel.size() == 0;
+		map(Math.max(MIN_MAPPED_SIZE, channel.size()));
+		if (created) {
+			mapped.putInt(0, MAGIC);
+			end = FILE_HEADER_SIZE;
+		} else if (mapped.getInt(0) != MAGIC) {
+			channel.close();
+			throw new IOException("'" + file + "' is not a session log");
+		}
+	}
+
+	private void map(long size) throws IOException {
+		if (size > MAX_SIZE) {
+			throw new IOException("Session log '" + file + "' is full");
+		}
+		mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+	}
+
+	/**
+	 * Finds the end of the log checking every record. Reads the whole file.
+	 */
+	void recover() {
+		if (end != -1) {
+			return;
+		}
+		int position = FILE_HEADER_SIZE;
+		int next;
+		while ((next = nextRecord(position)) != -1) {
+			position = next;
+		}
+		end = position;
+	}
+
+	private void checkRecovered() {
+		if (end == -1) {
+			throw new IllegalStateException("Session log '" + file + "' is not recovered");
+		}
+	}
+
+	/**
+	 * @return position of the record after the given one or -1 if there is no
+	 *         whole record at the position
+	 */
+	private int nextRecord(int position) {
+		if (position + RECORD_PREFIX_SIZE > mapped.capacity()) {
+			return -1;
+		}
+		int length = mapped.getInt(position);
+		if (length < RECORD_HEADER_SIZE || length > mapped.capacity() - position - RECORD_PREFIX_SIZE) {
+			return -1;
+		}
+		CRC32 crc = new CRC32();
+		crc.update(slice(position + RECORD_PREFIX_SIZE, length));
+		if ((int) crc.getValue() != mapped.getInt(position + 4)) {
+			return -1;
+		}
+		return position + RECORD_PREFIX_SIZE + length;
+	}
+
+	/**
+	 * @return position of the record
+	 */
+	int append(byte type, String sessionId, long time, byte[] payload) throws IOException {
+		checkRecovered();
+		byte[] id = sessionId.getBytes(StandardCharsets.UTF_8);
+		int length = RECORD_HEADER_SIZE + id.length + payload.length;
+		ensureCapacity(RECORD_PREFIX_SIZE + length);
+		int position = end;
+		ByteBuffer record = slice(position + RECORD_PREFIX_SIZE, length);
+		record.put(type).putLong(time).putInt(id.length).put(id).put(payload);
+		CRC32 crc = new CRC32();
+		crc.update(slice(position + RECORD_PREFIX_SIZE, length));
+		mapped.putInt(position + 4, (int) crc.getValue());
+		commit(position, length);
+		return position;
+	}
+
+	/**
+	 * Copies a whole record of another log
+	 *
+	 * @return position of the copy
+	 */
+	int copy(SessionLog source, int sourcePosition) throws IOException {
+		checkRecovered();
+		int length = source.mapped.getInt(sourcePosition);
+		ensureCapacity(RECORD_PREFIX_SIZE + length);
+		int position = end;
+		slice(position + 4, 4 + length).put(source.slice(sourcePosition + 4, 4 + length));
+		commit(position, length);
+		return position;
+	}
+
+	/**
+	 * Ends the log after the record, then writes the length that makes the
+	 * record visible. Records left after a reset are never read again.
+	 */
+	private void commit(int position, int length) {
+		int next = position + RECORD_PREFIX_SIZE + length;
+		mapped.putInt(next, 0);
+		mapped.putInt(position, length);
+		end = next;
+	}
+
+	private void ensureCapacity(int size) throws IOException {
+		// Room for the zero length that ends the log
+		size += 4;
+		if ((long) end + size > mapped.capacity()) {
+			map(Math.max((long) mapped.capacity() * 2, (long) end + size));
+		}
+	}
+
+	private ByteBuffer slice(int position, int length) {
+		ByteBuffer slice = mapped.duplicate();
+		slice.position(position);
+		slice.limit(position + length);
+		return slice.slice();
+	}
+
+	byte getType(int position) {
+		return mapped.get(position + RECORD_PREFIX_SIZE);
+	}
+
+	long getTime(int position) {
+		return mapped.getLong(position + RECORD_PREFIX_SIZE + 1);
+	}
+
+	String getSessionId(int position) {
+		int idLength = mapped.getInt(position + RECORD_PREFIX_SIZE + 9);
+		byte[] id = new byte[idLength];
+		ByteBuffer slice = slice(position + RECORD_PREFIX_SIZE + RECORD_HEADER_SIZE, idLength);
+		slice.get(id);
+		return new String(id, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return payload of the record, read only and valid until the log is
+	 *         closed
+	 */
+	ByteBuffer getPayload(int position) {
+		int length = mapped.getInt(position);
+		int idLength = mapped.getInt(position + RECORD_PREFIX_SIZE + 9);
+		return slice(position + RECORD_PREFIX_SIZE + RECORD_HEADER_SIZE + idLength,
+				length - RECORD_HEADER_SIZE - idLength).asReadOnlyBuffer();
+	}
+
+	/**
+	 * @return position of the first record or -1 if the log is empty
+	 */
+	int first() {
+		checkRecovered();
+		return end > FILE_HEADER_SIZE ? FILE_HEADER_SIZE : -1;
+	}
+
+	/**
+	 * @return position of the next record or -1 if the record is the last one
+	 */
+	int next(int position) {
+		int next = position + RECORD_PREFIX_SIZE + mapped.getInt(position);
+		return next < end ? next : -1;
+	}
+
+	int size() {
+		checkRecovered();
+		return end;
+	}
+
+	File getFile() {
+		return file;
+	}
+
+	void force() {
+		mapped.force();
+	}
+
+	/**
+	 * Drops all records
+	 */
+	void reset() {
+		mapped.putInt(FILE_HEADER_SIZE, 0);
+		end = FILE_HEADER_SIZE;
+	}
+
+	@Override
+	public void close() throws IOException {
+		mapped.force();
+		if (end != -1) {
+			// Trailing zeros of the mapping are cut off
+			channel.truncate(end);
+		}
+		channel.force(true);
+		channel.close();
+	}
+
+}
@@ -0,0 +1,46 @@
+package ru.babobka.vsjws.session;
+
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * Keeps session attributes by session id. Implementations must be thread
+ * safe, maps they return are changed by many requests at once.
+ */
+public interface SessionStore {
+
+	/**
+	 * @return attributes of a live session or null. Access extends the life
+	 *         of the session.
+	 */
+	Map<String, Serializable> get(String sessionId);
+
+	/**
+	 * Creates an empty session. An existing session with the id is replaced.
+	 *
+	 * @return attributes of the new session
+	 */
+	Map<String, Serializable> create(String sessionId);
+
+	void remove(String sessionId);
+
+	/**
+	 * @return number of sessions, expired ones may be counted too
+	 */
+	int size();
+
+	void clear();
+
+	/**
+	 * Called after a request that used the session. Stores that keep sessions
+	 * on the server keep the cookie.
+	 *
+	 * @param changed
+	 *            true if the request created or changed the session
+	 * @return new value of the session cookie or null to keep the current one
+	 */
+	default String getCookieValue(String sessionId, Map<String, Serializable> attributes, boolean changed) {
+		return null;
+	}
+
+}
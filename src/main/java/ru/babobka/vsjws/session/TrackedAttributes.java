@@ -0,0 +1,71 @@
+package ru.babobka.vsjws.session;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Session attributes that report their changes. A change and its report are
+ * made under the lock of the attributes. Entries are read only, so every
+ * change goes through put, remove or clear.
+ */
+final class TrackedAttributes extends AbstractMap<String, Serializable> {
+
+	private final Map<String, Serializable> attributes;
+
+	private final Runnable onChange;
+
+	TrackedAttributes(Map<String, Serializable> attributes, Runnable onChange) {
+		this.attributes = attributes;
+		this.onChange = onChange;
+	}
+
+	@Override
+	public Serializable get(Object key) {
+		return attributes.get(key);
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return attributes.containsKey(key);
+	}
+
+	@Override
+	public Serializable put(String key, Serializable value) {
+		synchronized (attributes) {
+			Serializable previous = attributes.put(key, value);
+			onChange.run();
+			return previous;
+		}
+	}
+
+	@Override
+	public Serializable remove(Object key) {
+		synchronized (attributes) {
+			Serializable previous = attributes.remove(key);
+			onChange.run();
+			return previous;
+		}
+	}
+
+	@Override
+	public void clear() {
+		synchronized (attributes) {
+			attributes.clear();
+			onChange.run();
+		}
+	}
+
+	@Override
+	public int size() {
+		return attributes.size();
+	}
+
+	@Override
+	public Set<Map.Entry<String, Serializable>> entrySet() {
+		return Collections.unmodifiableMap(attributes).entrySet();
+	}
+
+}
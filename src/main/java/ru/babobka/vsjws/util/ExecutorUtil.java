@@ -0,0 +1,44 @@
+package ru.babobka.vsjws.util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Executors a web server may run its requests on
+ */
+public interface ExecutorUtil {
+
+	public static final String VIRTUAL_THREAD_EXECUTOR_METHOD = "newVirtualThreadPerTaskExecutor";
+
+	/**
+	 * Creates executor that starts a new virtual thread for every task.
+	 * Virtual threads are available since Java 21. Older runtimes get a cached
+	 * thread pool instead.
+	 */
+	public static ExecutorService newVirtualThreadExecutor() {
+		Method method = getVirtualThreadExecutorMethod();
+		if (method != null) {
+			try {
+				return (ExecutorService) method.invoke(null);
+			} catch (IllegalAccessException | InvocationTargetException e) {
+				throw new IllegalStateException("Can not create virtual thread executor", e);
+			}
+		}
+		return Executors.newCachedThreadPool();
+	}
+
+	public static boolean isVirtualThreadSupported() {
+		return getVirtualThreadExecutorMethod() != null;
+	}
+
+	static Method getVirtualThreadExecutorMethod() {
+		try {
+			return Executors.class.getMethod(VIRTUAL_THREAD_EXECUTOR_METHOD);
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+}
@@ -1,56 +1,107 @@
 package ru.babobka.vsjws.util;
 
 import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
+import java.util.Locale;
 import java.util.Map;
 
+import ru.babobka.vsjws.constant.Method;
+import ru.babobka.vsjws.exception.PayloadTooLargeException;
+import ru.babobka.vsjws.io.ChunkedOutputStream;
+import ru.babobka.vsjws.io.ResponseHeaderEncoder;
 import ru.babobka.vsjws.model.HttpRequest;
 import ru.babobka.vsjws.model.HttpResponse;
+import ru.babobka.vsjws.model.HttpResponse.ResponseCode;
+import ru.babobka.vsjws.model.ResponseBody;
+import ru.babobka.vsjws.parser.HttpRequestParser;
+import ru.babobka.vsjws.session.LazySession;
 
 /**
  * Created by dolgopolov.a on 29.12.15.
  */
 public interface HttpUtil {
 
+	public static final String CONNECTION_HEADER = "Connection";
+
+	public static final String KEEP_ALIVE = "keep-alive";
+
+	public static final String CLOSE = "close";
+
+	public static final String CHUNKED = "chunked";
+
+	public static final String EXPECT_HEADER = "Expect";
+
+	public static final byte[] CONTINUE_RESPONSE = (HttpRequest.PROTOCOL + " 100 Continue\r\n\r\n")
+			.getBytes(HttpResponse.MAIN_ENCODING);
+
+	public static final int FILE_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Bodies up to this size are copied next to the headers, so they are sent
+	 * with a single write
+	 */
+	public static final int COPY_CONTENT_LIMIT = 8192;
+
+	public static final DateTimeFormatter HTTP_DATE_FORMAT = DateTimeFormatter
+			.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+
 	public static void writeResponse(OutputStream os, HttpResponse response, boolean noContent) throws IOException {
+		writeResponse(os, response, noContent, false);
+	}
+
+	public static void writeResponse(OutputStream os, HttpResponse response, boolean noContent, boolean keepAlive)
+			throws IOException {
+		writeResponse(os, null, response, noContent, keepAlive);
+	}
+
+	/**
+	 * Writes a response. Files are sent right from the file system cache to
+	 * the channel if there is one.
+	 *
+	 * @param channel
+	 *            channel behind the stream or null
+	 */
+	public static void writeResponse(OutputStream os, WritableByteChannel channel, HttpResponse response,
+			boolean noContent, boolean keepAlive) throws IOException {
 		if (response != null) {
-			StringBuilder headerBuilder = new StringBuilder(
-					HttpRequest.PROTOCOL + " " + response.getResponseCode() + "\n");
-			Map<String, String> headers = new LinkedHashMap<>();
-			headers.put(HttpResponse.RestrictedHeader.SERVER + ":", "vsjws");
-			headers.put(HttpResponse.RestrictedHeader.CONTENT_TYPE + ":", response.getContentType());
-			headers.put(HttpResponse.RestrictedHeader.CONTENT_LENGTH + ":",
-					String.valueOf(response.getContentLength()));
-			headers.put(HttpResponse.RestrictedHeader.CONNECTION + ":", "close");
-			headers.putAll(response.getHttpCookieHeaders());
-			headers.putAll(response.getOtherHeaders());
-			for (Map.Entry<String, String> entry : headers.entrySet()) {
-				headerBuilder.append(entry.getKey());
-				headerBuilder.append(" ");
-				headerBuilder.append(entry.getValue());
-				headerBuilder.append("\r\n");
-			}
-
-			headerBuilder.append("\r\n");
-			os.write(headerBuilder.toString().getBytes(HttpResponse.MAIN_ENCODING));
-			if (!noContent) {
-				if (response.getFile() != null) {
-					byte[] buf = new byte[8192];
-					int c;
-					try (InputStream is = new FileInputStream(response.getFile())) {
-						while ((c = is.read(buf, 0, buf.length)) > 0) {
-							os.write(buf, 0, c);
-							os.flush();
-						}
+			ResponseHeaderEncoder head = ResponseHeaderEncoder.get().encode(response, keepAlive);
+			if (noContent || !response.getResponseCode().hasContent()) {
+				os.write(head.array(), 0, head.length());
+			} else if (response.isStreaming() || response.getParts() != null || response.getFile() != null) {
+				os.write(head.array(), 0, head.length());
+				writeBody(os, channel, response);
+			} else {
+				ResponseBody body = response.getBody();
+				if (body == null || body.length() <= COPY_CONTENT_LIMIT) {
+					// Small content goes out in the same write as the headers
+					if (body != null) {
+						head.append(body);
 					}
+					os.write(head.array(), 0, head.length());
+				} else if (channel instanceof GatheringByteChannel) {
+					writeFully((GatheringByteChannel) channel, body.buffers(head.toByteBuffer()));
 				} else {
-					os.write(response.getContent());
+					os.write(head.array(), 0, head.length());
+					response.writeContent(os);
 				}
 			}
 		}
@@ -58,6 +109,84 @@ public interface HttpUtil {
 
 	}
 
+	/**
+	 * Writes buffers with as few system calls as the channel allows
+	 */
+	public static void writeFully(GatheringByteChannel channel, ByteBuffer[] buffers) throws IOException {
+		int last = buffers.length - 1;
+		while (buffers[last].hasRemaining()) {
+			channel.write(buffers);
+		}
+	}
+
+	static void writeBody(OutputStream os, WritableByteChannel channel, HttpResponse response) throws IOException {
+		if (response.isStreaming()) {
+			ChunkedOutputStream chunked = new ChunkedOutputStream(os);
+			try {
+				response.getStreamingBody().writeTo(chunked);
+			} catch (RuntimeException e) {
+				// Headers are gone already, the connection has to be dropped
+				throw new IOException("Streaming body failed", e);
+			}
+			chunked.finish();
+		} else if (response.getParts() != null) {
+			for (HttpResponse part : response.getParts()) {
+				writeBody(os, channel, part);
+			}
+		} else if (response.getFile() != null) {
+			if (channel != null) {
+				os.flush();
+				transferFile(response.getFile(), response.getOffset(), response.getContentLength(), channel);
+			} else {
+				copyFile(response.getFile(), response.getOffset(), response.getContentLength(), os);
+			}
+		} else {
+			response.writeContent(os);
+		}
+	}
+
+	public static void transferFile(File file, long position, long count, WritableByteChannel channel)
+			throws IOException {
+		try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long end = position + count;
+			while (position < end) {
+				long transferred = fileChannel.transferTo(position, end - position, channel);
+				if (transferred <= 0) {
+					throw new EOFException("File " + file + " was truncated while being sent");
+				}
+				position += transferred;
+			}
+		}
+	}
+
+	public static void copyFile(File file, long position, long count, OutputStream os) throws IOException {
+		byte[] buf = new byte[FILE_BUFFER_SIZE];
+		try (InputStream is = new FileInputStream(file)) {
+			long skipped = 0;
+			while (skipped < position) {
+				long n = is.skip(position - skipped);
+				if (n <= 0) {
+					throw new EOFException("File " + file + " is shorter than " + position);
+				}
+				skipped += n;
+			}
+			long left = count;
+			int c;
+			while (left > 0 && (c = is.read(buf, 0, (int) Math.min(buf.length, left))) > 0) {
+				os.write(buf, 0, c);
+				left -= c;
+			}
+			if (left > 0) {
+				throw new EOFException("File " + file + " was truncated while being sent");
+			}
+		}
+	}
+
+	public static void writeHeaders(OutputStream os, HttpResponse response, boolean keepAlive) throws IOException {
+		ResponseHeaderEncoder head = ResponseHeaderEncoder.get().encode(response, keepAlive);
+		os.write(head.array(), 0, head.length());
+	}
+
 	public static Map<String, String> getUriParams(String uri) {
 		String[] uriArray = uri.split("\\?");
 		if (uriArray.length > 1) {
@@ -67,6 +196,10 @@ public interface HttpUtil {
 		}
 	}
 
+	/**
+	 * @deprecated use {@link HttpRequestParser}
+	 */
+	@Deprecated
 	public static String getRawHttpRequest(InputStream is) throws IOException {
 
 		BufferedReader br = null;
@@ -97,21 +230,149 @@ public interface HttpUtil {
 		}
 	}
 
+	/**
+	 * Tells if the client may use its copy of the response. If-None-Match
+	 * takes precedence over If-Modified-Since.
+	 */
+	public static boolean isNotModified(HttpRequest request, HttpResponse response) {
+		if (response.getResponseCode() != ResponseCode.OK
+				|| !(request.getMethod().equals(Method.GET) || request.getMethod().equals(Method.HEAD))) {
+			return false;
+		}
+		String ifNoneMatch = request.getHeader(HttpRequest.IF_NONE_MATCH_HEADER);
+		if (!ifNoneMatch.isEmpty()) {
+			String eTag = response.getHeader(HttpResponse.ETAG_HEADER);
+			return eTag != null && matchesETag(ifNoneMatch, eTag);
+		}
+		String ifModifiedSince = request.getHeader(HttpRequest.IF_MODIFIED_SINCE_HEADER);
+		String lastModified = response.getHeader(HttpResponse.LAST_MODIFIED_HEADER);
+		if (ifModifiedSince.isEmpty() || lastModified == null) {
+			return false;
+		}
+		long since = parseDate(ifModifiedSince);
+		long modified = parseDate(lastModified);
+		return since >= 0 && modified >= 0 && modified <= since;
+	}
+
+	/**
+	 * Weak comparison of an entity tag with a list of tags
+	 */
+	public static boolean matchesETag(String eTagList, String eTag) {
+		String opaqueTag = stripWeakPrefix(eTag);
+		for (String candidate : eTagList.split(",")) {
+			candidate = candidate.trim();
+			if (candidate.equals("*") || stripWeakPrefix(candidate).equals(opaqueTag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	static String stripWeakPrefix(String eTag) {
+		return eTag.startsWith("W/") ? eTag.substring(2) : eTag;
+	}
+
+	/**
+	 * @return strong entity tag of the content
+	 */
+	public static String createETag(ByteBuffer content) {
+		return createETag(ResponseBody.of(content));
+	}
+
+	public static String createETag(ResponseBody content) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			for (ByteBuffer buffer : content.buffers()) {
+				digest.update(buffer);
+			}
+			byte[] hash = digest.digest();
+			StringBuilder eTag = new StringBuilder(hash.length * 2 + 2).append('"');
+			for (byte b : hash) {
+				eTag.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return eTag.append('"').toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public static String formatDate(long millis) {
+		return HTTP_DATE_FORMAT.format(Instant.ofEpochMilli(millis));
+	}
+
+	/**
+	 * @return milliseconds of an HTTP date or -1 if it is malformed
+	 */
+	public static long parseDate(String date) {
+		try {
+			return ZonedDateTime.parse(date.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+		} catch (DateTimeParseException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * @return true if the client waits for 100 Continue before sending the
+	 *         body
+	 */
+	public static boolean isExpectContinue(String expect) {
+		return expect != null && expect.equalsIgnoreCase("100-continue");
+	}
+
+	public static boolean isKeepAlive(HttpRequest request) {
+		String connection = request.getHeader(CONNECTION_HEADER);
+		for (String token : connection.split(",")) {
+			if (token.trim().equalsIgnoreCase(CLOSE)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	public static String getHeaderValue(String headerLine) {
 		return headerLine.substring(headerLine.indexOf(':') + 2, headerLine.length());
 	}
 
+	/**
+	 * @return URI without the query string
+	 */
 	public static String cleanUri(String uri) {
-		return uri.split("\\?")[0];
-
+		int query = uri.indexOf('?');
+		return query == -1 ? uri : uri.substring(0, query);
 	}
 
+	/**
+	 * @deprecated requests are read by {@link HttpRequestParser}, bodies with
+	 *             {@link #readBody(InputStream, long)}
+	 */
+	@Deprecated
 	public static String readBody(int contentLength, BufferedReader br) throws IOException {
-		StringBuilder body = new StringBuilder();
-		for (int i = 0; i < contentLength; i++) {
-			body.append((char) br.read());
+		char[] body = new char[contentLength];
+		int read = 0;
+		int c;
+		while (read < contentLength && (c = br.read(body, read, contentLength - read)) > 0) {
+			read += c;
+		}
+		return new String(body, 0, read);
+	}
+
+	/**
+	 * Reads a body of a known length into memory
+	 */
+	public static byte[] readBody(InputStream is, long length) throws IOException {
+		if (length > Integer.MAX_VALUE - 8) {
+			throw new PayloadTooLargeException("Body is too large to be read into memory");
+		}
+		byte[] body = new byte[(int) length];
+		int read = 0;
+		while (read < body.length) {
+			int c = is.read(body, read, body.length - read);
+			if (c < 0) {
+				throw new EOFException("Stream has ended in the middle of a body");
+			}
+			read += c;
 		}
-		return new String(body.toString().getBytes(), HttpResponse.MAIN_ENCODING);
+		return body;
 	}
 
 	public static Map<String, String> getCookies(String cookiesLine) {
@@ -127,7 +388,7 @@ public interface HttpUtil {
 	}
 
 	public static String generateSessionId() {
-		return String.valueOf((long) (Math.random() * Long.MAX_VALUE));
+		return LazySession.generateId();
 	}
 
 	public static Map<String, String> getParams(String paramText) {
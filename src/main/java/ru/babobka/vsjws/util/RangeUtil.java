@@ -0,0 +1,162 @@
+package ru.babobka.vsjws.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import ru.babobka.vsjws.constant.ContentType;
+import ru.babobka.vsjws.constant.Method;
+import ru.babobka.vsjws.model.ByteRange;
+import ru.babobka.vsjws.model.HttpRequest;
+import ru.babobka.vsjws.model.HttpResponse;
+import ru.babobka.vsjws.model.HttpResponse.ResponseCode;
+
+/**
+ * Range and If-Range handling
+ */
+public interface RangeUtil {
+
+	public static final String RANGE_HEADER = "Range";
+
+	public static final String IF_RANGE_HEADER = "If-Range";
+
+	public static final String BYTES_UNIT = "bytes";
+
+	/**
+	 * Requests with more ranges are answered with the whole body
+	 */
+	public static final int MAX_RANGES = 16;
+
+	/**
+	 * Answers the Range header of a GET request
+	 *
+	 * @return partial response, 416 response or the given response if the
+	 *         range does not apply to it
+	 */
+	public static HttpResponse applyRange(HttpRequest request, HttpResponse response) {
+		if (response.getResponseCode() != ResponseCode.OK || response.getParts() != null || response.isStreaming()
+				|| !request.getMethod().equals(Method.GET)) {
+			return response;
+		}
+		String rangeHeader = request.getHeader(RANGE_HEADER);
+		if (rangeHeader.isEmpty() || !isIfRangeFresh(request.getHeader(IF_RANGE_HEADER), response)) {
+			return response;
+		}
+		long length = response.getContentLength();
+		List<ByteRange> ranges = parseRanges(rangeHeader, length);
+		if (ranges == null) {
+			// Malformed or unsupported ranges are ignored
+			return response;
+		} else if (ranges.isEmpty()) {
+			return HttpResponse
+					.textResponse(ResponseCode.RANGE_NOT_SATISFIABLE.toString(), ResponseCode.RANGE_NOT_SATISFIABLE,
+							ContentType.PLAIN)
+					.addHeader(HttpResponse.CONTENT_RANGE_HEADER, BYTES_UNIT + " */" + length);
+		}
+		return response.partialResponse(ranges);
+	}
+
+	/**
+	 * @return true if there is no If-Range or it matches the response. Entity
+	 *         tags are compared strongly, dates must be equal.
+	 */
+	public static boolean isIfRangeFresh(String ifRange, HttpResponse response) {
+		if (ifRange.isEmpty()) {
+			return true;
+		}
+		if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+			String eTag = response.getHeader(HttpResponse.ETAG_HEADER);
+			return eTag != null && !eTag.startsWith("W/") && eTag.equals(ifRange);
+		}
+		String lastModified = response.getHeader(HttpResponse.LAST_MODIFIED_HEADER);
+		if (lastModified == null) {
+			return false;
+		}
+		long date = HttpUtil.parseDate(ifRange);
+		return date >= 0 && date == HttpUtil.parseDate(lastModified);
+	}
+
+	/**
+	 * Parses a byte ranges header. Overlapping and adjacent ranges are merged.
+	 *
+	 * @return satisfiable ranges in ascending order or null if the header is
+	 *         malformed or has too many ranges
+	 */
+	public static List<ByteRange> parseRanges(String rangeHeader, long length) {
+		String prefix = BYTES_UNIT + "=";
+		if (!rangeHeader.regionMatches(true, 0, prefix, 0, prefix.length())) {
+			return null;
+		}
+		String[] specs = rangeHeader.substring(prefix.length()).split(",");
+		if (specs.length > MAX_RANGES) {
+			return null;
+		}
+		List<ByteRange> ranges = new ArrayList<>(specs.length);
+		for (String spec : specs) {
+			spec = spec.trim();
+			int dash = spec.indexOf('-');
+			if (dash < 0) {
+				return null;
+			}
+			long start = parseNumber(spec.substring(0, dash));
+			long end = parseNumber(spec.substring(dash + 1));
+			if (dash == 0) {
+				// Suffix range: last bytes
+				if (end < 0) {
+					return null;
+				}
+				if (end > 0 && length > 0) {
+					ranges.add(new ByteRange(Math.max(0, length - end), length - 1));
+				}
+			} else {
+				if (start < 0 || (dash < spec.length() - 1 && end < start)) {
+					return null;
+				}
+				if (start < length) {
+					ranges.add(new ByteRange(start, end < 0 ? length - 1 : Math.min(end, length - 1)));
+				}
+			}
+		}
+		return merge(ranges);
+	}
+
+	static List<ByteRange> merge(List<ByteRange> ranges) {
+		if (ranges.size() < 2) {
+			return ranges;
+		}
+		Collections.sort(ranges, Comparator.comparingLong(ByteRange::getStart));
+		List<ByteRange> merged = new ArrayList<>(ranges.size());
+		ByteRange current = ranges.get(0);
+		for (int i = 1; i < ranges.size(); i++) {
+			ByteRange next = ranges.get(i);
+			if (next.getStart() <= current.getEnd() + 1) {
+				current = new ByteRange(current.getStart(), Math.max(current.getEnd(), next.getEnd()));
+			} else {
+				merged.add(current);
+				current = next;
+			}
+		}
+		merged.add(current);
+		return merged;
+	}
+
+	/**
+	 * @return value of a non-empty digit string or -1
+	 */
+	static long parseNumber(String digits) {
+		if (digits.isEmpty() || digits.length() > 18) {
+			return -1;
+		}
+		long value = 0;
+		for (int i = 0; i < digits.length(); i++) {
+			char c = digits.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+}
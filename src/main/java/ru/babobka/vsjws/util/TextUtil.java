@@ -30,4 +30,12 @@ public interface TextUtil {
 		}
 	}
 
+	public static long tryParseLong(String value, long defaultValue) {
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException nfe) {
+			return defaultValue;
+		}
+	}
+
 }
@@ -0,0 +1,30 @@
+package ru.babobka.vsjws.webcontroller;
+
+import ru.babobka.vsjws.constant.ContentType;
+import ru.babobka.vsjws.metrics.ServerMetrics;
+import ru.babobka.vsjws.model.HttpRequest;
+import ru.babobka.vsjws.model.HttpResponse;
+import ru.babobka.vsjws.model.HttpResponse.ResponseCode;
+import ru.babobka.vsjws.runnable.WebController;
+
+/**
+ * Answers with server metrics in the Prometheus text format. Add a filter to
+ * keep them from the public.
+ */
+public class MetricsController extends WebController {
+
+	private final ServerMetrics metrics;
+
+	public MetricsController(ServerMetrics metrics) {
+		if (metrics == null) {
+			throw new IllegalArgumentException("Metrics are null");
+		}
+		this.metrics = metrics;
+	}
+
+	@Override
+	public HttpResponse onGet(HttpRequest request) {
+		return HttpResponse.textResponse(metrics.toPrometheusText(), ResponseCode.OK, ContentType.PROMETHEUS);
+	}
+
+}
@@ -0,0 +1,51 @@
+package ru.babobka.vsjws.webcontroller;
+
+import java.io.File;
+import java.io.IOException;
+
+import ru.babobka.vsjws.model.HttpRequest;
+import ru.babobka.vsjws.model.HttpResponse;
+import ru.babobka.vsjws.runnable.WebController;
+
+/**
+ * Serves files of a directory. Must be mounted on a route that ends with a
+ * wildcard, the wildcard is the file path inside the directory.
+ */
+public class StaticDirectoryController extends WebController {
+
+	private static final String INDEX_FILE = "index.html";
+
+	private final File directory;
+
+	private final String canonicalPath;
+
+	public StaticDirectoryController(File directory) throws IOException {
+		if (!directory.isDirectory()) {
+			throw new IllegalArgumentException("'" + directory + "' is not a directory");
+		}
+		this.directory = directory;
+		this.canonicalPath = directory.getCanonicalPath() + File.separator;
+	}
+
+	@Override
+	public HttpResponse onGet(HttpRequest request) throws IOException {
+		String path = request.getPathParams().getWildcard();
+		if (path == null) {
+			return HttpResponse.NOT_FOUND_RESPONSE;
+		}
+		File file = new File(directory, path);
+		if (file.isDirectory()) {
+			file = new File(file, INDEX_FILE);
+		}
+		// Paths like '../' must not leave the directory
+		if (!file.isFile() || !file.getCanonicalPath().startsWith(canonicalPath)) {
+			return HttpResponse.NOT_FOUND_RESPONSE;
+		}
+		return HttpResponse.fileResponse(file);
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+}
@@ -1,26 +1,45 @@
 package ru.babobka.vsjws.webcontroller;
 
 import java.io.IOException;
-import java.io.InputStream;
 
+import ru.babobka.vsjws.cache.CachedResource;
+import ru.babobka.vsjws.cache.StaticResourceCache;
 import ru.babobka.vsjws.model.HttpRequest;
 import ru.babobka.vsjws.model.HttpResponse;
 import ru.babobka.vsjws.runnable.WebController;
+import ru.babobka.vsjws.util.HttpUtil;
 
 public class StaticResourcesController extends WebController {
 
+	private final StaticResourceCache cache;
+
+	public StaticResourcesController() {
+		this(new StaticResourceCache());
+	}
+
+	public StaticResourcesController(StaticResourceCache cache) {
+		this.cache = cache;
+	}
+
 	@Override
 	public HttpResponse onGet(HttpRequest request) throws IOException {
-		String uri = request.getUri();
+		String uri = HttpUtil.cleanUri(request.getUri());
 		//Remove first slash
 		String fileName = uri.substring(1);
-		InputStream is = Thread.currentThread().getContextClassLoader().getResourceAsStream(fileName);
-		if (is != null) {
-			return HttpResponse.resourceResponse(is);
+		if (fileName.contains("..")) {
+			return HttpResponse.NOT_FOUND_RESPONSE;
+		}
+		CachedResource resource = cache.get(fileName);
+		if (resource != null) {
+			return resource.toResponse();
 		} else {
 			return HttpResponse.NOT_FOUND_RESPONSE;
 		}
 
 	}
 
+	public StaticResourceCache getCache() {
+		return cache;
+	}
+
 }
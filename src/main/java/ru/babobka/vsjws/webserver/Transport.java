@@ -0,0 +1,19 @@
+package ru.babobka.vsjws.webserver;
+
+/**
+ * The way a web server talks to its clients
+ */
+public enum Transport {
+
+	/**
+	 * Every connection occupies a worker thread while it is open
+	 */
+	BLOCKING,
+
+	/**
+	 * Connections are served by selector threads. Worker threads get fully
+	 * read requests only.
+	 */
+	NIO
+
+}
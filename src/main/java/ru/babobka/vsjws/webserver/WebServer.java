@@ -1,22 +1,40 @@
 package ru.babobka.vsjws.webserver;
 
+import ru.babobka.vsjws.cache.StaticResourceCache;
 import ru.babobka.vsjws.constant.RegularExpressions;
 import ru.babobka.vsjws.listener.OnExceptionListener;
 import ru.babobka.vsjws.listener.OnServerStartListener;
+import ru.babobka.vsjws.logger.AccessLog;
 import ru.babobka.vsjws.logger.SimpleLogger;
-
-import ru.babobka.vsjws.model.HttpSession;
+import ru.babobka.vsjws.metrics.ServerMetrics;
+
+import ru.babobka.vsjws.model.MultipartConfig;
+import ru.babobka.vsjws.nio.NioTransport;
+import ru.babobka.vsjws.router.Router;
+import ru.babobka.vsjws.runnable.AdmissionQueue;
+import ru.babobka.vsjws.runnable.RequestProcessor;
+import ru.babobka.vsjws.runnable.ResponseCompressor;
 import ru.babobka.vsjws.runnable.SocketProcessorRunnable;
 import ru.babobka.vsjws.runnable.WebController;
+import ru.babobka.vsjws.session.LruSessionStore;
+import ru.babobka.vsjws.session.SessionStore;
+import ru.babobka.vsjws.util.ExecutorUtil;
 import ru.babobka.vsjws.util.TextUtil;
+import ru.babobka.vsjws.webcontroller.MetricsController;
+import ru.babobka.vsjws.webcontroller.StaticDirectoryController;
 
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.logging.Level;
 
 /**
@@ -24,14 +42,14 @@ import java.util.logging.Level;
  */
 public class WebServer extends Thread {
 
-	private final Map<String, WebController> controllerMap = new ConcurrentHashMap<>();
-
 	private final Map<String, OnExceptionListener> exceptionListenerMap = new ConcurrentHashMap<>();
 
 	private final String name;
 
 	private volatile OnServerStartListener onServerStartListener;
 
+	private final ServerSocketChannel ssc;
+
 	private final ServerSocket ss;
 
 	private static final int DEFAULT_SESSION_TIME_OUT_SEC = 900;
@@ -46,7 +64,25 @@ public class WebServer extends Thread {
 
 	private static final int BACKLOG = 25;
 
-	private final HttpSession httpSession;
+	private static final int DEFAULT_KEEP_ALIVE_TIMEOUT_MILLIS = 5000;
+
+	private static final int DEFAULT_MAX_REQUESTS_PER_CONNECTION = 100;
+
+	private volatile int keepAliveTimeoutMillis = DEFAULT_KEEP_ALIVE_TIMEOUT_MILLIS;
+
+	private volatile int maxRequestsPerConnection = DEFAULT_MAX_REQUESTS_PER_CONNECTION;
+
+	private static final int DEFAULT_MAX_QUEUE_DEPTH = 1000;
+
+	private static final long DEFAULT_QUEUE_DEADLINE_MILLIS = 5000;
+
+	private static final int DEFAULT_RETRY_AFTER_SECONDS = 1;
+
+	private volatile Transport transport = Transport.BLOCKING;
+
+	private volatile int eventLoopCount = Runtime.getRuntime().availableProcessors();
+
+	private volatile NioTransport nioTransport;
 
 	private final Integer sessionTimeOutSeconds;
 
@@ -56,6 +92,11 @@ public class WebServer extends Thread {
 
 	private final ExecutorService threadPool;
 
+	private final RequestProcessor requestProcessor;
+
+	private final AdmissionQueue admissionQueue = new AdmissionQueue(DEFAULT_MAX_QUEUE_DEPTH,
+			DEFAULT_QUEUE_DEADLINE_MILLIS, DEFAULT_RETRY_AFTER_SECONDS);
+
 	private final int port;
 
 	public WebServer(String name, int port, String logFolder) throws IOException {
@@ -64,6 +105,20 @@ public class WebServer extends Thread {
 
 	public WebServer(String name, int port, Integer sessionTimeOutSeconds, String logFolder, boolean debugMode)
 			throws IOException {
+		this(name, port, sessionTimeOutSeconds, logFolder, debugMode, Executors.newFixedThreadPool(THREAD_POOL_SIZE));
+	}
+
+	/**
+	 * Creates a web server that runs requests on a given executor. The executor
+	 * is shut down with the server. Use
+	 * {@link ExecutorUtil#newVirtualThreadExecutor()} to serve every request
+	 * on its own virtual thread.
+	 */
+	public WebServer(String name, int port, Integer sessionTimeOutSeconds, String logFolder, boolean debugMode,
+			ExecutorService threadPool) throws IOException {
+		if (threadPool == null) {
+			throw new IllegalArgumentException("Thread pool is null");
+		}
 		if (port < 0 || port > MAX_PORT) {
 			throw new IllegalArgumentException("Port must be in range [0;" + MAX_PORT + ")");
 		}
@@ -86,31 +141,71 @@ public class WebServer extends Thread {
 		this.logFolder = logFolder;
 		this.port = port;
 		this.debugMode = debugMode;
-		if (sessionTimeOutSeconds == null) {
-			this.httpSession = new HttpSession(DEFAULT_SESSION_TIME_OUT_SEC);
-		} else {
-			this.httpSession = new HttpSession(sessionTimeOutSeconds);
-		}
+		SessionStore sessionStore = new LruSessionStore(LruSessionStore.DEFAULT_MAX_SESSIONS,
+				sessionTimeOutSeconds != null ? sessionTimeOutSeconds : DEFAULT_SESSION_TIME_OUT_SEC);
 
 		logger.log("Web server name:\t" + getFullName());
 		logger.log("Web server log folder:\t" + logFolder);
 		if (debugMode) {
 			logger.log(Level.WARNING, "Debug mode is on");
 		}
-		threadPool = Executors.newFixedThreadPool(THREAD_POOL_SIZE);
-		this.ss = new ServerSocket(port, BACKLOG);
+		this.threadPool = threadPool;
+		requestProcessor = new RequestProcessor(new Router<WebController>(), sessionStore, logger, exceptionListenerMap,
+				debugMode);
+		addGauges(requestProcessor.getMetrics());
+		this.ssc = ServerSocketChannel.open();
+		this.ss = ssc.socket();
+		ss.bind(new InetSocketAddress(port), BACKLOG);
+	}
+
+	private void addGauges(ServerMetrics metrics) {
+		metrics.addGauge("sessions", "Sessions in the session store", () -> requestProcessor.getSessionStore().size());
+		metrics.addGauge("queue_depth", "Connections or requests waiting for a worker", admissionQueue::getDepth);
+		metrics.addCounter("shed_total", "Connections or requests answered with 503 because of overload",
+				admissionQueue::getShedCount);
+		metrics.addGauge("workers_busy", "Workers running a connection or a request", admissionQueue::getRunning);
+		if (threadPool instanceof ThreadPoolExecutor) {
+			ThreadPoolExecutor pool = (ThreadPoolExecutor) threadPool;
+			metrics.addGauge("workers_max", "Size limit of the worker pool", pool::getMaximumPoolSize);
+		}
+		metrics.addCounter("log_dropped_total", "Server log lines lost because the log queue was full",
+				logger::getDropped);
+		metrics.addCounter("access_log_dropped_total", "Access log lines lost because the log queue was full", () -> {
+			AccessLog accessLog = requestProcessor.getAccessLog();
+			return accessLog != null ? accessLog.getDropped() : 0;
+		});
 	}
 
 	public OnServerStartListener getOnServerStartListener() {
 		return onServerStartListener;
 	}
 
+	/**
+	 * Adds a controller for a route. Routes may have params and a trailing
+	 * wildcard like <code>/users/{id}/orders/*</code>, params are read with
+	 * {@link ru.babobka.vsjws.model.HttpRequest#getPathParam(String)}.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the route is malformed or already taken
+	 */
 	public void addController(String uri, WebController webController) {
-		if (uri.startsWith("/")) {
-			controllerMap.put(uri, webController);
-		} else {
-			controllerMap.put("/" + uri, webController);
-		}
+		requestProcessor.addController(uri, webController);
+	}
+
+	/**
+	 * Serves {@link #getMetrics()} in the Prometheus text format under a path
+	 * like <code>/metrics</code>
+	 */
+	public void addMetricsController(String route) {
+		requestProcessor.addController(route, new MetricsController(getMetrics()));
+	}
+
+	/**
+	 * Serves files of a directory under a path like <code>/files</code>
+	 */
+	public void addStaticDirectory(String mountPath, File directory) throws IOException {
+		String route = mountPath.endsWith("/") ? mountPath + "*" : mountPath + "/*";
+		requestProcessor.addController(route, new StaticDirectoryController(directory));
 	}
 
 	public int getSessionTimeOutSeconds() {
@@ -130,38 +225,84 @@ public class WebServer extends Thread {
 				listener.onStart(name, port);
 			}
 
-			while (!Thread.currentThread().isInterrupted()) {
-				try {
-					Socket s = ss.accept();
-					s.setSoTimeout(SOCKET_READ_TIMEOUT_MILLIS);
-					threadPool.execute(new SocketProcessorRunnable(s, controllerMap, httpSession, logger,
-							exceptionListenerMap, debugMode));
-				} catch (IOException e) {
-					if (!ss.isClosed()) {
-						logger.log(e);
-					} else {
-						threadPool.shutdownNow();
-						break;
-					}
-				}
-
+			if (transport == Transport.NIO) {
+				runNio();
+			} else {
+				runBlocking();
 			}
 		} finally {
 			clear();
 
 		}
 		logger.log("Server " + getFullName() + " is done");
+		try {
+			logger.close();
+		} catch (IOException e) {
+			// Nowhere to log it
+		}
+	}
+
+	private void runBlocking() {
+		while (!Thread.currentThread().isInterrupted()) {
+			try {
+				Socket s = ss.accept();
+				s.setSoTimeout(SOCKET_READ_TIMEOUT_MILLIS);
+				SocketProcessorRunnable runnable = new SocketProcessorRunnable(s, requestProcessor,
+						keepAliveTimeoutMillis, maxRequestsPerConnection, admissionQueue);
+				admissionQueue.submit(threadPool, runnable,
+						() -> runnable.reject(admissionQueue.createRejectionResponse()));
+			} catch (IOException e) {
+				if (!ss.isClosed()) {
+					logger.log(e);
+				} else {
+					threadPool.shutdownNow();
+					break;
+				}
+			}
+
+		}
+	}
+
+	private void runNio() {
+		try {
+			nioTransport = new NioTransport(ssc, threadPool, requestProcessor, admissionQueue, eventLoopCount,
+					SOCKET_READ_TIMEOUT_MILLIS, keepAliveTimeoutMillis, maxRequestsPerConnection);
+		} catch (IOException e) {
+			logger.log(e);
+			return;
+		}
+		nioTransport.run();
 	}
 
 	private void clear() {
 		threadPool.shutdownNow();
+		NioTransport currentNioTransport = nioTransport;
+		if (currentNioTransport != null) {
+			currentNioTransport.close();
+		}
 		try {
 			ss.close();
 		} catch (IOException e) {
 			logger.log(e);
 		}
-		controllerMap.clear();
+		requestProcessor.getRouter().clear();
 		exceptionListenerMap.clear();
+		SessionStore sessionStore = requestProcessor.getSessionStore();
+		if (sessionStore instanceof Closeable) {
+			try {
+				((Closeable) sessionStore).close();
+			} catch (IOException e) {
+				logger.log(e);
+			}
+		}
+		AccessLog accessLog = requestProcessor.getAccessLog();
+		if (accessLog != null) {
+			try {
+				accessLog.close();
+			} catch (IOException e) {
+				logger.log(e);
+			}
+		}
 	}
 
 	@Override
@@ -179,8 +320,42 @@ public class WebServer extends Thread {
 		return TextUtil.beautifyServerName(name, port);
 	}
 
-	public HttpSession getHttpSession() {
-		return httpSession;
+	public SessionStore getSessionStore() {
+		return requestProcessor.getSessionStore();
+	}
+
+	/**
+	 * Replaces the default store, which keeps up to
+	 * {@link LruSessionStore#DEFAULT_MAX_SESSIONS} sessions in memory. Should
+	 * be called before the server is started. A closeable store is closed when
+	 * the server stops.
+	 */
+	public void setSessionStore(SessionStore sessionStore) {
+		requestProcessor.setSessionStore(sessionStore);
+	}
+
+	/**
+	 * @return access log or null if requests are not logged
+	 */
+	public AccessLog getAccessLog() {
+		return requestProcessor.getAccessLog();
+	}
+
+	/**
+	 * Logs every answered request, like
+	 * <code>new AccessLog(new File(getLogFolder()), "access", Format.COMBINED)</code>.
+	 * The access log is closed when the server stops.
+	 */
+	public void setAccessLog(AccessLog accessLog) {
+		requestProcessor.setAccessLog(accessLog);
+	}
+
+	/**
+	 * @return request counts, latencies and gauges of worker pool, queue,
+	 *         connections and sessions
+	 */
+	public ServerMetrics getMetrics() {
+		return requestProcessor.getMetrics();
 	}
 
 	public SimpleLogger getLogger() {
@@ -193,6 +368,187 @@ public class WebServer extends Thread {
 
 	public void setDebugMode(boolean debugMode) {
 		this.debugMode = debugMode;
+		requestProcessor.setDebugMode(debugMode);
+	}
+
+	public boolean isAutoETag() {
+		return requestProcessor.isAutoETag();
+	}
+
+	/**
+	 * Makes controller responses carry an ETag computed from their content.
+	 * Files and static resources always have validators.
+	 */
+	public void setAutoETag(boolean autoETag) {
+		requestProcessor.setAutoETag(autoETag);
+	}
+
+	public boolean isCompressionEnabled() {
+		return requestProcessor.getCompressor() != null;
+	}
+
+	/**
+	 * Turns on gzip for text, JSON and XML responses of clients that accept
+	 * it. Bodies shorter than {@link #setCompressionThreshold(int)} are sent
+	 * as is.
+	 */
+	public void setCompressionEnabled(boolean compressionEnabled) {
+		if (!compressionEnabled) {
+			requestProcessor.setCompressor(null);
+		} else if (requestProcessor.getCompressor() == null) {
+			requestProcessor.setCompressor(new ResponseCompressor());
+		}
+	}
+
+	public void setCompressionThreshold(int threshold) {
+		if (requestProcessor.getCompressor() == null) {
+			throw new IllegalStateException("Compression is not enabled");
+		}
+		requestProcessor.getCompressor().setThreshold(threshold);
+	}
+
+	public long getMaxRequestBodySize() {
+		return requestProcessor.getMaxBodySize();
+	}
+
+	/**
+	 * Requests with bigger bodies are answered with 413. Affects connections
+	 * opened after the call. NIO transport keeps whole bodies in memory, so
+	 * the limit must fit the heap.
+	 */
+	public void setMaxRequestBodySize(long maxRequestBodySize) {
+		requestProcessor.setMaxBodySize(maxRequestBodySize);
+	}
+
+	public MultipartConfig getMultipartConfig() {
+		return requestProcessor.getMultipartConfig();
+	}
+
+	/**
+	 * Sets limits of multipart/form-data uploads. Uploads as a whole are
+	 * limited by {@link #setMaxRequestBodySize(long)} as well.
+	 */
+	public void setMultipartConfig(MultipartConfig multipartConfig) {
+		requestProcessor.setMultipartConfig(multipartConfig);
+	}
+
+	public long getRequestBodyStreamingThreshold() {
+		return requestProcessor.getStreamingThreshold();
+	}
+
+	/**
+	 * Bodies bigger than the threshold are not buffered by the blocking
+	 * transport. Controller reads them from the socket through
+	 * {@link ru.babobka.vsjws.model.HttpRequest#getBodyStream()}.
+	 */
+	public void setRequestBodyStreamingThreshold(long threshold) {
+		requestProcessor.setStreamingThreshold(threshold);
+	}
+
+	public Transport getTransport() {
+		return transport;
+	}
+
+	/**
+	 * Chooses the transport. Must be called before the server is started.
+	 */
+	public void setTransport(Transport transport) {
+		if (transport == null) {
+			throw new IllegalArgumentException("Transport is null");
+		}
+		this.transport = transport;
+	}
+
+	public int getEventLoopCount() {
+		return eventLoopCount;
+	}
+
+	/**
+	 * Sets number of selector threads used by {@link Transport#NIO}
+	 */
+	public void setEventLoopCount(int eventLoopCount) {
+		if (eventLoopCount <= 0) {
+			throw new IllegalArgumentException("Event loop count must be > 0");
+		}
+		this.eventLoopCount = eventLoopCount;
+	}
+
+	public int getKeepAliveTimeoutMillis() {
+		return keepAliveTimeoutMillis;
+	}
+
+	/**
+	 * Sets how long an idle persistent connection waits for the next request.
+	 * {@link Transport#BLOCKING} keeps a worker thread for every waiting
+	 * connection, so it closes idle connections as soon as new ones wait for a
+	 * worker.
+	 */
+	public void setKeepAliveTimeoutMillis(int keepAliveTimeoutMillis) {
+		if (keepAliveTimeoutMillis <= 0) {
+			throw new IllegalArgumentException("Keep-alive time out must be > 0");
+		}
+		this.keepAliveTimeoutMillis = keepAliveTimeoutMillis;
+	}
+
+	public int getMaxRequestsPerConnection() {
+		return maxRequestsPerConnection;
+	}
+
+	/**
+	 * Sets how many requests may be served by a single connection. 1 turns
+	 * keep-alive off.
+	 */
+	public void setMaxRequestsPerConnection(int maxRequestsPerConnection) {
+		if (maxRequestsPerConnection <= 0) {
+			throw new IllegalArgumentException("Max requests per connection must be > 0");
+		}
+		this.maxRequestsPerConnection = maxRequestsPerConnection;
+	}
+
+	/**
+	 * Sets how many accepted connections (requests for {@link Transport#NIO})
+	 * may wait for a free worker. Others are answered with 503.
+	 */
+	public void setMaxQueueDepth(int maxQueueDepth) {
+		admissionQueue.setMaxDepth(maxQueueDepth);
+	}
+
+	/**
+	 * Sets how long a queued connection may wait for a free worker before it
+	 * is answered with 503
+	 */
+	public void setQueueDeadlineMillis(long queueDeadlineMillis) {
+		admissionQueue.setDeadlineMillis(queueDeadlineMillis);
+	}
+
+	/**
+	 * Sets 'Retry-After' value of 503 responses given on overload
+	 */
+	public void setRetryAfterSeconds(int retryAfterSeconds) {
+		admissionQueue.setRetryAfterSeconds(retryAfterSeconds);
+	}
+
+	/**
+	 * @return number of connections or requests answered with 503 because of
+	 *         overload
+	 */
+	public long getShedRequestCount() {
+		return admissionQueue.getShedCount();
+	}
+
+	public AdmissionQueue getAdmissionQueue() {
+		return admissionQueue;
+	}
+
+	/**
+	 * Sets memory budget of the cache that holds /web-content resources
+	 */
+	public void setStaticResourceCacheSize(long maxBytes) {
+		getStaticResourceCache().setMaxBytes(maxBytes);
+	}
+
+	public StaticResourceCache getStaticResourceCache() {
+		return requestProcessor.getStaticResourcesController().getCache();
 	}
 
 	public Map<String, OnExceptionListener> addExceptionListener(Class<? extends Exception> exceptionClass,
@@ -0,0 +1,53 @@
+package ru.babobka.vsjws.cache;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class StaticResourceCacheTest {
+
+	@Test
+	public void testGet() throws IOException {
+		StaticResourceCache cache = new StaticResourceCache();
+		CachedResource resource = cache.get("test.txt");
+		assertNotNull(resource);
+		assertEquals("text/plain", resource.getContentType());
+		assertTrue(resource.getETag().startsWith("\""));
+		assertSame(resource, cache.get("test.txt"));
+		assertEquals(resource.getLength(), cache.getSize());
+	}
+
+	@Test
+	public void testNoResource() throws IOException {
+		StaticResourceCache cache = new StaticResourceCache();
+		assertNull(cache.get("no-such-resource.txt"));
+		assertEquals(0, cache.getCount());
+	}
+
+	@Test
+	public void testEviction() throws IOException {
+		StaticResourceCache cache = new StaticResourceCache();
+		cache.get("test.txt");
+		cache.setMaxBytes(0);
+		assertEquals(0, cache.getCount());
+		assertEquals(0, cache.getSize());
+	}
+
+	@Test
+	public void testTooBigResource() throws IOException {
+		StaticResourceCache cache = new StaticResourceCache(1024, 1);
+		assertNotNull(cache.get("test.txt"));
+		assertEquals(0, cache.getCount());
+	}
+
+	@Test
+	public void testResponseSharesContent() throws IOException {
+		StaticResourceCache cache = new StaticResourceCache();
+		CachedResource resource = cache.get("test.txt");
+		assertEquals(resource.getLength(), resource.toResponse().getContentBuffer().remaining());
+		assertEquals(resource.getLength(), resource.toResponse().getContentLength());
+	}
+
+}
@@ -0,0 +1,49 @@
+package ru.babobka.vsjws.io;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class ChunkedOutputStreamTest {
+
+	@Test
+	public void testChunks() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		ChunkedOutputStream chunked = new ChunkedOutputStream(os, 4);
+		chunked.write("abcdef".getBytes(StandardCharsets.US_ASCII));
+		chunked.flush();
+		chunked.write('g');
+		chunked.close();
+		assertEquals("4\r\nabcd\r\n2\r\nef\r\n1\r\ng\r\n0\r\n\r\n", os.toString("US-ASCII"));
+	}
+
+	@Test
+	public void testEmptyBody() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		ChunkedOutputStream chunked = new ChunkedOutputStream(os);
+		chunked.flush();
+		chunked.finish();
+		assertEquals("0\r\n\r\n", os.toString("US-ASCII"));
+	}
+
+	@Test
+	public void testHexSize() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		ChunkedOutputStream chunked = new ChunkedOutputStream(os, 300);
+		chunked.write(new byte[300]);
+		chunked.flush();
+		assertTrue(os.toString("US-ASCII").startsWith("12c\r\n"));
+	}
+
+	@Test(expected = IOException.class)
+	public void testWriteAfterFinish() throws IOException {
+		ChunkedOutputStream chunked = new ChunkedOutputStream(new ByteArrayOutputStream());
+		chunked.finish();
+		chunked.write(1);
+	}
+
+}
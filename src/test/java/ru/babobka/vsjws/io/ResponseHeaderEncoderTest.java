@@ -0,0 +1,49 @@
+package ru.babobka.vsjws.io;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import ru.babobka.vsjws.model.HttpResponse;
+
+public class ResponseHeaderEncoderTest {
+
+	private static String encode(HttpResponse response, boolean keepAlive) {
+		ResponseHeaderEncoder encoder = ResponseHeaderEncoder.get().encode(response, keepAlive);
+		return new String(encoder.array(), 0, encoder.length(), StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void testHead() {
+		HttpResponse response = HttpResponse.textResponse("{}", HttpResponse.ResponseCode.OK, "application/json")
+				.addHeader("X-Test", "1").addCookie("a", "1").addCookie("b", "2");
+		String head = encode(response, true);
+		assertTrue(head.startsWith("HTTP/1.1 200 Ok\r\nServer: vsjws\r\nDate: "));
+		assertTrue(head.contains("\r\nContent-Type: application/json\r\nContent-Length: 2\r\n"
+				+ "Connection: keep-alive\r\n"));
+		assertTrue(head.contains("\r\nSet-Cookie: a=1\r\n"));
+		assertTrue(head.contains("\r\nSet-Cookie: b=2\r\n"));
+		assertTrue(head.endsWith("\r\nX-Test: 1\r\n\r\n"));
+	}
+
+	@Test
+	public void testNoContent() {
+		String head = encode(HttpResponse.noContent(), false);
+		assertTrue(head.startsWith("HTTP/1.1 204 No content\r\n"));
+		assertFalse(head.contains("Content-Length"));
+		assertTrue(head.endsWith("Connection: close\r\n\r\n"));
+	}
+
+	@Test
+	public void testReuse() {
+		String first = encode(HttpResponse.textResponse("abcdefghij"), false);
+		String second = encode(HttpResponse.textResponse("abc"), false);
+		assertTrue(first.contains("Content-Length: 10\r\n"));
+		assertTrue(second.contains("Content-Length: 3\r\n"));
+		String date = new String(ResponseHeaderEncoder.getDateLine(), StandardCharsets.US_ASCII);
+		assertTrue(date.matches("Date: \\w{3}, \\d{2} \\w{3} \\d{4} \\d{2}:\\d{2}:\\d{2} GMT\r\n"));
+	}
+
+}
@@ -0,0 +1,70 @@
+package ru.babobka.vsjws.logger;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ru.babobka.vsjws.model.HttpRequest;
+import ru.babobka.vsjws.model.HttpResponse;
+import ru.babobka.vsjws.model.HttpResponse.ResponseCode;
+import ru.babobka.vsjws.model.RawHttpRequest;
+import ru.babobka.vsjws.session.LruSessionStore;
+
+public class AccessLogTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static HttpRequest createRequest() {
+		Map<String, String> headers = new HashMap<>();
+		headers.put("Host", "test");
+		headers.put("User-Agent", "agent \"quoted\"\n");
+		return new HttpRequest(InetAddress.getLoopbackAddress(), new RawHttpRequest("GET /users?id=1 HTTP/1.1",
+				headers, null), new LruSessionStore(10, 60));
+	}
+
+	private List<String> writeLines(AccessLog.Format format, HttpRequest request) throws Exception {
+		AccessLog accessLog = new AccessLog(folder.getRoot(), "access", format);
+		accessLog.log(InetAddress.getLoopbackAddress(), request, HttpResponse.textResponse("hello"), false,
+				System.nanoTime());
+		accessLog.log(InetAddress.getLoopbackAddress(), null,
+				HttpResponse.textResponse("bad", ResponseCode.BAD_REQUEST), true, System.nanoTime());
+		accessLog.close();
+		File[] files = folder.getRoot().listFiles();
+		assertEquals(1, files.length);
+		return Files.readAllLines(files[0].toPath());
+	}
+
+	@Test
+	public void testCombined() throws Exception {
+		HttpRequest request = createRequest();
+		request.getSession().put("user", "test");
+		String sessionId = request.getSessionId();
+		assertNotNull(sessionId);
+		List<String> lines = writeLines(AccessLog.Format.COMBINED, request);
+		assertEquals(2, lines.size());
+		assertTrue(lines.get(0), lines.get(0).matches("127\\.0\\.0\\.1 - - \\[[^\\]]+\\] "
+				+ "\"GET /users\\?id=1 HTTP/1\\.1\" 200 5 \"-\" \"agent \\\\\"quoted\\\\\"\\\\x0a\" \\d+ " + sessionId));
+		assertTrue(lines.get(1), lines.get(1).matches("127\\.0\\.0\\.1 - - \\[[^\\]]+\\] \"-\" 400 - \"-\" \"-\" \\d+ -"));
+	}
+
+	@Test
+	public void testJson() throws Exception {
+		List<String> lines = writeLines(AccessLog.Format.JSON, createRequest());
+		assertEquals(2, lines.size());
+		assertTrue(lines.get(0), lines.get(0).matches("\\{\"time\":\"[^\"]+\",\"address\":\"127\\.0\\.0\\.1\","
+				+ "\"method\":\"GET\",\"uri\":\"/users\\?id=1\",\"status\":200,\"bytes\":5,\"latencyMicros\":\\d+,"
+				+ "\"userAgent\":\"agent \\\\\"quoted\\\\\"\\\\u000a\"\\}"));
+		assertTrue(lines.get(1), lines.get(1).matches(".*\"status\":400,\"bytes\":0,.*"));
+	}
+
+}
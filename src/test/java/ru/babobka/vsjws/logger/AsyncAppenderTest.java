@@ -0,0 +1,93 @@
+package ru.babobka.vsjws.logger;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AsyncAppenderTest {
+
+	private static final int THREADS = 4;
+
+	private static final int EVENTS = 20000;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static void format(Integer event, StringBuilder out) {
+		out.append(event).append('\n');
+	}
+
+	private List<String> readLines() throws IOException {
+		List<String> lines = new ArrayList<>();
+		for (File file : folder.getRoot().listFiles()) {
+			lines.addAll(Files.readAllLines(file.toPath()));
+		}
+		return lines;
+	}
+
+	private static void appendConcurrently(AsyncAppender<Integer> appender) throws InterruptedException {
+		Thread[] threads = new Thread[THREADS];
+		for (int t = 0; t < THREADS; t++) {
+			int offset = t * EVENTS;
+			threads[t] = new Thread(() -> {
+				for (int i = 0; i < EVENTS; i++) {
+					appender.append(offset + i);
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+	}
+
+	@Test
+	public void testBlockingPolicyKeepsEverything() throws Exception {
+		RollingFile file = new RollingFile(folder.getRoot(), "test", 64 * 1024, 0);
+		AsyncAppender<Integer> appender = new AsyncAppender<>("test", file, AsyncAppenderTest::format, 64,
+				AsyncAppender.OverflowPolicy.BLOCK, null);
+		appendConcurrently(appender);
+		appender.close();
+		List<String> lines = readLines();
+		assertEquals(THREADS * EVENTS, lines.size());
+		assertEquals(THREADS * EVENTS, lines.stream().distinct().count());
+		assertEquals(0, appender.getDropped());
+		// Small max size makes the file rotate
+		assertTrue(folder.getRoot().listFiles().length > 1);
+	}
+
+	@Test
+	public void testDropPolicyCountsLostEvents() throws Exception {
+		AsyncAppender<Integer> appender = new AsyncAppender<>("test", new RollingFile(folder.getRoot(), "test"),
+				AsyncAppenderTest::format, 16, AsyncAppender.OverflowPolicy.DROP, null);
+		appendConcurrently(appender);
+		appender.close();
+		assertEquals(THREADS * EVENTS, readLines().size() + appender.getDropped());
+	}
+
+	@Test
+	public void testRingBuffer() {
+		RingBuffer<String> buffer = new RingBuffer<>(3);
+		assertEquals(4, buffer.capacity());
+		for (int lap = 0; lap < 3; lap++) {
+			for (int i = 0; i < 4; i++) {
+				assertTrue(buffer.offer("e" + i));
+			}
+			assertFalse(buffer.offer("extra"));
+			for (int i = 0; i < 4; i++) {
+				assertEquals("e" + i, buffer.poll());
+			}
+			assertNull(buffer.poll());
+			assertTrue(buffer.isEmpty());
+		}
+	}
+
+}
@@ -0,0 +1,72 @@
+package ru.babobka.vsjws.metrics;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import ru.babobka.vsjws.metrics.RequestTimer.Phase;
+import ru.babobka.vsjws.model.HttpResponse.ResponseCode;
+
+public class ServerMetricsTest {
+
+	@Test
+	public void testBuckets() {
+		long previousHighest = -1;
+		for (int i = 0; i <= LatencyHistogram.bucketIndex(LatencyHistogram.MAX_MICROS); i++) {
+			long lowest = LatencyHistogram.lowestMicros(i);
+			assertEquals(previousHighest + 1, lowest);
+			assertEquals(i, LatencyHistogram.bucketIndex(lowest));
+			assertEquals(i, LatencyHistogram.bucketIndex(LatencyHistogram.highestMicros(i)));
+			// Error is below 1/16
+			assertTrue(LatencyHistogram.highestMicros(i) - lowest <= lowest / LatencyHistogram.SUB_BUCKETS);
+			previousHighest = LatencyHistogram.highestMicros(i);
+		}
+		assertEquals(LatencyHistogram.MAX_MICROS, previousHighest);
+	}
+
+	@Test
+	public void testPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.getValueAtPercentile(99));
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+		}
+		assertEquals(1000, histogram.getCount());
+		assertEquals(500500, histogram.getSumMicros());
+		assertEquals(500, histogram.getValueAtPercentile(50), 500 / LatencyHistogram.SUB_BUCKETS);
+		assertEquals(990, histogram.getValueAtPercentile(99), 990 / LatencyHistogram.SUB_BUCKETS);
+		// Bucket [100;103] starts at the bound, so it is counted under it
+		assertArrayEquals(new long[] { 103, 1000, 1000 }, histogram.getCumulativeCounts(new long[] { 100, 1000 }));
+	}
+
+	@Test
+	public void testPrometheusText() {
+		ServerMetrics metrics = new ServerMetrics();
+		metrics.addGauge("sessions", "Sessions", () -> 7);
+		metrics.connectionOpened();
+		RequestTimer timer = new RequestTimer(System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(3));
+		timer.setRoute("/users/{id}");
+		timer.setResponseCode(ResponseCode.OK);
+		timer.add(Phase.PARSE, TimeUnit.MICROSECONDS.toNanos(20));
+		timer.add(Phase.HANDLER, TimeUnit.MILLISECONDS.toNanos(2));
+		metrics.record(timer);
+		RequestTimer notFound = new RequestTimer();
+		notFound.setResponseCode(ResponseCode.NOT_FOUND);
+		metrics.record(notFound);
+		assertEquals(1, metrics.getRequestCount("/users/{id}", ResponseCode.OK));
+		assertEquals(1, metrics.getRequestCount(ServerMetrics.NO_ROUTE, ResponseCode.NOT_FOUND));
+		assertEquals(0, metrics.getPhaseHistogram(Phase.FILTER).getCount());
+		String text = metrics.toPrometheusText();
+		assertTrue(text.contains("vsjws_requests_total{route=\"/users/{id}\",status=\"200\"} 1\n"));
+		assertTrue(text.contains("vsjws_requests_total{route=\"none\",status=\"404\"} 1\n"));
+		assertTrue(text.contains("vsjws_request_duration_seconds_bucket{route=\"/users/{id}\",le=\"0.002500\"} 0\n"));
+		assertTrue(text.contains("vsjws_request_duration_seconds_bucket{route=\"/users/{id}\",le=\"+Inf\"} 1\n"));
+		assertTrue(text.contains("vsjws_request_phase_duration_seconds_bucket{phase=\"parse\",le=\"0.000100\"} 1\n"));
+		assertTrue(text.contains("vsjws_request_phase_duration_seconds_count{phase=\"handler\"} 1\n"));
+		assertTrue(text.contains("# TYPE vsjws_sessions gauge\nvsjws_sessions 7\n"));
+		assertTrue(text.contains("vsjws_connections 1\n"));
+	}
+
+}
@@ -15,6 +15,8 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.junit.Test;
 
+import ru.babobka.vsjws.util.HttpUtil;
+
 public class HttpResponseTest {
 
 	@Test
@@ -131,4 +133,68 @@ public class HttpResponseTest {
 		assertEquals(responseJSON.length(), array.length);
 	}
 
+	@Test
+	public void testFileResponseValidators() throws IOException {
+		HttpResponse response = HttpResponse.fileResponse(new File("pom.xml"));
+		assertNotNull(response.getHeader(HttpResponse.ETAG_HEADER));
+		assertNotNull(response.getHeader("last-modified"));
+	}
+
+	@Test
+	public void testNotModified() throws IOException {
+		HttpResponse response = HttpResponse.fileResponse(new File("pom.xml"));
+		String eTag = response.getHeader(HttpResponse.ETAG_HEADER);
+		Map<String, String> headers = new HashMap<>();
+		headers.put("Host", "test");
+		headers.put(HttpRequest.IF_NONE_MATCH_HEADER, "\"other\", W/" + eTag);
+		HttpRequest request = new HttpRequest(null, new RawHttpRequest("GET / HTTP/1.1", headers, null), null);
+		assertTrue(HttpUtil.isNotModified(request, response));
+		HttpResponse notModified = response.notModified();
+		assertEquals(HttpResponse.ResponseCode.NOT_MODIFIED, notModified.getResponseCode());
+		assertFalse(notModified.getResponseCode().hasContent());
+		assertEquals(eTag, notModified.getHeader(HttpResponse.ETAG_HEADER));
+		headers.put(HttpRequest.IF_NONE_MATCH_HEADER, "\"other\"");
+		request = new HttpRequest(null, new RawHttpRequest("GET / HTTP/1.1", headers, null), null);
+		assertFalse(HttpUtil.isNotModified(request, response));
+	}
+
+	@Test
+	public void testIfModifiedSince() throws IOException {
+		HttpResponse response = HttpResponse.fileResponse(new File("pom.xml"));
+		Map<String, String> headers = new HashMap<>();
+		headers.put("Host", "test");
+		headers.put(HttpRequest.IF_MODIFIED_SINCE_HEADER, response.getHeader(HttpResponse.LAST_MODIFIED_HEADER));
+		HttpRequest request = new HttpRequest(null, new RawHttpRequest("GET / HTTP/1.1", headers, null), null);
+		assertTrue(HttpUtil.isNotModified(request, response));
+		headers.put(HttpRequest.IF_MODIFIED_SINCE_HEADER, HttpUtil.formatDate(0));
+		request = new HttpRequest(null, new RawHttpRequest("GET / HTTP/1.1", headers, null), null);
+		assertFalse(HttpUtil.isNotModified(request, response));
+	}
+
+	@Test
+	public void testFrozenResponse() {
+		HttpResponse response = HttpResponse.NOT_FOUND_RESPONSE;
+		HttpResponse copy = response.addHeader("X-Test", "1").addCookie("a", "b");
+		assertNotSame(response, copy);
+		assertNull(response.getHeader("X-Test"));
+		assertTrue(response.getCookies().isEmpty());
+		assertEquals("1", copy.getHeader("X-Test"));
+		assertEquals("b", copy.getCookies().get("a"));
+		assertSame(response.getBody(), copy.getBody());
+		HttpResponse mutable = HttpResponse.ok();
+		assertSame(mutable, mutable.addHeader("X-Test", "1"));
+	}
+
+	@Test
+	public void testSharedBody() {
+		byte[] bytes = "abcdef".getBytes();
+		HttpResponse response = HttpResponse.rawResponse(bytes, HttpResponse.ResponseCode.OK, "text/plain");
+		assertEquals(6, response.getContentLength());
+		assertArrayEquals(bytes, response.getContent());
+		HttpResponse copied = new HttpResponse(HttpResponse.ResponseCode.OK, "text/plain", bytes, null, bytes.length);
+		bytes[0] = 'z';
+		assertEquals('z', response.getContentBuffer().get(0));
+		assertEquals('a', copied.getContentBuffer().get(0));
+	}
+
 }
@@ -0,0 +1,62 @@
+package ru.babobka.vsjws.model;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class ResponseBodyTest {
+
+	private final ResponseBody body = ResponseBody.concat(ResponseBody.of("abc".getBytes()),
+			ResponseBody.of(direct("def")),
+			ResponseBody.of("xghix".getBytes(), 1, 3));
+
+	private static ByteBuffer direct(String text) {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(text.length());
+		buffer.put(text.getBytes());
+		buffer.flip();
+		return buffer;
+	}
+
+	@Test
+	public void testConcat() {
+		assertEquals(9, body.length());
+		assertFalse(body.isContiguous());
+		assertArrayEquals("abcdefghi".getBytes(), body.toByteArray());
+		assertEquals(ByteBuffer.wrap("abcdefghi".getBytes()), body.asByteBuffer());
+	}
+
+	@Test
+	public void testSlice() {
+		assertArrayEquals("cdefg".getBytes(), body.slice(2, 5).toByteArray());
+		assertArrayEquals("e".getBytes(), body.slice(4, 1).toByteArray());
+		assertTrue(body.slice(4, 1).isContiguous());
+		assertEquals(0, body.slice(9, 0).length());
+		try {
+			body.slice(5, 5);
+			fail();
+		} catch (IndexOutOfBoundsException e) {
+			// Slice is out of the body
+		}
+	}
+
+	@Test
+	public void testWriteTo() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		body.writeTo(os);
+		body.writeTo(os);
+		assertEquals("abcdefghiabcdefghi", os.toString("UTF-8"));
+	}
+
+	@Test
+	public void testReadOnlyViews() {
+		ByteBuffer[] views = body.buffers();
+		assertTrue(views[0].isReadOnly());
+		views[0].position(3);
+		assertEquals(9, body.toByteArray().length);
+	}
+
+}
@@ -0,0 +1,215 @@
+package ru.babobka.vsjws.nio;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ru.babobka.vsjws.logger.SimpleLogger;
+import ru.babobka.vsjws.model.HttpRequest;
+import ru.babobka.vsjws.model.HttpResponse;
+import ru.babobka.vsjws.router.Router;
+import ru.babobka.vsjws.runnable.AdmissionQueue;
+import ru.babobka.vsjws.runnable.RequestProcessor;
+import ru.babobka.vsjws.runnable.WebController;
+import ru.babobka.vsjws.session.LruSessionStore;
+import ru.babobka.vsjws.util.LoopbackClient;
+import ru.babobka.vsjws.util.LoopbackClient.Response;
+
+public class NioTransportTest {
+
+	private static final String REQUEST = "GET /hello HTTP/1.1\r\nHost: test\r\n\r\n";
+
+	private static final int STREAM_SIZE = 64 * 1024 * 1024;
+
+	private static final int STREAM_CHUNK_SIZE = 16 * 1024;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final ExecutorService workers = Executors.newFixedThreadPool(4);
+
+	private final AtomicLong streamed = new AtomicLong();
+
+	private SimpleLogger logger;
+
+	private RequestProcessor requestProcessor;
+
+	private ServerSocketChannel serverChannel;
+
+	private Thread acceptor;
+
+	private File file;
+
+	@Before
+	public void setUp() throws IOException {
+		logger = new SimpleLogger("test", folder.getRoot().getPath(), "test");
+		requestProcessor = new RequestProcessor(new Router<WebController>(), new LruSessionStore(10, 60), logger,
+				new HashMap<>(), false);
+		file = folder.newFile("file.bin");
+		byte[] content = new byte[1024 * 1024 + 17];
+		new Random(1).nextBytes(content);
+		Files.write(file.toPath(), content);
+		requestProcessor.addController("/hello", new WebController() {
+			@Override
+			public HttpResponse onGet(HttpRequest request) {
+				return HttpResponse.textResponse("hello " + request.getUrlParam("n"));
+			}
+		});
+		requestProcessor.addController("/file", new WebController() {
+			@Override
+			public HttpResponse onGet(HttpRequest request) throws IOException {
+				return HttpResponse.fileResponse(file);
+			}
+		});
+		requestProcessor.addController("/stream", new WebController() {
+			@Override
+			public HttpResponse onGet(HttpRequest request) {
+				return HttpResponse.streamResponse(os -> {
+					byte[] chunk = new byte[STREAM_CHUNK_SIZE];
+					for (int i = 0; i < STREAM_SIZE / STREAM_CHUNK_SIZE; i++) {
+						os.write(chunk);
+						streamed.addAndGet(chunk.length);
+					}
+				}, "application/octet-stream");
+			}
+		});
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (serverChannel != null) {
+			serverChannel.close();
+			acceptor.join(5000);
+		}
+		workers.shutdownNow();
+		logger.close();
+	}
+
+	private LoopbackClient start(int readTimeoutMillis, int keepAliveTimeoutMillis) throws IOException {
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		NioTransport transport = new NioTransport(serverChannel, workers, requestProcessor,
+				new AdmissionQueue(100, 5000, 1), 1, readTimeoutMillis, keepAliveTimeoutMillis, 100);
+		acceptor = new Thread(transport::run);
+		acceptor.start();
+		return new LoopbackClient(serverChannel.socket().getLocalPort());
+	}
+
+	private LoopbackClient start() throws IOException {
+		return start(2000, 5000);
+	}
+
+	@Test
+	public void testGet() throws IOException {
+		try (LoopbackClient client = start()) {
+			client.send("GET /hello?n=1 HTTP/1.1\r\nHost: test\r\n\r\n");
+			Response response = client.read();
+			assertEquals(200, response.getStatus());
+			assertEquals("hello 1", response.getText());
+		}
+	}
+
+	@Test
+	public void testPipelinedRequests() throws IOException {
+		try (LoopbackClient client = start()) {
+			client.send("GET /hello?n=1 HTTP/1.1\r\nHost: test\r\n\r\nGET /hello?n=2 HTTP/1.1\r\nHost: test\r\n\r\n");
+			assertEquals("hello 1", client.read().getText());
+			assertEquals("hello 2", client.read().getText());
+			client.send("GET /hello?n=3 HTTP/1.1\r\nHost: test\r\nConnection: close\r\n\r\n");
+			assertEquals("hello 3", client.read().getText());
+			assertTrue(client.isClosedByServer());
+		}
+	}
+
+	@Test
+	public void testFile() throws IOException {
+		try (LoopbackClient client = start()) {
+			client.send("GET /file HTTP/1.1\r\nHost: test\r\n\r\n");
+			Response response = client.read();
+			assertEquals(200, response.getStatus());
+			assertArrayEquals(Files.readAllBytes(file.toPath()), response.getBody());
+			// Connection is still usable after the file
+			client.send(REQUEST);
+			assertEquals(200, client.read().getStatus());
+		}
+	}
+
+	@Test
+	public void testStreamingBackpressure() throws Exception {
+		try (LoopbackClient client = start()) {
+			client.send("GET /stream HTTP/1.1\r\nHost: test\r\n\r\n");
+			// Client does not read, so the worker must stop once socket
+			// buffers and the pending limit are full
+			long stalled = awaitStall();
+			assertTrue("Worker has written " + stalled + " bytes", stalled < STREAM_SIZE / 2);
+			Response response = client.read();
+			assertEquals("chunked", response.getHeader("Transfer-Encoding"));
+			assertEquals(STREAM_SIZE, response.getBody().length);
+			assertEquals(STREAM_SIZE, streamed.get());
+		}
+	}
+
+	private long awaitStall() throws InterruptedException {
+		long previous = -1;
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (System.nanoTime() < deadline) {
+			Thread.sleep(300);
+			long current = streamed.get();
+			if (current > 0 && current == previous) {
+				return current;
+			}
+			previous = current;
+		}
+		fail("Streaming worker is not blocked");
+		return -1;
+	}
+
+	@Test
+	public void testMalformedRequest() throws IOException {
+		try (LoopbackClient client = start()) {
+			client.send("GARBAGE\r\n\r\n");
+			assertEquals(400, client.read().getStatus());
+			assertTrue(client.isClosedByServer());
+		}
+	}
+
+	@Test
+	public void testIdleTimeout() throws IOException {
+		try (LoopbackClient client = start(2000, 200)) {
+			client.send(REQUEST);
+			assertEquals(200, client.read().getStatus());
+			long start = System.nanoTime();
+			assertTrue(client.isClosedByServer());
+			// Time outs are checked once a second
+			assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(2000));
+		}
+	}
+
+	@Test
+	public void testReadTimeout() throws IOException {
+		try (LoopbackClient client = start(300, 10000)) {
+			client.send("GET /hello HTTP/1.1\r\n");
+			long start = System.nanoTime();
+			assertTrue(client.isClosedByServer());
+			assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(2500));
+		}
+	}
+
+}
@@ -0,0 +1,246 @@
+package ru.babobka.vsjws.parser;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import ru.babobka.vsjws.constant.Method;
+import ru.babobka.vsjws.exception.PayloadTooLargeException;
+import ru.babobka.vsjws.model.RawHttpRequest;
+
+public class HttpRequestParserTest {
+
+	private static final String GET_REQUEST = "GET /test?a=b HTTP/1.1\r\nHost: localhost:8080\r\nX-Test:  value \r\n\r\n";
+
+	private static final String POST_REQUEST = "POST /form HTTP/1.1\r\nHost: test\r\nContent-Length: 7\r\n\r\nabc=xyz";
+
+	private static InputStream stream(String text) {
+		return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testGetRequest() throws IOException {
+		HttpRequestParser parser = new HttpRequestParser();
+		assertTrue(parser.readRequest(stream(GET_REQUEST)));
+		assertSame(Method.GET, parser.getMethod());
+		assertEquals("/test?a=b", parser.getUri());
+		assertEquals("HTTP/1.1", parser.getProtocol());
+		assertEquals("localhost:8080", parser.getHeader("Host"));
+		assertEquals("localhost:8080", parser.getHeader("host"));
+		assertEquals("value", parser.getHeader("X-Test"));
+		assertNull(parser.getHeader("X-Absent"));
+		assertEquals(2, parser.getHeaderCount());
+		assertEquals(0, parser.getBodyLength());
+	}
+
+	@Test
+	public void testPostRequest() throws IOException {
+		HttpRequestParser parser = new HttpRequestParser();
+		assertTrue(parser.readRequest(stream(POST_REQUEST)));
+		assertEquals("abc=xyz", parser.getBody());
+		assertEquals(7, parser.getBodyBuffer().remaining());
+	}
+
+	@Test
+	public void testPipelinedRequests() throws IOException {
+		HttpRequestParser parser = new HttpRequestParser();
+		InputStream is = stream(POST_REQUEST + GET_REQUEST);
+		assertTrue(parser.readRequest(is));
+		assertEquals("/form", parser.getUri());
+		parser.reset();
+		assertTrue(parser.readRequest(is));
+		assertEquals("/test?a=b", parser.getUri());
+		parser.reset();
+		assertFalse(parser.readRequest(is));
+	}
+
+	@Test
+	public void testByteByByte() {
+		HttpRequestParser parser = new HttpRequestParser();
+		byte[] bytes = POST_REQUEST.getBytes(StandardCharsets.UTF_8);
+		for (int i = 0; i < bytes.length; i++) {
+			assertFalse(parser.parse());
+			parser.prepareRead().put(bytes[i]);
+		}
+		assertTrue(parser.parse());
+		assertEquals("abc=xyz", parser.getBody());
+	}
+
+	@Test
+	public void testLeadingEmptyLines() throws IOException {
+		HttpRequestParser parser = new HttpRequestParser();
+		assertTrue(parser.readRequest(stream("\r\n\r\n" + GET_REQUEST)));
+		assertSame(Method.GET, parser.getMethod());
+	}
+
+	@Test
+	public void testBigRequest() throws IOException {
+		StringBuilder body = new StringBuilder();
+		for (int i = 0; i < 100000; i++) {
+			body.append('x');
+		}
+		HttpRequestParser parser = new HttpRequestParser();
+		assertTrue(parser.readRequest(stream("PUT / HTTP/1.1\r\nHost: test\r\nContent-Length: 100000\r\n\r\n" + body)));
+		assertEquals(body.toString(), parser.getBody());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBadHeaderLine() throws IOException {
+		new HttpRequestParser().readRequest(stream("GET / HTTP/1.1\r\nHost\r\n\r\n"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBadFirstLine() throws IOException {
+		new HttpRequestParser().readRequest(stream("GET\r\nHost: test\r\n\r\n"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTooLargeHeader() throws IOException {
+		HttpRequestParser parser = new HttpRequestParser(16, 1024);
+		parser.readRequest(stream(GET_REQUEST));
+	}
+
+	@Test(expected = EOFException.class)
+	public void testIncompleteRequest() throws IOException {
+		new HttpRequestParser().readRequest(stream("GET / HTTP/1.1\r\nHost: te"));
+	}
+
+	@Test
+	public void testRequestIsNotAvailableAfterReset() throws IOException {
+		HttpRequestParser parser = new HttpRequestParser();
+		parser.readRequest(stream(GET_REQUEST));
+		RawHttpRequest request = new RawHttpRequest(parser);
+		assertEquals("/test?a=b", request.getUri());
+		parser.reset();
+		// Already decoded parts are still there
+		assertEquals("/test?a=b", request.getUri());
+		try {
+			request.getHeader("Host");
+			fail();
+		} catch (IllegalStateException e) {
+
+		}
+	}
+
+	@Test
+	public void testBodyBufferIsReadOnly() throws IOException {
+		HttpRequestParser parser = new HttpRequestParser();
+		parser.readRequest(stream(POST_REQUEST));
+		ByteBuffer body = parser.getBodyBuffer();
+		assertTrue(body.isReadOnly());
+		assertEquals('a', body.get(0));
+	}
+
+	@Test
+	public void testChunkedRequest() throws IOException {
+		HttpRequestParser parser = new HttpRequestParser();
+		InputStream is = stream("POST /upload HTTP/1.1\r\nHost: test\r\nTransfer-Encoding: chunked\r\n\r\n"
+				+ "3\r\nabc\r\na;ext=1\r\n0123456789\r\n0\r\nX-Trailer: x\r\n\r\n" + GET_REQUEST);
+		assertTrue(parser.readRequest(is));
+		assertTrue(parser.isChunked());
+		assertEquals("abc0123456789", parser.getBody());
+		assertEquals(13, parser.getBodyLength());
+		parser.reset();
+		assertTrue(parser.readRequest(is));
+		assertEquals("/test?a=b", parser.getUri());
+	}
+
+	@Test(expected = PayloadTooLargeException.class)
+	public void testTooLargeBody() throws IOException {
+		new HttpRequestParser(1024, 6).readRequest(stream(POST_REQUEST));
+	}
+
+	@Test(expected = PayloadTooLargeException.class)
+	public void testTooLargeChunkedBody() throws IOException {
+		new HttpRequestParser(1024, 6).readRequest(stream(
+				"POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n4\r\nabcd\r\n4\r\nefgh\r\n0\r\n\r\n"));
+	}
+
+	@Test(expected = PayloadTooLargeException.class)
+	public void testBodyTooLargeToBuffer() throws IOException {
+		new HttpRequestParser(1024, Long.MAX_VALUE)
+				.readRequest(stream("POST / HTTP/1.1\r\nContent-Length: 3000000000\r\n\r\nabc"));
+	}
+
+	@Test(expected = PayloadTooLargeException.class)
+	public void testChunkTooLargeToBuffer() throws IOException {
+		new HttpRequestParser(1024, Long.MAX_VALUE)
+				.readRequest(stream("POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n80000000\r\nabc"));
+	}
+
+	@Test
+	public void testStreamedBodyLargerThanBuffer() throws IOException {
+		HttpRequestParser parser = new HttpRequestParser(1024, Long.MAX_VALUE);
+		parser.setStreamingThreshold(1024);
+		assertTrue(parser.readRequest(stream("POST / HTTP/1.1\r\nContent-Length: 3000000000\r\n\r\nabc")));
+		assertTrue(parser.isBodyStreamed());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testLengthWithTransferEncoding() throws IOException {
+		new HttpRequestParser().readRequest(
+				stream("POST / HTTP/1.1\r\nContent-Length: 3\r\nTransfer-Encoding: chunked\r\n\r\n3\r\nabc\r\n0\r\n\r\n"));
+	}
+
+	@Test
+	public void testEmptyLinesBeforeRequest() throws IOException {
+		HttpRequestParser parser = new HttpRequestParser();
+		assertTrue(parser.readRequest(stream("\r\n\r\n" + GET_REQUEST)));
+		assertEquals("/test?a=b", parser.getUri());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testEndlessEmptyLines() throws IOException {
+		StringBuilder lines = new StringBuilder();
+		for (int i = 0; i < 100000; i++) {
+			lines.append("\r\n");
+		}
+		new HttpRequestParser(1024, HttpRequestParser.DEFAULT_MAX_BODY_SIZE).readRequest(stream(lines.toString()));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBadContentLength() throws IOException {
+		new HttpRequestParser().readRequest(stream("POST / HTTP/1.1\r\nContent-Length: 3x\r\n\r\nabc"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDifferentContentLengths() throws IOException {
+		new HttpRequestParser()
+				.readRequest(stream("POST / HTTP/1.1\r\nContent-Length: 0\r\nContent-Length: 3\r\n\r\nabc"));
+	}
+
+	@Test
+	public void testStreamedBody() throws IOException {
+		HttpRequestParser parser = new HttpRequestParser();
+		parser.setStreamingThreshold(3);
+		InputStream is = stream(POST_REQUEST + GET_REQUEST);
+		assertTrue(parser.readRequest(is));
+		assertTrue(parser.isBodyStreamed());
+		RawHttpRequest request = new RawHttpRequest(parser, is);
+		assertEquals("abc=xyz", request.getBody());
+		assertTrue(parser.isBodyConsumed());
+		parser.reset();
+		assertTrue(parser.readRequest(is));
+		assertEquals("/test?a=b", parser.getUri());
+	}
+
+	@Test
+	public void testUnreadStreamedBodyIsSkipped() throws IOException {
+		HttpRequestParser parser = new HttpRequestParser();
+		parser.setStreamingThreshold(3);
+		InputStream is = stream(POST_REQUEST + GET_REQUEST);
+		assertTrue(parser.readRequest(is));
+		assertTrue(parser.skipBody(is, 1024));
+		parser.reset();
+		assertTrue(parser.readRequest(is));
+		assertEquals("/test?a=b", parser.getUri());
+	}
+
+}
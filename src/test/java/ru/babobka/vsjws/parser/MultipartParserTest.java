@@ -0,0 +1,145 @@
+package ru.babobka.vsjws.parser;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ru.babobka.vsjws.exception.PayloadTooLargeException;
+import ru.babobka.vsjws.model.MultipartConfig;
+import ru.babobka.vsjws.model.MultipartPart;
+
+public class MultipartParserTest {
+
+	private static final String BOUNDARY = "----vsjwsBoundary7MA4YWxk";
+
+	private File tempDir;
+
+	@Before
+	public void setUp() throws IOException {
+		tempDir = Files.createTempDirectory("vsjws-multipart-test").toFile();
+	}
+
+	@After
+	public void tearDown() {
+		for (File file : tempDir.listFiles()) {
+			file.delete();
+		}
+		tempDir.delete();
+	}
+
+	private static byte[] body(byte[] file) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		body.write(("preamble\r\n--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"title\"\r\n\r\n"
+				+ "Hello, world\r\n--" + BOUNDARY + "\r\n"
+				+ "Content-Disposition: form-data; name=\"upload\"; filename=\"C:\\\\docs\\\\a \\\"b\\\".bin\"\r\n"
+				+ "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+		body.write(file);
+		body.write(("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8));
+		return body.toByteArray();
+	}
+
+	private static byte[] file(int size) {
+		byte[] file = new byte[size];
+		for (int i = 0; i < size; i++) {
+			// Line breaks and dashes that look like a delimiter start
+			file[i] = (byte) "\r\n--x".charAt(i % 5);
+		}
+		return file;
+	}
+
+	private MultipartParser parse(byte[] body, MultipartConfig config) throws IOException {
+		MultipartParser parser = new MultipartParser(new ByteArrayInputStream(body), BOUNDARY, config);
+		parser.parse();
+		return parser;
+	}
+
+	@Test
+	public void testFieldsAndSmallFile() throws IOException {
+		byte[] file = file(1000);
+		MultipartParser parser = parse(body(file), new MultipartConfig(4096, 1024, -1, -1, tempDir));
+		assertEquals("Hello, world", parser.getFields().get("title"));
+		assertEquals(1, parser.getParts().size());
+		MultipartPart part = parser.getParts().get(0);
+		assertEquals("upload", part.getName());
+		assertEquals("a \"b\".bin", part.getFileName());
+		assertEquals("application/octet-stream", part.getContentType());
+		assertTrue(part.isInMemory());
+		assertArrayEquals(file, part.getBytes());
+	}
+
+	@Test
+	public void testBigFileIsSpooled() throws IOException {
+		byte[] file = file(200000);
+		MultipartParser parser = parse(body(file), new MultipartConfig(4096, 1024, -1, -1, tempDir));
+		MultipartPart part = parser.getParts().get(0);
+		assertFalse(part.isInMemory());
+		assertEquals(file.length, part.getSize());
+		assertEquals(tempDir, part.getFile().getParentFile());
+		assertArrayEquals(file, part.getBytes());
+		part.delete();
+		assertEquals(0, tempDir.listFiles().length);
+	}
+
+	@Test
+	public void testSlowSource() throws IOException {
+		byte[] file = file(50000);
+		byte[] body = body(file);
+		InputStream oneByteAtATime = new ByteArrayInputStream(body) {
+			@Override
+			public synchronized int read(byte[] b, int off, int len) {
+				return super.read(b, off, Math.min(len, 1));
+			}
+		};
+		MultipartParser parser = new MultipartParser(oneByteAtATime, BOUNDARY,
+				new MultipartConfig(4096, 1024, -1, -1, tempDir));
+		parser.parse();
+		assertEquals("Hello, world", parser.getFields().get("title"));
+		assertArrayEquals(file, parser.getParts().get(0).getBytes());
+	}
+
+	@Test
+	public void testPartLimitDeletesTempFiles() throws IOException {
+		try {
+			parse(body(file(100000)), new MultipartConfig(4096, 1024, 50000, -1, tempDir));
+			fail();
+		} catch (PayloadTooLargeException e) {
+			assertEquals(0, tempDir.listFiles().length);
+		}
+	}
+
+	@Test(expected = PayloadTooLargeException.class)
+	public void testTotalLimit() throws IOException {
+		parse(body(file(1000)), new MultipartConfig(4096, 1024, -1, 1005, tempDir));
+	}
+
+	@Test(expected = PayloadTooLargeException.class)
+	public void testFieldLimit() throws IOException {
+		parse(body(file(1000)), new MultipartConfig(4096, 5, -1, -1, tempDir));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnterminatedBody() throws IOException {
+		byte[] body = body(file(1000));
+		parse(Arrays.copyOf(body, body.length - 10), MultipartConfig.DEFAULT);
+	}
+
+	@Test
+	public void testGetBoundary() {
+		assertEquals("abc", MultipartParser.getBoundary("multipart/form-data; boundary=abc"));
+		assertEquals("a b", MultipartParser.getBoundary("Multipart/Form-Data;charset=utf-8; boundary=\"a b\""));
+		assertNull(MultipartParser.getBoundary("application/x-www-form-urlencoded"));
+		assertNull(MultipartParser.getBoundary(null));
+	}
+
+}
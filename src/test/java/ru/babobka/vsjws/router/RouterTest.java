@@ -0,0 +1,99 @@
+package ru.babobka.vsjws.router;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class RouterTest {
+
+	private Router<String> router;
+
+	private PathParams params;
+
+	@Before
+	public void setUp() {
+		router = new Router<>();
+		router.add("/", "root");
+		router.add("/users", "users");
+		router.add("/users/new", "newUser");
+		router.add("/users/{id}", "user");
+		router.add("/users/{id}/orders/{orderId}", "order");
+		router.add("/users/{userId}/orders/*", "orders");
+		router.add("/static/*", "static");
+		router.add("/use", "use");
+		params = new PathParams();
+	}
+
+	@Test
+	public void testStaticRoutes() {
+		assertEquals("root", router.find("/", params));
+		assertEquals("users", router.find("/users", params));
+		assertEquals("use", router.find("/use?x=/users", params));
+		assertEquals("newUser", router.find("/users/new", params));
+		assertNull(router.find("/user", params));
+		assertNull(router.find("/users/", params));
+		assertNull(router.find("", params));
+	}
+
+	@Test
+	public void testParams() {
+		assertEquals("user", router.find("/users/42?a=b", params));
+		assertEquals("42", params.get("id"));
+		assertEquals("user", router.find("/users/newer", params));
+		assertEquals("newer", params.get("id"));
+		assertEquals("order", router.find("/users/7/orders/a%20b", params));
+		assertEquals("7", params.get("id"));
+		assertEquals("a b", params.get("orderId"));
+		assertEquals(2, params.size());
+		assertNull(params.getWildcard());
+	}
+
+	@Test
+	public void testWildcards() {
+		assertEquals("orders", router.find("/users/7/orders/a/b", params));
+		assertEquals("7", params.get("userId"));
+		assertNull(params.get("id"));
+		assertEquals("a/b", params.getWildcard());
+		assertEquals("static", router.find("/static/", params));
+		assertEquals("", params.getWildcard());
+		assertEquals("static", router.find("/static/css/a.css?v=1", params));
+		assertEquals("css/a.css", params.getWildcard());
+		assertNull(router.find("/static", params));
+	}
+
+	@Test
+	public void testConflicts() {
+		try {
+			router.add("/users/{name}", "other");
+			fail();
+		} catch (IllegalArgumentException e) {
+			// Same route with another param name
+		}
+		try {
+			router.add("/a/b*", "bad");
+			fail();
+		} catch (IllegalArgumentException e) {
+			// Wildcard must be a whole segment
+		}
+	}
+
+	@Test
+	public void testRemove() {
+		assertTrue(router.remove("/users/{x}"));
+		assertEquals("order", router.find("/users/7/orders/1", params));
+		assertNull(router.find("/users/7", params));
+		assertFalse(router.remove("/users/{x}"));
+	}
+
+	@Test
+	public void testManyRoutes() {
+		for (int i = 0; i < 500; i++) {
+			router.add("/api/v1/resource" + i + "/{id}", "resource" + i);
+		}
+		assertEquals("resource123", router.find("/api/v1/resource123/9", params));
+		assertEquals("9", params.get("id"));
+		assertEquals("resource12", router.find("/api/v1/resource12/10", params));
+	}
+
+}
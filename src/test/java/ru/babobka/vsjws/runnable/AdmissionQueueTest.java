@@ -0,0 +1,96 @@
+package ru.babobka.vsjws.runnable;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import ru.babobka.vsjws.model.HttpResponse;
+import ru.babobka.vsjws.model.HttpResponse.ResponseCode;
+
+public class AdmissionQueueTest {
+
+	private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	private final AtomicInteger runCount = new AtomicInteger();
+
+	private final AtomicInteger shedCount = new AtomicInteger();
+
+	@After
+	public void tearDown() {
+		release.countDown();
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Occupies the only worker until the test releases it
+	 */
+	private void blockWorker(AdmissionQueue queue) throws InterruptedException {
+		CountDownLatch started = new CountDownLatch(1);
+		assertTrue(queue.submit(executor, () -> {
+			started.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}, shedCount::incrementAndGet));
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		assertEquals(1, queue.getRunning());
+	}
+
+	private boolean submit(AdmissionQueue queue) {
+		return queue.submit(executor, runCount::incrementAndGet, shedCount::incrementAndGet);
+	}
+
+	@Test
+	public void testMaxDepth() throws Exception {
+		AdmissionQueue queue = new AdmissionQueue(2, 60000, 1);
+		blockWorker(queue);
+		assertTrue(submit(queue));
+		assertTrue(submit(queue));
+		assertEquals(2, queue.getDepth());
+		// Shed on the calling thread
+		assertFalse(submit(queue));
+		assertEquals(1, shedCount.get());
+		assertEquals(1, queue.getShedCount());
+		release.countDown();
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+		assertEquals(2, runCount.get());
+		assertEquals(0, queue.getDepth());
+		assertEquals(0, queue.getRunning());
+	}
+
+	@Test
+	public void testDeadline() throws Exception {
+		AdmissionQueue queue = new AdmissionQueue(10, 50, 1);
+		blockWorker(queue);
+		assertTrue(submit(queue));
+		Thread.sleep(200);
+		release.countDown();
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+		// Waited too long, shed on the worker instead of being run
+		assertEquals(0, runCount.get());
+		assertEquals(1, shedCount.get());
+		assertEquals(1, queue.getShedCount());
+		assertEquals(0, queue.getDepth());
+	}
+
+	@Test
+	public void testRejectionResponse() {
+		HttpResponse response = new AdmissionQueue(10, 1000, 7).createRejectionResponse();
+		assertEquals(ResponseCode.SERVICE_UNAVAILABLE, response.getResponseCode());
+		assertEquals("7", response.getHeader(AdmissionQueue.RETRY_AFTER_HEADER));
+	}
+
+}
@@ -0,0 +1,115 @@
+package ru.babobka.vsjws.runnable;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.tika.io.IOUtils;
+import org.junit.Test;
+
+import ru.babobka.vsjws.constant.ContentType;
+import ru.babobka.vsjws.model.HttpRequest;
+import ru.babobka.vsjws.model.HttpResponse;
+import ru.babobka.vsjws.model.RawHttpRequest;
+
+public class ResponseCompressorTest {
+
+	private static final String TEXT;
+
+	static {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			text.append("{\"key\":\"value\"},");
+		}
+		TEXT = text.toString();
+	}
+
+	private static HttpRequest request(String acceptEncoding) {
+		return request("/", acceptEncoding);
+	}
+
+	private static HttpRequest request(String uri, String acceptEncoding) {
+		Map<String, String> headers = new HashMap<>();
+		headers.put("Host", "test");
+		headers.put(ResponseCompressor.ACCEPT_ENCODING_HEADER, acceptEncoding);
+		return new HttpRequest(null, new RawHttpRequest("GET " + uri + " HTTP/1.1", headers, null), null);
+	}
+
+	@Test
+	public void testAcceptsGzip() {
+		assertTrue(ResponseCompressor.acceptsGzip("gzip, deflate"));
+		assertTrue(ResponseCompressor.acceptsGzip("deflate, *"));
+		assertFalse(ResponseCompressor.acceptsGzip("gzip;q=0, *"));
+		assertFalse(ResponseCompressor.acceptsGzip("identity"));
+		assertFalse(ResponseCompressor.acceptsGzip(""));
+	}
+
+	@Test
+	public void testCompress() throws IOException {
+		ResponseCompressor compressor = new ResponseCompressor();
+		HttpResponse response = HttpResponse.textResponse(TEXT, HttpResponse.ResponseCode.OK, ContentType.JSON)
+				.addHeader(HttpResponse.ETAG_HEADER, "\"abc\"").freeze();
+		HttpResponse compressed = compressor.compress(request("gzip"), response);
+		assertEquals(ResponseCompressor.GZIP, compressed.getHeader(ResponseCompressor.CONTENT_ENCODING_HEADER));
+		assertEquals(ResponseCompressor.ACCEPT_ENCODING_HEADER, compressed.getHeader(ResponseCompressor.VARY_HEADER));
+		assertEquals("\"abc-gzip\"", compressed.getHeader(HttpResponse.ETAG_HEADER));
+		assertTrue(compressed.getContentLength() < response.getContentLength());
+		byte[] plain = IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(compressed.getContent())));
+		assertEquals(TEXT, new String(plain, HttpResponse.MAIN_ENCODING));
+		assertEquals(1, compressor.getVariantCache().getCount());
+		compressor.compress(request("gzip"), response);
+		assertEquals(1, compressor.getVariantCache().getCount());
+	}
+
+	@Test
+	public void testSameETagOfDifferentUris() throws IOException {
+		ResponseCompressor compressor = new ResponseCompressor();
+		String otherText = TEXT.replace("value", "other");
+		HttpResponse first = HttpResponse.textResponse(TEXT, HttpResponse.ResponseCode.OK, ContentType.JSON)
+				.addHeader(HttpResponse.ETAG_HEADER, "\"1\"").freeze();
+		HttpResponse second = HttpResponse.textResponse(otherText, HttpResponse.ResponseCode.OK, ContentType.JSON)
+				.addHeader(HttpResponse.ETAG_HEADER, "\"1\"").freeze();
+		compressor.compress(request("/first", "gzip"), first);
+		HttpResponse compressed = compressor.compress(request("/second", "gzip"), second);
+		byte[] plain = IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(compressed.getContent())));
+		assertEquals(otherText, new String(plain, HttpResponse.MAIN_ENCODING));
+		assertEquals(2, compressor.getVariantCache().getCount());
+	}
+
+	@Test
+	public void testQueryIgnored() throws IOException {
+		ResponseCompressor compressor = new ResponseCompressor();
+		HttpResponse response = HttpResponse.textResponse(TEXT, HttpResponse.ResponseCode.OK, ContentType.JSON)
+				.addHeader(HttpResponse.ETAG_HEADER, "\"1\"").freeze();
+		compressor.compress(request("/style.css?v=1", "gzip"), response);
+		compressor.compress(request("/style.css?v=2", "gzip"), response);
+		assertEquals(1, compressor.getVariantCache().getCount());
+	}
+
+	@Test
+	public void testDynamicNotCached() throws IOException {
+		ResponseCompressor compressor = new ResponseCompressor();
+		HttpResponse response = HttpResponse.textResponse(TEXT, HttpResponse.ResponseCode.OK, ContentType.JSON)
+				.addHeader(HttpResponse.ETAG_HEADER, "\"1\"");
+		HttpResponse compressed = compressor.compress(request("gzip"), response);
+		assertEquals("\"1-gzip\"", compressed.getHeader(HttpResponse.ETAG_HEADER));
+		assertEquals(0, compressor.getVariantCache().getCount());
+	}
+
+	@Test
+	public void testNotCompressed() throws IOException {
+		ResponseCompressor compressor = new ResponseCompressor();
+		HttpResponse response = HttpResponse.textResponse(TEXT, HttpResponse.ResponseCode.OK, ContentType.JSON);
+		assertSame(response, compressor.compress(request("identity"), response));
+		assertNotNull(response.getHeader(ResponseCompressor.VARY_HEADER));
+		HttpResponse small = HttpResponse.textResponse("small");
+		assertSame(small, compressor.compress(request("gzip"), small));
+		HttpResponse binary = HttpResponse.rawResponse(new byte[4096], "image/png");
+		assertSame(binary, compressor.compress(request("gzip"), binary));
+	}
+
+}
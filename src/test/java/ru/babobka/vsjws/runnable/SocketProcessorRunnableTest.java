@@ -0,0 +1,179 @@
+package ru.babobka.vsjws.runnable;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ru.babobka.vsjws.logger.SimpleLogger;
+import ru.babobka.vsjws.model.HttpRequest;
+import ru.babobka.vsjws.model.HttpResponse;
+import ru.babobka.vsjws.model.HttpResponse.ResponseCode;
+import ru.babobka.vsjws.router.Router;
+import ru.babobka.vsjws.session.LruSessionStore;
+import ru.babobka.vsjws.util.LoopbackClient;
+import ru.babobka.vsjws.util.LoopbackClient.Response;
+
+public class SocketProcessorRunnableTest {
+
+	private static final String REQUEST = "GET /hello HTTP/1.1\r\nHost: test\r\n\r\n";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	private ServerSocket serverSocket;
+
+	private SimpleLogger logger;
+
+	private RequestProcessor requestProcessor;
+
+	@Before
+	public void setUp() throws IOException {
+		serverSocket = new ServerSocket(0, 10, InetAddress.getLoopbackAddress());
+		logger = new SimpleLogger("test", folder.getRoot().getPath(), "test");
+		requestProcessor = new RequestProcessor(new Router<WebController>(), new LruSessionStore(10, 60), logger,
+				new HashMap<>(), false);
+		requestProcessor.addController("/hello", new WebController() {
+			@Override
+			public HttpResponse onGet(HttpRequest request) {
+				return HttpResponse.textResponse("hello");
+			}
+		});
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		executor.shutdownNow();
+		serverSocket.close();
+		logger.close();
+	}
+
+	/**
+	 * Serves the next accepted connection on its own thread
+	 */
+	private Future<?> serve(int readTimeoutMillis, int keepAliveTimeoutMillis, int maxRequests,
+			AdmissionQueue admissionQueue) {
+		return executor.submit(() -> {
+			Socket socket = serverSocket.accept();
+			socket.setSoTimeout(readTimeoutMillis);
+			new SocketProcessorRunnable(socket, requestProcessor, keepAliveTimeoutMillis, maxRequests,
+					admissionQueue).run();
+			return null;
+		});
+	}
+
+	private LoopbackClient connect() throws IOException {
+		return new LoopbackClient(serverSocket.getLocalPort());
+	}
+
+	private static void assertHello(Response response) {
+		assertNotNull(response);
+		assertEquals(200, response.getStatus());
+		assertEquals("hello", response.getText());
+	}
+
+	@Test
+	public void testTwoRequests() throws Exception {
+		Future<?> connection = serve(2000, 5000, 100, null);
+		try (LoopbackClient client = connect()) {
+			client.send(REQUEST);
+			assertHello(client.read());
+			client.send(REQUEST);
+			assertHello(client.read());
+		}
+		connection.get(5, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void testConnectionClose() throws Exception {
+		Future<?> connection = serve(2000, 5000, 100, null);
+		try (LoopbackClient client = connect()) {
+			client.send("GET /hello HTTP/1.1\r\nHost: test\r\nConnection: close\r\n\r\n");
+			Response response = client.read();
+			assertHello(response);
+			assertEquals("close", response.getHeader("Connection"));
+			assertTrue(client.isClosedByServer());
+		}
+		connection.get(5, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void testMaxRequests() throws Exception {
+		Future<?> connection = serve(2000, 5000, 2, null);
+		try (LoopbackClient client = connect()) {
+			client.send(REQUEST);
+			assertHello(client.read());
+			client.send(REQUEST);
+			Response response = client.read();
+			assertHello(response);
+			assertEquals("close", response.getHeader("Connection"));
+			assertTrue(client.isClosedByServer());
+		}
+		connection.get(5, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void testIdleTimeout() throws Exception {
+		Future<?> connection = serve(2000, 200, 100, null);
+		try (LoopbackClient client = connect()) {
+			client.send(REQUEST);
+			assertHello(client.read());
+			long start = System.nanoTime();
+			assertTrue(client.isClosedByServer());
+			assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+		}
+		connection.get(5, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void testReadTimeoutAfterFirstByte() throws Exception {
+		Future<?> connection = serve(300, 10000, 100, null);
+		try (LoopbackClient client = connect()) {
+			client.send(REQUEST);
+			assertHello(client.read());
+			// The rest of the request is read with the read time out, not the
+			// keep-alive one
+			client.send("GET /hello HTTP/1.1\r\n");
+			long start = System.nanoTime();
+			assertEquals(ResponseCode.REQUEST_TIMEOUT.getCode(), client.read().getStatus());
+			assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+			assertTrue(client.isClosedByServer());
+		}
+		connection.get(5, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void testIdleConnectionGivesWorkerBack() throws Exception {
+		AdmissionQueue admissionQueue = new AdmissionQueue(10, 5000, 1);
+		Future<?> connection = serve(2000, 10000, 100, admissionQueue);
+		try (LoopbackClient client = connect()) {
+			client.send(REQUEST);
+			assertHello(client.read());
+			// Executor that never runs its tasks keeps a connection waiting
+			admissionQueue.submit(task -> {
+			}, () -> {
+			}, () -> {
+			});
+			long start = System.nanoTime();
+			assertTrue(client.isClosedByServer());
+			assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+		}
+		connection.get(5, TimeUnit.SECONDS);
+	}
+
+}
@@ -0,0 +1,89 @@
+package ru.babobka.vsjws.runnable;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import ru.babobka.vsjws.model.HttpRequest;
+import ru.babobka.vsjws.model.HttpResponse;
+import ru.babobka.vsjws.model.HttpResponse.ResponseCode;
+import ru.babobka.vsjws.model.RawHttpRequest;
+import ru.babobka.vsjws.session.LruSessionStore;
+import ru.babobka.vsjws.webcontroller.WebFilter;
+
+public class WebControllerTest {
+
+	private static HttpRequest request(String method) {
+		Map<String, String> headers = new HashMap<>();
+		headers.put("Host", "localhost");
+		headers.put("Content-Length", "0");
+		RawHttpRequest rawRequest = new RawHttpRequest(method + " /test HTTP/1.1", headers, "");
+		return new HttpRequest(null, rawRequest, new LruSessionStore(10, 60));
+	}
+
+	private static final WebController GET_CONTROLLER = new WebController() {
+		@Override
+		public HttpResponse onGet(HttpRequest request) {
+			return HttpResponse.textResponse("get");
+		}
+	};
+
+	private static String content(HttpResponse response) {
+		return new String(response.getContent(), HttpResponse.MAIN_ENCODING);
+	}
+
+	@Test
+	public void testDispatch() throws Exception {
+		assertEquals("get", content(GET_CONTROLLER.control(request("GET"))));
+		// HEAD falls back to GET
+		assertEquals("get", content(GET_CONTROLLER.control(request("HEAD"))));
+	}
+
+	@Test
+	public void testMethodNotAllowed() throws Exception {
+		HttpResponse response = GET_CONTROLLER.control(request("DELETE"));
+		assertEquals(ResponseCode.METHOD_NOT_ALLOWED, response.getResponseCode());
+		assertEquals("GET, HEAD, OPTIONS", response.getHeader(WebController.ALLOW_HEADER));
+	}
+
+	@Test
+	public void testOptions() throws Exception {
+		HttpResponse response = GET_CONTROLLER.control(request("OPTIONS"));
+		assertEquals(ResponseCode.NO_CONTENT, response.getResponseCode());
+		assertEquals("GET, HEAD, OPTIONS", response.getHeader(WebController.ALLOW_HEADER));
+	}
+
+	@Test
+	public void testFilterOrder() throws Exception {
+		List<String> calls = new ArrayList<>();
+		WebController controller = new WebController() {
+			@Override
+			public HttpResponse onPost(HttpRequest request) {
+				calls.add("post");
+				return HttpResponse.ok();
+			}
+		};
+		for (String name : new String[] { "first", "second" }) {
+			controller.addWebFilter(new WebFilter() {
+				@Override
+				public HttpResponse onFilter(HttpRequest request) {
+					calls.add(name);
+					return null;
+				}
+
+				@Override
+				public void afterFilter(HttpRequest request, HttpResponse response) {
+					calls.add("after " + name);
+				}
+			});
+		}
+		controller.control(request("POST"));
+		assertEquals("[second, first, post, after second, after first]", calls.toString());
+	}
+
+}
@@ -0,0 +1,79 @@
+package ru.babobka.vsjws.session;
+
+import static org.junit.Assert.*;
+
+import java.io.Serializable;
+import java.util.Base64;
+import java.util.Map;
+
+import org.junit.Test;
+
+import ru.babobka.vsjws.exception.SessionTooLargeException;
+
+public class CookieSessionStoreTest {
+
+	private static final byte[] OLD_SECRET = "0123456789abcdef0123456789abcdef".getBytes();
+
+	private static final byte[] NEW_SECRET = "fedcba9876543210fedcba9876543210".getBytes();
+
+	private final CookieSessionStore store = new CookieSessionStore(60, OLD_SECRET);
+
+	private static String issue(SessionStore store, String key, Serializable value) {
+		LazySession session = new LazySession(store, null);
+		session.put(key, value);
+		return session.getCookieValue();
+	}
+
+	@Test
+	public void testRoundTrip() {
+		String cookie = issue(store, "user", "alice");
+		LazySession session = new LazySession(store, cookie);
+		assertEquals("alice", session.get("user"));
+		// Nothing changed, the cookie stays
+		assertNull(session.getCookieValue());
+		session.put("visits", 2);
+		Map<String, Serializable> attributes = store.get(session.getCookieValue());
+		assertEquals("alice", attributes.get("user"));
+		assertEquals(2, attributes.get("visits"));
+	}
+
+	@Test
+	public void testTampering() {
+		String cookie = issue(store, "role", "user");
+		char last = cookie.charAt(cookie.length() / 2);
+		String tampered = cookie.substring(0, cookie.length() / 2) + (last == 'A' ? 'B' : 'A')
+				+ cookie.substring(cookie.length() / 2 + 1);
+		assertNull(store.get(tampered));
+		assertNull(store.get("not a cookie"));
+		assertNull(new CookieSessionStore(60, NEW_SECRET).get(cookie));
+	}
+
+	@Test
+	public void testKeyRotation() {
+		String oldCookie = issue(store, "user", "bob");
+		CookieSessionStore rotated = new CookieSessionStore(60, NEW_SECRET, OLD_SECRET);
+		LazySession session = new LazySession(rotated, oldCookie);
+		assertEquals("bob", session.get("user"));
+		String newCookie = session.getCookieValue();
+		assertNotNull(newCookie);
+		assertNull(store.get(newCookie));
+		assertEquals("bob", new CookieSessionStore(60, NEW_SECRET).get(newCookie).get("user"));
+	}
+
+	@Test
+	public void testEncryption() {
+		CookieSessionStore encrypted = new CookieSessionStore(60, true, NEW_SECRET);
+		String cookie = issue(encrypted, "user", "carol-carol-carol");
+		assertEquals("carol-carol-carol", encrypted.get(cookie).get("user"));
+		String plain = issue(new CookieSessionStore(60, NEW_SECRET), "user", "carol-carol-carol");
+		assertFalse(new String(Base64.getUrlDecoder().decode(cookie)).contains("carol"));
+		assertTrue(new String(Base64.getUrlDecoder().decode(plain)).contains("carol"));
+	}
+
+	@Test(expected = SessionTooLargeException.class)
+	public void testSizeLimit() {
+		store.setMaxCookieLength(100);
+		issue(store, "data", new byte[100]);
+	}
+
+}
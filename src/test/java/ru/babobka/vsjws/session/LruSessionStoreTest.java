@@ -0,0 +1,77 @@
+package ru.babobka.vsjws.session;
+
+import static org.junit.Assert.*;
+
+import java.io.Serializable;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class LruSessionStoreTest {
+
+	@Test
+	public void testCreateAndGet() {
+		LruSessionStore store = new LruSessionStore(10, 60);
+		assertNull(store.get("a"));
+		store.create("a").put("user", "alice");
+		assertEquals("alice", store.get("a").get("user"));
+		assertEquals(1, store.size());
+		store.remove("a");
+		assertNull(store.get("a"));
+	}
+
+	@Test
+	public void testEviction() {
+		LruSessionStore store = new LruSessionStore(4, 60, 1);
+		for (int i = 0; i < 4; i++) {
+			store.create("s" + i);
+		}
+		// Touched session survives, the least recently used one goes
+		assertNotNull(store.get("s0"));
+		store.create("s4");
+		assertEquals(4, store.size());
+		assertNotNull(store.get("s0"));
+		assertNull(store.get("s1"));
+	}
+
+	@Test
+	public void testShardBound() {
+		LruSessionStore store = new LruSessionStore(1000, 60, 16);
+		for (int i = 0; i < 10000; i++) {
+			store.create("session" + i);
+		}
+		assertTrue(store.size() <= 1000 + 16);
+	}
+
+	@Test
+	public void testLazySession() {
+		LruSessionStore store = new LruSessionStore(10, 60);
+		LazySession session = new LazySession(store, "unknown");
+		assertNull(session.get("user"));
+		assertTrue(session.isEmpty());
+		assertNull(session.getId());
+		assertEquals(0, store.size());
+		session.put("user", "bob");
+		String id = session.getCreatedId();
+		assertNotNull(id);
+		assertNotEquals("unknown", id);
+		Map<String, Serializable> attributes = store.get(id);
+		assertEquals("bob", attributes.get("user"));
+
+		LazySession next = new LazySession(store, id);
+		assertEquals("bob", next.get("user"));
+		next.put("count", 1);
+		assertNull(next.getCreatedId());
+		next.invalidate();
+		assertNull(store.get(id));
+	}
+
+	@Test
+	public void testGenerateId() {
+		String id = LazySession.generateId();
+		// 128 bits in base64url without padding
+		assertTrue(id.matches("[A-Za-z0-9_-]{22}"));
+		assertNotEquals(id, LazySession.generateId());
+	}
+
+}
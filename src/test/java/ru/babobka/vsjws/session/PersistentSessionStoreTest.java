@@ -0,0 +1,136 @@
+package ru.babobka.vsjws.session;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PersistentSessionStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Opens a store and waits until its log is indexed
+	 */
+	private static PersistentSessionStore open(File file, int maxSessions) throws IOException {
+		PersistentSessionStore store = new PersistentSessionStore(file, maxSessions, 60);
+		try {
+			assertTrue(store.awaitIndex(5, TimeUnit.SECONDS));
+		} catch (InterruptedException e) {
+			throw new AssertionError(e);
+		}
+		return store;
+	}
+
+	@Test
+	public void testRestart() throws IOException {
+		File file = new File(folder.getRoot(), "sessions.log");
+		PersistentSessionStore store = open(file, 100);
+		Map<String, Serializable> session = store.create("a");
+		session.put("user", "alice");
+		session.put("visits", 3);
+		session.put("roles", new ArrayList<>(Arrays.asList("admin", "user")));
+		store.create("b").put("user", "bob");
+		store.create("c").put("user", "carol");
+		store.remove("c");
+		store.close();
+
+		store = open(file, 100);
+		assertEquals("alice", store.get("a").get("user"));
+		assertEquals(3, store.get("a").get("visits"));
+		assertEquals(Arrays.asList("admin", "user"), store.get("a").get("roles"));
+		assertEquals("bob", store.get("b").get("user"));
+		assertNull(store.get("c"));
+		assertEquals(2, store.size());
+		store.get("b").put("user", "bobby");
+		store.close();
+
+		store = open(file, 100);
+		assertEquals("bobby", store.get("b").get("user"));
+		store.close();
+	}
+
+	@Test
+	public void testRemove() throws IOException {
+		File file = new File(folder.getRoot(), "sessions.log");
+		PersistentSessionStore store = open(file, 1);
+		store.create("a").put("user", "alice");
+		store.create("b").put("user", "bob");
+		store.flush();
+		// Evicted from memory, the saved snapshot must not come back
+		store.remove("a");
+		assertNull(store.get("a"));
+		assertEquals(1, store.size());
+		store.close();
+
+		store = open(file, 1);
+		assertNull(store.get("a"));
+		assertEquals("bob", store.get("b").get("user"));
+		store.close();
+	}
+
+	@Test
+	public void testCompaction() throws IOException {
+		File file = new File(folder.getRoot(), "sessions.log");
+		PersistentSessionStore store = open(file, 10);
+		byte[] value = new byte[1024];
+		for (int i = 0; i < 4000; i++) {
+			store.create("s" + i % 10).put("value", value);
+			if (i % 100 == 0) {
+				store.flush();
+			}
+		}
+		store.close();
+		// Only the latest snapshots of 10 sessions are left
+		assertTrue(file.length() < 1024 * 1024);
+		store = open(file, 10);
+		assertEquals(10, store.size());
+		assertArrayEquals(value, (byte[]) store.get("s5").get("value"));
+		store.close();
+	}
+
+	@Test
+	public void testInterruptedCompaction() throws IOException {
+		File file = new File(folder.getRoot(), "sessions.log");
+		File compactedFile = new File(folder.getRoot(), "sessions.log.compacting");
+		PersistentSessionStore store = open(file, 10);
+		store.create("a").put("user", "alice");
+		store.close();
+		// Crash before the compacted file was moved: the part is dropped
+		Files.write(compactedFile.toPath(), new byte[] { 1, 2, 3 });
+		store = open(file, 10);
+		assertFalse(compactedFile.exists());
+		assertEquals("alice", store.get("a").get("user"));
+		store.close();
+		// Only the compacted file is left: it becomes the log
+		assertTrue(file.renameTo(compactedFile));
+		store = open(file, 10);
+		assertEquals("alice", store.get("a").get("user"));
+		store.close();
+	}
+
+	@Test
+	public void testCodec() {
+		Map<String, Serializable> attributes = new HashMap<>();
+		attributes.put("string", "строка");
+		attributes.put("int", -5);
+		attributes.put("long", Long.MIN_VALUE);
+		attributes.put("double", 0.5);
+		attributes.put("flag", true);
+		attributes.put("none", null);
+		assertEquals(attributes, SessionCodec.decode(SessionCodec.encode(attributes)));
+	}
+
+}
@@ -0,0 +1,178 @@
+package ru.babobka.vsjws.session;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReplicatedSessionStoreTest {
+
+	private static final long WAIT_MILLIS = 5000;
+
+	private final ReplicatedSessionStore[] nodes = new ReplicatedSessionStore[3];
+
+	@Before
+	public void setUp() throws IOException {
+		byte[] secret = "replication secret of 32 bytes..".getBytes();
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i] = new ReplicatedSessionStore(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 100, 60,
+					secret, 10);
+		}
+		for (ReplicatedSessionStore node : nodes) {
+			for (ReplicatedSessionStore peer : nodes) {
+				if (peer != node) {
+					node.addPeer(new InetSocketAddress(InetAddress.getLoopbackAddress(), peer.getPort()));
+				}
+			}
+		}
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		for (ReplicatedSessionStore node : nodes) {
+			node.close();
+		}
+	}
+
+	private static void await(Callable<Boolean> condition) throws Exception {
+		long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+		while (!condition.call()) {
+			if (System.currentTimeMillis() > deadline) {
+				fail("Sessions are not replicated in time");
+			}
+			Thread.sleep(10);
+		}
+	}
+
+	private static Serializable value(ReplicatedSessionStore node, String sessionId, String key) {
+		Map<String, Serializable> session = node.get(sessionId);
+		return session != null ? session.get(key) : null;
+	}
+
+	@Test
+	public void testReplication() throws Exception {
+		nodes[0].create("a").put("user", "alice");
+		await(() -> "alice".equals(value(nodes[1], "a", "user")) && "alice".equals(value(nodes[2], "a", "user")));
+		// Any node may change the session
+		nodes[2].get("a").put("user", "alex");
+		await(() -> "alex".equals(value(nodes[0], "a", "user")) && "alex".equals(value(nodes[1], "a", "user")));
+		nodes[1].remove("a");
+		await(() -> nodes[0].get("a") == null && nodes[2].get("a") == null);
+	}
+
+	@Test
+	public void testVersions() throws Exception {
+		ReplicatedSessionStore node = nodes[0];
+		node.create("b").put("n", 1);
+		Map<String, Serializable> session = node.get("b");
+		session.put("n", 2);
+		// Copy of an older version is ignored
+		node.apply(batch("b", 2, "n", 0));
+		assertEquals(2, node.get("b").get("n"));
+		node.apply(batch("b", 10, "n", 10));
+		assertEquals(10, node.get("b").get("n"));
+	}
+
+	@Test
+	public void testStalledPeer() throws Exception {
+		// Connections are queued by the system but nobody reads them
+		try (ServerSocket stalled = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+			nodes[0].addPeer(new InetSocketAddress(InetAddress.getLoopbackAddress(), stalled.getLocalPort()));
+			Map<String, Serializable> session = nodes[0].create("big");
+			for (int i = 0; i < 20; i++) {
+				int version = i;
+				session.put("value", new byte[2 * 1024 * 1024]);
+				session.put("version", version);
+				await(() -> Integer.valueOf(version).equals(value(nodes[1], "big", "version")));
+			}
+		}
+	}
+
+	@Test
+	public void testForgedBatch() throws Exception {
+		try (Socket socket = connect(nodes[0])) {
+			ByteBuffer batch = batch("forged", 1, "user", 1);
+			DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+			out.writeInt(batch.remaining());
+			out.write(batch.array());
+			out.write(new byte[32]);
+			out.flush();
+			assertTrue(isClosedByNode(socket));
+		}
+		assertNull(nodes[0].get("forged"));
+	}
+
+	@Test
+	public void testConnectionLimit() throws Exception {
+		// Two peers and a spare, some of them taken by the peers themselves
+		List<Socket> sockets = new ArrayList<>();
+		try {
+			int refused = 0;
+			for (int i = 0; i < 4; i++) {
+				sockets.add(connect(nodes[0]));
+			}
+			for (Socket socket : sockets) {
+				if (isClosedByNode(socket)) {
+					refused++;
+				}
+			}
+			assertTrue(refused >= 1);
+		} finally {
+			for (Socket socket : sockets) {
+				socket.close();
+			}
+		}
+	}
+
+	private static Socket connect(ReplicatedSessionStore node) throws IOException {
+		Socket socket = new Socket(InetAddress.getLoopbackAddress(), node.getPort());
+		socket.setSoTimeout(1000);
+		return socket;
+	}
+
+	private static boolean isClosedByNode(Socket socket) throws IOException {
+		try {
+			return socket.getInputStream().read() == -1;
+		} catch (SocketTimeoutException e) {
+			return false;
+		} catch (SocketException e) {
+			// Reset
+			return true;
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testShortSecret() throws IOException {
+		new ReplicatedSessionStore(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 100, 60,
+				"secret".getBytes());
+	}
+
+	private static ByteBuffer batch(String sessionId, long version, String key, int value) {
+		ByteArrayOutputStream batch = new ByteArrayOutputStream();
+		batch.write(1);
+		SessionCodec.writeBytes(batch, sessionId.getBytes());
+		SessionCodec.writeVarLong(batch, version);
+		SessionCodec.writeVarLong(batch, 0);
+		SessionCodec.writeBytes(batch, SessionCodec.encode(Collections.singletonMap(key, value)));
+		return ByteBuffer.wrap(batch.toByteArray());
+	}
+
+}
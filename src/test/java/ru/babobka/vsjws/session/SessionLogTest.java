@@ -0,0 +1,46 @@
+package ru.babobka.vsjws.session;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SessionLogTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testRecover() throws IOException {
+		File file = new File(folder.getRoot(), "sessions.log");
+		SessionLog log = new SessionLog(file);
+		log.append(SessionLog.SNAPSHOT, "a", 1, new byte[] { 1 });
+		int torn = log.append(SessionLog.SNAPSHOT, "b", 2, new byte[] { 2 });
+		log.close();
+		// Payload of the last record is lost in a crash
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.seek(raf.length() - 1);
+			raf.write(3);
+		}
+
+		log = new SessionLog(file);
+		try {
+			// Opening does not read the records
+			log.first();
+			fail("Log is read before it is recovered");
+		} catch (IllegalStateException expected) {
+		}
+		log.recover();
+		int position = log.first();
+		assertEquals("a", log.getSessionId(position));
+		assertEquals(-1, log.next(position));
+		assertEquals(torn, log.append(SessionLog.SNAPSHOT, "c", 3, new byte[0]));
+		log.close();
+	}
+
+}
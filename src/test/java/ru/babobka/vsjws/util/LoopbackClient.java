@@ -0,0 +1,141 @@
+package ru.babobka.vsjws.util;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Raw HTTP/1.1 client for transport tests. Reads responses with a length or
+ * chunked bodies.
+ */
+public class LoopbackClient implements Closeable {
+
+	private static final int READ_TIMEOUT_MILLIS = 5000;
+
+	private final Socket socket;
+
+	private final InputStream in;
+
+	public LoopbackClient(int port) throws IOException {
+		socket = new Socket(InetAddress.getLoopbackAddress(), port);
+		socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+		in = new BufferedInputStream(socket.getInputStream());
+	}
+
+	public void send(String request) throws IOException {
+		socket.getOutputStream().write(request.getBytes(StandardCharsets.ISO_8859_1));
+		socket.getOutputStream().flush();
+	}
+
+	/**
+	 * @return response or null if the server has closed the connection
+	 */
+	public Response read() throws IOException {
+		String statusLine = readLine();
+		if (statusLine == null) {
+			return null;
+		}
+		Response response = new Response(Integer.parseInt(statusLine.split(" ")[1]));
+		String line;
+		while (!(line = readLine()).isEmpty()) {
+			int colon = line.indexOf(':');
+			response.headers.put(line.substring(0, colon).toLowerCase(), line.substring(colon + 1).trim());
+		}
+		String length = response.getHeader("Content-Length");
+		if (length != null) {
+			response.body = readBytes(Integer.parseInt(length));
+		} else if ("chunked".equals(response.getHeader("Transfer-Encoding"))) {
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			int size;
+			while ((size = Integer.parseInt(readLine(), 16)) > 0) {
+				body.write(readBytes(size));
+				readLine();
+			}
+			readLine();
+			response.body = body.toByteArray();
+		} else {
+			response.body = new byte[0];
+		}
+		return response;
+	}
+
+	/**
+	 * @return true if the server closes the connection in time
+	 */
+	public boolean isClosedByServer() throws IOException {
+		return in.read() == -1;
+	}
+
+	private String readLine() throws IOException {
+		StringBuilder line = new StringBuilder();
+		int b;
+		while ((b = in.read()) != '\n') {
+			if (b == -1) {
+				if (line.length() == 0) {
+					return null;
+				}
+				throw new EOFException("Connection has ended in the middle of a line");
+			}
+			line.append((char) b);
+		}
+		int end = line.length() > 0 && line.charAt(line.length() - 1) == '\r' ? line.length() - 1 : line.length();
+		return line.substring(0, end);
+	}
+
+	private byte[] readBytes(int length) throws IOException {
+		byte[] bytes = new byte[length];
+		int read = 0;
+		while (read < length) {
+			int count = in.read(bytes, read, length - read);
+			if (count < 0) {
+				throw new EOFException("Connection has ended in the middle of a body");
+			}
+			read += count;
+		}
+		return bytes;
+	}
+
+	@Override
+	public void close() throws IOException {
+		socket.close();
+	}
+
+	public static final class Response {
+
+		private final int status;
+
+		private final Map<String, String> headers = new HashMap<>();
+
+		private byte[] body;
+
+		Response(int status) {
+			this.status = status;
+		}
+
+		public int getStatus() {
+			return status;
+		}
+
+		public String getHeader(String name) {
+			return headers.get(name.toLowerCase());
+		}
+
+		public byte[] getBody() {
+			return body;
+		}
+
+		public String getText() {
+			return new String(body, StandardCharsets.UTF_8);
+		}
+
+	}
+
+}
@@ -0,0 +1,68 @@
+package ru.babobka.vsjws.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import ru.babobka.vsjws.model.ByteRange;
+import ru.babobka.vsjws.model.HttpRequest;
+import ru.babobka.vsjws.model.HttpResponse;
+import ru.babobka.vsjws.model.HttpResponse.ResponseCode;
+import ru.babobka.vsjws.model.RawHttpRequest;
+
+public class RangeUtilTest {
+
+	private static HttpRequest request(String range) {
+		Map<String, String> headers = new HashMap<>();
+		headers.put("Host", "test");
+		headers.put(RangeUtil.RANGE_HEADER, range);
+		return new HttpRequest(null, new RawHttpRequest("GET / HTTP/1.1", headers, null), null);
+	}
+
+	@Test
+	public void testParseRanges() {
+		assertEquals(Arrays.asList(new ByteRange(0, 9)), RangeUtil.parseRanges("bytes=0-9", 100));
+		assertEquals(Arrays.asList(new ByteRange(90, 99)), RangeUtil.parseRanges("bytes=-10", 100));
+		assertEquals(Arrays.asList(new ByteRange(50, 99)), RangeUtil.parseRanges("bytes=50-", 100));
+		assertEquals(Arrays.asList(new ByteRange(95, 99)), RangeUtil.parseRanges("bytes=95-200", 100));
+		assertEquals(Arrays.asList(new ByteRange(0, 20), new ByteRange(50, 59)),
+				RangeUtil.parseRanges("bytes=50-59, 0-10, 5-20", 100));
+		assertTrue(RangeUtil.parseRanges("bytes=100-", 100).isEmpty());
+		assertNull(RangeUtil.parseRanges("bytes=9-0", 100));
+		assertNull(RangeUtil.parseRanges("bytes=a-b", 100));
+		assertNull(RangeUtil.parseRanges("lines=0-9", 100));
+	}
+
+	@Test
+	public void testSingleRange() {
+		HttpResponse response = RangeUtil.applyRange(request("bytes=1-3"), HttpResponse.textResponse("abcdef"));
+		assertEquals(ResponseCode.PARTIAL_CONTENT, response.getResponseCode());
+		assertEquals("bcd", new String(response.getContent(), HttpResponse.MAIN_ENCODING));
+		assertEquals(3, response.getContentLength());
+		assertEquals("bytes 1-3/6", response.getHeader(HttpResponse.CONTENT_RANGE_HEADER));
+	}
+
+	@Test
+	public void testMultipleRanges() {
+		HttpResponse response = RangeUtil.applyRange(request("bytes=0-0,-1"), HttpResponse.textResponse("abcdef"));
+		assertEquals(ResponseCode.PARTIAL_CONTENT, response.getResponseCode());
+		assertTrue(response.getContentType().startsWith("multipart/byteranges"));
+		long length = 0;
+		for (HttpResponse part : response.getParts()) {
+			length += part.getContentBuffer().remaining();
+		}
+		assertEquals(length, response.getContentLength());
+	}
+
+	@Test
+	public void testNotSatisfiable() {
+		HttpResponse response = RangeUtil.applyRange(request("bytes=10-"), HttpResponse.textResponse("abcdef"));
+		assertEquals(ResponseCode.RANGE_NOT_SATISFIABLE, response.getResponseCode());
+		assertEquals("bytes */6", response.getHeader(HttpResponse.CONTENT_RANGE_HEADER));
+	}
+
+}